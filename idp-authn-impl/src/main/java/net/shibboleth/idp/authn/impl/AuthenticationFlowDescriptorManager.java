@@ -17,23 +17,44 @@
 
 package net.shibboleth.idp.authn.impl;
 
+import java.security.Principal;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.principal.PrincipalEvalPredicateFactory;
 import net.shibboleth.shared.annotation.constraint.NonnullElements;
+import net.shibboleth.shared.annotation.constraint.Unmodifiable;
+import net.shibboleth.shared.collection.Pair;
 import net.shibboleth.shared.spring.config.IdentifiedComponentManager;
 
 /**
  * Manager of {@link AuthenticationFlowDescriptor} objects.
  * 
+ * <p>Also maintains an index of which managed flows are compatible with a requested principal under a given
+ * predicate factory. Since a flow's supported principals are fixed once configured, the index is populated
+ * on demand and held for the life of the manager, which is replaced whenever its configuration reloads.</p>
+ * 
  * @since 4.1.0
  */
 public class AuthenticationFlowDescriptorManager extends IdentifiedComponentManager<AuthenticationFlowDescriptor> {
 
+    /** Maximum number of requested principals to index, since they are supplied by relying parties. */
+    private static final long MAX_INDEX_SIZE = 1000;
+    
+    /** Compatibility of each managed flow ID, by predicate factory and requested principal. */
+    @Nonnull private final Cache<Pair<PrincipalEvalPredicateFactory,Principal>,Map<String,Boolean>>
+            compatibilityIndex;
+    
     /**
      * Constructor.
      *
@@ -43,6 +64,31 @@ public class AuthenticationFlowDescriptorManager extends IdentifiedComponentMana
     public AuthenticationFlowDescriptorManager(
             @Nullable @NonnullElements final List<AuthenticationFlowDescriptor> freeObjects) {
         super(freeObjects);
+        compatibilityIndex = CacheBuilder.newBuilder().maximumSize(MAX_INDEX_SIZE).build();
+    }
+    
+    /**
+     * Get the compatibility of each managed flow with a requested principal.
+     * 
+     * <p>Flows not present in the result are not managed by this object and must be evaluated directly.</p>
+     * 
+     * @param factory predicate factory for the requested principal's type and operator
+     * @param principal requested principal
+     * 
+     * @return map of flow ID to compatibility
+     * 
+     * @since 5.0.0
+     */
+    @Nonnull @NonnullElements @Unmodifiable public Map<String,Boolean> getCompatibility(
+            @Nonnull final PrincipalEvalPredicateFactory factory, @Nonnull final Principal principal) {
+        
+        return compatibilityIndex.asMap().computeIfAbsent(new Pair<>(factory, principal), key -> {
+            final Map<String,Boolean> compatibility = new HashMap<>();
+            for (final AuthenticationFlowDescriptor descriptor : getComponents()) {
+                compatibility.put(descriptor.getId(), factory.getPredicate(principal).test(descriptor));
+            }
+            return Map.copyOf(compatibility);
+        });
     }
 
-}
\ No newline at end of file
+}
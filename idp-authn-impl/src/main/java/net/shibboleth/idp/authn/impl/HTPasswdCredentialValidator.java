@@ -21,10 +21,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,6 +46,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 
 import net.shibboleth.idp.authn.AbstractUsernamePasswordCredentialValidator;
 import net.shibboleth.idp.authn.AuthnEventIds;
@@ -57,6 +67,11 @@ import net.shibboleth.shared.logic.Constraint;
 /**
  * A password validator that authenticates against Apache htpasswd files.
  * 
+ * <p>File-based resources are checked for changes either on each login or, if a refresh interval is set,
+ * by a background task. Reloaded entries replace the previous set atomically. Successful verifications may
+ * optionally be cached for a short time to avoid repeating expensive hash computations; the cache is keyed
+ * by a keyed hash of the username and password so that neither is held in memory.</p>
+ * 
  * @since 4.0.0
  */
 @ThreadSafeAfterInit
@@ -72,15 +87,35 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
     @Nullable private Resource htPasswdResource;
 
     /** File timestamp. */
-    private long lastModified;
+    private volatile long lastModified;
+    
+    /** In-memory copy of entries, replaced as a whole on reload. */
+    @Nonnull @NonnullElements private volatile Map<String,String> credentialMap;
+    
+    /** Interval between background checks for file changes, or zero to check on each login. */
+    @Nonnull private Duration refreshInterval;
+    
+    /** Maximum number of cached verifications. */
+    private long verificationCacheSize;
+    
+    /** Time to cache a successful verification. */
+    @Nonnull private Duration verificationCacheExpiration;
     
-    /** In-memory copy of entries. */
-    @Nonnull @NonnullElements private final Map<String,String> credentialMap;
+    /** Keyed hash of username and password used to index cached verifications. */
+    @Nullable private HashFunction verificationHash;
+    
+    /** Cache of successful verifications, mapping to the stored value that was matched. */
+    @Nullable private Cache<HashCode,String> verificationCache;
+    
+    /** Background task checking for file changes. */
+    @Nullable private ScheduledExecutorService refreshExecutor;
     
     /** Constructor. */
     public HTPasswdCredentialValidator() {
         lastModified = 0;
-        credentialMap = new ConcurrentHashMap<>();
+        credentialMap = Collections.emptyMap();
+        refreshInterval = Duration.ZERO;
+        verificationCacheExpiration = Duration.ofMinutes(5);
     }
     
     /**
@@ -93,6 +128,52 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
         htPasswdResource = Constraint.isNotNull(resource, "Resource cannot be null");
     }
     
+    /**
+     * Set the interval between background checks of a file-based resource for changes.
+     * 
+     * <p>Defaults to zero, which checks the file on each login.</p>
+     * 
+     * @param interval refresh interval
+     * 
+     * @since 5.0.0
+     */
+    public void setRefreshInterval(@Nonnull final Duration interval) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(interval, "Interval cannot be null");
+        Constraint.isFalse(interval.isNegative(), "Interval cannot be negative");
+        refreshInterval = interval;
+    }
+    
+    /**
+     * Set the maximum number of successful verifications to cache.
+     * 
+     * <p>Defaults to zero, which disables caching.</p>
+     * 
+     * @param size maximum cache size
+     * 
+     * @since 5.0.0
+     */
+    public void setVerificationCacheSize(final long size) {
+        checkSetterPreconditions();
+        verificationCacheSize = Constraint.isGreaterThanOrEqual(0, size, "Cache size cannot be negative");
+    }
+
+    /**
+     * Set the length of time to cache a successful verification.
+     * 
+     * <p>Defaults to 5 minutes.</p>
+     * 
+     * @param expiration cache expiration
+     * 
+     * @since 5.0.0
+     */
+    public void setVerificationCacheExpiration(@Nonnull final Duration expiration) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(expiration, "Expiration cannot be null");
+        Constraint.isFalse(expiration.isNegative() || expiration.isZero(), "Expiration must be positive");
+        verificationCacheExpiration = expiration;
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -105,14 +186,35 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
 
             digester = new StringDigester("SHA1", OutputFormat.BASE64);
             
+            if (htPasswdResource.isFile()) {
+                lastModified = htPasswdResource.lastModified();
+            }
+            
             try (final InputStream is = htPasswdResource.getInputStream()) {
-                credentialMap.putAll(readCredentials(is));
+                credentialMap = readCredentials(is);
             }
 
-            if (htPasswdResource.isFile()) {
-                lastModified = htPasswdResource.lastModified();
-            } else {
+            if (!htPasswdResource.isFile()) {
                 htPasswdResource = null;
+            } else if (!refreshInterval.isZero()) {
+                refreshExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread thread = new Thread(r, "HTPasswdCredentialValidator-" + getId());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                final long interval = refreshInterval.toMillis();
+                refreshExecutor.scheduleWithFixedDelay(this::refreshCredentials, interval, interval,
+                        TimeUnit.MILLISECONDS);
+            }
+            
+            if (verificationCacheSize > 0) {
+                final byte[] key = new byte[32];
+                new SecureRandom().nextBytes(key);
+                verificationHash = Hashing.hmacSha256(key);
+                verificationCache = CacheBuilder.newBuilder()
+                        .maximumSize(verificationCacheSize)
+                        .expireAfterWrite(verificationCacheExpiration)
+                        .build();
             }
             
         } catch (final IOException e) {
@@ -121,6 +223,17 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
             throw new ComponentInitializationException("Error creating digester", e);
         }
     }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+            refreshExecutor = null;
+        }
+        
+        super.doDestroy();
+    }
 
     /** {@inheritDoc} */
     @Override
@@ -130,6 +243,10 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
             @Nullable final WarningHandler warningHandler,
             @Nullable final ErrorHandler errorHandler) throws Exception {
         
+        if (refreshExecutor == null) {
+            refreshCredentials();
+        }
+        
         final String username = usernamePasswordContext.getTransformedUsername();
         
         final String passwd = credentialMap.get(username);
@@ -162,7 +279,7 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
     }
         
     /**
-     * Compare input password to stored value.
+     * Compare input password to stored value, consulting the verification cache if enabled.
      * 
      * @param usernamePasswordContext input context
      * @param storedPassword the stored string
@@ -172,19 +289,49 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
     private boolean authenticate(@Nonnull final UsernamePasswordContext usernamePasswordContext,
             @Nonnull final String storedPassword) {
         
-        refreshCredentials();
+        if (verificationCache == null) {
+            return verify(usernamePasswordContext.getPassword(), storedPassword);
+        }
+        
+        // The stored value is cached as well so that a changed entry invalidates the result.
+        final HashCode key = verificationHash.newHasher()
+                .putString(usernamePasswordContext.getTransformedUsername(), StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(usernamePasswordContext.getPassword(), StandardCharsets.UTF_8)
+                .hash();
+        if (storedPassword.equals(verificationCache.getIfPresent(key))) {
+            log.debug("{} Using cached verification result", getLogPrefix());
+            return true;
+        }
+        
+        if (verify(usernamePasswordContext.getPassword(), storedPassword)) {
+            verificationCache.put(key, storedPassword);
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Compare input password to stored value.
+     * 
+     * @param password input password
+     * @param storedPassword the stored string
+     * 
+     * @return true iff the password matches
+     */
+    private boolean verify(@Nonnull final String password, @Nonnull final String storedPassword) {
         
         // test Apache MD5 variant encrypted password
         if (storedPassword.startsWith("$apr1$")) {
-            if (storedPassword.equals(Md5Crypt.apr1Crypt(usernamePasswordContext.getPassword(), storedPassword))) {
+            if (storedPassword.equals(Md5Crypt.apr1Crypt(password, storedPassword))) {
                 return true;
             }
         } else if (storedPassword.startsWith("{SHA}")) {
-            if (storedPassword.substring("{SHA}".length()).equals(
-                    digester.apply(usernamePasswordContext.getPassword()))) {
+            if (storedPassword.substring("{SHA}".length()).equals(digester.apply(password))) {
                 return true;
             }
-        } else if (storedPassword.equals(Crypt.crypt(usernamePasswordContext.getPassword(), storedPassword))) {
+        } else if (storedPassword.equals(Crypt.crypt(password, storedPassword))) {
             return true;
         }
 
@@ -193,6 +340,8 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
 
     /**
      * Check for file refresh.
+     * 
+     * <p>The new entries replace the old as a whole, so concurrent logins never observe a partial set.</p>
      */
     private void refreshCredentials() {
         if (htPasswdResource == null) {
@@ -203,9 +352,14 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
         try {
             if (htPasswdResource.isFile() && htPasswdResource.exists()
                     && (htPasswdResource.lastModified() > lastModified)) {
-                try (final InputStream is = htPasswdResource.getInputStream()) {
-                    credentialMap.clear();
-                    credentialMap.putAll(readCredentials(is));
+                synchronized (this) {
+                    final long modified = htPasswdResource.lastModified();
+                    if (modified > lastModified) {
+                        try (final InputStream is = htPasswdResource.getInputStream()) {
+                            credentialMap = readCredentials(is);
+                        }
+                        lastModified = modified;
+                    }
                 }
             }
         } catch (final IOException e) {
@@ -250,7 +404,7 @@ public class HTPasswdCredentialValidator extends AbstractUsernamePasswordCredent
         
         log.debug("{} Loaded {} password entries", getLogPrefix(), credentials.size());
         
-        return credentials;
+        return Collections.unmodifiableMap(credentials);
     }
     
 }
\ No newline at end of file
@@ -19,6 +19,8 @@ package net.shibboleth.idp.authn.impl;
 
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -39,10 +41,13 @@ import org.ietf.jgss.GSSException;
 import org.ietf.jgss.GSSManager;
 import org.ietf.jgss.GSSName;
 import org.ietf.jgss.Oid;
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+
 import net.shibboleth.idp.authn.AbstractUsernamePasswordCredentialValidator;
 import net.shibboleth.idp.authn.AuthnEventIds;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
@@ -57,11 +62,21 @@ import net.shibboleth.shared.primitive.StringSupport;
 /**
  * A password validator that authenticates against Kerberos natively, with optional service ticket verification.
  * 
+ * <p>When verifying the KDC, the service credentials loaded from the keytab are cached and reused across
+ * logins, and reloaded once they are older than a configurable lifetime, or after a verification failure
+ * that may signal a key change.</p>
+ * 
  * @since 4.0.0
  */
 @ThreadSafeAfterInit
 public class KerberosCredentialValidator extends AbstractUsernamePasswordCredentialValidator {
     
+    /** Base name of metrics tracking the use of cached service credentials. */
+    @Nonnull @NotEmpty public static final String METRIC_BASE = "net.shibboleth.idp.authn.krb5.serviceCredentials";
+    
+    /** Default lifetime of cached service credentials. */
+    @Nonnull public static final Duration DEFAULT_SERVICE_CREDENTIAL_LIFETIME = Duration.ofHours(1);
+    
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(KerberosCredentialValidator.class);
 
@@ -86,9 +101,16 @@ public class KerberosCredentialValidator extends AbstractUsernamePasswordCredent
     /** JAAS options for server login. */
     @NonnullAfterInit private Map<String,String> serverOptions;
     
+    /** Time to reuse service credentials before reloading them. */
+    @Nonnull private Duration serviceCredentialLifetime;
+    
+    /** Cached service credentials. */
+    @Nullable private volatile ServiceCredentials serviceCredentials;
+    
     /** Constructor. */
     public KerberosCredentialValidator() {
         loginModuleClassName = "com.sun.security.auth.module.Krb5LoginModule";
+        serviceCredentialLifetime = DEFAULT_SERVICE_CREDENTIAL_LIFETIME;
     }
     
     /**
@@ -144,6 +166,22 @@ public class KerberosCredentialValidator extends AbstractUsernamePasswordCredent
         keytabPath = StringSupport.trimOrNull(path);
     }
     
+    /**
+     * Set the length of time to reuse the service credentials used to verify the KDC before reloading them.
+     * 
+     * <p>Defaults to 1 hour. A zero value disables caching, loading the credentials for every login.</p>
+     * 
+     * @param lifetime lifetime of cached service credentials
+     * 
+     * @since 5.0.0
+     */
+    public void setServiceCredentialLifetime(@Nonnull final Duration lifetime) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(lifetime, "Lifetime cannot be null");
+        Constraint.isFalse(lifetime.isNegative(), "Lifetime cannot be negative");
+        serviceCredentialLifetime = lifetime;
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -171,6 +209,18 @@ public class KerberosCredentialValidator extends AbstractUsernamePasswordCredent
         }
     }
     
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        final ServiceCredentials creds = serviceCredentials;
+        serviceCredentials = null;
+        if (creds != null) {
+            creds.logout();
+        }
+        
+        super.doDestroy();
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected Subject doValidate(@Nonnull final ProfileRequestContext profileRequestContext,
@@ -253,16 +303,12 @@ public class KerberosCredentialValidator extends AbstractUsernamePasswordCredent
         
         final Oid mechOid = new Oid("1.2.840.113554.1.2.2");
         
-        LoginModule serverLoginModule = null;
+        final boolean caching = !serviceCredentialLifetime.isZero();
+        ServiceCredentials creds = null;
+        boolean verified = false;
         try {
-            serverLoginModule = (LoginModule) Class.forName(loginModuleClassName).
-                    getDeclaredConstructor().newInstance();
-            final Subject serverSubject = new Subject();
-            serverLoginModule.initialize(serverSubject, null, new HashMap<>(), serverOptions);
-            if (!serverLoginModule.login() || !serverLoginModule.commit()) {
-                serverLoginModule.abort();
-                throw new LoginException("Login module reported failure");
-            }
+            creds = caching ? getServiceCredentials() : loadServiceCredentials();
+            final Subject serverSubject = creds.getSubject();
             
             final GSSManager manager = GSSManager.getInstance();
             
@@ -300,6 +346,7 @@ public class KerberosCredentialValidator extends AbstractUsernamePasswordCredent
             });
             
             context.dispose();
+            verified = true;
             
             log.debug("{} GSS context established between {} and {}", getLogPrefix(), verifiedName, servicePrincipal);
         } catch (final LoginException e) {
@@ -310,8 +357,136 @@ public class KerberosCredentialValidator extends AbstractUsernamePasswordCredent
             }
             throw e;
         } finally {
-            if (serverLoginModule != null) {
-                serverLoginModule.logout();
+            if (creds != null) {
+                if (!caching) {
+                    creds.logout();
+                } else if (!verified) {
+                    // The keytab may have changed, so force a reload on the next attempt.
+                    invalidateServiceCredentials(creds);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get the cached service credentials, reloading them if absent or expired.
+     * 
+     * <p>Concurrent callers that find the cache stale block on a single reload rather than each
+     * loading the keytab.</p>
+     * 
+     * @return service credentials
+     * 
+     * @throws Exception if an error occurs loading the credentials
+     */
+    @Nonnull private ServiceCredentials getServiceCredentials() throws Exception {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        
+        ServiceCredentials creds = serviceCredentials;
+        if (creds == null || creds.isExpired()) {
+            synchronized (this) {
+                creds = serviceCredentials;
+                if (creds == null || creds.isExpired()) {
+                    log.debug("{} Loading service credentials for {}", getLogPrefix(), servicePrincipal);
+                    creds = loadServiceCredentials();
+                    serviceCredentials = creds;
+                    if (registry != null) {
+                        registry.counter(MetricRegistry.name(METRIC_BASE, "refreshes")).inc();
+                    }
+                    return creds;
+                }
+            }
+        }
+        
+        if (registry != null) {
+            registry.counter(MetricRegistry.name(METRIC_BASE, "hits")).inc();
+        }
+        return creds;
+    }
+    
+    /**
+     * Discard cached service credentials if they are still current.
+     * 
+     * <p>The credentials are not logged out, since they may be in use by other logins.</p>
+     * 
+     * @param creds the credentials to discard
+     */
+    private synchronized void invalidateServiceCredentials(@Nonnull final ServiceCredentials creds) {
+        if (serviceCredentials == creds) {
+            serviceCredentials = null;
+        }
+    }
+    
+    /**
+     * Load the service credentials from the keytab.
+     * 
+     * @return service credentials
+     * 
+     * @throws Exception if an error occurs loading the credentials
+     */
+    @Nonnull private ServiceCredentials loadServiceCredentials() throws Exception {
+        final LoginModule serverLoginModule = (LoginModule) Class.forName(loginModuleClassName).
+                getDeclaredConstructor().newInstance();
+        final Subject serverSubject = new Subject();
+        serverLoginModule.initialize(serverSubject, null, new HashMap<>(), serverOptions);
+        if (!serverLoginModule.login() || !serverLoginModule.commit()) {
+            serverLoginModule.abort();
+            throw new LoginException("Login module reported failure");
+        }
+        
+        return new ServiceCredentials(serverLoginModule, serverSubject,
+                Instant.now().plus(serviceCredentialLifetime));
+    }
+    
+    /** Service credentials loaded from a keytab, along with the module that loaded them. */
+    private final class ServiceCredentials {
+        
+        /** Module that loaded the credentials. */
+        @Nonnull private final LoginModule loginModule;
+        
+        /** Subject containing the credentials. */
+        @Nonnull private final Subject subject;
+        
+        /** Time after which the credentials should be reloaded. */
+        @Nonnull private final Instant expiration;
+        
+        /**
+         * Constructor.
+         *
+         * @param module module that loaded the credentials
+         * @param sub subject containing the credentials
+         * @param exp time after which the credentials should be reloaded
+         */
+        private ServiceCredentials(@Nonnull final LoginModule module, @Nonnull final Subject sub,
+                @Nonnull final Instant exp) {
+            loginModule = module;
+            subject = sub;
+            expiration = exp;
+        }
+        
+        /**
+         * Get the subject containing the credentials.
+         * 
+         * @return subject
+         */
+        @Nonnull public Subject getSubject() {
+            return subject;
+        }
+        
+        /**
+         * Get whether the credentials should be reloaded.
+         * 
+         * @return true iff the credentials have expired
+         */
+        public boolean isExpired() {
+            return Instant.now().isAfter(expiration);
+        }
+        
+        /** Log out the module, destroying the credentials. */
+        public void logout() {
+            try {
+                loginModule.logout();
+            } catch (final LoginException e) {
+                log.warn("{} Error logging out service credentials", getLogPrefix(), e);
             }
         }
     }
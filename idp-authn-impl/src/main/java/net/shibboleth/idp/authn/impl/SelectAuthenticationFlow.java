@@ -36,6 +36,7 @@ import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.context.PreferredPrincipalContext;
 import net.shibboleth.idp.authn.context.RequestedPrincipalContext;
 import net.shibboleth.idp.authn.principal.PrincipalEvalPredicate;
+import net.shibboleth.idp.authn.principal.PrincipalEvalPredicateFactory;
 import net.shibboleth.shared.annotation.constraint.NonnullElements;
 
 /**
@@ -89,6 +90,9 @@ public class SelectAuthenticationFlow extends AbstractAuthenticationAction {
     
     /** Tracks a proxy count of zero for the request. */
     private boolean noProxying;
+    
+    /** Optional source of precomputed flow compatibility with requested principals. */
+    @Nullable private AuthenticationFlowDescriptorManager flowDescriptorManager;
 
     /**
      * Get whether SSO should trump explicit relying party requirements preference.
@@ -108,6 +112,19 @@ public class SelectAuthenticationFlow extends AbstractAuthenticationAction {
         checkSetterPreconditions();
         favorSSO = flag;
     }
+    
+    /**
+     * Set a manager of the flow descriptors to consult for precomputed compatibility with requested principals,
+     * avoiding repeated evaluation of each flow against each principal.
+     * 
+     * @param manager flow descriptor manager
+     * 
+     * @since 5.0.0
+     */
+    public void setFlowDescriptorManager(@Nullable final AuthenticationFlowDescriptorManager manager) {
+        checkSetterPreconditions();
+        flowDescriptorManager = manager;
+    }
 
     /** {@inheritDoc} */
     @Override
@@ -430,9 +447,11 @@ public class SelectAuthenticationFlow extends AbstractAuthenticationAction {
                     getLogPrefix(), requestedPrincipalCtx.getOperator(), p.getName());
             final PrincipalEvalPredicate predicate = requestedPrincipalCtx.getPredicate(p);
             if (predicate != null) {
+                final Map<String,Boolean> compatibility = getCompatibility(p);
                 for (final AuthenticationFlowDescriptor descriptor : potentialFlows.values()) {
                     if (!authenticationContext.getIntermediateFlows().containsKey(descriptor.getId())
-                            && predicate.test(descriptor) && descriptor.test(profileRequestContext)) {
+                            && isCompatible(compatibility, predicate, descriptor)
+                            && descriptor.test(profileRequestContext)) {
                         if (!authenticationContext.isPassive() || descriptor.isPassiveAuthenticationSupported()) {
                             if (!noProxying || !descriptor.isProxyScopingEnforced()) {
                                 selectInactiveFlow(profileRequestContext, authenticationContext, descriptor);
@@ -512,9 +531,11 @@ public class SelectAuthenticationFlow extends AbstractAuthenticationAction {
                     p.getName());
             final PrincipalEvalPredicate predicate = requestedPrincipalCtx.getPredicate(p);
             if (predicate != null) {
+                final Map<String,Boolean> compatibility = getCompatibility(p);
                 for (final AuthenticationFlowDescriptor descriptor : potentialFlows.values()) {
                     if (!authenticationContext.getIntermediateFlows().containsKey(descriptor.getId())
-                            && predicate.test(descriptor) && descriptor.test(profileRequestContext)) {
+                            && isCompatible(compatibility, predicate, descriptor)
+                            && descriptor.test(profileRequestContext)) {
                         
                         // Now check for an active result we can use from this flow. Not all results from a flow
                         // will necessarily match the request just because the flow might.
@@ -552,5 +573,38 @@ public class SelectAuthenticationFlow extends AbstractAuthenticationAction {
                     (noProxying ? AuthnEventIds.PROXY_COUNT_EXCEEDED : AuthnEventIds.REQUEST_UNSUPPORTED));
     }
 // Checkstyle: MethodLength|CyclomaticComplexity|ReturnCount ON
+    
+    /**
+     * Get the precomputed compatibility of the managed flows with a requested principal, if available.
+     * 
+     * @param principal requested principal
+     * 
+     * @return map of flow ID to compatibility, or null
+     */
+    @Nullable private Map<String,Boolean> getCompatibility(@Nonnull final Principal principal) {
+        if (flowDescriptorManager == null) {
+            return null;
+        }
+        
+        final PrincipalEvalPredicateFactory factory =
+                requestedPrincipalCtx.getPrincipalEvalPredicateFactoryRegistry().lookup(principal.getClass(),
+                        requestedPrincipalCtx.getOperator());
+        return factory != null ? flowDescriptorManager.getCompatibility(factory, principal) : null;
+    }
+    
+    /**
+     * Check whether a flow is compatible with a requested principal, using precomputed results if possible.
+     * 
+     * @param compatibility precomputed compatibility of managed flows, if any
+     * @param predicate predicate for the requested principal
+     * @param descriptor flow to check
+     * 
+     * @return true iff the flow is compatible
+     */
+    private boolean isCompatible(@Nullable final Map<String,Boolean> compatibility,
+            @Nonnull final PrincipalEvalPredicate predicate, @Nonnull final AuthenticationFlowDescriptor descriptor) {
+        final Boolean compatible = compatibility != null ? compatibility.get(descriptor.getId()) : null;
+        return compatible != null ? compatible : predicate.test(descriptor);
+    }
         
 }
\ No newline at end of file
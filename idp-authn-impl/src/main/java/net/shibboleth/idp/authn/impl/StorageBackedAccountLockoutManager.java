@@ -20,6 +20,11 @@ package net.shibboleth.idp.authn.impl;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
@@ -29,6 +34,7 @@ import org.opensaml.profile.context.ProfileRequestContext;
 import org.opensaml.storage.StorageCapabilities;
 import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageService;
+import org.opensaml.storage.VersionMismatchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +43,7 @@ import net.shibboleth.idp.authn.AccountLockoutManager;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.context.LockoutManagerContext;
 import net.shibboleth.idp.authn.context.UsernamePasswordContext;
+import net.shibboleth.idp.storage.CounterStorageService;
 import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
 import net.shibboleth.shared.annotation.constraint.Positive;
@@ -50,6 +57,11 @@ import net.shibboleth.shared.servlet.HttpServletSupport;
 /**
  * Implementation of {@link AccountLockoutManager} interface that relies on a {@link StorageService}
  * to track lockout state.
+ * 
+ * <p>Counters are incremented atomically, natively if the storage service is a {@link CounterStorageService}
+ * and otherwise with versioned updates. Increments may optionally be combined on each node over a short
+ * window before they are written, in which case {@link #check(ProfileRequestContext)} accounts for
+ * those not yet written by this node.</p>
  */
 public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInitializableComponent
         implements AccountLockoutManager {
@@ -75,11 +87,26 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
     /** Controls whether attempts against locked accounts extend duration. */
     private boolean extendLockoutDuration;
     
+    /** Interval over which increments for the same key are combined before being written. */
+    @Nonnull private Duration aggregationWindow;
+    
+    /** Increments not yet written, by key. */
+    @Nonnull private final Map<String,PendingIncrement> pendingIncrements;
+    
+    /** Writes combined increments. */
+    @Nullable private ScheduledExecutorService flushExecutor;
+    
+    /** Guards writing a key's pending increments against clearing it, so that a stale count is not restored. */
+    @Nonnull private final Object flushLock;
+    
     /** Constructor. */
     public StorageBackedAccountLockoutManager() {
         setMaxAttempts(5);
         setCounterInterval(Duration.ofMinutes(5));
         setLockoutDuration(Duration.ofMinutes(5));
+        aggregationWindow = Duration.ZERO;
+        pendingIncrements = new ConcurrentHashMap<>();
+        flushLock = new Object();
     }
 
     /**
@@ -196,6 +223,23 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         extendLockoutDuration = flag;
     }
     
+    /**
+     * Set the interval over which increments for the same key are combined on this node before being written.
+     * 
+     * <p>Defaults to zero, which writes each increment immediately. A non-zero value reduces storage traffic
+     * when many attempts are made against the same key, at the cost of other nodes seeing them late.</p>
+     * 
+     * @param window aggregation window
+     * 
+     * @since 5.0.0
+     */
+    public void setAggregationWindow(@Nonnull final Duration window) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(window, "Aggregation window cannot be null");
+        Constraint.isFalse(window.isNegative(), "Aggregation window cannot be negative");
+        aggregationWindow = window;
+    }
+    
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -205,6 +249,27 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         } else if (lockoutKeyStrategy == null) {
             throw new ComponentInitializationException("Lockout key strategy cannot be null");
         }
+        
+        if (!aggregationWindow.isZero()) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "AccountLockoutManager-" + getId());
+                thread.setDaemon(true);
+                return thread;
+            });
+            final long window = aggregationWindow.toMillis();
+            flushExecutor.scheduleWithFixedDelay(this::flush, window, window, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdownNow();
+            flushExecutor = null;
+            flush();
+        }
+        
+        super.doDestroy();
     }
     
     /** {@inheritDoc} */
@@ -224,25 +289,35 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             sr = null;
             log.error("Error reading back account lockout state for '{}'", key, e);
         }
-        if (sr == null) {
+        final PendingIncrement pending = pendingIncrements.get(key);
+        if (sr == null && pending == null) {
             log.debug("No lockout record available for '{}'", key);
             return false;
         }
         
         try {
-            // Read counter and check if we've exceeded the limit.
-            final int counter = Integer.parseInt(sr.getValue());
+            // Read counter, adding any increments not yet written, and check if we've exceeded the limit.
+            long counter = 0;
+            long expiration = 0;
+            if (sr != null && (pending == null || sr.getExpiration() >= pending.resetBefore)) {
+                counter = Long.parseLong(sr.getValue());
+                expiration = sr.getExpiration();
+            }
+            if (pending != null) {
+                counter += pending.count;
+                expiration = Math.max(expiration, pending.expiration);
+            }
             if (counter >= maxAttemptsLookupStrategy.apply(profileRequestContext)) {
                 // Recover time of last attempt from the record expiration and find the time elapsed since.
                 // If that's under the lockout duration, we're locked out.
                 final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext).toMillis();
                 final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext).toMillis();
-                final long lastAttempt = sr.getExpiration() - Math.max(lockoutDuration, counterInterval);
+                final long lastAttempt = expiration - Math.max(lockoutDuration, counterInterval);
                 final long timeDifference = System.currentTimeMillis() - lastAttempt;
                 if (timeDifference <= lockoutDuration) {
                     log.info("Lockout threshold reached for '{}', invalid count is {}", key, counter);
                     if (extendLockoutDuration) {
-                        doIncrement(profileRequestContext, key, 10);
+                        addIncrement(profileRequestContext, key);
                     }
                     return true;
                 }
@@ -266,7 +341,7 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             return false;
         }
         
-        return doIncrement(profileRequestContext, key, 10);
+        return addIncrement(profileRequestContext, key);
     }
 
     /** {@inheritDoc} */
@@ -275,7 +350,10 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             final String key = lockoutKeyStrategy.apply(profileRequestContext);
             if (key != null) {
                 log.debug("Clearing lockout state for '{}'", key);
-                storageService.delete(getId(), key);
+                synchronized (flushLock) {
+                    pendingIncrements.remove(key);
+                    storageService.delete(getId(), key);
+                }
                 return true;
             }
             log.warn("No lockout key returned for request");
@@ -285,7 +363,26 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         return false;
     }
     
-// Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Increment the counter for a key, or add to the increments pending for it when aggregating.
+     * 
+     * @param profileRequestContext current profile request context
+     * @param key account lockout key
+     * 
+     * @return true iff successful
+     */
+    private boolean addIncrement(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull @NotEmpty final String key) {
+        if (flushExecutor == null) {
+            return doIncrement(profileRequestContext, key, 10);
+        }
+        
+        final PendingIncrement increment = newIncrement(profileRequestContext, 1);
+        final PendingIncrement pending = pendingIncrements.merge(key, increment, PendingIncrement::add);
+        log.debug("Invalid login count for '{}' has {} pending increment(s)", key, pending.count);
+        return true;
+    }
+    
     /**
      * Implement invalid login attempt counter via storage service, retrying as necessary.
      * 
@@ -297,74 +394,112 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
      */
     protected boolean doIncrement(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull @NotEmpty final String key, final int retries) {
+        return write(key, newIncrement(profileRequestContext, 1), retries);
+    }
 
-        if (retries <= 0) {
-            log.error("Account lockout increment attempts for '{}' exceeded retry limit", key);
-            return false;
-        }
-        
-        // Read back account record, initializing counter to zero otherwise.
-        log.debug("Reading account lockout data for '{}'", key);
-        
-        int counter = 0;
-        StorageRecord<?> sr = null;
-        try {
-            sr = storageService.read(getId(), key);
-            if (sr != null) {
-                counter = Integer.parseInt(sr.getValue());
-            }
-        } catch (final IOException e) {
-            sr = null;
-            counter = 0;
-            log.error("Error reading back account lockout state for '{}'", key, e);
-        } catch (final NumberFormatException e) {
-            sr = null;
-            counter = 0;
-            log.error("Error converting lockout data for '{}' into integer", key, e);
-        }
-        
+    /**
+     * Build an increment of the counter made now.
+     * 
+     * @param profileRequestContext current profile request context
+     * @param count amount to add
+     * 
+     * @return the increment
+     */
+    @Nonnull private PendingIncrement newIncrement(@Nonnull final ProfileRequestContext profileRequestContext,
+            final long count) {
         final long now = System.currentTimeMillis();
         final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext).toMillis();
         final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext).toMillis();
         
-        // Compute last access time by backing off from record expiration.
-        long lastAccess = now;
-        if (sr != null) {
-            lastAccess = sr.getExpiration() - Math.max(lockoutDuration, counterInterval);
+        // Expiration is set to the longer of the two settings to ensure the record hangs around, so the
+        // time of the last attempt is recovered by backing off from it. If that's more than the counter
+        // interval ago, the counter is zeroed.
+        final long expiration = now + Math.max(lockoutDuration, counterInterval);
+        return new PendingIncrement(count, expiration, expiration - counterInterval);
+    }
+    
+    /** Write the increments pending for all keys. */
+    private void flush() {
+        try {
+            for (final String key : pendingIncrements.keySet()) {
+                synchronized (flushLock) {
+                    final PendingIncrement pending = pendingIncrements.remove(key);
+                    if (pending != null) {
+                        write(key, pending, 10);
+                    }
+                }
+            }
+        } catch (final RuntimeException e) {
+            log.error("Error writing pending account lockout increments", e);
         }
+    }
+
+// Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Add to the counter for a key, natively if supported and otherwise via versioned updates.
+     * 
+     * @param key account lockout key
+     * @param increment increment to apply
+     * @param retries number of attempts to allow
+     * 
+     * @return true iff successful
+     */
+    private boolean write(@Nonnull @NotEmpty final String key, @Nonnull final PendingIncrement increment,
+            final int retries) {
         
-        // If difference between now and last access exceeds the counter interval, zero it.
-        if (now - lastAccess > counterInterval) {
-            counter = 0;
+        if (storageService instanceof CounterStorageService) {
+            try {
+                final long counter = ((CounterStorageService) storageService).increment(getId(), key,
+                        increment.count, increment.expiration, increment.resetBefore);
+                log.debug("Invalid login count for '{}' is now {}, expiring at {}", key, counter,
+                        Instant.ofEpochMilli(increment.expiration));
+                return true;
+            } catch (final IOException e) {
+                log.error("Unable to increment account lockout record for '{}'", key, e);
+                return false;
+            }
         }
-            
-        // Increment, and set expiration to longer of the two settings to ensure it hangs around.
-        ++counter;
-        final long expiration = System.currentTimeMillis() + Math.max(lockoutDuration, counterInterval);
-
-        log.debug("Invalid login count for '{}' will be {}, expiring at {}", key, counter,
-                Instant.ofEpochMilli(expiration));
-
-        // Create or update as required. Retry on errors.
-        if (sr == null) {
+        
+        for (int attempt = 0; attempt < retries; ++attempt) {
+            // Read back account record, initializing counter to zero if absent or stale.
+            log.debug("Reading account lockout data for '{}'", key);
+            long counter = 0;
+            StorageRecord<?> sr = null;
             try {
-                if (storageService.create(getId(), key, Integer.toString(counter), expiration)) {
-                    return true;
+                sr = storageService.read(getId(), key);
+                if (sr != null && sr.getExpiration() >= increment.resetBefore) {
+                    counter = Long.parseLong(sr.getValue());
                 }
             } catch (final IOException e) {
-                log.error("Unable to create account lockout record for '{}'", key, e);
+                log.error("Error reading back account lockout state for '{}'", key, e);
+                continue;
+            } catch (final NumberFormatException e) {
+                log.error("Error converting lockout data for '{}' into integer", key, e);
             }
-        } else {
+            
+            counter += increment.count;
+            log.debug("Invalid login count for '{}' will be {}, expiring at {}", key, counter,
+                    Instant.ofEpochMilli(increment.expiration));
+            
+            // Create or update as required, retrying if another update intervenes.
             try {
-                if (storageService.update(getId(), key, Integer.toString(counter), expiration)) {
+                if (sr == null) {
+                    if (storageService.create(getId(), key, Long.toString(counter), increment.expiration)) {
+                        return true;
+                    }
+                } else if (storageService.updateWithVersion(sr.getVersion(), getId(), key, Long.toString(counter),
+                        increment.expiration) != null) {
                     return true;
                 }
+            } catch (final VersionMismatchException e) {
+                log.debug("Account lockout record for '{}' was updated concurrently, retrying", key);
             } catch (final IOException e) {
-                log.error("Unable to update account lockout record for '{}'", key, e);
+                log.error("Unable to write account lockout record for '{}'", key, e);
             }
         }
         
-        return doIncrement(profileRequestContext, key, retries-1);
+        log.error("Account lockout increment attempts for '{}' exceeded retry limit", key);
+        return false;
     }
 // Checkstyle: CyclomaticComplexity ON
     
@@ -438,4 +573,43 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         }
     }
 
+    /** One or more increments of a counter, not yet written. */
+    private static final class PendingIncrement {
+        
+        /** Amount to add. */
+        private final long count;
+        
+        /** Expiration of the counter after the latest increment. */
+        private final long expiration;
+        
+        /** Restart the counter if it expires before this time. */
+        private final long resetBefore;
+        
+        /**
+         * Constructor.
+         *
+         * @param amount amount to add
+         * @param exp expiration of the counter
+         * @param reset restart the counter if it expires before this time
+         */
+        PendingIncrement(final long amount, final long exp, final long reset) {
+            count = amount;
+            expiration = exp;
+            resetBefore = reset;
+        }
+        
+        /**
+         * Combine a later increment with this one.
+         * 
+         * <p>Whether to restart the counter is decided by the earliest increment.</p>
+         * 
+         * @param later later increment
+         * 
+         * @return combined increment
+         */
+        @Nonnull PendingIncrement add(@Nonnull final PendingIncrement later) {
+            return new PendingIncrement(count + later.count, Math.max(expiration, later.expiration), resetBefore);
+        }
+    }
+
 }
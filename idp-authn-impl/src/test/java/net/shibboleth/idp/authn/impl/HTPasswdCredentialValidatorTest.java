@@ -17,6 +17,10 @@
 
 package net.shibboleth.idp.authn.impl;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.Principal;
 import java.util.Collection;
 import java.util.Collections;
@@ -326,6 +330,52 @@ public class HTPasswdCredentialValidatorTest extends BaseAuthenticationContextTe
                 .next().getName(), "test1");
     }
     
+    @Test public void testReloadWithCache() throws Exception {
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("username", "PETER_THE_PRINCIPAL2");
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("password", "changeit");
+
+        final AuthenticationContext ac = prc.getSubcontext(AuthenticationContext.class);
+        ac.setAttemptedFlow(authenticationFlows.get(0));
+
+        final File file = File.createTempFile("htpasswd", ".txt");
+        try {
+            Files.copy(new File(DATA_PATH + "htpasswd.txt").toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            
+            validator.setResource(new FileSystemResource(file));
+            validator.setVerificationCacheSize(10);
+            validator.initialize();
+    
+            doExtract();
+    
+            Assert.assertNotNull(validator.validate(prc, ac, null, null));
+            Assert.assertNotNull(validator.validate(prc, ac, null, null));
+            
+            // Wrong password must not be satisfied by the cache.
+            ac.getSubcontext(UsernamePasswordContext.class).setPassword("bar");
+            try {
+                validator.validate(prc, ac, null, null);
+                Assert.fail("Login should have failed with wrong password");
+            } catch (final LoginException e) {
+                Assert.assertEquals(e.getMessage(), AuthnEventIds.INVALID_CREDENTIALS);
+            }
+            ac.getSubcontext(UsernamePasswordContext.class).setPassword("changeit");
+            
+            // Remove the user, and ensure the change is noticed despite the cached result.
+            Files.write(file.toPath(), "PETER_THE_PRINCIPAL3:fhGkPZphLLGwE\n".getBytes(StandardCharsets.UTF_8));
+            file.setLastModified(System.currentTimeMillis() + 10000);
+            try {
+                validator.validate(prc, ac, null, null);
+                Assert.fail("Login should have failed after user was removed");
+            } catch (final LoginException e) {
+                Assert.assertEquals(e.getMessage(), AuthnEventIds.UNKNOWN_USERNAME);
+            }
+        } finally {
+            validator.destroy();
+            file.delete();
+        }
+    }
+    
     private void doExtract() throws ComponentInitializationException {
         final ExtractUsernamePasswordFromFormRequest extract = new ExtractUsernamePasswordFromFormRequest();
         extract.setHttpServletRequestSupplier(action.getHttpServletRequestSupplier());
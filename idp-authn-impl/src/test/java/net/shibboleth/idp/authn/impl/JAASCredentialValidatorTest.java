@@ -22,6 +22,8 @@ import static org.testng.Assert.assertEquals;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.Principal;
 import java.util.Arrays;
 import java.util.Collection;
@@ -321,6 +323,42 @@ public class JAASCredentialValidatorTest extends BaseAuthenticationContextTest {
                 .next().getName(), "PETER_THE_PRINCIPAL");
     }
 
+    @Test public void testReload() throws Exception {
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("username", "PETER_THE_PRINCIPAL");
+        ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("password", "changeit");
+
+        final AuthenticationContext ac = prc.getSubcontext(AuthenticationContext.class);
+        ac.setAttemptedFlow(authenticationFlows.get(0));
+
+        final File config = File.createTempFile("jaas", ".config");
+        try {
+            final String original = new String(Files.readAllBytes(new File(DATA_PATH + "jaas.config").toPath()),
+                    StandardCharsets.UTF_8);
+            Files.write(config.toPath(), original.getBytes(StandardCharsets.UTF_8));
+            
+            validator.setLoginConfigType("JavaLoginConfig");
+            validator.setLoginConfigParameters(config.toURI());
+            validator.initialize();
+    
+            doExtract();
+    
+            Assert.assertNotNull(validator.validate(prc, ac, null, null));
+            Assert.assertNotNull(validator.validate(prc, ac, null, null));
+            
+            // Point the configuration at a dead server, and ensure the change is noticed.
+            Files.write(config.toPath(), original.replace("10389", "10390").getBytes(StandardCharsets.UTF_8));
+            config.setLastModified(System.currentTimeMillis() + 10000);
+            try {
+                validator.validate(prc, ac, null, null);
+                Assert.fail("Login should have failed with modified configuration");
+            } catch (final LoginException e) {
+                
+            }
+        } finally {
+            config.delete();
+        }
+    }
+
     @Test public void testSupported() throws ComponentInitializationException {
         ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("username", "PETER_THE_PRINCIPAL");
         ((MockHttpServletRequest) action.getHttpServletRequest()).addParameter("password", "changeit");
@@ -21,6 +21,7 @@ import java.security.Principal;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.security.auth.Subject;
 
@@ -271,6 +272,34 @@ public class SelectAuthenticationFlowTest extends BaseAuthenticationContextTest
         Assert.assertEquals(active, authCtx.getAuthenticationResult());
     }
 
+    @Test public void testRequestIndexed() throws ComponentInitializationException {
+        final AuthenticationContext authCtx = prc.getSubcontext(AuthenticationContext.class);
+        final List<Principal> principals = Arrays.<Principal>asList(new TestPrincipal("test3"),
+                new TestPrincipal("test2"));
+        final ExactPrincipalEvalPredicateFactory factory = new ExactPrincipalEvalPredicateFactory();
+        final RequestedPrincipalContext rpc = new RequestedPrincipalContext();
+        rpc.getPrincipalEvalPredicateFactoryRegistry().register(TestPrincipal.class, "exact", factory);
+        rpc.setOperator("exact");
+        rpc.setRequestedPrincipals(principals);
+        authCtx.addSubcontext(rpc, true);
+        authCtx.getPotentialFlows().get("test2").setSupportedPrincipals(Collections.singletonList(principals.get(1)));
+        authCtx.getPotentialFlows().get("test3").setSupportedPrincipals(Collections.singletonList(principals.get(0)));
+        
+        final AuthenticationFlowDescriptorManager manager =
+                new AuthenticationFlowDescriptorManager(authenticationFlows);
+        
+        action = new SelectAuthenticationFlow();
+        action.setFlowDescriptorManager(manager);
+        action.initialize();
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertEvent(event, "test3");
+        Assert.assertEquals(authCtx.getAttemptedFlow().getId(), "test3");
+        
+        final Map<String,Boolean> compatibility = manager.getCompatibility(factory, principals.get(1));
+        Assert.assertEquals(compatibility, Map.of("test1", false, "test2", true, "test3", false));
+        Assert.assertSame(manager.getCompatibility(factory, new TestPrincipal("test2")), compatibility);
+    }
+
     @Test public void testRequestFavorSSO() throws ComponentInitializationException {
         final AuthenticationContext authCtx = prc.getSubcontext(AuthenticationContext.class);
         final List<Principal> principals = Arrays.<Principal>asList(new TestPrincipal("test3"),
@@ -18,8 +18,14 @@
 package net.shibboleth.idp.authn.impl;
 
 
+import java.io.IOException;
 import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nonnull;
+
+import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.impl.MemoryStorageService;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.testng.Assert;
@@ -31,6 +37,7 @@ import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.context.UsernamePasswordContext;
 import net.shibboleth.idp.authn.impl.StorageBackedAccountLockoutManager.UsernameIPLockoutKeyStrategy;
 import net.shibboleth.idp.authn.impl.testing.BaseAuthenticationContextTest;
+import net.shibboleth.idp.storage.CounterStorageService;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.testing.ConstantSupplier;
 
@@ -46,22 +53,29 @@ public class StorageBackedAccountLockoutManagerTest extends BaseAuthenticationCo
         ss.setId("test");
         ss.initialize();
         
-        final UsernameIPLockoutKeyStrategy keyStrategy = new UsernameIPLockoutKeyStrategy();
-        final HttpServletRequest request = (HttpServletRequest) src.getExternalContext().getNativeRequest();
-        keyStrategy.setHttpServletRequestSupplier(new ConstantSupplier<>(request));
-        manager = new StorageBackedAccountLockoutManager();
-        manager.setId("test");
-        manager.setStorageService(ss);
-        manager.setLockoutKeyStrategy(keyStrategy);
-        manager.setMaxAttempts(3);
-        manager.setCounterInterval(Duration.ofSeconds(3));
-        manager.setLockoutDuration(Duration.ofSeconds(5));
-        manager.initialize();
+        manager = newManager(ss, Duration.ZERO);
         
         ((MockHttpServletRequest) src.getExternalContext().getNativeRequest()).setRemoteAddr("192.168.1.1");
         prc.getSubcontext(AuthenticationContext.class).getSubcontext(UsernamePasswordContext.class, true).setUsername("jdoe");
     }
 
+    private StorageBackedAccountLockoutManager newManager(final MemoryStorageService ss, final Duration window)
+            throws ComponentInitializationException {
+        final UsernameIPLockoutKeyStrategy keyStrategy = new UsernameIPLockoutKeyStrategy();
+        final HttpServletRequest request = (HttpServletRequest) src.getExternalContext().getNativeRequest();
+        keyStrategy.setHttpServletRequestSupplier(new ConstantSupplier<>(request));
+        final StorageBackedAccountLockoutManager result = new StorageBackedAccountLockoutManager();
+        result.setId("test");
+        result.setStorageService(ss);
+        result.setLockoutKeyStrategy(keyStrategy);
+        result.setMaxAttempts(3);
+        result.setCounterInterval(Duration.ofSeconds(3));
+        result.setLockoutDuration(Duration.ofSeconds(5));
+        result.setAggregationWindow(window);
+        result.initialize();
+        return result;
+    }
+
     @Test public void noKey() {
         prc.getSubcontext(AuthenticationContext.class).clearSubcontexts();
         Assert.assertFalse(manager.check(prc));
@@ -112,4 +126,117 @@ public class StorageBackedAccountLockoutManagerTest extends BaseAuthenticationCo
         Assert.assertFalse(manager.check(prc));
     }
 
+    @Test public void counterStorage() throws ComponentInitializationException, IOException {
+        final CountingStorageService ss = new CountingStorageService();
+        ss.setId("test");
+        ss.initialize();
+        manager = newManager(ss, Duration.ZERO);
+        
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertFalse(manager.check(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.check(prc));
+        Assert.assertEquals(ss.increments, 3);
+        Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "3");
+        Assert.assertTrue(manager.clear(prc));
+        Assert.assertFalse(manager.check(prc));
+    }
+
+    @Test public void aggregated() throws ComponentInitializationException, IOException {
+        final MemoryStorageService ss = new MemoryStorageService();
+        ss.setId("test");
+        ss.initialize();
+        manager = newManager(ss, Duration.ofHours(1));
+        
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertFalse(manager.check(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.check(prc));
+        Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+        
+        manager.destroy();
+        Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "3");
+    }
+
+    @Test public void aggregatedClear() throws ComponentInitializationException, IOException {
+        final MemoryStorageService ss = new MemoryStorageService();
+        ss.setId("test");
+        ss.initialize();
+        manager = newManager(ss, Duration.ofHours(1));
+        
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.check(prc));
+        Assert.assertTrue(manager.clear(prc));
+        Assert.assertFalse(manager.check(prc));
+        
+        manager.destroy();
+        Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+    }
+
+    @Test public void aggregatedClearDuringFlush() throws Exception {
+        final BlockingStorageService ss = new BlockingStorageService();
+        ss.setId("test");
+        ss.initialize();
+        manager = newManager(ss, Duration.ofMillis(50));
+        
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(ss.entered.await(5, TimeUnit.SECONDS));
+        
+        // Clear while the flush is part way through writing the increment it took.
+        final Thread clearer = new Thread(() -> manager.clear(prc));
+        clearer.start();
+        Thread.sleep(100);
+        ss.proceed.countDown();
+        clearer.join(5000);
+        
+        Assert.assertFalse(clearer.isAlive());
+        Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+        Assert.assertFalse(manager.check(prc));
+        manager.destroy();
+    }
+
+    private static class CountingStorageService extends MemoryStorageService implements CounterStorageService {
+
+        private int increments;
+
+        /** {@inheritDoc} */
+        public synchronized long increment(@Nonnull final String context, @Nonnull final String key,
+                final long delta, final long expiration, final long resetBefore) throws IOException {
+            ++increments;
+            final StorageRecord<?> record = read(context, key);
+            if (record == null || record.getExpiration() < resetBefore) {
+                delete(context, key);
+                create(context, key, Long.toString(delta), expiration);
+                return delta;
+            }
+            final long counter = Long.parseLong(record.getValue()) + delta;
+            update(context, key, Long.toString(counter), expiration);
+            return counter;
+        }
+    }
+
+    private static class BlockingStorageService extends CountingStorageService {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private final CountDownLatch proceed = new CountDownLatch(1);
+
+        /** {@inheritDoc} */
+        @Override
+        public long increment(@Nonnull final String context, @Nonnull final String key,
+                final long delta, final long expiration, final long resetBefore) throws IOException {
+            entered.countDown();
+            try {
+                proceed.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                throw new IOException(e);
+            }
+            return super.increment(context, key, delta, expiration, resetBefore);
+        }
+    }
+
 }
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.Subject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.impl.DefaultAuthenticationResultSerializer;
+import net.shibboleth.idp.authn.principal.GenericPrincipalSerializer;
+import net.shibboleth.idp.authn.principal.GenericPrincipalService;
+import net.shibboleth.idp.authn.principal.IdPAttributePrincipal;
+import net.shibboleth.idp.authn.principal.PrincipalServiceManager;
+import net.shibboleth.idp.authn.principal.SimplePrincipalSerializer;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.authn.principal.impl.IdPAttributePrincipalSerializer;
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Serialization of {@link AuthenticationResult} records by {@link DefaultAuthenticationResultSerializer}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthenticationResultSerializationBenchmark {
+
+    /** Record context. */
+    private static final String CONTEXT = "_5e5b3a7c2c0a4cd8ec0d0f8d6a7c2b4f";
+
+    /** Record key. */
+    private static final String KEY = "authn/Password";
+
+    /** Serializer under test. */
+    private DefaultAuthenticationResultSerializer serializer;
+
+    /** Result to serialize. */
+    private AuthenticationResult result;
+
+    /** Serialized form of {@link #result}. */
+    private String serialized;
+
+    /** Record expiration. */
+    private long expiration;
+
+    /**
+     * Build the fixtures.
+     * 
+     * @throws ComponentInitializationException if a component fails to initialize
+     * @throws IOException if serialization fails
+     */
+    @Setup public void setUp() throws ComponentInitializationException, IOException {
+        final SimplePrincipalSerializer<UsernamePrincipal> upSerializer =
+                new SimplePrincipalSerializer<>(UsernamePrincipal.class, "U");
+        upSerializer.initialize();
+        final GenericPrincipalService<UsernamePrincipal> upService =
+                new GenericPrincipalService<>(UsernamePrincipal.class, upSerializer);
+        upService.setId("username");
+        upService.initialize();
+
+        final IdPAttributePrincipalSerializer attrSerializer = new IdPAttributePrincipalSerializer();
+        attrSerializer.initialize();
+        final GenericPrincipalService<IdPAttributePrincipal> attrService =
+                new GenericPrincipalService<>(IdPAttributePrincipal.class, attrSerializer);
+        attrService.setId("attr");
+        attrService.initialize();
+
+        final GenericPrincipalSerializer generic = new GenericPrincipalSerializer();
+        generic.initialize();
+        serializer = new DefaultAuthenticationResultSerializer(
+                new PrincipalServiceManager(List.of(upService, attrService)), generic);
+        serializer.initialize();
+
+        final IdPAttribute affiliation = new IdPAttribute("eduPersonAffiliation");
+        affiliation.setValues(List.of(new StringAttributeValue("member"), new StringAttributeValue("staff")));
+        final IdPAttribute mail = new IdPAttribute("mail");
+        mail.setValues(List.of(new StringAttributeValue("jdoe@example.org")));
+
+        result = new AuthenticationResult(KEY, new Subject());
+        result.getSubject().getPrincipals().add(new UsernamePrincipal("jdoe@example.org"));
+        result.getSubject().getPrincipals().add(new IdPAttributePrincipal(affiliation));
+        result.getSubject().getPrincipals().add(new IdPAttributePrincipal(mail));
+        result.setLastActivityInstant(Instant.now());
+
+        serialized = serializer.serialize(result);
+        expiration = Instant.now().plusSeconds(3600).toEpochMilli();
+    }
+
+    /**
+     * Serialize the result.
+     * 
+     * @return the serialized form
+     * @throws IOException if serialization fails
+     */
+    @Benchmark public String serialize() throws IOException {
+        return serializer.serialize(result);
+    }
+
+    /**
+     * Deserialize the result.
+     * 
+     * @return the result
+     * @throws IOException if deserialization fails
+     */
+    @Benchmark public AuthenticationResult deserialize() throws IOException {
+        return serializer.deserialize(1, CONTEXT, KEY, serialized, expiration);
+    }
+
+}
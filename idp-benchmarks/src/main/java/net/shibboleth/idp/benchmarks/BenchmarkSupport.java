@@ -0,0 +1,123 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.security.KeyException;
+import java.security.SecureRandom;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.BinaryDecoder;
+import org.apache.commons.codec.BinaryEncoder;
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.storage.impl.MemoryStorageService;
+
+import net.shibboleth.shared.collection.Pair;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.security.DataSealer;
+import net.shibboleth.shared.security.DataSealerKeyStrategy;
+
+/**
+ * Fixture helpers shared by the benchmark suites.
+ */
+public final class BenchmarkSupport {
+
+    /** Constructor. */
+    private BenchmarkSupport() {
+        
+    }
+
+    /**
+     * Initialize OpenSAML, which is idempotent and safe to call from every suite.
+     * 
+     * @throws InitializationException if initialization fails
+     */
+    public static void initializeOpenSAML() throws InitializationException {
+        InitializationService.initialize();
+    }
+    
+    /**
+     * Build an initialized in-memory storage service.
+     * 
+     * @param id component ID
+     * 
+     * @return the storage service
+     * @throws ComponentInitializationException if initialization fails
+     */
+    @Nonnull public static MemoryStorageService newStorageService(@Nonnull final String id)
+            throws ComponentInitializationException {
+        final MemoryStorageService storage = new MemoryStorageService();
+        storage.setId(id);
+        storage.initialize();
+        return storage;
+    }
+
+    /**
+     * Build an initialized {@link DataSealer} with a random key, avoiding the need for a keystore.
+     * 
+     * @param encoder optional encoder to use
+     * @param decoder optional decoder to use
+     * 
+     * @return the data sealer
+     * @throws ComponentInitializationException if initialization fails
+     */
+    @Nonnull public static DataSealer newDataSealer(@Nullable final BinaryEncoder encoder,
+            @Nullable final BinaryDecoder decoder) throws ComponentInitializationException {
+        final DataSealer sealer = new DataSealer();
+        sealer.setKeyStrategy(new RandomKeyStrategy());
+        if (encoder != null) {
+            sealer.setEncoder(encoder);
+        }
+        if (decoder != null) {
+            sealer.setDecoder(decoder);
+        }
+        sealer.initialize();
+        return sealer;
+    }
+
+    /**
+     * {@link DataSealerKeyStrategy} that supplies a single random AES key.
+     */
+    private static final class RandomKeyStrategy implements DataSealerKeyStrategy {
+
+        /** The key. */
+        @Nonnull private final SecretKey key;
+
+        /** Constructor. */
+        RandomKeyStrategy() {
+            final byte[] bytes = new byte[32];
+            new SecureRandom().nextBytes(bytes);
+            key = new SecretKeySpec(bytes, "AES");
+        }
+
+        /** {@inheritDoc} */
+        @Nonnull public Pair<String,SecretKey> getDefaultKey() throws KeyException {
+            return new Pair<>("default", key);
+        }
+
+        /** {@inheritDoc} */
+        @Nonnull public SecretKey getKey(@Nonnull final String name) throws KeyException {
+            return key;
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base32;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.shibboleth.idp.cas.ticket.ServiceTicket;
+import net.shibboleth.idp.cas.ticket.TicketState;
+import net.shibboleth.idp.cas.ticket.impl.EncodingTicketService;
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Issuance and validation of stateless service tickets by {@link EncodingTicketService}.
+ * 
+ * <p>Each round trip redeems a freshly issued ticket, since a ticket may only be redeemed once.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodingTicketServiceBenchmark {
+
+    /** Service URL. */
+    private static final String SERVICE = "https://app.example.org/cas/login?target=%2Fhome";
+
+    /** Ticket service under test. */
+    private EncodingTicketService ticketService;
+
+    /** Ticket state to encode. */
+    private TicketState state;
+
+    /**
+     * Build the fixtures.
+     * 
+     * @throws ComponentInitializationException if a component fails to initialize
+     */
+    @Setup public void setUp() throws ComponentInitializationException {
+        final Base32 codec = new Base32(0, null, false, (byte) '-');
+        ticketService = new EncodingTicketService(BenchmarkSupport.newStorageService("benchmark"),
+                BenchmarkSupport.newDataSealer(codec, codec));
+        state = new TicketState("_5e5b3a7c2c0a4cd8ec0d0f8d6a7c2b4f", "jdoe",
+                Instant.now().truncatedTo(ChronoUnit.MILLIS), "authn/Password");
+    }
+
+    /**
+     * Issue a ticket.
+     * 
+     * @return the ticket
+     */
+    @Benchmark public ServiceTicket encode() {
+        return ticketService.createServiceTicket("ST", Instant.now().plusSeconds(15), SERVICE, state, false);
+    }
+
+    /**
+     * Issue and redeem a ticket.
+     * 
+     * @return the redeemed ticket
+     */
+    @Benchmark public ServiceTicket roundTrip() {
+        final ServiceTicket st =
+                ticketService.createServiceTicket("ST", Instant.now().plusSeconds(15), SERVICE, state, false);
+        return ticketService.removeServiceTicket(st.getId());
+    }
+
+}
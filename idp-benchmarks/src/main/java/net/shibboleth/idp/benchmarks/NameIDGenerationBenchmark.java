@@ -0,0 +1,170 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.common.SAMLException;
+import org.opensaml.saml.saml2.core.NameID;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.attribute.context.AttributeContext;
+import net.shibboleth.idp.attribute.impl.ComputedPairwiseIdStore;
+import net.shibboleth.idp.authn.context.SubjectContext;
+import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.idp.profile.testing.RequestContextBuilder;
+import net.shibboleth.idp.saml.nameid.impl.CryptoTransientIdGenerationStrategy;
+import net.shibboleth.idp.saml.nameid.impl.PersistentSAML2NameIDGenerator;
+import net.shibboleth.idp.saml.nameid.impl.StoredTransientIdGenerationStrategy;
+import net.shibboleth.idp.saml.nameid.impl.TransientIdGenerationStrategy;
+import net.shibboleth.idp.saml.nameid.impl.TransientSAML2NameIDGenerator;
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Generation of transient (storage-backed and encrypted) and computed persistent SAML 2 NameIDs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NameIDGenerationBenchmark {
+
+    /** Salt for computed IDs. */
+    private static final byte[] SALT = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+    /** Request to generate for. */
+    private ProfileRequestContext prc;
+
+    /** Storage-backed transient generator. */
+    private TransientSAML2NameIDGenerator storedTransient;
+
+    /** Encrypted transient generator. */
+    private TransientSAML2NameIDGenerator cryptoTransient;
+
+    /** Computed persistent generator. */
+    private PersistentSAML2NameIDGenerator computedPersistent;
+
+    /**
+     * Build the fixtures.
+     * 
+     * @throws ComponentInitializationException if a component fails to initialize
+     * @throws InitializationException if OpenSAML fails to initialize
+     */
+    @Setup public void setUp() throws ComponentInitializationException, InitializationException {
+        BenchmarkSupport.initializeOpenSAML();
+
+        prc = new RequestContextBuilder()
+                .setInboundMessageIssuer("https://sp.example.org/shibboleth")
+                .setOutboundMessageIssuer("https://idp.example.org/idp/shibboleth")
+                .buildProfileRequestContext();
+        prc.getSubcontext(SubjectContext.class, true).setPrincipalName("jdoe");
+        final IdPAttribute source = new IdPAttribute("uid");
+        source.setValues(List.of(new StringAttributeValue("jdoe")));
+        prc.getSubcontext(RelyingPartyContext.class).getSubcontext(AttributeContext.class, true)
+                .setUnfilteredIdPAttributes(Collections.singleton(source));
+
+        final StoredTransientIdGenerationStrategy storedStrategy = new StoredTransientIdGenerationStrategy();
+        storedStrategy.setId("stored");
+        storedStrategy.setIdStore(BenchmarkSupport.newStorageService("transient"));
+        storedStrategy.initialize();
+        storedTransient = newTransientGenerator("stored", storedStrategy);
+
+        final CryptoTransientIdGenerationStrategy cryptoStrategy = new CryptoTransientIdGenerationStrategy();
+        cryptoStrategy.setId("crypto");
+        cryptoStrategy.setDataSealer(BenchmarkSupport.newDataSealer(null, null));
+        cryptoStrategy.initialize();
+        cryptoTransient = newTransientGenerator("crypto", cryptoStrategy);
+
+        final ComputedPairwiseIdStore store = new ComputedPairwiseIdStore();
+        store.setSalt(SALT);
+        store.initialize();
+        computedPersistent = new PersistentSAML2NameIDGenerator();
+        computedPersistent.setId("persistent");
+        computedPersistent.setPersistentIdStore(store);
+        computedPersistent.setAttributeSourceIds(List.of("uid"));
+        computedPersistent.initialize();
+    }
+
+    /**
+     * Generate a storage-backed transient ID.
+     * 
+     * @return the NameID
+     * @throws SAMLException if generation fails
+     */
+    @Benchmark public NameID storedTransient() throws SAMLException {
+        return storedTransient.generate(prc, NameID.TRANSIENT);
+    }
+
+    /**
+     * Generate an encrypted transient ID.
+     * 
+     * @return the NameID
+     * @throws SAMLException if generation fails
+     */
+    @Benchmark public NameID cryptoTransient() throws SAMLException {
+        return cryptoTransient.generate(prc, NameID.TRANSIENT);
+    }
+
+    /**
+     * Generate a computed persistent ID.
+     * 
+     * @return the NameID
+     * @throws SAMLException if generation fails
+     */
+    @Benchmark public NameID computedPersistent() throws SAMLException {
+        return computedPersistent.generate(prc, NameID.PERSISTENT);
+    }
+
+    /**
+     * Build a transient NameID generator around a strategy.
+     * 
+     * @param id component ID
+     * @param strategy transient ID strategy
+     * 
+     * @return the generator
+     * @throws ComponentInitializationException if a component fails to initialize
+     */
+    private static TransientSAML2NameIDGenerator newTransientGenerator(final String id,
+            final TransientIdGenerationStrategy strategy)
+                    throws ComponentInitializationException {
+        final TransientSAML2NameIDGenerator generator = new TransientSAML2NameIDGenerator();
+        generator.setId(id);
+        generator.setFormat(NameID.TRANSIENT);
+        generator.setTransientIdGenerator(strategy);
+        generator.initialize();
+        return generator;
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.profile.context.ProfileRequestContext;
+
+import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.idp.profile.logic.RelyingPartyIdPredicate;
+import net.shibboleth.idp.profile.testing.RequestContextBuilder;
+import net.shibboleth.idp.relyingparty.RelyingPartyConfiguration;
+import net.shibboleth.idp.relyingparty.impl.DefaultRelyingPartyConfigurationResolver;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.resolver.ResolverException;
+
+/**
+ * Resolution by {@link DefaultRelyingPartyConfigurationResolver#resolveSingle(ProfileRequestContext)} against
+ * a list of overrides activated by relying party ID, for a requester matching the last override and for
+ * one that falls through to the default.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RelyingPartyConfigurationResolverBenchmark {
+
+    /** Number of overrides. */
+    @Param({"10", "500"}) public int overrides;
+
+    /** Resolver under test. */
+    private DefaultRelyingPartyConfigurationResolver resolver;
+
+    /** Request from the relying party matched by the last override. */
+    private ProfileRequestContext matchingRequest;
+
+    /** Request from a relying party with no override. */
+    private ProfileRequestContext defaultRequest;
+
+    /**
+     * Build the fixtures.
+     * 
+     * @throws ComponentInitializationException if a component fails to initialize
+     */
+    @Setup public void setUp() throws ComponentInitializationException {
+        final List<RelyingPartyConfiguration> configs = new ArrayList<>(overrides);
+        for (int i = 0; i < overrides; ++i) {
+            final RelyingPartyConfiguration config = new RelyingPartyConfiguration();
+            config.setId("override" + i);
+            config.setResponderId("https://idp.example.org/idp/shibboleth");
+            config.setActivationCondition(
+                    RelyingPartyIdPredicate.fromCandidates(List.of(spEntityId(i), spEntityId(i) + "/alt")));
+            config.initialize();
+            configs.add(config);
+        }
+
+        final RelyingPartyConfiguration anonymous = new RelyingPartyConfiguration();
+        anonymous.setId("anonymous");
+        anonymous.setResponderId("https://idp.example.org/idp/shibboleth");
+        anonymous.initialize();
+
+        final RelyingPartyConfiguration defaultConfig = new RelyingPartyConfiguration();
+        defaultConfig.setId("default");
+        defaultConfig.setResponderId("https://idp.example.org/idp/shibboleth");
+        defaultConfig.initialize();
+
+        resolver = new DefaultRelyingPartyConfigurationResolver();
+        resolver.setId("benchmark");
+        resolver.setRelyingPartyConfigurations(configs);
+        resolver.setUnverifiedConfiguration(anonymous);
+        resolver.setDefaultConfiguration(defaultConfig);
+        resolver.initialize();
+
+        matchingRequest = buildRequest(spEntityId(overrides - 1));
+        defaultRequest = buildRequest("https://unknown.example.org/shibboleth");
+    }
+
+    /**
+     * Resolve for a requester with an override.
+     * 
+     * @return the configuration
+     * @throws ResolverException if resolution fails
+     */
+    @Benchmark public RelyingPartyConfiguration resolveOverride() throws ResolverException {
+        return resolver.resolveSingle(matchingRequest);
+    }
+
+    /**
+     * Resolve for a requester without an override.
+     * 
+     * @return the configuration
+     * @throws ResolverException if resolution fails
+     */
+    @Benchmark public RelyingPartyConfiguration resolveDefault() throws ResolverException {
+        return resolver.resolveSingle(defaultRequest);
+    }
+
+    /**
+     * Get the entityID of a numbered service.
+     * 
+     * @param index service number
+     * 
+     * @return the entityID
+     */
+    private static String spEntityId(final int index) {
+        return "https://sp" + index + ".example.org/shibboleth";
+    }
+
+    /**
+     * Build a verified request from a given relying party.
+     * 
+     * @param relyingPartyId relying party
+     * 
+     * @return the request
+     * @throws ComponentInitializationException if a component fails to initialize
+     */
+    private static ProfileRequestContext buildRequest(final String relyingPartyId)
+            throws ComponentInitializationException {
+        final ProfileRequestContext prc =
+                new RequestContextBuilder().setInboundMessageIssuer(relyingPartyId).buildProfileRequestContext();
+        prc.getSubcontext(RelyingPartyContext.class).setVerified(true);
+        return prc;
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.context.AuthenticationContext;
+import net.shibboleth.idp.authn.context.RequestedPrincipalContext;
+import net.shibboleth.idp.authn.impl.PopulateAuthenticationContext;
+import net.shibboleth.idp.authn.impl.SelectAuthenticationFlow;
+import net.shibboleth.idp.authn.principal.impl.ExactPrincipalEvalPredicateFactory;
+import net.shibboleth.idp.authn.testing.TestPrincipal;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.idp.profile.testing.RequestContextBuilder;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.FunctionSupport;
+
+/**
+ * Flow selection by {@link SelectAuthenticationFlow} when a specific principal is requested and only the
+ * last of the available flows supports it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SelectAuthenticationFlowBenchmark {
+
+    /** Number of available flows. */
+    @Param({"3", "20"}) public int flows;
+
+    /** Action under test. */
+    private SelectAuthenticationFlow action;
+
+    /** Request to operate on. */
+    private RequestContext src;
+
+    /** Authentication state to reset between operations. */
+    private AuthenticationContext authnContext;
+
+    /**
+     * Build the fixtures.
+     * 
+     * @throws ComponentInitializationException if a component fails to initialize
+     */
+    @Setup public void setUp() throws ComponentInitializationException {
+        final List<AuthenticationFlowDescriptor> descriptors = new ArrayList<>(flows);
+        for (int i = 0; i < flows; ++i) {
+            final AuthenticationFlowDescriptor descriptor = new AuthenticationFlowDescriptor();
+            descriptor.setId("authn/Flow" + i);
+            descriptor.setSupportedPrincipals(
+                    List.<Principal>of(new TestPrincipal("shared"), new TestPrincipal("class" + i)));
+            descriptors.add(descriptor);
+        }
+
+        src = new RequestContextBuilder().buildRequestContext();
+        final ProfileRequestContext prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+        authnContext = prc.getSubcontext(AuthenticationContext.class, true);
+
+        final PopulateAuthenticationContext populate = new PopulateAuthenticationContext();
+        populate.setAvailableFlows(descriptors);
+        populate.setPotentialFlowsLookupStrategy(FunctionSupport.constant(descriptors));
+        populate.initialize();
+        populate.execute(src);
+
+        final RequestedPrincipalContext rpc = authnContext.getSubcontext(RequestedPrincipalContext.class, true);
+        rpc.getPrincipalEvalPredicateFactoryRegistry().register(
+                TestPrincipal.class, "exact", new ExactPrincipalEvalPredicateFactory());
+        rpc.setOperator("exact");
+        rpc.setRequestedPrincipals(List.<Principal>of(new TestPrincipal("class" + (flows - 1))));
+
+        action = new SelectAuthenticationFlow();
+        action.initialize();
+    }
+
+    /**
+     * Select a flow.
+     * 
+     * @return the event signaling the selected flow
+     */
+    @Benchmark public Event select() {
+        authnContext.setAttemptedFlow(null);
+        authnContext.getIntermediateFlows().clear();
+        return action.execute(src);
+    }
+
+}
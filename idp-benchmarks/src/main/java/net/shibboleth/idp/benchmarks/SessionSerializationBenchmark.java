@@ -0,0 +1,146 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.SPSessionSerializerRegistry;
+import net.shibboleth.idp.session.impl.StorageBackedIdPSession;
+import net.shibboleth.idp.session.impl.StorageBackedIdPSessionSerializer;
+import net.shibboleth.idp.session.impl.StorageBackedSessionManager;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.net.CookieManager;
+import net.shibboleth.shared.security.IdentifierGenerationStrategy;
+import net.shibboleth.shared.security.IdentifierGenerationStrategy.ProviderType;
+import net.shibboleth.shared.servlet.impl.ThreadLocalHttpServletRequestSupplier;
+import net.shibboleth.shared.servlet.impl.ThreadLocalHttpServletResponseSupplier;
+
+/**
+ * Serialization of the primary IdP session record by {@link StorageBackedIdPSessionSerializer},
+ * comparing the JSON and compact formats.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionSerializationBenchmark {
+
+    /** Record context. */
+    private static final String CONTEXT = "_5e5b3a7c2c0a4cd8ec0d0f8d6a7c2b4f";
+
+    /** Record key. */
+    private static final String KEY = "_session";
+
+    /** Whether to write the compact format. */
+    @Param({"false", "true"}) public boolean compact;
+
+    /** Number of SP sessions in the session. */
+    @Param({"1", "10"}) public int services;
+
+    /** Serializer under test. */
+    private StorageBackedIdPSessionSerializer serializer;
+
+    /** Session to serialize. */
+    private StorageBackedIdPSession session;
+
+    /** Serialized form of {@link #session}. */
+    private String serialized;
+
+    /** Record expiration. */
+    private long expiration;
+
+    /**
+     * Build the fixtures.
+     * 
+     * @throws ComponentInitializationException if a component fails to initialize
+     * @throws IOException if serialization fails
+     */
+    @Setup public void setUp() throws ComponentInitializationException, IOException {
+        final CookieManager cookieManager = new CookieManager();
+        cookieManager.setHttpServletRequestSupplier(new ThreadLocalHttpServletRequestSupplier());
+        cookieManager.setHttpServletResponseSupplier(new ThreadLocalHttpServletResponseSupplier());
+        cookieManager.initialize();
+
+        final StorageBackedSessionManager manager = new StorageBackedSessionManager();
+        manager.setId("benchmark");
+        manager.setStorageService(BenchmarkSupport.newStorageService("benchmark"));
+        manager.setIDGenerator(IdentifierGenerationStrategy.getInstance(ProviderType.SECURE));
+        manager.setCookieManager(cookieManager);
+        manager.setTrackSPSessions(true);
+        manager.setCompactSerialization(compact);
+        manager.setSPSessionSerializerRegistry(new SPSessionSerializerRegistry());
+        manager.initialize();
+
+        final Instant now = Instant.now();
+        session = new StorageBackedIdPSession(manager, CONTEXT, "jdoe@example.org", now);
+        session.doBindToAddress("192.168.1.1");
+        session.doAddAuthenticationResult(
+                new AuthenticationResult("authn/Password", new UsernamePrincipal("jdoe@example.org")));
+        session.doAddAuthenticationResult(
+                new AuthenticationResult("authn/MFA", new UsernamePrincipal("jdoe@example.org")));
+        for (int i = 0; i < services; ++i) {
+            session.doAddSPSession(
+                    new BasicSPSession("https://sp" + i + ".example.org/shibboleth", now, now.plusSeconds(7200)));
+        }
+
+        serializer = new StorageBackedIdPSessionSerializer(manager, null);
+        serializer.initialize();
+        serialized = serializer.serialize(session);
+        expiration = now.plusSeconds(3600).toEpochMilli();
+    }
+
+    /**
+     * Serialize the session.
+     * 
+     * @return the serialized form
+     * @throws IOException if serialization fails
+     */
+    @Benchmark public String serialize() throws IOException {
+        return serializer.serialize(session);
+    }
+
+    /**
+     * Deserialize the session.
+     * 
+     * @return the session
+     * @throws IOException if deserialization fails
+     */
+    @Benchmark public StorageBackedIdPSession deserialize() throws IOException {
+        return serializer.deserialize(1, CONTEXT, KEY, serialized, expiration);
+    }
+
+}
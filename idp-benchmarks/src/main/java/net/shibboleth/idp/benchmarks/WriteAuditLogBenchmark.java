@@ -0,0 +1,148 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import net.shibboleth.idp.profile.audit.impl.WriteAuditLog;
+import net.shibboleth.idp.profile.context.AuditContext;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.idp.profile.testing.RequestContextBuilder;
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Formatting of an audit record by {@link WriteAuditLog} using the default "Shibboleth-Audit" format.
+ * 
+ * <p>The audit category is logged below the configured threshold, so this measures the cost of building
+ * the record rather than of writing it.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteAuditLogBenchmark {
+
+    /** Default audit format. */
+    private static final String FORMAT =
+            "%a|%ST|%T|%u|%SP|%i|%ac|%t|%attr|%n|%f|%SSO|%XX|%XA|%b|%bb|%e|%S|%SS|%s|%UA";
+
+    /** Output format to produce. */
+    @Param({"TEXT", "JSON"})
+    public WriteAuditLog.OutputFormat format;
+
+    /** Action under test. */
+    private BlackholeAuditLog action;
+
+    /** Request to operate on. */
+    private RequestContext src;
+
+    /**
+     * Build the fixtures.
+     * 
+     * @throws ComponentInitializationException if a component fails to initialize
+     */
+    @Setup public void setUp() throws ComponentInitializationException {
+        src = new RequestContextBuilder().buildRequestContext();
+        final ProfileRequestContext prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+
+        final AuditContext ac = prc.getSubcontext(AuditContext.class, true);
+        ac.getFieldValues("ST").add("2023-01-01T00:00:00Z");
+        ac.getFieldValues("u").add("jdoe");
+        ac.getFieldValues("SP").add("https://sp.example.org/shibboleth");
+        ac.getFieldValues("i").add("_8d94a5b0e1f7c2a6b3e4f5a6b7c8d9e0");
+        ac.getFieldValues("ac").add("urn:oasis:names:tc:SAML:2.0:ac:classes:PasswordProtectedTransport");
+        ac.getFieldValues("t").add("2023-01-01T00:00:00Z");
+        ac.getFieldValues("attr").add("uid");
+        ac.getFieldValues("attr").add("mail");
+        ac.getFieldValues("attr").add("eduPersonPrincipalName");
+        ac.getFieldValues("attr").add("eduPersonScopedAffiliation");
+        ac.getFieldValues("n").add("AAdzZWNyZXQxnV3ZC3lUQ0J1WmRXNUxEdWhSbkNxUmFxcFpGb2dvN3I4");
+        ac.getFieldValues("f").add("urn:oasis:names:tc:SAML:2.0:nameid-format:transient");
+        ac.getFieldValues("SSO").add("true");
+        ac.getFieldValues("XX").add("false");
+        ac.getFieldValues("XA").add("true");
+        ac.getFieldValues("b").add("urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect");
+        ac.getFieldValues("bb").add("urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST");
+        ac.getFieldValues("S").add("urn:oasis:names:tc:SAML:2.0:status:Success");
+        ac.getFieldValues("s").add("_5e5b3a7c2c0a4cd8ec0d0f8d6a7c2b4f");
+
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("192.168.1.1");
+        request.addHeader("User-Agent", "Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0");
+        request.setServerName("idp.example.org");
+        request.setServerPort(443);
+        request.setScheme("https");
+        request.setRequestURI("/idp/profile/SAML2/Redirect/SSO");
+
+        action = new BlackholeAuditLog();
+        action.setHttpServletRequestSupplier(() -> request);
+        action.setFormattingMap(Map.of("Shibboleth-Audit", FORMAT));
+        action.setOutputFormat(format);
+        action.initialize();
+    }
+
+    /**
+     * Format an audit record.
+     * 
+     * @param blackhole sink for the record
+     * 
+     * @return the event signaled
+     */
+    @Benchmark public Event format(@Nonnull final Blackhole blackhole) {
+        action.blackhole = blackhole;
+        return action.execute(src);
+    }
+
+    /**
+     * Subclass that hands the formatted record to JMH so it cannot be optimized away.
+     */
+    private static final class BlackholeAuditLog extends WriteAuditLog {
+
+        /** Sink for the record. */
+        private Blackhole blackhole;
+
+        /** {@inheritDoc} */
+        @Override
+        protected void filter(@Nonnull final StringBuilder entry) {
+            blackhole.consume(entry);
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * JMH microbenchmarks for code paths exercised on every request.
+ * 
+ * <p>Each suite builds its fixtures with in-memory storage and, where a request is involved, with
+ * {@link net.shibboleth.idp.profile.testing.RequestContextBuilder}, so no network or external
+ * services are needed. Build with the <code>benchmarks</code> profile and run the resulting
+ * <code>benchmarks.jar</code>; add <code>-prof gc</code> to report allocation per operation and
+ * <code>-rf json</code> to produce machine-readable results.</p>
+ */
+package net.shibboleth.idp.benchmarks;
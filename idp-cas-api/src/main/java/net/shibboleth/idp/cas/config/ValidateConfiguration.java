@@ -20,12 +20,15 @@ package net.shibboleth.idp.cas.config;
 import java.time.Duration;
 import java.util.Comparator;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.opensaml.profile.context.ProfileRequestContext;
 
+import com.google.common.base.Predicates;
+
 import net.shibboleth.idp.cas.service.DefaultServiceComparator;
 import net.shibboleth.idp.cas.ticket.TicketIdentifierGenerationStrategy;
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
@@ -57,6 +60,9 @@ public class ValidateConfiguration extends AbstractProtocolConfiguration {
     /** Default ticket length (random part). */
     public static final int DEFAULT_TICKET_LENGTH = 50;
 
+    /** Default time to wait for an asynchronous proxy callback. */
+    @Nonnull public static final Duration DEFAULT_PROXY_CALLBACK_TIMEOUT = Duration.ofSeconds(10);
+
     /** Lookup strategy for PGTIOU ticket ID generator. */
     @Nonnull private Function<ProfileRequestContext,IdentifierGenerationStrategy> pgtIOUGeneratorLookupStrategy;
 
@@ -69,6 +75,12 @@ public class ValidateConfiguration extends AbstractProtocolConfiguration {
     /** Lookup strategy for Name of IdP attribute to use for user returned in CAS ticket validation response. */
     @Nonnull private Function<ProfileRequestContext,String> userAttributeLookupStrategy;
 
+    /** Whether to authenticate the proxy callback concurrently with the rest of the validation. */
+    @Nonnull private Predicate<ProfileRequestContext> asynchronousProxyCallbackPredicate;
+
+    /** Lookup strategy for time to wait for an asynchronous proxy callback. */
+    @Nonnull private Function<ProfileRequestContext,Duration> proxyCallbackTimeoutLookupStrategy;
+
     /** Creates a new instance. */
     public ValidateConfiguration() {
         super(PROFILE_ID);
@@ -82,6 +94,9 @@ public class ValidateConfiguration extends AbstractProtocolConfiguration {
         
         defaultPGTIOUGenerator = new TicketIdentifierGenerationStrategy("PGTIOU", 50);
         pgtIOUGeneratorLookupStrategy = FunctionSupport.constant(defaultPGTIOUGenerator);
+        
+        asynchronousProxyCallbackPredicate = Predicates.alwaysFalse();
+        proxyCallbackTimeoutLookupStrategy = FunctionSupport.constant(DEFAULT_PROXY_CALLBACK_TIMEOUT);
     }
 
     /**
@@ -188,6 +203,83 @@ public class ValidateConfiguration extends AbstractProtocolConfiguration {
         userAttributeLookupStrategy = Constraint.isNotNull(strategy, "Lookup strategy cannot be null");
     }
     
+    /**
+     * Get whether to authenticate the proxy callback concurrently with the rest of the validation.
+     * 
+     * @param profileRequestContext current profile request context
+     * 
+     * @return true iff the proxy callback should be authenticated asynchronously
+     * 
+     * @since 5.0.0
+     */
+    public boolean isAsynchronousProxyCallback(@Nullable final ProfileRequestContext profileRequestContext) {
+        return asynchronousProxyCallbackPredicate.test(profileRequestContext);
+    }
+
+    /**
+     * Set whether to authenticate the proxy callback concurrently with the rest of the validation.
+     * 
+     * @param flag flag to set
+     * 
+     * @since 5.0.0
+     */
+    public void setAsynchronousProxyCallback(final boolean flag) {
+        asynchronousProxyCallbackPredicate = flag ? Predicates.alwaysTrue() : Predicates.alwaysFalse();
+    }
+
+    /**
+     * Set condition for whether to authenticate the proxy callback concurrently with the rest of the validation.
+     * 
+     * @param condition condition to set
+     * 
+     * @since 5.0.0
+     */
+    public void setAsynchronousProxyCallbackPredicate(@Nonnull final Predicate<ProfileRequestContext> condition) {
+        asynchronousProxyCallbackPredicate = Constraint.isNotNull(condition, "Condition cannot be null");
+    }
+
+    /**
+     * Get the time to wait for an asynchronous proxy callback before abandoning it.
+     * 
+     * @param profileRequestContext current profile request context
+     * 
+     * @return proxy callback timeout
+     * 
+     * @since 5.0.0
+     */
+    @Nonnull public Duration getProxyCallbackTimeout(@Nullable final ProfileRequestContext profileRequestContext) {
+        final Duration timeout = proxyCallbackTimeoutLookupStrategy.apply(profileRequestContext);
+        Constraint.isNotNull(timeout, "Proxy callback timeout cannot be null");
+        Constraint.isFalse(timeout.isNegative() || timeout.isZero(), "Proxy callback timeout must be greater than 0");
+        return timeout;
+    }
+
+    /**
+     * Set the time to wait for an asynchronous proxy callback before abandoning it.
+     * 
+     * @param timeout proxy callback timeout
+     * 
+     * @since 5.0.0
+     */
+    public void setProxyCallbackTimeout(@Nonnull final Duration timeout) {
+        Constraint.isNotNull(timeout, "Proxy callback timeout cannot be null");
+        Constraint.isFalse(timeout.isNegative() || timeout.isZero(), "Proxy callback timeout must be greater than 0");
+        
+        proxyCallbackTimeoutLookupStrategy = FunctionSupport.constant(timeout);
+    }
+
+    /**
+     * Set a lookup strategy for the time to wait for an asynchronous proxy callback.
+     * 
+     * @param strategy lookup strategy
+     * 
+     * @since 5.0.0
+     */
+    public void setProxyCallbackTimeoutLookupStrategy(
+            @Nonnull final Function<ProfileRequestContext,Duration> strategy) {
+        proxyCallbackTimeoutLookupStrategy = Constraint.isNotNull(strategy, "Lookup strategy cannot be null");
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nonnull @NotEmpty protected String getDefaultTicketPrefix() {
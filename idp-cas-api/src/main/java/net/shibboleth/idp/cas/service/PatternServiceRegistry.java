@@ -17,19 +17,27 @@
 
 package net.shibboleth.idp.cas.service;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.shibboleth.shared.annotation.constraint.NonNegative;
 import net.shibboleth.shared.annotation.constraint.NonnullElements;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
 import net.shibboleth.shared.component.AbstractIdentifiableInitializableComponent;
 import net.shibboleth.shared.logic.Constraint;
 
@@ -37,6 +45,12 @@ import net.shibboleth.shared.logic.Constraint;
  * Service registry that evaluates a candidate service URL against one or more defined services, where each
  * definition contains a service URL regular expression pattern.
  *
+ * <p>The first definition, in the order supplied, whose pattern matches the service URL is used. To avoid
+ * evaluating every pattern, each one is indexed by the literal prefix it must match (typically the scheme, host,
+ * and some of the path), and only the patterns whose prefix is a prefix of the service URL are evaluated. Patterns
+ * without a usable literal prefix are always evaluated. Recent results are cached by service URL; the cache
+ * belongs to this instance, so a reload of the registry discards it.</p>
+ *
  * <p>NOTE: This class will become an implementation component in the next major software version.</p>
  *
  * @author Marvin S. Addison
@@ -44,13 +58,35 @@ import net.shibboleth.shared.logic.Constraint;
 public class PatternServiceRegistry extends AbstractIdentifiableInitializableComponent
         implements ServiceRegistry {
 
+    /** Name of the timer measuring lookups. */
+    @Nonnull @NotEmpty public static final String LOOKUP_TIMER = "net.shibboleth.idp.timers.cas.serviceLookup";
+
+    /** Default size of the lookup cache. */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /** Cached value denoting no matching definition. */
+    @Nonnull private static final Integer NO_MATCH = -1;
+
+    /** Characters ending a literal prefix. */
+    @Nonnull private static final String METACHARACTERS = ".[]()*+?{}|^$";
+
+    /** Characters that make the preceding literal optional or repeated. */
+    @Nonnull private static final String QUANTIFIERS = "*+?{";
+
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(PatternServiceRegistry.class);
 
-    /** Map of service definitions to compiled patterns. */
-    @Nonnull
-    @NonnullElements
-    private Map<ServiceDefinition, Pattern> definitions = Collections.emptyMap();
+    /** Compiled and indexed service definitions. */
+    @Nonnull private ServiceIndex index;
+
+    /** Cache of service URL to position of the matching definition, or null. */
+    @Nullable private Cache<String,Integer> lookupCache;
+
+    /** Constructor. */
+    public PatternServiceRegistry() {
+        index = new ServiceIndex(List.of());
+        setCacheSize(DEFAULT_CACHE_SIZE);
+    }
 
     /**
      * Sets the list of service definitions that back the registry.
@@ -60,25 +96,184 @@ public class PatternServiceRegistry extends AbstractIdentifiableInitializableCom
      */
     public void setDefinitions(@Nonnull @NonnullElements final List<ServiceDefinition> serviceDefinitions) {
         Constraint.noNullItems(serviceDefinitions, "Definitions cannot be null or contain null items");
-        // Preserve order of services in map
-        definitions = new LinkedHashMap<>(serviceDefinitions.size());
-        for (final ServiceDefinition definition : serviceDefinitions) {
-            definitions.put(definition, Pattern.compile(definition.getId()));
+        index = new ServiceIndex(serviceDefinitions);
+        if (lookupCache != null) {
+            lookupCache.invalidateAll();
         }
     }
 
+    /**
+     * Set the maximum number of service URLs whose result is cached.
+     * 
+     * <p>Defaults to {@link #DEFAULT_CACHE_SIZE}, 0 disables the cache.</p>
+     * 
+     * @param size cache size
+     * 
+     * @since 5.0.0
+     */
+    public void setCacheSize(@NonNegative final int size) {
+        checkSetterPreconditions();
+        Constraint.isGreaterThanOrEqual(0, size, "Cache size cannot be negative");
+        
+        lookupCache = size > 0 ? CacheBuilder.newBuilder().maximumSize(size).build() : null;
+    }
+
     @Override
     @Nullable
     public Service lookup(@Nonnull final String serviceURL) {
         Constraint.isNotNull(serviceURL, "Service URL cannot be null");
-        for (final ServiceDefinition def : definitions.keySet()) {
-            log.debug("Evaluating whether {} matches {}", serviceURL, def);
-            if (definitions.get(def).matcher(serviceURL).matches()) {
-                log.debug("Found match");
-                return new Service(serviceURL, def.getGroup(), def.isAuthorizedToProxy(),
-                        def.isSingleLogoutParticipant());
+        
+        final long start = System.nanoTime();
+        final ServiceIndex current = index;
+        Integer position = lookupCache != null ? lookupCache.getIfPresent(serviceURL) : null;
+        if (position == null) {
+            position = current.find(serviceURL);
+            if (lookupCache != null) {
+                lookupCache.put(serviceURL, position);
+            }
+        } else {
+            log.debug("Using cached result for {}", serviceURL);
+        }
+
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry != null) {
+            registry.timer(LOOKUP_TIMER).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        
+        if (position < 0) {
+            return null;
+        }
+        
+        final ServiceDefinition def = current.definitions[position];
+        return new Service(serviceURL, def.getGroup(), def.isAuthorizedToProxy(), def.isSingleLogoutParticipant());
+    }
+
+    /**
+     * Extract the literal prefix that any string matched by a regular expression must begin with.
+     * 
+     * <p>The result is conservative: it may be shorter than the true prefix, down to the empty string for
+     * expressions that can't be analyzed, such as those using alternation at the top level or a leading group.</p>
+     * 
+     * @param regex regular expression
+     * 
+     * @return the literal prefix
+     */
+    @Nonnull static String literalPrefix(@Nonnull final String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return "";
+            }
+        }
+        
+        final StringBuilder prefix = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            final char literal;
+            final int next;
+            if (c == '\\') {
+                // Only escaped punctuation is a literal; escaped letters and digits are constructs.
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    break;
+                }
+                literal = regex.charAt(i + 1);
+                next = i + 2;
+            } else if (METACHARACTERS.indexOf(c) >= 0) {
+                break;
+            } else {
+                literal = c;
+                next = i + 1;
+            }
+            if (next < regex.length() && QUANTIFIERS.indexOf(regex.charAt(next)) >= 0) {
+                break;
+            }
+            prefix.append(literal);
+            i = next;
+        }
+        return prefix.toString();
+    }
+
+    /** Definitions and patterns in declaration order, indexed by literal prefix. */
+    private final class ServiceIndex {
+
+        /** Service definitions. */
+        @Nonnull private final ServiceDefinition[] definitions;
+
+        /** Compiled patterns, one per definition. */
+        @Nonnull private final Pattern[] patterns;
+
+        /** Root of the prefix trie. */
+        @Nonnull private final IndexNode root;
+
+        /**
+         * Constructor.
+         *
+         * @param serviceDefinitions service definitions in order
+         */
+        ServiceIndex(@Nonnull @NonnullElements final List<ServiceDefinition> serviceDefinitions) {
+            definitions = serviceDefinitions.toArray(new ServiceDefinition[0]);
+            patterns = new Pattern[definitions.length];
+            root = new IndexNode();
+            for (int i = 0; i < definitions.length; i++) {
+                patterns[i] = Pattern.compile(definitions[i].getId());
+                IndexNode node = root;
+                for (final char c : literalPrefix(definitions[i].getId()).toCharArray()) {
+                    node = node.children.computeIfAbsent(c, k -> new IndexNode());
+                }
+                node.definitions.set(i);
+            }
+        }
+
+        /**
+         * Find the first definition matching a service URL.
+         *
+         * @param serviceURL service URL
+         *
+         * @return position of the definition, or -1
+         */
+        @Nonnull Integer find(@Nonnull final String serviceURL) {
+            final BitSet candidates = new BitSet(definitions.length);
+            IndexNode node = root;
+            candidates.or(node.definitions);
+            for (int i = 0; i < serviceURL.length(); i++) {
+                node = node.children.get(serviceURL.charAt(i));
+                if (node == null) {
+                    break;
+                }
+                candidates.or(node.definitions);
+            }
+            
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                log.debug("Evaluating whether {} matches {}", serviceURL, definitions[i]);
+                if (patterns[i].matcher(serviceURL).matches()) {
+                    log.debug("Found match");
+                    return i;
+                }
             }
+            return NO_MATCH;
         }
-        return null;
+    }
+
+    /** Node of the prefix trie. */
+    private static final class IndexNode {
+
+        /** Child nodes by next character. */
+        @Nonnull private final Map<Character,IndexNode> children = new HashMap<>();
+
+        /** Positions of definitions whose prefix ends at this node. */
+        @Nonnull private final BitSet definitions = new BitSet();
     }
 }
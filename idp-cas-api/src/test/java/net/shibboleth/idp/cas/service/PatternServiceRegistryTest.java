@@ -70,4 +70,49 @@ public class PatternServiceRegistryTest {
             assertEquals(actual.isAuthorizedToProxy(), expected.isAuthorizedToProxy());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals(PatternServiceRegistry.literalPrefix("https://([A-Za-z0-9_-]+\\.)*example\\.org(:\\d+)?/.*"),
+                "https://");
+        assertEquals(PatternServiceRegistry.literalPrefix("^https://trusted\\.example\\.org/.*"),
+                "https://trusted.example.org/");
+        assertEquals(PatternServiceRegistry.literalPrefix("https?://example\\.org/.*"), "http");
+        assertEquals(PatternServiceRegistry.literalPrefix("https://example\\.org\\d+"), "https://example.org");
+        assertEquals(PatternServiceRegistry.literalPrefix("https://a\\.org/.*|https://b\\.org/.*"), "");
+        assertEquals(PatternServiceRegistry.literalPrefix("(?i)https://example\\.org/.*"), "");
+    }
+
+    @Test
+    public void testOrderAcrossPrefixes() {
+        final ServiceDefinition d1 = new ServiceDefinition("https://app\\.example\\.org/secure/.*");
+        d1.setGroup("secure");
+        final ServiceDefinition d2 = new ServiceDefinition(".*example\\.org.*");
+        d2.setGroup("catch-all");
+        final ServiceDefinition d3 = new ServiceDefinition("https://app\\.example\\.org/.*");
+        d3.setGroup("app");
+
+        final PatternServiceRegistry registry = new PatternServiceRegistry();
+        registry.setDefinitions(Arrays.asList(d1, d2, d3));
+        assertEquals(registry.lookup("https://app.example.org/secure/x").getGroup(), "secure");
+        assertEquals(registry.lookup("https://app.example.org/public").getGroup(), "catch-all");
+        assertNull(registry.lookup("https://app.example.com/public"));
+
+        registry.setDefinitions(Arrays.asList(d3, d1));
+        assertEquals(registry.lookup("https://app.example.org/secure/x").getGroup(), "app");
+        assertNull(registry.lookup("https://app.example.org"));
+    }
+
+    @Test
+    public void testNoCache() {
+        final ServiceDefinition d1 = new ServiceDefinition("https://app\\.example\\.org/.*");
+        d1.setGroup("app");
+
+        final PatternServiceRegistry registry = new PatternServiceRegistry();
+        registry.setCacheSize(0);
+        registry.setDefinitions(List.of(d1));
+        assertEquals(registry.lookup("https://app.example.org/").getGroup(), "app");
+        assertEquals(registry.lookup("https://app.example.org/").getGroup(), "app");
+        assertNull(registry.lookup("http://app.example.org/"));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cas.flow.impl;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.profile.action.ActionSupport;
+import org.opensaml.profile.action.EventException;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.idp.cas.config.ConfigLookupFunction;
+import net.shibboleth.idp.cas.config.ValidateConfiguration;
+import net.shibboleth.idp.cas.protocol.ProtocolError;
+import net.shibboleth.idp.cas.protocol.TicketValidationRequest;
+import net.shibboleth.idp.cas.protocol.TicketValidationResponse;
+import net.shibboleth.idp.cas.ticket.TicketService;
+import net.shibboleth.idp.profile.IdPEventIds;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Completes a proxy callback authentication started asynchronously by {@link ValidateProxyCallbackAction},
+ * waiting for at most {@link ValidateConfiguration#getProxyCallbackTimeout(ProfileRequestContext)}. Does
+ * nothing if there is no {@link ProxyCallbackContext}. Possible outcomes:
+ *
+ * <ul>
+ *     <li><code>null</code> on success</li>
+ *     <li>{@link ProtocolError#ProxyCallbackAuthenticationFailure ProxyCallbackAuthenticationFailure}</li>
+ * </ul>
+ *
+ * On success, the PGTIOU is accessible at {@link TicketValidationResponse#getPgtIou()}. On failure or timeout,
+ * the authentication is cancelled and the proxy-granting ticket is removed.
+ * 
+ * @since 5.0.0
+ */
+public class AwaitProxyCallbackAction
+        extends AbstractCASProtocolAction<TicketValidationRequest, TicketValidationResponse> {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AwaitProxyCallbackAction.class);
+
+    /** Profile configuration lookup function. */
+    @Nonnull private final ConfigLookupFunction<ValidateConfiguration> configLookupFunction;
+
+    /** Manages CAS tickets. */
+    @Nonnull private final TicketService casTicketService;
+
+    /** Profile config. */
+    @Nullable private ValidateConfiguration validateConfig;
+
+    /** Pending proxy callback. */
+    @Nullable private ProxyCallbackContext callbackContext;
+
+    /** CAS response. */
+    @Nullable private TicketValidationResponse response;
+
+    /**
+     * Constructor.
+     *
+     * @param ticketService Ticket service component.
+     */
+    public AwaitProxyCallbackAction(@Nonnull final TicketService ticketService) {
+        casTicketService = Constraint.isNotNull(ticketService, "TicketService cannot be null");
+        
+        configLookupFunction = new ConfigLookupFunction<>(ValidateConfiguration.class);
+    }
+
+    @Override
+    protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        if (!super.doPreExecute(profileRequestContext)) {
+            return false;
+        }
+        
+        callbackContext = profileRequestContext.getSubcontext(ProxyCallbackContext.class);
+        if (callbackContext == null) {
+            return false;
+        }
+        profileRequestContext.removeSubcontext(callbackContext);
+
+        validateConfig = configLookupFunction.apply(profileRequestContext);
+        if (validateConfig == null) {
+            callbackContext.getResult().cancel(true);
+            ActionSupport.buildEvent(profileRequestContext, IdPEventIds.INVALID_PROFILE_CONFIG);
+            return false;
+        }
+        
+        try {
+            response = getCASResponse(profileRequestContext);
+        } catch (final EventException e) {
+            callbackContext.getResult().cancel(true);
+            ActionSupport.buildEvent(profileRequestContext, e.getEventID());
+            return false;
+        }
+        
+        return true;
+    }
+
+    @Override
+    protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
+        final Duration timeout = validateConfig.getProxyCallbackTimeout(profileRequestContext);
+        try {
+            callbackContext.getResult().get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            log.debug("{} Asynchronous proxy authentication to {} succeeded", getLogPrefix(),
+                    callbackContext.getPgtUrl());
+            response.setPgtIou(callbackContext.getProxyIds().getPgtIou());
+            return;
+        } catch (final ExecutionException e) {
+            log.warn("{} Proxy authentication failed for {}", getLogPrefix(), callbackContext.getPgtUrl(),
+                    e.getCause());
+        } catch (final TimeoutException e) {
+            log.warn("{} Proxy authentication for {} did not complete within {}", getLogPrefix(),
+                    callbackContext.getPgtUrl(), timeout);
+        } catch (final InterruptedException e) {
+            log.warn("{} Interrupted awaiting proxy authentication for {}", getLogPrefix(),
+                    callbackContext.getPgtUrl());
+            Thread.currentThread().interrupt();
+        }
+        
+        callbackContext.getResult().cancel(true);
+        casTicketService.removeProxyGrantingTicket(callbackContext.getProxyIds().getPgtId());
+        ActionSupport.buildEvent(profileRequestContext, ProtocolError.ProxyCallbackAuthenticationFailure.event(this));
+    }
+
+}
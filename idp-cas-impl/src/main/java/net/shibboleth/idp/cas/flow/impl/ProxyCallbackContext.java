@@ -0,0 +1,89 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cas.flow.impl;
+
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.messaging.context.BaseContext;
+
+import net.shibboleth.idp.cas.proxy.ProxyIdentifiers;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Context, usually attached to {@link org.opensaml.profile.context.ProfileRequestContext}, that carries
+ * an asynchronous proxy callback authentication from {@link ValidateProxyCallbackAction} to
+ * {@link AwaitProxyCallbackAction}.
+ * 
+ * @since 5.0.0
+ */
+public final class ProxyCallbackContext extends BaseContext {
+
+    /** Outcome of the proxy callback authentication. */
+    @Nonnull private final Future<?> result;
+
+    /** Proxy identifiers sent to the callback. */
+    @Nonnull private final ProxyIdentifiers proxyIds;
+
+    /** Proxy callback URL. */
+    @Nonnull @NotEmpty private final String pgtUrl;
+
+    /**
+     * Constructor.
+     *
+     * @param future outcome of the proxy callback authentication
+     * @param ids proxy identifiers sent to the callback
+     * @param url proxy callback URL
+     */
+    public ProxyCallbackContext(@Nonnull final Future<?> future, @Nonnull final ProxyIdentifiers ids,
+            @Nonnull @NotEmpty final String url) {
+        result = Constraint.isNotNull(future, "Future cannot be null");
+        proxyIds = Constraint.isNotNull(ids, "Proxy identifiers cannot be null");
+        pgtUrl = Constraint.isNotNull(url, "Proxy callback URL cannot be null");
+    }
+
+    /**
+     * Get the outcome of the proxy callback authentication.
+     * 
+     * @return the outcome, which completes exceptionally if authentication fails
+     */
+    @Nonnull public Future<?> getResult() {
+        return result;
+    }
+
+    /**
+     * Get the proxy identifiers sent to the callback.
+     * 
+     * @return proxy identifiers
+     */
+    @Nonnull public ProxyIdentifiers getProxyIds() {
+        return proxyIds;
+    }
+
+    /**
+     * Get the proxy callback URL.
+     * 
+     * @return proxy callback URL
+     */
+    @Nonnull @NotEmpty public String getPgtUrl() {
+        return pgtUrl;
+    }
+
+}
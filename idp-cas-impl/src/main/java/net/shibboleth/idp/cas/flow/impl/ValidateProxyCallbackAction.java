@@ -20,6 +20,9 @@ package net.shibboleth.idp.cas.flow.impl;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.time.Instant;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -35,12 +38,14 @@ import org.slf4j.LoggerFactory;
 
 import net.shibboleth.idp.cas.config.ConfigLookupFunction;
 import net.shibboleth.idp.cas.config.ValidateConfiguration;
+import net.shibboleth.idp.cas.protocol.ProtocolContext;
 import net.shibboleth.idp.cas.protocol.ProtocolError;
 import net.shibboleth.idp.cas.protocol.ProtocolParam;
 import net.shibboleth.idp.cas.protocol.TicketValidationRequest;
 import net.shibboleth.idp.cas.protocol.TicketValidationResponse;
 import net.shibboleth.idp.cas.proxy.ProxyIdentifiers;
 import net.shibboleth.idp.cas.proxy.ProxyValidator;
+import net.shibboleth.idp.cas.service.ServiceContext;
 import net.shibboleth.idp.cas.ticket.ProxyTicket;
 import net.shibboleth.idp.cas.ticket.ServiceTicket;
 import net.shibboleth.idp.cas.ticket.Ticket;
@@ -61,6 +66,13 @@ import net.shibboleth.shared.security.IdentifierGenerationStrategy;
  *
  * On success, the PGTIOU is accessible at {@link TicketValidationResponse#getPgtIou()}.
  *
+ * <p>If an {@link Executor} is supplied and {@link ValidateConfiguration#isAsynchronousProxyCallback(
+ * ProfileRequestContext)} is true, the callback is instead authenticated in the background and the outcome
+ * is left in a {@link ProxyCallbackContext} for {@link AwaitProxyCallbackAction} to collect, allowing the
+ * rest of the validation to proceed in the meantime. The {@link ProxyValidator} is then passed a separate
+ * {@link ProfileRequestContext} containing only the CAS service. If the executor can't accept the task, the
+ * callback is authenticated synchronously.</p>
+ *
  * @author Marvin S. Addison
  */
 public class ValidateProxyCallbackAction
@@ -78,6 +90,9 @@ public class ValidateProxyCallbackAction
     /** Manages CAS tickets. */
     @Nonnull private final TicketService casTicketService;
 
+    /** Optional executor for asynchronous proxy callback authentication. */
+    @Nullable private Executor executor;
+
     /** Profile config. */
     @Nullable private ValidateConfiguration validateConfig;
     
@@ -107,6 +122,19 @@ public class ValidateProxyCallbackAction
         configLookupFunction = new ConfigLookupFunction<>(ValidateConfiguration.class);
     }
     
+    /**
+     * Set the executor to use for asynchronous proxy callback authentication.
+     * 
+     * @param exec executor
+     * 
+     * @since 5.0.0
+     */
+    public void setExecutor(@Nullable final Executor exec) {
+        checkSetterPreconditions();
+        
+        executor = exec;
+    }
+    
     @Override
     protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
         if (!super.doPreExecute(profileRequestContext)) {
@@ -166,6 +194,11 @@ public class ValidateProxyCallbackAction
             return;
         }
         
+        if (executor != null && validateConfig.isAsynchronousProxyCallback(profileRequestContext)
+                && validateAsynchronously(profileRequestContext, proxyCallbackUri, proxyIds)) {
+            return;
+        }
+        
         try {
             log.debug("{} Attempting proxy authentication to {}", getLogPrefix(), proxyCallbackUri);
             proxyValidator.validate(profileRequestContext, proxyCallbackUri);
@@ -178,4 +211,41 @@ public class ValidateProxyCallbackAction
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Start authenticating the proxy callback in the background.
+     * 
+     * @param profileRequestContext profile request context
+     * @param proxyCallbackUri proxy callback URI including the proxy identifiers
+     * @param proxyIds proxy identifiers
+     * 
+     * @return true iff the authentication was started
+     */
+    private boolean validateAsynchronously(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final URI proxyCallbackUri, @Nonnull final ProxyIdentifiers proxyIds) {
+        
+        final ProfileRequestContext detached = new ProfileRequestContext();
+        detached.setProfileId(profileRequestContext.getProfileId());
+        try {
+            detached.getSubcontext(ProtocolContext.class, true).addSubcontext(
+                    new ServiceContext(getCASService(profileRequestContext)));
+        } catch (final EventException e) {
+            return false;
+        }
+        
+        final FutureTask<Void> task = new FutureTask<>(() -> {
+            proxyValidator.validate(detached, proxyCallbackUri);
+            return null;
+        });
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            log.debug("{} Executor rejected proxy authentication, continuing synchronously", getLogPrefix());
+            return false;
+        }
+        
+        log.debug("{} Attempting asynchronous proxy authentication to {}", getLogPrefix(), proxyCallbackUri);
+        profileRequestContext.addSubcontext(new ProxyCallbackContext(task, proxyIds, request.getPgtUrl()), true);
+        return true;
+    }
+
+}
@@ -17,6 +17,9 @@
 
 package net.shibboleth.idp.cas.service.impl;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
@@ -28,6 +31,8 @@ import net.shibboleth.idp.cas.config.ProxyConfiguration;
 import net.shibboleth.idp.cas.service.Service;
 import net.shibboleth.idp.cas.service.ServiceRegistry;
 import net.shibboleth.shared.annotation.ParameterName;
+import net.shibboleth.shared.annotation.constraint.NonNegative;
+import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.resolver.CriteriaSet;
 import net.shibboleth.shared.resolver.ResolverException;
 
@@ -37,6 +42,7 @@ import org.opensaml.saml.criterion.EntityRoleCriterion;
 import org.opensaml.saml.criterion.ProtocolCriterion;
 import org.opensaml.saml.criterion.StartsWithLocationCriterion;
 import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
 import org.opensaml.saml.metadata.resolver.RoleDescriptorResolver;
 import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
 import org.opensaml.saml.saml2.metadata.Endpoint;
@@ -49,6 +55,9 @@ import org.opensaml.saml.saml2.metadata.impl.AssertionConsumerServiceBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * CAS service registry implementation that queries SAML metadata for a CAS service given a CAS service URL using
  * the following strategy. A {@link MetadataResolver} is queried for an {@link EntityDescriptor} that meets the
@@ -76,6 +85,11 @@ import org.slf4j.LoggerFactory;
  * </ol>
  * See the <a href="https://wiki.shibboleth.net/confluence/x/BQfKAg">SAML metadata profile for CAS</a> for the full
  * specification.
+ * <p>
+ * Results may be cached by service URL, including the absence of a service. If a {@link MetadataResolver} that
+ * is a {@link RefreshableMetadataResolver} is supplied via {@link #setMetadataResolver(MetadataResolver)}, the
+ * cache is discarded whenever that resolver reports an update; in any case, entries expire after a configurable
+ * interval.
  *
  * @author Marvin S. Addison
  */
@@ -100,6 +114,20 @@ public class MetadataServiceRegistry implements ServiceRegistry {
     @Nonnull
     private final RoleDescriptorResolver metadataResolver;
 
+    /** Resolver whose updates invalidate the cache. */
+    @Nullable private RefreshableMetadataResolver refreshableResolver;
+
+    /** Maximum number of cached services. */
+    @NonNegative private int cacheSize;
+
+    /** Lifetime of cached services. */
+    @Nonnull private Duration cacheExpiration;
+
+    /** Lifetime of cached failures to find a service. */
+    @Nonnull private Duration negativeCacheExpiration;
+
+    /** Caches for the current state of the metadata. */
+    @Nullable private volatile CacheGeneration cacheGeneration;
 
     /**
      * Create a new instance that queries the given metadata resolver.
@@ -108,15 +136,103 @@ public class MetadataServiceRegistry implements ServiceRegistry {
      */
     public MetadataServiceRegistry(@Nonnull @ParameterName(name="resolver") final RoleDescriptorResolver resolver) {
         metadataResolver = resolver;
+        cacheExpiration = Duration.ofMinutes(10);
+        negativeCacheExpiration = Duration.ofMinutes(1);
+    }
+
+    /**
+     * Set the metadata resolver whose updates invalidate cached results.
+     * 
+     * <p>This is normally the resolver underlying the {@link RoleDescriptorResolver}. It is ignored unless it
+     * is a {@link RefreshableMetadataResolver}.</p>
+     * 
+     * @param resolver metadata resolver
+     * 
+     * @since 5.0.0
+     */
+    public void setMetadataResolver(@Nullable final MetadataResolver resolver) {
+        if (resolver instanceof RefreshableMetadataResolver) {
+            refreshableResolver = (RefreshableMetadataResolver) resolver;
+        } else {
+            if (resolver != null) {
+                log.info("Metadata resolver is not refreshable, cached services will only expire");
+            }
+            refreshableResolver = null;
+        }
+        cacheGeneration = null;
+    }
+
+    /**
+     * Set the maximum number of services to cache.
+     * 
+     * <p>Defaults to 0, which disables caching.</p>
+     * 
+     * @param size cache size
+     * 
+     * @since 5.0.0
+     */
+    public void setCacheSize(@NonNegative final int size) {
+        cacheSize = (int) Constraint.isGreaterThanOrEqual(0, size, "Cache size cannot be negative");
+        cacheGeneration = null;
+    }
+
+    /**
+     * Set the lifetime of cached services.
+     * 
+     * <p>Defaults to 10 minutes.</p>
+     * 
+     * @param expiration cache entry lifetime
+     * 
+     * @since 5.0.0
+     */
+    public void setCacheExpiration(@Nonnull final Duration expiration) {
+        Constraint.isNotNull(expiration, "Expiration cannot be null");
+        Constraint.isFalse(expiration.isNegative() || expiration.isZero(), "Expiration must be positive");
+        cacheExpiration = expiration;
+        cacheGeneration = null;
+    }
+
+    /**
+     * Set the lifetime of cached failures to find a service.
+     * 
+     * <p>Defaults to 1 minute, zero disables caching of failures.</p>
+     * 
+     * @param expiration cache entry lifetime
+     * 
+     * @since 5.0.0
+     */
+    public void setNegativeCacheExpiration(@Nonnull final Duration expiration) {
+        Constraint.isNotNull(expiration, "Expiration cannot be null");
+        Constraint.isFalse(expiration.isNegative(), "Expiration cannot be negative");
+        negativeCacheExpiration = expiration;
+        cacheGeneration = null;
     }
 
     @Nullable
     @Override
     public Service lookup(final @Nonnull String serviceURL) {
+        final CacheGeneration generation = getCacheGeneration();
+        if (generation != null) {
+            final Service cached = generation.services.getIfPresent(serviceURL);
+            if (cached != null) {
+                log.debug("Using cached service for {}", serviceURL);
+                return cached;
+            } else if (generation.unknown != null && generation.unknown.getIfPresent(serviceURL) != null) {
+                log.debug("Service {} is cached as unknown", serviceURL);
+                return null;
+            }
+        }
+        
         try {
             final RoleDescriptor role = metadataResolver.resolveSingle(criteria(serviceURL));
             if (role instanceof SPSSODescriptor) {
-                return create(serviceURL, (SPSSODescriptor) role);
+                final Service service = create(serviceURL, (SPSSODescriptor) role);
+                if (generation != null) {
+                    generation.services.put(serviceURL, service);
+                }
+                return service;
+            } else if (role == null && generation != null && generation.unknown != null) {
+                generation.unknown.put(serviceURL, Boolean.TRUE);
             }
             throw new ResolverException("No compatible role resolved");
         } catch (final ResolverException e) {
@@ -125,6 +241,28 @@ public class MetadataServiceRegistry implements ServiceRegistry {
         return null;
     }
 
+    /**
+     * Get the caches to use, replacing them if the metadata has been updated since they were created.
+     * 
+     * @return the caches, or null if caching is disabled
+     */
+    @Nullable private CacheGeneration getCacheGeneration() {
+        if (cacheSize == 0) {
+            return null;
+        }
+        
+        final Instant lastUpdate = refreshableResolver != null ? refreshableResolver.getLastUpdate() : null;
+        CacheGeneration generation = cacheGeneration;
+        if (generation == null || !Objects.equals(generation.lastUpdate, lastUpdate)) {
+            if (generation != null) {
+                log.debug("Metadata updated at {}, discarding cached services", lastUpdate);
+            }
+            generation = new CacheGeneration(lastUpdate);
+            cacheGeneration = generation;
+        }
+        return generation;
+    }
+
     /**
      * Create the set of criteria used to find a unique CAS service given a CAS service URL.
      *
@@ -211,4 +349,34 @@ public class MetadataServiceRegistry implements ServiceRegistry {
             return LOGIN_BINDING.equals(endpoint.getBinding());
         }
     }
+
+    /** Cached results for a particular update of the metadata. */
+    private final class CacheGeneration {
+        
+        /** Time of metadata update. */
+        @Nullable private final Instant lastUpdate;
+        
+        /** Services by URL. */
+        @Nonnull private final Cache<String,Service> services;
+
+        /** Unknown service URLs. */
+        @Nullable private final Cache<String,Boolean> unknown;
+
+        /**
+         * Constructor.
+         *
+         * @param update time of metadata update
+         */
+        CacheGeneration(@Nullable final Instant update) {
+            lastUpdate = update;
+            services = CacheBuilder.newBuilder()
+                    .maximumSize(cacheSize)
+                    .expireAfterWrite(cacheExpiration)
+                    .build();
+            unknown = negativeCacheExpiration.isZero() ? null : CacheBuilder.newBuilder()
+                    .maximumSize(cacheSize)
+                    .expireAfterWrite(negativeCacheExpiration)
+                    .build();
+        }
+    }
 }
@@ -36,6 +36,7 @@ import net.shibboleth.idp.cas.ticket.TicketService;
 import net.shibboleth.idp.cas.ticket.serialization.impl.ProxyGrantingTicketSerializer;
 import net.shibboleth.idp.cas.ticket.serialization.impl.ProxyTicketSerializer;
 import net.shibboleth.idp.cas.ticket.serialization.impl.ServiceTicketSerializer;
+import net.shibboleth.idp.storage.TakeStorageService;
 import net.shibboleth.shared.logic.Constraint;
 
 import org.opensaml.storage.StorageRecord;
@@ -47,6 +48,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Abstract base class for ticket services that rely on {@link StorageService} for ticket storage.
  *
+ * <p>Each ticket is stored as a single record under the context for its type. A small marker record is
+ * also stored under the IdP session ID context so that destroying the session, which deletes that context,
+ * revokes any tickets issued within it. A ticket whose marker is missing is treated as nonexistent.</p>
+ *
  * @author Marvin S. Addison
  * @since 3.3.0
  */
@@ -173,23 +178,29 @@ public abstract class AbstractTicketService implements TicketService {
     /**
      * Stores the given ticket in the storage service.
      *
+     * <p>Tickets are stored as a single record under the context for their type, along with a marker record
+     * under the context of the IdP session they were issued in.</p>
+     *
      * @param ticket Ticket to store
      * @param <T> Type of ticket.
      */
     protected <T extends Ticket> void store(final T ticket) {
         final String context = context(ticket.getClass());
         try {
-            final String sessionId = ticket.getSessionId();
             final long expiry = ticket.getExpirationInstant().toEpochMilli();
-            log.debug("Storing mapping of {} to {} in context {}", ticket, sessionId, context);
-            if (!storageService.create(context, ticket.getId(), sessionId, expiry)) {
-                throw new RuntimeException("Failed to store ticket " + ticket);
-            }
-            log.debug("Storing {} in context {}", ticket, sessionId);
-            if (!storageService.create(sessionId, ticket.getId(), ticket,
+            log.debug("Storing {} in context {}", ticket, context);
+            if (!storageService.create(context, ticket.getId(), ticket,
                     (StorageSerializer<T>) serializer(ticket.getClass()), expiry)) {
                 throw new RuntimeException("Failed to store ticket " + ticket);
             }
+            final String sessionId = ticket.getSessionId();
+            if (sessionId != null) {
+                log.debug("Indexing {} under session context {}", ticket, sessionId);
+                if (!storageService.create(sessionId, ticket.getId(), context, expiry)) {
+                    storageService.delete(context, ticket.getId());
+                    throw new RuntimeException("Failed to index ticket " + ticket + " under session " + sessionId);
+                }
+            }
         } catch (final IOException e) {
             throw new RuntimeException("Failed to store ticket " + ticket, e);
         }
@@ -206,30 +217,36 @@ public abstract class AbstractTicketService implements TicketService {
      */
     protected <T extends Ticket> T read(final String id, final Class<T> clazz) {
         log.debug("Reading {}", id);
-        final T ticket;
         try {
             final String context = context(clazz);
-            final StorageRecord<T> sessionRecord = storageService.read(context, id);
-            if (sessionRecord == null) {
+            final StorageRecord<T> record = storageService.read(context, id);
+            if (record == null) {
                 log.debug("{} not found in context {}", id, context);
                 return null;
             }
-            final String sessionId = sessionRecord.getValue();
-            final StorageRecord<T> ticketRecord = storageService.read(sessionId, id);
-            if (ticketRecord == null) {
-                log.debug("{} not found in context {}", id, sessionId);
+            if (isLegacyMapping(record)) {
+                return readLegacy(id, clazz, record.getValue(), false);
+            }
+            final T ticket = record.getValue(serializer(clazz), context, id);
+            final String sessionId = ticket.getSessionId();
+            if (sessionId != null && storageService.read(sessionId, id) == null) {
+                log.info("{} was revoked by the destruction of session {}", id, sessionId);
                 return null;
             }
-            ticket = ticketRecord.getValue(serializer(clazz), sessionId, id);
+            return ticket;
         } catch (final IOException e) {
             throw new RuntimeException("Error reading ticket.");
         }
-        return ticket;
     }
 
     /**
      * Retrieves a ticket by ID from the storage service and then deletes it.
      *
+     * <p>If the storage service is a {@link TakeStorageService}, the ticket is taken in a single atomic
+     * operation. Otherwise the ticket is read and then deleted, and is only returned if this caller's delete
+     * succeeded, so that a ticket is never returned to more than one caller. The session marker is then
+     * deleted, and a ticket whose marker was already gone is not returned.</p>
+     *
      * @param id Ticket identifier.
      * @param <T> Type of ticket.
      * @param clazz Ticket class
@@ -237,26 +254,76 @@ public abstract class AbstractTicketService implements TicketService {
      * @return Deleted ticket or null if ticket not found.
      */
     protected <T extends Ticket> T delete(final String id, final Class<T> clazz) {
-        final T ticket = read(id, clazz);
-        if (ticket == null) {
-            return null;
-        }
+        final String context = context(clazz);
         try {
-            final String context = context(clazz);
-            log.debug("Attempting to delete {} from context {}", id, context);
-            if (!storageService.delete(context, id)) {
-                log.info("Failed deleting {} from context {}.", id, context);
+            final StorageRecord<T> record;
+            if (storageService instanceof TakeStorageService) {
+                log.debug("Taking {} from context {}", id, context);
+                record = ((TakeStorageService) storageService).take(context, id);
+            } else {
+                log.debug("Reading {} from context {} for deletion", id, context);
+                final StorageRecord<T> candidate = storageService.read(context, id);
+                if (candidate != null && !storageService.delete(context, id)) {
+                    log.info("{} was removed from context {} by another caller", id, context);
+                    return null;
+                }
+                record = candidate;
             }
+            
+            if (record == null) {
+                log.debug("{} not found in context {}", id, context);
+                return null;
+            } else if (isLegacyMapping(record)) {
+                return readLegacy(id, clazz, record.getValue(), true);
+            }
+            final T ticket = record.getValue(serializer(clazz), context, id);
             final String sessionId = ticket.getSessionId();
-            log.debug("Attempting to delete {} from context {}", id, sessionId);
-            if (!storageService.delete(sessionId, id)) {
-                log.info("Failed deleting {} from context {}.", id, sessionId);
+            if (sessionId != null && !storageService.delete(sessionId, id)) {
+                log.info("{} was revoked by the destruction of session {}", id, sessionId);
+                return null;
             }
+            return ticket;
         } catch (final IOException e) {
             throw new RuntimeException("Error deleting ticket " + id, e);
         }
-        return ticket;
     }
 
+    /**
+     * Gets whether a record is a mapping to a session context, the layout used for tickets stored by
+     * earlier versions.
+     *
+     * @param record record read from a ticket type context
+     *
+     * @return true iff the record contains a session ID rather than a ticket
+     */
+    private boolean isLegacyMapping(@Nonnull final StorageRecord<?> record) {
+        return !record.getValue().startsWith("{");
+    }
+
+    /**
+     * Retrieves, and optionally deletes, a ticket stored by earlier versions under its session context.
+     *
+     * @param id Ticket identifier.
+     * @param clazz Ticket type.
+     * @param sessionId Session context the ticket is stored under.
+     * @param remove Whether to delete the ticket.
+     * @param <T> Type of ticket.
+     *
+     * @return Ticket or null if ticket not found.
+     *
+     * @throws IOException if a storage error occurs
+     */
+    @Nullable private <T extends Ticket> T readLegacy(@Nonnull final String id, @Nonnull final Class<T> clazz,
+            @Nonnull final String sessionId, final boolean remove) throws IOException {
+        final StorageRecord<T> ticketRecord = storageService.read(sessionId, id);
+        if (ticketRecord == null) {
+            log.debug("{} not found in context {}", id, sessionId);
+            return null;
+        }
+        if (remove && !storageService.delete(sessionId, id)) {
+            log.info("Failed deleting {} from context {}.", id, sessionId);
+        }
+        return ticketRecord.getValue(serializer(clazz), sessionId, id);
+    }
 
 }
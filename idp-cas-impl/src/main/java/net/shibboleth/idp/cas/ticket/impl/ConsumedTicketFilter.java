@@ -0,0 +1,231 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cas.ticket.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hashing;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.component.AbstractInitializableComponent;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Memory-bounded record of consumed ticket identifiers, used to enforce one-time use of tickets that
+ * have no backing storage.
+ *
+ * <p>Identifiers are recorded in partitions keyed on the ticket's expiration, and each partition is
+ * discarded once all of its tickets have expired, since an expired ticket is rejected anyway. A
+ * partition holds exact hashes of identifiers up to a fixed capacity, after which further identifiers
+ * are added to a Bloom filter of fixed size. A false positive from the filter causes a valid ticket to
+ * be rejected, never a replayed ticket to be accepted.</p>
+ *
+ * <p>{@link EncodingTicketService} records only service and proxy tickets here. Encoded root proxy-granting
+ * tickets are presented repeatedly by design and are not recorded or checked, so removing one does not
+ * prevent its further use.</p>
+ *
+ * @since 5.0.0
+ */
+@ThreadSafe
+public class ConsumedTicketFilter extends AbstractInitializableComponent {
+
+    /** Length of time covered by each partition. */
+    @Nonnull private Duration partitionDuration;
+
+    /** Number of exact entries per partition. */
+    @Positive private int exactCapacity;
+
+    /** Expected number of entries in the Bloom filter of a partition. */
+    @Positive private int filterCapacity;
+
+    /** Target false positive probability of the Bloom filter at its expected capacity. */
+    private double falsePositiveProbability;
+
+    /** Partitions by index. */
+    @Nonnull private final Map<Long,Partition> partitions;
+
+    /** Index of the oldest partition that may still be live. */
+    private volatile long oldestPartition;
+
+    /** Constructor. */
+    public ConsumedTicketFilter() {
+        partitionDuration = Duration.ofSeconds(5);
+        exactCapacity = 10000;
+        filterCapacity = 100000;
+        falsePositiveProbability = 0.000001;
+        partitions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Set the length of time covered by each partition.
+     *
+     * <p>Defaults to 5 seconds.</p>
+     *
+     * @param duration partition duration
+     */
+    public void setPartitionDuration(@Nonnull final Duration duration) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(duration, "Duration cannot be null");
+        Constraint.isFalse(duration.isNegative() || duration.isZero(), "Duration must be greater than zero");
+        partitionDuration = duration;
+    }
+
+    /**
+     * Set the number of identifiers held exactly by each partition.
+     *
+     * <p>Defaults to 10000.</p>
+     *
+     * @param capacity exact capacity
+     */
+    public void setExactCapacity(@Positive final int capacity) {
+        checkSetterPreconditions();
+        exactCapacity = Constraint.isGreaterThan(0, capacity, "Capacity must be greater than zero");
+    }
+
+    /**
+     * Set the number of identifiers each partition's Bloom filter is sized for.
+     *
+     * <p>Defaults to 100000.</p>
+     *
+     * @param capacity filter capacity
+     */
+    public void setFilterCapacity(@Positive final int capacity) {
+        checkSetterPreconditions();
+        filterCapacity = Constraint.isGreaterThan(0, capacity, "Capacity must be greater than zero");
+    }
+
+    /**
+     * Set the false positive probability of each partition's Bloom filter at its expected capacity.
+     *
+     * <p>Defaults to 0.000001.</p>
+     *
+     * @param probability false positive probability
+     */
+    public void setFalsePositiveProbability(final double probability) {
+        checkSetterPreconditions();
+        Constraint.isTrue(probability > 0 && probability < 1, "Probability must be between 0 and 1");
+        falsePositiveProbability = probability;
+    }
+
+    /**
+     * Record the use of a ticket.
+     *
+     * @param id ticket identifier
+     * @param expiration ticket expiration
+     *
+     * @return true iff this is the first use of the ticket
+     */
+    public boolean consume(@Nonnull @NotEmpty final String id, @Nonnull final Instant expiration) {
+        checkComponentActive();
+
+        final long current = System.currentTimeMillis() / partitionDuration.toMillis();
+        final long index = expiration.toEpochMilli() / partitionDuration.toMillis();
+        expire(current);
+        if (index < current) {
+            // Expired tickets are rejected on expiration alone, so there's nothing to record.
+            return true;
+        }
+
+        final long hash = Hashing.murmur3_128().hashString(id, StandardCharsets.UTF_8).asLong();
+        return partitions.computeIfAbsent(index, i -> new Partition()).add(hash);
+    }
+
+    /**
+     * Get the number of partitions currently held.
+     *
+     * @return number of partitions
+     */
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * Discard partitions whose tickets have all expired.
+     *
+     * @param current index of the partition containing the current time
+     */
+    private void expire(final long current) {
+        if (current > oldestPartition) {
+            oldestPartition = current;
+            partitions.keySet().removeIf(i -> i < current);
+        }
+    }
+
+    /** Identifiers consumed within a single partition. */
+    private final class Partition {
+
+        /** Exact hashes. */
+        @Nonnull private final Set<Long> exact;
+
+        /** Filter for entries beyond the exact capacity, created on demand. */
+        @Nullable private volatile BloomFilter<Long> filter;
+
+        /** Constructor. */
+        Partition() {
+            exact = ConcurrentHashMap.newKeySet();
+        }
+
+        /**
+         * Add a hash.
+         *
+         * @param hash hash of ticket identifier
+         *
+         * @return true iff the hash was definitely not present
+         */
+        boolean add(final long hash) {
+            if (exact.contains(hash)) {
+                return false;
+            } else if (exact.size() < exactCapacity) {
+                return exact.add(hash);
+            }
+            return getFilter().put(hash);
+        }
+
+        /**
+         * Get the Bloom filter, creating it if necessary.
+         *
+         * @return the filter
+         */
+        @Nonnull private BloomFilter<Long> getFilter() {
+            BloomFilter<Long> result = filter;
+            if (result == null) {
+                synchronized (this) {
+                    result = filter;
+                    if (result == null) {
+                        result = BloomFilter.create(Funnels.longFunnel(), filterCapacity, falsePositiveProbability);
+                        filter = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+}
@@ -32,6 +32,7 @@ import net.shibboleth.shared.annotation.constraint.NotEmpty;
 import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.security.DataSealer;
 
+import org.opensaml.storage.ReplayCache;
 import org.opensaml.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,17 +46,22 @@ import org.slf4j.LoggerFactory;
  *     <li>Chained proxy-granting tickets are persisted using a {@link StorageService}.</li>
  * </ol>
  *
- * <p><strong>NOTE:</strong> The service tickets, proxy tickets, and root proxy-granting tickets produced by
- * this component do not support one-time use. More precisely, {@link #removeServiceTicket(String)} and
- * {@link #removeProxyTicket(String)} simply return a decoded ticket and do not invalidate the ticket in any way.
- * Since there is no backing store for those types of  tickets, they can be reused until one of the following
- * conditions is met:
+ * <p><strong>NOTE:</strong> The root proxy-granting tickets produced by this component, and, unless a
+ * {@link ConsumedTicketFilter} or {@link ReplayCache} is supplied, the service tickets and proxy tickets,
+ * do not support one-time use or revocation. More precisely, {@link #removeServiceTicket(String)},
+ * {@link #removeProxyTicket(String)} and {@link #removeProxyGrantingTicket(String)} simply return a decoded
+ * ticket and do not invalidate the ticket in any way. Since there is no backing store for those types of
+ * tickets, they can be reused until one of the following conditions is met:
  *
  * <ol>
  *     <li>The value of {@link Ticket#getExpirationInstant()} is exceeded.</li>
  *     <li>The {@link DataSealer} key used to encrypt data is revoked.</li>
  * </ol>
  *
+ * <p>A {@link ConsumedTicketFilter} enforces one-time use of service and proxy tickets within a single node
+ * without any storage. A {@link ReplayCache} can be supplied in addition, or instead, to enforce it across
+ * a cluster. Neither is consulted for root proxy-granting tickets.</p>
+ *
  * @author Marvin S. Addison
  * @author Paul B. Henson
  * @since 3.3.0
@@ -74,6 +80,9 @@ public class EncodingTicketService extends AbstractTicketService {
     /** Non-null marker value for unused ServiceTicket#id field and storage context name. */
     private static final String NOT_USED = "na";
 
+    /** Replay cache context for consumed tickets. */
+    private static final String REPLAY_CONTEXT = EncodingTicketService.class.getName();
+
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(EncodingTicketService.class);
 
@@ -81,6 +90,14 @@ public class EncodingTicketService extends AbstractTicketService {
     @Nonnull
     private final DataSealer dataSealer;
 
+    /** Optional local record of consumed tickets. */
+    @Nullable
+    private ConsumedTicketFilter consumedTicketFilter;
+
+    /** Optional replay cache for consumed tickets. */
+    @Nullable
+    private ReplayCache replayCache;
+
     /** Service ticket prefix. */
     @NotEmpty
     private String serviceTicketPrefix = SERVICE_TICKET_PREFIX;
@@ -133,6 +150,29 @@ public class EncodingTicketService extends AbstractTicketService {
         proxyGrantingTicketPrefix = Constraint.isNotEmpty(prefix, "Prefix cannot be null or empty");
     }
 
+    /**
+     * Sets the local record of consumed tickets used to enforce one-time use of service and proxy tickets.
+     *
+     * @param filter consumed ticket filter
+     *
+     * @since 5.0.0
+     */
+    public void setConsumedTicketFilter(@Nullable final ConsumedTicketFilter filter) {
+        consumedTicketFilter = filter;
+    }
+
+    /**
+     * Sets a replay cache used to enforce one-time use of service and proxy tickets, typically
+     * across a cluster.
+     *
+     * @param cache replay cache
+     *
+     * @since 5.0.0
+     */
+    public void setReplayCache(@Nullable final ReplayCache cache) {
+        replayCache = cache;
+    }
+
     @Override
     @Nonnull
     public ServiceTicket createServiceTicket(
@@ -155,7 +195,7 @@ public class EncodingTicketService extends AbstractTicketService {
     @Nullable
     public ServiceTicket removeServiceTicket(@Nonnull final String id) {
         Constraint.isNotNull(id, "Id cannot be null");
-        return decode(ServiceTicket.class, id, serviceTicketPrefix);
+        return consume(decode(ServiceTicket.class, id, serviceTicketPrefix));
     }
 
     @Nonnull
@@ -178,7 +218,7 @@ public class EncodingTicketService extends AbstractTicketService {
     @Nullable
     @Override
     public ProxyTicket removeProxyTicket(final @Nonnull String id) {
-        return decode(ProxyTicket.class, id, proxyTicketPrefix);
+        return consume(decode(ProxyTicket.class, id, proxyTicketPrefix));
     }
 
     @Nullable
@@ -219,6 +259,34 @@ public class EncodingTicketService extends AbstractTicketService {
         return super.removeProxyGrantingTicket(id);
     }
 
+    /**
+     * Enforce one-time use of a decoded ticket, if configured to do so.
+     *
+     * @param ticket decoded ticket
+     * @param <T> type of ticket
+     *
+     * @return the ticket, or null if it was null or has been used before
+     */
+    @Nullable private <T extends Ticket> T consume(@Nullable final T ticket) {
+        if (ticket == null) {
+            return null;
+        }
+
+        if (consumedTicketFilter != null
+                && !consumedTicketFilter.consume(ticket.getId(), ticket.getExpirationInstant())) {
+            log.warn("Rejecting replayed ticket {}", ticket);
+            return null;
+        }
+
+        if (replayCache != null
+                && !replayCache.check(REPLAY_CONTEXT, ticket.getId(), ticket.getExpirationInstant())) {
+            log.warn("Rejecting replayed ticket {}", ticket);
+            return null;
+        }
+
+        return ticket;
+    }
+
     /**
      * Encode a ticket.
      * 
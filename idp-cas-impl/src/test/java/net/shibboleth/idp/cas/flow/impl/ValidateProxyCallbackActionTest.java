@@ -19,6 +19,7 @@ package net.shibboleth.idp.cas.flow.impl;
 
 import java.net.URI;
 import java.security.cert.CertificateException;
+import java.time.Duration;
 import java.time.Instant;
 
 import net.shibboleth.idp.cas.config.ValidateConfiguration;
@@ -26,6 +27,7 @@ import net.shibboleth.idp.cas.protocol.ProtocolError;
 import net.shibboleth.idp.cas.protocol.TicketValidationRequest;
 import net.shibboleth.idp.cas.protocol.TicketValidationResponse;
 import net.shibboleth.idp.cas.proxy.ProxyValidator;
+import net.shibboleth.idp.cas.service.Service;
 import net.shibboleth.idp.cas.ticket.ServiceTicket;
 import net.shibboleth.idp.cas.ticket.TicketState;
 import org.opensaml.profile.context.ProfileRequestContext;
@@ -64,6 +66,71 @@ public class ValidateProxyCallbackActionTest extends AbstractFlowActionTest {
                 ProtocolError.ProxyCallbackAuthenticationFailure.name());
     }
 
+    @Test
+    public void testValidateProxyAsynchronousSuccess() throws Exception {
+        final ValidateProxyCallbackAction action = new ValidateProxyCallbackAction(
+                mockProxyAuthenticator(null), ticketService);
+        action.setExecutor(Runnable::run);
+        action.initialize();
+        final AwaitProxyCallbackAction await = new AwaitProxyCallbackAction(ticketService);
+        await.initialize();
+        final ValidateConfiguration config = new ValidateConfiguration();
+        config.setAsynchronousProxyCallback(true);
+        final RequestContext context = newRequestContext("https://test.example.org/", config);
+        assertNull(action.execute(context));
+        final TicketValidationResponse response = action.getCASResponse(getProfileContext(context));
+        assertNull(response.getPgtIou());
+        assertNotNull(getProfileContext(context).getSubcontext(ProxyCallbackContext.class));
+        assertNull(await.execute(context));
+        assertNotNull(response.getPgtIou());
+        assertNull(getProfileContext(context).getSubcontext(ProxyCallbackContext.class));
+    }
+
+    @Test
+    public void testValidateProxyAsynchronousFailure() throws Exception {
+        final ValidateProxyCallbackAction action = new ValidateProxyCallbackAction(
+                mockProxyAuthenticator(new CertificateException()), ticketService);
+        action.setExecutor(Runnable::run);
+        action.initialize();
+        final AwaitProxyCallbackAction await = new AwaitProxyCallbackAction(ticketService);
+        await.initialize();
+        final ValidateConfiguration config = new ValidateConfiguration();
+        config.setAsynchronousProxyCallback(true);
+        final RequestContext context = newRequestContext("https://test.example.org/", config);
+        assertNull(action.execute(context));
+        final String pgtId = getProfileContext(context).getSubcontext(ProxyCallbackContext.class)
+                .getProxyIds().getPgtId();
+        assertNotNull(ticketService.fetchProxyGrantingTicket(pgtId));
+        assertEquals(await.execute(context).getId(), ProtocolError.ProxyCallbackAuthenticationFailure.name());
+        assertNull(action.getCASResponse(getProfileContext(context)).getPgtIou());
+        assertNull(ticketService.fetchProxyGrantingTicket(pgtId));
+    }
+
+    @Test
+    public void testValidateProxyAsynchronousTimeout() throws Exception {
+        final ValidateProxyCallbackAction action = new ValidateProxyCallbackAction(
+                mockProxyAuthenticator(null), ticketService);
+        action.setExecutor(r -> {});
+        action.initialize();
+        final AwaitProxyCallbackAction await = new AwaitProxyCallbackAction(ticketService);
+        await.initialize();
+        final ValidateConfiguration config = new ValidateConfiguration();
+        config.setAsynchronousProxyCallback(true);
+        config.setProxyCallbackTimeout(Duration.ofMillis(10));
+        final RequestContext context = newRequestContext("https://test.example.org/", config);
+        assertNull(action.execute(context));
+        assertEquals(await.execute(context).getId(), ProtocolError.ProxyCallbackAuthenticationFailure.name());
+    }
+
+    @Test
+    public void testAwaitNothing() throws Exception {
+        final AwaitProxyCallbackAction await = new AwaitProxyCallbackAction(ticketService);
+        await.initialize();
+        final RequestContext context = newRequestContext("https://test.example.org/");
+        assertNull(await.execute(context));
+        assertNull(await.getCASResponse(getProfileContext(context)).getPgtIou());
+    }
+
     private static ProxyValidator mockProxyAuthenticator(final Exception toBeThrown)
             throws Exception {
         final ProxyValidator validator = mock(ProxyValidator.class);
@@ -74,6 +141,10 @@ public class ValidateProxyCallbackActionTest extends AbstractFlowActionTest {
     }
 
     private static RequestContext newRequestContext(final String pgtURL) {
+        return newRequestContext(pgtURL, new ValidateConfiguration());
+    }
+
+    private static RequestContext newRequestContext(final String pgtURL, final ValidateConfiguration config) {
         final String service = "https://test.example.com/";
         final String ticketId = "ST-123-ABCCEF";
         final ServiceTicket st = new ServiceTicket(ticketId, service, Instant.now(), false);
@@ -83,7 +154,8 @@ public class ValidateProxyCallbackActionTest extends AbstractFlowActionTest {
         final RequestContext context = new TestContextBuilder(ValidateConfiguration.PROFILE_ID)
                 .addProtocolContext(request, new TicketValidationResponse())
                 .addTicketContext(st)
-                .addRelyingPartyContext(service, true, new ValidateConfiguration())
+                .addRelyingPartyContext(service, true, config)
+                .addServiceContext(new Service(service, "test", true))
                 .build();
         return context;
     }
@@ -17,7 +17,11 @@
 
 package net.shibboleth.idp.cas.service.impl;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
 import java.time.Duration;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.Timer;
 
@@ -29,6 +33,7 @@ import net.shibboleth.shared.spring.resource.ResourceHelper;
 import org.opensaml.core.config.InitializationException;
 import org.opensaml.core.config.InitializationService;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
 import org.opensaml.saml.metadata.resolver.impl.PredicateRoleDescriptorResolver;
 import org.opensaml.saml.metadata.resolver.impl.ResourceBackedMetadataResolver;
 import org.opensaml.saml.metadata.resolver.index.MetadataIndex;
@@ -111,4 +116,40 @@ public class MetadataServiceRegistryTest {
             assertEquals(actual.isSingleLogoutParticipant(), expected.isSingleLogoutParticipant());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCache() throws ComponentInitializationException {
+        final PredicateRoleDescriptorResolver wrapper = new PredicateRoleDescriptorResolver(metadataResolver);
+        wrapper.initialize();
+        final RefreshableMetadataResolver refreshable = mock(RefreshableMetadataResolver.class);
+        final Instant lastUpdate = Instant.now();
+        when(refreshable.getLastUpdate()).thenReturn(lastUpdate);
+
+        final MetadataServiceRegistry registry = new MetadataServiceRegistry(wrapper);
+        registry.setMetadataResolver(refreshable);
+        registry.setCacheSize(10);
+
+        final Service service = registry.lookup("https://alpha.example.org/");
+        assertNotNull(service);
+        assertSame(registry.lookup("https://alpha.example.org/"), service);
+        assertNull(registry.lookup("https://alpha.dev.example.org"));
+        assertNull(registry.lookup("https://alpha.dev.example.org"));
+
+        when(refreshable.getLastUpdate()).thenReturn(lastUpdate.plusSeconds(1));
+        final Service refreshed = registry.lookup("https://alpha.example.org/");
+        assertNotNull(refreshed);
+        assertNotSame(refreshed, service);
+        assertSame(registry.lookup("https://alpha.example.org/"), refreshed);
+    }
+
+    @Test
+    public void testNoCache() throws ComponentInitializationException {
+        final PredicateRoleDescriptorResolver wrapper = new PredicateRoleDescriptorResolver(metadataResolver);
+        wrapper.initialize();
+        final MetadataServiceRegistry registry = new MetadataServiceRegistry(wrapper);
+
+        final Service service = registry.lookup("https://alpha.example.org/");
+        assertNotNull(service);
+        assertNotSame(registry.lookup("https://alpha.example.org/"), service);
+    }
+}
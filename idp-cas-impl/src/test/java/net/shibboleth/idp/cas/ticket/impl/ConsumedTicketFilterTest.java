@@ -0,0 +1,74 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.cas.ticket.impl;
+
+import static org.testng.Assert.*;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for {@link ConsumedTicketFilter}.
+ */
+@SuppressWarnings("javadoc")
+public class ConsumedTicketFilterTest {
+
+    @Test
+    public void testExact() throws ComponentInitializationException {
+        final ConsumedTicketFilter filter = new ConsumedTicketFilter();
+        filter.initialize();
+
+        final Instant expiry = Instant.now().plusSeconds(30);
+        assertTrue(filter.consume("ST-1", expiry));
+        assertFalse(filter.consume("ST-1", expiry));
+        assertTrue(filter.consume("ST-2", expiry));
+        assertFalse(filter.consume("ST-2", expiry));
+    }
+
+    @Test
+    public void testOverflow() throws ComponentInitializationException {
+        final ConsumedTicketFilter filter = new ConsumedTicketFilter();
+        filter.setExactCapacity(10);
+        filter.setFilterCapacity(1000);
+        filter.initialize();
+
+        final Instant expiry = Instant.now().plusSeconds(30);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(filter.consume("ST-" + i, expiry));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertFalse(filter.consume("ST-" + i, expiry));
+        }
+    }
+
+    @Test
+    public void testExpiration() throws ComponentInitializationException {
+        final ConsumedTicketFilter filter = new ConsumedTicketFilter();
+        filter.setPartitionDuration(Duration.ofSeconds(1));
+        filter.initialize();
+
+        assertTrue(filter.consume("ST-1", Instant.now().minusSeconds(10)));
+        assertTrue(filter.consume("ST-2", Instant.now().plusSeconds(30)));
+        assertEquals(filter.getPartitionCount(), 1);
+    }
+
+}
@@ -49,6 +49,8 @@ public class EncodingTicketServiceTest {
 
     private EncodingTicketService ticketService;
 
+    private DataSealer sealer;
+
     private IdentifierGenerationStrategy sessionIdGenerator;
 
     private IdentifierGenerationStrategy pgtIdGenerator;
@@ -67,7 +69,7 @@ public class EncodingTicketServiceTest {
         strategy.setKeyPassword("password");
         strategy.initialize();
         final Base32 codec = new Base32(0, null, false, (byte) '-');
-        final DataSealer sealer = new DataSealer();
+        sealer = new DataSealer();
         sealer.setKeyStrategy(strategy);
         sealer.setEncoder(codec);
         sealer.setDecoder(codec);
@@ -98,6 +100,31 @@ public class EncodingTicketServiceTest {
         assertEquals(st1.getId(), st3.getId());
     }
 
+    @Test
+    public void testOneTimeUse() throws Exception {
+        final ConsumedTicketFilter filter = new ConsumedTicketFilter();
+        filter.initialize();
+        final EncodingTicketService service = new EncodingTicketService(new MemoryStorageService(), sealer);
+        service.setConsumedTicketFilter(filter);
+
+        final ServiceTicket st1 = service.createServiceTicket(
+                String.valueOf(System.currentTimeMillis()),
+                Instant.now().plusSeconds(5),
+                "https://www.example.com/s1/",
+                newState("aloysius"),
+                false);
+        assertNotNull(service.removeServiceTicket(st1.getId()));
+        assertNull(service.removeServiceTicket(st1.getId()));
+        
+        final ProxyTicket pt1 = service.createProxyTicket(
+                String.valueOf(System.currentTimeMillis()),
+                Instant.now().plusSeconds(5),
+                newPGT(newState("aloysius"), "https://www.example.com/s1/"),
+                "https://www.example.com/s1/");
+        assertNotNull(service.removeProxyTicket(pt1.getId()));
+        assertNull(service.removeProxyTicket(pt1.getId()));
+    }
+
     @Test
     public void testCreateRemoveServiceTicketInvalid() throws Exception {
         final ServiceTicket st1 = ticketService.createServiceTicket(
@@ -17,20 +17,28 @@
 
 package net.shibboleth.idp.cas.ticket.impl;
 
+import net.shibboleth.idp.cas.config.LoginConfiguration;
 import net.shibboleth.idp.cas.ticket.ProxyGrantingTicket;
 import net.shibboleth.idp.cas.ticket.ProxyTicket;
 import net.shibboleth.idp.cas.ticket.ServiceTicket;
 import net.shibboleth.idp.cas.ticket.TicketIdentifierGenerationStrategy;
 import net.shibboleth.idp.cas.ticket.TicketState;
+import net.shibboleth.idp.cas.ticket.serialization.impl.ServiceTicketSerializer;
+import net.shibboleth.idp.storage.TakeStorageService;
+import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.impl.MemoryStorageService;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.*;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 /**
  * Unit test for {@link SimpleTicketService} class.
  *
@@ -44,14 +52,16 @@ public class SimpleTicketServiceTest {
 
     private static final String TEST_PGTURL = "https://proxy.example.com/";
 
+    private MemoryStorageService storageService;
+
     private SimpleTicketService ticketService;
 
     @BeforeClass
     public void setUp() throws Exception {
-        final MemoryStorageService ss = new MemoryStorageService();
-        ss.setId("shibboleth.StorageService");
-        ss.initialize();
-        ticketService = new SimpleTicketService(ss);
+        storageService = new MemoryStorageService();
+        storageService.setId("shibboleth.StorageService");
+        storageService.initialize();
+        ticketService = new SimpleTicketService(storageService);
     }
 
 
@@ -103,6 +113,103 @@ public class SimpleTicketServiceTest {
         assertNull(ticketService.removeProxyTicket(pt.getId()));
     }
 
+    @Test
+    public void testSingleRecord() throws Exception {
+        final ServiceTicket st = createServiceTicket();
+        assertNotNull(storageService.read(LoginConfiguration.PROFILE_ID, st.getId()));
+        final StorageRecord<?> marker = storageService.read(TEST_SESSION_ID, st.getId());
+        assertNotNull(marker);
+        assertEquals(marker.getValue(), LoginConfiguration.PROFILE_ID);
+        assertEquals(ticketService.removeServiceTicket(st.getId()), st);
+        assertNull(storageService.read(LoginConfiguration.PROFILE_ID, st.getId()));
+        assertNull(storageService.read(TEST_SESSION_ID, st.getId()));
+    }
+
+    @Test
+    public void testSessionRevocation() throws Exception {
+        final String sessionId = "revoked-session";
+        final ServiceTicket st = ticketService.createServiceTicket(
+                new TicketIdentifierGenerationStrategy("ST", 25).generateIdentifier(),
+                expiry(),
+                TEST_SERVICE,
+                new TicketState(sessionId, "bob", Instant.now().truncatedTo(ChronoUnit.MILLIS), "Password"),
+                false);
+        final ProxyGrantingTicket pgt = ticketService.createProxyGrantingTicket(
+                new TicketIdentifierGenerationStrategy("PGT", 50).generateIdentifier(),
+                expiry(),
+                st,
+                TEST_PGTURL);
+        assertNotNull(ticketService.fetchProxyGrantingTicket(pgt.getId()));
+
+        // Destroying the IdP session deletes its context.
+        storageService.deleteContext(sessionId);
+
+        assertNull(ticketService.fetchProxyGrantingTicket(pgt.getId()));
+        assertNull(ticketService.removeProxyGrantingTicket(pgt.getId()));
+        assertNull(ticketService.removeServiceTicket(st.getId()));
+        assertNull(storageService.read(LoginConfiguration.PROFILE_ID, st.getId()));
+    }
+
+    @Test
+    public void testMarkerCollision() throws Exception {
+        final String id = new TicketIdentifierGenerationStrategy("ST", 25).generateIdentifier();
+        storageService.create(TEST_SESSION_ID, id, "other", expiry().toEpochMilli());
+        try {
+            ticketService.createServiceTicket(
+                    id,
+                    expiry(),
+                    TEST_SERVICE,
+                    new TicketState(TEST_SESSION_ID, "bob", Instant.now().truncatedTo(ChronoUnit.MILLIS), "Password"),
+                    false);
+            fail("Expected ticket creation to fail");
+        } catch (final RuntimeException e) {
+            // Expected.
+        }
+        assertNull(storageService.read(LoginConfiguration.PROFILE_ID, id));
+        assertEquals(storageService.read(TEST_SESSION_ID, id).getValue(), "other");
+    }
+
+    @Test
+    public void testLegacyLayout() throws Exception {
+        final ServiceTicket st = new ServiceTicket(
+                new TicketIdentifierGenerationStrategy("ST", 25).generateIdentifier(),
+                TEST_SERVICE,
+                expiry(),
+                false);
+        st.setTicketState(
+                new TicketState(TEST_SESSION_ID, "bob", Instant.now().truncatedTo(ChronoUnit.MILLIS), "Password"));
+        final long exp = st.getExpirationInstant().toEpochMilli();
+        storageService.create(LoginConfiguration.PROFILE_ID, st.getId(), TEST_SESSION_ID, exp);
+        storageService.create(TEST_SESSION_ID, st.getId(), st, new ServiceTicketSerializer(), exp);
+
+        final ServiceTicket st2 = ticketService.removeServiceTicket(st.getId());
+        assertEquals(st2, st);
+        assertEquals(st2.getTicketState(), st.getTicketState());
+        assertNull(storageService.read(LoginConfiguration.PROFILE_ID, st.getId()));
+        assertNull(storageService.read(TEST_SESSION_ID, st.getId()));
+        assertNull(ticketService.removeServiceTicket(st.getId()));
+    }
+
+    @Test
+    public void testTake() throws Exception {
+        final TakingStorageService ss = new TakingStorageService();
+        ss.setId("shibboleth.StorageService");
+        ss.initialize();
+        final SimpleTicketService service = new SimpleTicketService(ss);
+
+        final ServiceTicket st = service.createServiceTicket(
+                new TicketIdentifierGenerationStrategy("ST", 25).generateIdentifier(),
+                expiry(),
+                TEST_SERVICE,
+                new TicketState(TEST_SESSION_ID, "bob", Instant.now().truncatedTo(ChronoUnit.MILLIS), "Password"),
+                false);
+        assertEquals(service.removeServiceTicket(st.getId()), st);
+        assertNull(service.removeServiceTicket(st.getId()));
+        assertEquals(ss.takes, 2);
+        assertEquals(ss.deletes, 1);
+        ss.destroy();
+    }
+
     private ServiceTicket createServiceTicket() {
         return ticketService.createServiceTicket(
                 new TicketIdentifierGenerationStrategy("ST", 25).generateIdentifier(),
@@ -123,4 +230,29 @@ public class SimpleTicketServiceTest {
     private static Instant expiry() {
         return Instant.now().plusSeconds(10).truncatedTo(ChronoUnit.MILLIS);
     }
+
+    /** Storage service that supports taking records and counts the operations used. */
+    private static class TakingStorageService extends MemoryStorageService implements TakeStorageService {
+
+        private int takes;
+
+        private int deletes;
+
+        @Override
+        @Nullable public synchronized <T> StorageRecord<T> take(@Nonnull final String context,
+                @Nonnull final String key) throws IOException {
+            ++takes;
+            final StorageRecord<T> record = super.read(context, key);
+            if (record != null) {
+                super.delete(context, key);
+            }
+            return record;
+        }
+
+        @Override
+        public boolean delete(@Nonnull final String context, @Nonnull final String key) throws IOException {
+            ++deletes;
+            return super.delete(context, key);
+        }
+    }
 }
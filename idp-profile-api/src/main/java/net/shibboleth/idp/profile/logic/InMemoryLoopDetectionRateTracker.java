@@ -0,0 +1,89 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.logic;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * {@link LoopDetectionRateTracker} that keeps a bounded number of keys in memory.
+ * 
+ * <p>Each key holds a fixed size sliding window counter. Keys idle for longer than the two windows
+ * that contribute to the estimate are evicted, as are the least recently used keys once the maximum
+ * is reached.</p>
+ * 
+ * @since 5.0.0
+ */
+@ThreadSafe
+public class InMemoryLoopDetectionRateTracker implements LoopDetectionRateTracker {
+
+    /** Counters by key. */
+    @Nonnull private final Cache<String,LoopDetectionWindow> windows;
+    
+    /** Constructor. */
+    public InMemoryLoopDetectionRateTracker() {
+        this(100000);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param maxKeys maximum number of keys to track
+     */
+    public InMemoryLoopDetectionRateTracker(@Positive final long maxKeys) {
+        windows = CacheBuilder.newBuilder()
+                .maximumSize(Constraint.isGreaterThan(0, maxKeys, "Maximum keys must be greater than 0"))
+                .expireAfterAccess(Duration.ofMillis(2 * LoopDetectionWindow.WINDOW))
+                .build();
+    }
+    
+    /**
+     * Get the approximate number of keys being tracked.
+     * 
+     * @return number of keys
+     */
+    public long size() {
+        return windows.size();
+    }
+
+    /** {@inheritDoc} */
+    public double mark(@Nonnull @NotEmpty final String key) {
+        final LoopDetectionWindow window;
+        try {
+            window = windows.get(key, LoopDetectionWindow::new);
+        } catch (final ExecutionException e) {
+            // The loader can't throw.
+            throw new IllegalStateException(e);
+        }
+        
+        synchronized (window) {
+            return window.mark(System.currentTimeMillis());
+        }
+    }
+
+}
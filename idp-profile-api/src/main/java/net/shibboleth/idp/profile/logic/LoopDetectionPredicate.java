@@ -29,19 +29,20 @@ import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.MetricRegistry.MetricSupplier;
-import com.codahale.metrics.SlidingTimeWindowMovingAverages;
 
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
 import net.shibboleth.shared.annotation.constraint.NonnullElements;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
 import net.shibboleth.shared.annotation.constraint.Positive;
 import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.logic.FunctionSupport;
 
 /**
- * A condition that relies on a {@link Meter} to detect looping SPs. 
+ * A condition that relies on a {@link LoopDetectionRateTracker} to detect looping SPs.
+ * 
+ * <p>Rates are tracked per configured relying party and username. Only aggregate counts per relying party
+ * are exposed as metrics.</p>
  *
  * @since 4.1.0
  */
@@ -53,14 +54,21 @@ public class LoopDetectionPredicate extends AbstractRelyingPartyPredicate {
     /** Count to trigger warning. */
     private long threshold;
     
+    /** Base name of metrics. */
+    @Nonnull @NotEmpty private static final String METRIC_BASE = "net.shibboleth.idp.loopDetection";
+
     /** Map of RP names to meter names. */
     @Nonnull @NonnullElements private Map<String,String> relyingPartyMap;
     
     /** Lookup strategy to obtain subject name. */
     @Nonnull private Function<ProfileRequestContext,String> usernameLookupStrategy;
     
+    /** Tracks event rates. */
+    @Nonnull private LoopDetectionRateTracker rateTracker;
+    
     /** Constructor. */
     public LoopDetectionPredicate() {
+        rateTracker = new InMemoryLoopDetectionRateTracker();
         threshold = 20;
         relyingPartyMap = Collections.emptyMap();
         usernameLookupStrategy = FunctionSupport.constant(null);
@@ -77,6 +85,19 @@ public class LoopDetectionPredicate extends AbstractRelyingPartyPredicate {
         threshold = Constraint.isGreaterThan(0, value, "Threshold must be positive");
     }
     
+    /**
+     * Set the component used to track event rates.
+     * 
+     * <p>Defaults to an {@link InMemoryLoopDetectionRateTracker}.</p>
+     * 
+     * @param tracker rate tracker
+     * 
+     * @since 5.0.0
+     */
+    public void setRateTracker(@Nonnull final LoopDetectionRateTracker tracker) {
+        rateTracker = Constraint.isNotNull(tracker, "Rate tracker cannot be null");
+    }
+    
     /**
      * Set the map of relying party names to meter names to track counts.
      * 
@@ -106,20 +127,16 @@ public class LoopDetectionPredicate extends AbstractRelyingPartyPredicate {
         final RelyingPartyContext rpCtx = getRelyingPartyContextLookupStrategy().apply(input);
         
         if (username != null && rpCtx != null && rpCtx.getRelyingPartyId() != null) {
-            String meterName = relyingPartyMap.get(rpCtx.getRelyingPartyId());
+            final String meterName = relyingPartyMap.get(rpCtx.getRelyingPartyId());
             if (meterName != null) {
-                meterName = MetricRegistry.name("net.shibboleth.idp.loopDetection", meterName,
-                        username.replace(".",""));
-                final Meter meter = MetricsSupport.getMetricRegistry().meter(meterName,
-                        new MetricSupplier<Meter>() {
-                            public Meter newMetric() {
-                                return new Meter(new SlidingTimeWindowMovingAverages());
-                            }
-                        });
-                meter.mark();
-                final double rate = meter.getOneMinuteRate();
+                final double rate = rateTracker.mark(meterName + '!' + username);
                 if (rate > threshold) {
-                    log.warn("Meter {} rate of {} exceeded threshold of {}", meterName, rate, threshold);
+                    log.warn("Rate of {} for meter {} and user {} exceeded threshold of {}", rate, meterName,
+                            username, threshold);
+                    final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+                    if (registry != null) {
+                        registry.counter(MetricRegistry.name(METRIC_BASE, meterName, "exceeded")).inc();
+                    }
                     return true;
                 }
             }
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.logic;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+
+/**
+ * Tracks the rate of events per key for {@link LoopDetectionPredicate}.
+ * 
+ * <p>Implementations are expected to bound their own resource usage and to forget keys that are idle.</p>
+ * 
+ * @since 5.0.0
+ */
+@ThreadSafe
+public interface LoopDetectionRateTracker {
+
+    /**
+     * Record an event for a key.
+     * 
+     * @param key the key to record against
+     * 
+     * @return the estimated number of events for the key over the last minute, including this one
+     */
+    double mark(@Nonnull @NotEmpty final String key);
+    
+}
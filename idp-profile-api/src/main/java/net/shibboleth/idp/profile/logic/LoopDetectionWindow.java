@@ -0,0 +1,122 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.logic;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+
+/**
+ * Sliding window event counter for a single key, approximated with the counts of the current and previous
+ * fixed one minute windows.
+ * 
+ * <p>The estimate weights the previous window's count by the fraction of it still covered by the sliding
+ * window, so only three values are needed per key.</p>
+ */
+@NotThreadSafe
+final class LoopDetectionWindow {
+
+    /** Window length in milliseconds. */
+    static final long WINDOW = Duration.ofMinutes(1).toMillis();
+    
+    /** Start of current window. */
+    private long windowStart;
+    
+    /** Count in current window. */
+    private long current;
+    
+    /** Count in previous window. */
+    private long previous;
+    
+    /** Constructor. */
+    LoopDetectionWindow() {
+        
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param start start of current window
+     * @param currentCount count in current window
+     * @param previousCount count in previous window
+     */
+    private LoopDetectionWindow(final long start, final long currentCount, final long previousCount) {
+        windowStart = start;
+        current = currentCount;
+        previous = previousCount;
+    }
+    
+    /**
+     * Record an event.
+     * 
+     * @param now current time in milliseconds
+     * 
+     * @return the estimated number of events over the last minute, including this one
+     */
+    double mark(final long now) {
+        if (now >= windowStart + 2 * WINDOW) {
+            previous = 0;
+            current = 0;
+            windowStart = now - now % WINDOW;
+        } else if (now >= windowStart + WINDOW) {
+            previous = current;
+            current = 0;
+            windowStart += WINDOW;
+        }
+        
+        ++current;
+        
+        final long elapsed = Math.max(0, now - windowStart);
+        return previous * ((double) (WINDOW - elapsed) / WINDOW) + current;
+    }
+    
+    /**
+     * Encode the state for storage.
+     * 
+     * @return encoded state
+     */
+    @Nonnull @NotEmpty String encode() {
+        return Long.toString(windowStart, Character.MAX_RADIX) + ':' + Long.toString(current, Character.MAX_RADIX)
+            + ':' + Long.toString(previous, Character.MAX_RADIX);
+    }
+    
+    /**
+     * Decode state produced by {@link #encode()}.
+     * 
+     * @param value encoded state
+     * 
+     * @return the decoded window, or null if the value is invalid
+     */
+    @Nullable static LoopDetectionWindow decode(@Nonnull final String value) {
+        final String[] parts = value.split(":");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new LoopDetectionWindow(Long.parseLong(parts[0], Character.MAX_RADIX),
+                    Long.parseLong(parts[1], Character.MAX_RADIX), Long.parseLong(parts[2], Character.MAX_RADIX));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+    
+}
@@ -19,14 +19,17 @@ package net.shibboleth.idp.profile.logic;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Set;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import net.shibboleth.idp.profile.context.navigate.RelyingPartyIdLookupFunction;
 import net.shibboleth.shared.annotation.ParameterName;
 import net.shibboleth.shared.annotation.constraint.NonnullElements;
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Unmodifiable;
 import net.shibboleth.shared.logic.StrategyIndirectedPredicate;
 import net.shibboleth.shared.primitive.StringSupport;
 
@@ -39,6 +42,9 @@ import org.opensaml.profile.context.ProfileRequestContext;
  */
 public class RelyingPartyIdPredicate extends StrategyIndirectedPredicate<ProfileRequestContext,String> {
 
+    /** Hardwired set of values, if supplied in place of a generic predicate. */
+    @Nullable private final Set<String> candidateSet;
+    
     /**
      * Constructor.
      * 
@@ -47,6 +53,7 @@ public class RelyingPartyIdPredicate extends StrategyIndirectedPredicate<Profile
     public RelyingPartyIdPredicate(
             @Nonnull @NonnullElements @ParameterName(name="candidates") final Collection<String> candidates) {
         super(new RelyingPartyIdLookupFunction(), StringSupport.normalizeStringCollection(candidates));
+        candidateSet = Set.copyOf(StringSupport.normalizeStringCollection(candidates));
     }
 
     /**
@@ -65,6 +72,20 @@ public class RelyingPartyIdPredicate extends StrategyIndirectedPredicate<Profile
      */
     public RelyingPartyIdPredicate(@Nonnull @ParameterName(name="pred") final Predicate<String> pred) {
         super(new RelyingPartyIdLookupFunction(), pred);
+        candidateSet = null;
+    }
+    
+    /**
+     * Get the hardwired set of values checked against, if the predicate was constructed from one.
+     * 
+     * <p>This allows callers to index predicates that depend only on a fixed set of relying party IDs.</p>
+     * 
+     * @return the candidate values, or null if a generic predicate was supplied
+     * 
+     * @since 5.0.0
+     */
+    @Nullable @NonnullElements @Unmodifiable public Set<String> getCandidates() {
+        return candidateSet;
     }
     
     /**
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.logic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.opensaml.storage.StorageCapabilities;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.VersionMismatchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * {@link LoopDetectionRateTracker} that keeps its counters in a {@link StorageService}, so that a clustered
+ * service can detect loops spread across nodes.
+ * 
+ * <p>Each key holds a small fixed size record that expires once it no longer contributes to the estimate.
+ * Keys too long for the storage service are hashed. Storage errors are logged and treated as a single
+ * event so that a failing service never causes a loop to be detected.</p>
+ * 
+ * @since 5.0.0
+ */
+@ThreadSafe
+public class StorageServiceLoopDetectionRateTracker extends AbstractIdentifiableInitializableComponent
+        implements LoopDetectionRateTracker {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(StorageServiceLoopDetectionRateTracker.class);
+
+    /** Backing service. */
+    @NonnullAfterInit private StorageService storageService;
+    
+    /** Number of times to retry an update that loses a race. */
+    @Positive private int retries;
+    
+    /** Maximum key size supported by the storage service. */
+    private int maxKeySize;
+    
+    /** Constructor. */
+    public StorageServiceLoopDetectionRateTracker() {
+        retries = 3;
+    }
+    
+    /**
+     * Set the {@link StorageService} back-end to use.
+     * 
+     * @param storage the back-end to use
+     */
+    public void setStorageService(@Nonnull final StorageService storage) {
+        checkSetterPreconditions();
+        storageService = Constraint.isNotNull(storage, "StorageService cannot be null");
+        final StorageCapabilities caps = storageService.getCapabilities();
+        Constraint.isTrue(caps.isServerSide(), "StorageService cannot be client-side");
+        if (!caps.isClustered()) {
+            log.info("Use of non-clustered storage service will result in per-node loop detection");
+        }
+    }
+    
+    /**
+     * Set the number of attempts to make to update a counter.
+     * 
+     * <p>Defaults to 3.</p>
+     * 
+     * @param attempts number of attempts
+     */
+    public void setRetries(@Positive final int attempts) {
+        checkSetterPreconditions();
+        retries = Constraint.isGreaterThan(0, attempts, "Retries must be greater than zero");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        
+        if (getId() == null) {
+            throw new ComponentInitializationException("Component ID, used as storage context, cannot be null");
+        } else if (storageService == null) {
+            throw new ComponentInitializationException("StorageService cannot be null");
+        }
+        maxKeySize = storageService.getCapabilities().getKeySize();
+    }
+
+    /** {@inheritDoc} */
+    public double mark(@Nonnull @NotEmpty final String key) {
+        checkComponentActive();
+        
+        final String storageKey = key.length() <= maxKeySize ? key
+                : Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString();
+        
+        for (int attempt = 0; attempt < retries; ++attempt) {
+            try {
+                final StorageRecord<?> record = storageService.read(getId(), storageKey);
+                final long now = System.currentTimeMillis();
+                final long expiration = now + 2 * LoopDetectionWindow.WINDOW;
+                
+                LoopDetectionWindow window = record != null ? LoopDetectionWindow.decode(record.getValue()) : null;
+                if (window == null) {
+                    window = new LoopDetectionWindow();
+                    final double rate = window.mark(now);
+                    if (record == null) {
+                        if (storageService.create(getId(), storageKey, window.encode(), expiration)) {
+                            return rate;
+                        }
+                    } else if (storageService.update(getId(), storageKey, window.encode(), expiration)) {
+                        return rate;
+                    }
+                } else {
+                    final double rate = window.mark(now);
+                    if (storageService.updateWithVersion(record.getVersion(), getId(), storageKey, window.encode(),
+                            expiration) != null) {
+                        return rate;
+                    }
+                }
+            } catch (final VersionMismatchException e) {
+                log.debug("Loop detection counter for '{}' was updated concurrently, retrying", key);
+            } catch (final IOException e) {
+                log.error("Error updating loop detection counter for '{}'", key, e);
+                return 1;
+            }
+        }
+        
+        log.warn("Loop detection counter update for '{}' exceeded retry limit", key);
+        return 1;
+    }
+
+}
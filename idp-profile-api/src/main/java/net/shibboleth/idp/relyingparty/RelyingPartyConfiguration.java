@@ -211,6 +211,17 @@ public class RelyingPartyConfiguration extends AbstractIdentifiableInitializable
         profileConfigurationsLookupStrategy = Constraint.isNotNull(strategy, "Lookup strategy cannot be null");
     }
 
+    /**
+     * Get the condition under which the relying party configuration should be active.
+     * 
+     * @return the activation condition
+     * 
+     * @since 5.0.0
+     */
+    @Nonnull public Predicate<ProfileRequestContext> getActivationCondition() {
+        return activationCondition;
+    }
+
     /**
      * Set the condition under which the relying party configuration should be active.
      * 
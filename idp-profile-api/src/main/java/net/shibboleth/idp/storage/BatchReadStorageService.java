@@ -0,0 +1,94 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.storage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+
+import net.shibboleth.shared.annotation.constraint.NonnullElements;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Unmodifiable;
+
+/**
+ * Optional extension of a {@link StorageService} that supports retrieving multiple records in a
+ * single operation.
+ * 
+ * <p>Components that can take advantage of this capability should check for it at runtime and
+ * fall back to individual {@link StorageService#read(String, String)} calls if it isn't present.</p>
+ * 
+ * @since 5.0.0
+ */
+public interface BatchReadStorageService extends StorageService {
+
+    /**
+     * Retrieve the records stored under the same key within each of a set of contexts.
+     * 
+     * <p>Contexts for which no record exists (or for which the record has expired) are simply
+     * omitted from the result.</p>
+     * 
+     * @param <T> type of object
+     * @param contexts the contexts to read from
+     * @param key key to look up in each context
+     * 
+     * @return map of context to the corresponding record
+     * 
+     * @throws IOException if a low-level storage error occurs
+     */
+    @Nonnull @NonnullElements @Unmodifiable <T> Map<String,StorageRecord<T>> readAll(
+            @Nonnull @NonnullElements final Collection<String> contexts, @Nonnull @NotEmpty final String key)
+                    throws IOException;
+
+    /**
+     * Retrieve a set of records stored within the same context.
+     * 
+     * <p>Keys for which no record exists (or for which the record has expired) are simply
+     * omitted from the result.</p>
+     * 
+     * <p>The default implementation reads each record in turn and should be overridden by
+     * implementations able to do better.</p>
+     * 
+     * @param <T> type of object
+     * @param context the context to read from
+     * @param keys keys to look up
+     * 
+     * @return map of key to the corresponding record
+     * 
+     * @throws IOException if a low-level storage error occurs
+     */
+    @Nonnull @NonnullElements @Unmodifiable default <T> Map<String,StorageRecord<T>> readKeys(
+            @Nonnull @NotEmpty final String context, @Nonnull @NonnullElements final Collection<String> keys)
+                    throws IOException {
+        final Map<String,StorageRecord<T>> records = new HashMap<>(keys.size());
+        for (final String key : keys) {
+            final StorageRecord<T> record = read(context, key);
+            if (record != null) {
+                records.put(key, record);
+            }
+        }
+        return Collections.unmodifiableMap(records);
+    }
+
+}
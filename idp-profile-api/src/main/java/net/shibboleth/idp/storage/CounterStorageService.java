@@ -0,0 +1,61 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.storage;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.storage.StorageService;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+
+/**
+ * Optional extension of a {@link StorageService} that supports atomically incrementing a counter.
+ * 
+ * <p>A counter is a record whose value is the decimal representation of a non-negative integer. Components
+ * that can take advantage of this capability should check for it at runtime and otherwise fall back to a
+ * versioned read and update loop.</p>
+ * 
+ * @since 5.0.0
+ */
+public interface CounterStorageService extends StorageService {
+
+    /**
+     * Add to a counter in a single atomic operation, creating it if necessary, and set its expiration.
+     * 
+     * <p>The counter starts again from zero if the record does not exist, has expired, or has an expiration
+     * earlier than the supplied threshold. Any other record value that is not an integer is also treated as
+     * zero.</p>
+     * 
+     * @param context context of the counter
+     * @param key key of the counter
+     * @param delta amount to add
+     * @param expiration new expiration of the record, in milliseconds since the epoch
+     * @param resetBefore restart the counter if the existing record expires before this time, in milliseconds
+     *  since the epoch
+     * 
+     * @return the new value of the counter
+     * 
+     * @throws IOException if a low-level storage error occurs
+     */
+    long increment(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Positive final long delta, final long expiration, final long resetBefore) throws IOException;
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.storage;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+
+/**
+ * Optional extension of a {@link StorageService} that supports atomically reading and deleting a record.
+ * 
+ * <p>This supports one-time-use data such as tickets, which can then be consumed in a single operation
+ * with a guarantee that only one caller obtains the record. Components that can take advantage of this
+ * capability should check for it at runtime and otherwise fall back to a read followed by a delete.</p>
+ * 
+ * @since 5.0.0
+ */
+public interface TakeStorageService extends StorageService {
+
+    /**
+     * Retrieve and delete a record in a single atomic operation.
+     * 
+     * <p>If multiple callers take the same record concurrently, at most one of them receives it.</p>
+     * 
+     * @param <T> type of object
+     * @param context context to search
+     * @param key key to search
+     * 
+     * @return the record removed, or null if it did not exist or had expired
+     * 
+     * @throws IOException if a low-level storage error occurs
+     */
+    @Nullable <T> StorageRecord<T> take(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key)
+            throws IOException;
+    
+}
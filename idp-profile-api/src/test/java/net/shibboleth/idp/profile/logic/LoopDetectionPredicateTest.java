@@ -20,10 +20,12 @@ package net.shibboleth.idp.profile.logic;
 import java.util.Map;
 
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.logic.FunctionSupport;
 
 import org.opensaml.core.testing.OpenSAMLInitBaseTestCase;
 import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.storage.impl.MemoryStorageService;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -78,4 +80,50 @@ public class LoopDetectionPredicateTest extends OpenSAMLInitBaseTestCase {
         Assert.assertTrue(pred.test(prc));
     }
 
+    @Test
+    public void testExceedStorage() throws ComponentInitializationException {
+        final MemoryStorageService ss = new MemoryStorageService();
+        ss.setId("test");
+        ss.initialize();
+        
+        final StorageServiceLoopDetectionRateTracker tracker = new StorageServiceLoopDetectionRateTracker();
+        tracker.setId("loop");
+        tracker.setStorageService(ss);
+        tracker.initialize();
+        
+        pred.setRateTracker(tracker);
+        pred.setRelyingPartyMap(Map.of("bar", "bar"));
+        
+        rpCtx.setRelyingPartyId("bar");
+        for (int i=0; i<20; ++i) {
+            Assert.assertFalse(pred.test(prc));
+        }
+        Assert.assertTrue(pred.test(prc));
+        
+        // A separate tracker on the same storage sees the same counts.
+        final StorageServiceLoopDetectionRateTracker tracker2 = new StorageServiceLoopDetectionRateTracker();
+        tracker2.setId("loop");
+        tracker2.setStorageService(ss);
+        tracker2.initialize();
+        Assert.assertTrue(tracker2.mark("bar!jdoe.1") > 21);
+        
+        tracker.destroy();
+        tracker2.destroy();
+        ss.destroy();
+    }
+
+    @Test
+    public void testBounded() {
+        final InMemoryLoopDetectionRateTracker tracker = new InMemoryLoopDetectionRateTracker(10);
+        pred.setRateTracker(tracker);
+        pred.setRelyingPartyMap(Map.of("bar", "bar"));
+        rpCtx.setRelyingPartyId("bar");
+        
+        for (int i=0; i<100; ++i) {
+            pred.setUsernameLookupStrategy(FunctionSupport.constant("user" + i));
+            Assert.assertFalse(pred.test(prc));
+        }
+        Assert.assertTrue(tracker.size() <= 10);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,345 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.audit.impl;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.component.AbstractIdentifiedInitializableComponent;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Component shared by {@link WriteAuditLog} instances that writes formatted audit records to the
+ * logging subsystem, optionally from a background thread.
+ * 
+ * <p>In asynchronous mode, records are placed on a bounded, lock-free queue drained by a single
+ * daemon thread, so a slow appender does not add latency to the request. When the queue is full,
+ * the {@link OverflowPolicy} determines whether the caller waits for space or the record is
+ * discarded and counted. Records still queued at shutdown are written before the component is
+ * destroyed.</p>
+ * 
+ * <p>Logging state such as the MDC is that of the writer thread, not the request, in asynchronous
+ * mode.</p>
+ * 
+ * @since 5.0.0
+ */
+@ThreadSafe
+public class AuditLogWriter extends AbstractIdentifiedInitializableComponent {
+
+    /** Name of metric tracking the queue depth. */
+    @Nonnull @NotEmpty public static final String QUEUE_DEPTH_METRIC = "net.shibboleth.idp.audit.queueDepth";
+
+    /** Name of metric counting discarded records. */
+    @Nonnull @NotEmpty public static final String DROPPED_METRIC = "net.shibboleth.idp.audit.dropped";
+
+    /** How to handle a record when the queue is full. */
+    public enum OverflowPolicy {
+        /** Wait for space on the queue. */
+        BLOCK,
+        
+        /** Discard the record and count it. */
+        DROP,
+    }
+
+    /** Interval at which idle or blocked threads re-check the queue. */
+    @Nonnull private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AuditLogWriter.class);
+
+    /** Whether to write asynchronously. */
+    private boolean asynchronous;
+
+    /** Maximum number of queued records. */
+    @Positive private int queueCapacity;
+
+    /** Behavior when the queue is full. */
+    @Nonnull private OverflowPolicy overflowPolicy;
+
+    /** Maximum time to wait at shutdown for queued records to be written. */
+    @Nonnull private Duration shutdownTimeout;
+
+    /** Loggers by category and profile logging ID. */
+    @Nonnull private final Map<String,Map<String,Logger>> loggerCache;
+
+    /** Queued records. */
+    @Nonnull private final Queue<QueuedRecord> queue;
+
+    /** Number of queued records, maintained separately to bound the queue without locking. */
+    @Nonnull private final AtomicInteger queueDepth;
+
+    /** Count of discarded records. */
+    @Nullable private Counter droppedCounter;
+
+    /** Background thread draining the queue. */
+    @Nullable private Thread writerThread;
+
+    /** Signals the background thread to finish. */
+    private volatile boolean shuttingDown;
+
+    /** Constructor. */
+    public AuditLogWriter() {
+        queueCapacity = 8192;
+        overflowPolicy = OverflowPolicy.BLOCK;
+        shutdownTimeout = Duration.ofSeconds(5);
+        loggerCache = new ConcurrentHashMap<>();
+        queue = new ConcurrentLinkedQueue<>();
+        queueDepth = new AtomicInteger();
+    }
+
+    /**
+     * Set whether to write records from a background thread.
+     * 
+     * <p>Defaults to false.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setAsynchronous(final boolean flag) {
+        checkSetterPreconditions();
+        asynchronous = flag;
+    }
+
+    /**
+     * Set the maximum number of records to queue in asynchronous mode.
+     * 
+     * <p>Defaults to 8192.</p>
+     * 
+     * @param capacity queue capacity
+     */
+    public void setQueueCapacity(@Positive final int capacity) {
+        checkSetterPreconditions();
+        queueCapacity = Constraint.isGreaterThan(0, capacity, "Queue capacity must be greater than 0");
+    }
+
+    /**
+     * Set the behavior when the queue is full.
+     * 
+     * <p>Defaults to {@link OverflowPolicy#BLOCK}.</p>
+     * 
+     * @param policy overflow policy
+     */
+    public void setOverflowPolicy(@Nonnull final OverflowPolicy policy) {
+        checkSetterPreconditions();
+        overflowPolicy = Constraint.isNotNull(policy, "Overflow policy cannot be null");
+    }
+
+    /**
+     * Set the maximum time to wait at shutdown for queued records to be written.
+     * 
+     * <p>Defaults to 5 seconds.</p>
+     * 
+     * @param timeout shutdown timeout
+     */
+    public void setShutdownTimeout(@Nonnull final Duration timeout) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(timeout, "Timeout cannot be null");
+        Constraint.isFalse(timeout.isNegative(), "Timeout cannot be negative");
+        shutdownTimeout = timeout;
+    }
+
+    /**
+     * Get the number of records currently queued.
+     * 
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (!asynchronous) {
+            return;
+        }
+
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry != null) {
+            registry.remove(QUEUE_DEPTH_METRIC);
+            registry.register(QUEUE_DEPTH_METRIC, (Gauge<Integer>) queueDepth::get);
+            droppedCounter = registry.counter(DROPPED_METRIC);
+        }
+
+        writerThread = new Thread(this::drain, "AuditLogWriter-" + getId());
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (writerThread != null) {
+            shuttingDown = true;
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join(shutdownTimeout.toMillis());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (writerThread.isAlive()) {
+                log.warn("Audit log writer did not finish within {}, {} record(s) may be lost", shutdownTimeout,
+                        queueDepth.get());
+            }
+            writerThread = null;
+            final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+            if (registry != null) {
+                registry.remove(QUEUE_DEPTH_METRIC);
+            }
+        }
+        loggerCache.clear();
+        super.doDestroy();
+    }
+
+    /**
+     * Write a record to a logging category.
+     * 
+     * @param category base logging category
+     * @param loggingId optional profile logging ID to suffix to the category
+     * @param record the formatted record
+     */
+    public void write(@Nonnull @NotEmpty final String category, @Nullable final String loggingId,
+            @Nonnull final String record) {
+        checkComponentActive();
+
+        final QueuedRecord entry = new QueuedRecord(category, loggingId, record);
+        if (writerThread == null || shuttingDown) {
+            doWrite(entry.category, entry.loggingId, entry.record);
+            return;
+        }
+
+        while (true) {
+            final int depth = queueDepth.get();
+            if (depth < queueCapacity) {
+                if (queueDepth.compareAndSet(depth, depth + 1)) {
+                    queue.offer(entry);
+                    if (depth == 0) {
+                        LockSupport.unpark(writerThread);
+                    }
+                    return;
+                }
+            } else if (overflowPolicy == OverflowPolicy.DROP) {
+                if (droppedCounter != null) {
+                    droppedCounter.inc();
+                }
+                return;
+            } else if (shuttingDown) {
+                doWrite(entry.category, entry.loggingId, entry.record);
+                return;
+            } else {
+                LockSupport.parkNanos(POLL_INTERVAL.toNanos());
+            }
+        }
+    }
+
+    /** Background loop that writes queued records until shutdown, and then writes any that remain. */
+    private void drain() {
+        while (true) {
+            final QueuedRecord entry = queue.poll();
+            if (entry != null) {
+                queueDepth.decrementAndGet();
+                try {
+                    doWrite(entry.category, entry.loggingId, entry.record);
+                } catch (final RuntimeException e) {
+                    log.error("Error writing audit record", e);
+                }
+            } else if (shuttingDown) {
+                return;
+            } else {
+                LockSupport.parkNanos(this, POLL_INTERVAL.toNanos());
+            }
+        }
+    }
+
+    /**
+     * Write a record to its logger.
+     * 
+     * <p>This is called on the writer thread in asynchronous mode.</p>
+     * 
+     * @param category base logging category
+     * @param loggingId optional profile logging ID to suffix to the category
+     * @param record the formatted record
+     */
+    protected void doWrite(@Nonnull @NotEmpty final String category, @Nullable final String loggingId,
+            @Nonnull final String record) {
+        getLogger(category, loggingId).info(record);
+    }
+
+    /**
+     * Get the logger for a category, suffixed by a logging ID if supplied.
+     * 
+     * @param category base logging category
+     * @param loggingId optional profile logging ID
+     * 
+     * @return the logger
+     */
+    @Nonnull private Logger getLogger(@Nonnull @NotEmpty final String category, @Nullable final String loggingId) {
+        final Map<String,Logger> loggers = loggerCache.computeIfAbsent(category, c -> new ConcurrentHashMap<>());
+        final String key = loggingId != null ? loggingId : "";
+        return loggers.computeIfAbsent(key,
+                k -> LoggerFactory.getLogger(loggingId != null ? category + '.' + loggingId : category));
+    }
+
+    /** A formatted record awaiting output. */
+    private static final class QueuedRecord {
+
+        /** Base logging category. */
+        @Nonnull @NotEmpty private final String category;
+
+        /** Optional profile logging ID. */
+        @Nullable private final String loggingId;
+
+        /** The formatted record. */
+        @Nonnull private final String record;
+
+        /**
+         * Constructor.
+         * 
+         * @param cat base logging category
+         * @param id optional profile logging ID
+         * @param rec the formatted record
+         */
+        QueuedRecord(@Nonnull @NotEmpty final String cat, @Nullable final String id, @Nonnull final String rec) {
+            category = cat;
+            loggingId = id;
+            record = rec;
+        }
+    }
+
+}
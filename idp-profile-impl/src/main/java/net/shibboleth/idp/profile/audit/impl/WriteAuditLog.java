@@ -25,9 +25,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
@@ -61,6 +63,19 @@ import net.shibboleth.shared.servlet.HttpServletSupport;
  */
 public class WriteAuditLog extends AbstractProfileAction {
 
+    /**
+     * Output formats for records.
+     * 
+     * @since 5.0.0
+     */
+    public enum OutputFormat {
+        /** Formatting string with literals and field values, multiple values separated by commas. */
+        TEXT,
+        
+        /** A JSON object mapping each field in the formatting string to an array of its values. */
+        JSON,
+    }
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(WriteAuditLog.class);
     
@@ -82,6 +97,18 @@ public class WriteAuditLog extends AbstractProfileAction {
     /* Include profile's logging ID in category. */
     private boolean includeProfileLoggingId;
     
+    /** Output format for records. */
+    @Nonnull private OutputFormat outputFormat;
+    
+    /** Optional shared component to write records through. */
+    @Nullable private AuditLogWriter auditLogWriter;
+    
+    /** Optional shared formats to apply in place of {@link #formattingMap} and {@link #categoriesToLog}. */
+    @Nullable private CompiledFormats compiledFormats;
+    
+    /** Formats to apply, obtained from {@link #compiledFormats} or compiled at initialization. */
+    @Nonnull @NonnullElements private List<CompiledFormat> formats;
+    
     /** The Spring RequestContext to operate on. */
     @Nullable private RequestContext requestContext;
 
@@ -95,6 +122,8 @@ public class WriteAuditLog extends AbstractProfileAction {
         categoriesToLog = Collections.emptyList();
         dateTimeFormatter = DateTimeFormatter.ISO_INSTANT;
         includeProfileLoggingId = true;
+        formats = Collections.emptyList();
+        outputFormat = OutputFormat.TEXT;
     }
 
     /**
@@ -117,7 +146,6 @@ public class WriteAuditLog extends AbstractProfileAction {
         return Map.copyOf(formattingMap);
     }
     
-// Checkstyle: CyclomaticComplexity OFF
     /**
      * Set the map of logging category to formatting strings for log entries.
      * 
@@ -130,51 +158,8 @@ public class WriteAuditLog extends AbstractProfileAction {
     public void setFormattingMap(@Nullable @NonnullElements final Map<String,String> map) {
         checkSetterPreconditions();
         
-        if (map == null) {
-            formattingMap = Collections.emptyMap();
-            return;
-        }
-        
-        formattingMap = new HashMap<>(map.size());
-        
-        for (final Map.Entry<String,String> entry : map.entrySet()) {
-            final String category = StringSupport.trimOrNull(entry.getKey());
-            final String s = StringSupport.trimOrNull(entry.getValue());
-            if (category == null || s == null) {
-                continue;
-            }
-            
-            final int len = s.length();
-            boolean inToken = false;
-            final List<String> format = new ArrayList<>();
-            final StringBuilder field = new StringBuilder();
-            for (int pos = 0; pos < len; ++pos) {
-                final char ch = s.charAt(pos);
-                if (inToken) {
-                    if (!Character.isLetterOrDigit(ch) && ch != '-' && ch != '%') {
-                        format.add(field.toString());
-                        field.setLength(0);
-                        inToken = false;
-                    }
-                } else if (ch == '%') {
-                    if (field.length() > 0) {
-                        format.add(field.toString());
-                        field.setLength(0);
-                    }
-                    inToken = true;
-                }
-                
-                field.append(ch);
-            }
-            
-            if (field.length() > 0) {
-                format.add(field.toString());
-            }
-            
-            formattingMap.put(category, format);
-        }
+        formattingMap = map != null ? parseFormattingMap(map) : Collections.emptyMap();
     }
-// Checkstyle: CyclomaticComplexity ON
 
     /**
      * Set categories to log explicitly.
@@ -232,6 +217,53 @@ public class WriteAuditLog extends AbstractProfileAction {
         includeProfileLoggingId = flag;
     }
     
+    /**
+     * Set the output format for records.
+     * 
+     * <p>Defaults to {@link OutputFormat#TEXT}. The {@link OutputFormat#JSON} format uses the same formatting
+     * map and categories but ignores literals, producing records that can be consumed without being parsed
+     * back into fields.</p>
+     * 
+     * @param format output format
+     * 
+     * @since 5.0.0
+     */
+    public void setOutputFormat(@Nonnull final OutputFormat format) {
+        checkSetterPreconditions();
+        outputFormat = Constraint.isNotNull(format, "Output format cannot be null");
+    }
+    
+    /**
+     * Set a shared component to write records through, in place of direct logging.
+     * 
+     * <p>This allows records to be written asynchronously to avoid adding appender latency
+     * to the request.</p>
+     * 
+     * @param writer audit log writer
+     * 
+     * @since 5.0.0
+     */
+    public void setAuditLogWriter(@Nullable final AuditLogWriter writer) {
+        checkSetterPreconditions();
+        auditLogWriter = writer;
+    }
+    
+    /**
+     * Set formats compiled once and shared across instances, in place of {@link #setFormattingMap(Map)}
+     * and {@link #setCategoriesToLog(Collection)}.
+     * 
+     * <p>Action beans are usually instantiated per request, so a shared instance avoids compiling
+     * the formatting map each time.</p>
+     * 
+     * @param formats compiled formats
+     * 
+     * @since 5.0.0
+     */
+    public void setCompiledFormats(@Nullable final CompiledFormats formats) {
+        checkSetterPreconditions();
+        compiledFormats = formats;
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -242,6 +274,305 @@ public class WriteAuditLog extends AbstractProfileAction {
         } else {
             dateTimeFormatter = dateTimeFormatter.withZone(ZoneOffset.UTC);
         }
+        
+        if (compiledFormats != null) {
+            formats = compiledFormats.formats;
+        } else {
+            formats = compile(formattingMap, categoriesToLog);
+        }
+    }
+    
+    /**
+     * Append a record in {@link OutputFormat#TEXT} format.
+     * 
+     * @param format compiled format
+     * @param profileRequestContext current profile request context
+     * @param record buffer to append to
+     */
+    private void appendText(@Nonnull final CompiledFormat format,
+            @Nonnull final ProfileRequestContext profileRequestContext, @Nonnull final StringBuilder record) {
+        for (int i = 0; i < format.literals.length; ++i) {
+            final FieldType type = format.types[i];
+            if (type == null) {
+                record.append(format.literals[i]);
+            } else {
+                final Iterator<String> iter = extract(type, format.literals[i], profileRequestContext).iterator();
+                while (iter.hasNext()) {
+                    record.append(iter.next());
+                    if (iter.hasNext()) {
+                        record.append(',');
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Append a record in {@link OutputFormat#JSON} format.
+     * 
+     * @param format compiled format
+     * @param profileRequestContext current profile request context
+     * @param record buffer to append to
+     */
+    private void appendJSON(@Nonnull final CompiledFormat format,
+            @Nonnull final ProfileRequestContext profileRequestContext, @Nonnull final StringBuilder record) {
+        record.append('{');
+        boolean first = true;
+        for (int i = 0; i < format.literals.length; ++i) {
+            final FieldType type = format.types[i];
+            if (type == null || format.repeated[i]) {
+                continue;
+            }
+            if (!first) {
+                record.append(',');
+            }
+            first = false;
+            appendJSONString(format.literals[i], record);
+            record.append(":[");
+            final Iterator<String> iter = extract(type, format.literals[i], profileRequestContext).iterator();
+            while (iter.hasNext()) {
+                appendJSONString(iter.next(), record);
+                if (iter.hasNext()) {
+                    record.append(',');
+                }
+            }
+            record.append(']');
+        }
+        record.append('}');
+    }
+    
+    /**
+     * Append a value as a quoted and escaped JSON string.
+     * 
+     * @param value value to append
+     * @param record buffer to append to
+     */
+    private static void appendJSONString(@Nonnull final String value, @Nonnull final StringBuilder record) {
+        record.append('"');
+        final int len = value.length();
+        for (int pos = 0; pos < len; ++pos) {
+            final char ch = value.charAt(pos);
+            switch (ch) {
+                case '"':
+                    record.append("\\\"");
+                    break;
+                case '\\':
+                    record.append("\\\\");
+                    break;
+                case '\n':
+                    record.append("\\n");
+                    break;
+                case '\r':
+                    record.append("\\r");
+                    break;
+                case '\t':
+                    record.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        record.append(String.format("\\u%04x", (int) ch));
+                    } else {
+                        record.append(ch);
+                    }
+            }
+        }
+        record.append('"');
+    }
+    
+// Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Parse a map of logging category to formatting strings into formatting tokens and literals.
+     * 
+     * @param map map of categories to formatting strings
+     * 
+     * @return map of categories to formatting tokens and literals
+     */
+    @Nonnull @NonnullElements private static Map<String,List<String>> parseFormattingMap(
+            @Nonnull @NonnullElements final Map<String,String> map) {
+        
+        final Map<String,List<String>> parsed = new HashMap<>(map.size());
+        
+        for (final Map.Entry<String,String> entry : map.entrySet()) {
+            final String category = StringSupport.trimOrNull(entry.getKey());
+            final String s = StringSupport.trimOrNull(entry.getValue());
+            if (category == null || s == null) {
+                continue;
+            }
+            
+            final int len = s.length();
+            boolean inToken = false;
+            final List<String> format = new ArrayList<>();
+            final StringBuilder field = new StringBuilder();
+            for (int pos = 0; pos < len; ++pos) {
+                final char ch = s.charAt(pos);
+                if (inToken) {
+                    if (!Character.isLetterOrDigit(ch) && ch != '-' && ch != '%') {
+                        format.add(field.toString());
+                        field.setLength(0);
+                        inToken = false;
+                    }
+                } else if (ch == '%') {
+                    if (field.length() > 0) {
+                        format.add(field.toString());
+                        field.setLength(0);
+                    }
+                    inToken = true;
+                }
+                
+                field.append(ch);
+            }
+            
+            if (field.length() > 0) {
+                format.add(field.toString());
+            }
+            
+            parsed.put(category, format);
+        }
+        
+        return parsed;
+    }
+// Checkstyle: CyclomaticComplexity ON
+    
+    /**
+     * Compile the formats for the categories to log.
+     * 
+     * @param map map of categories to formatting tokens and literals
+     * @param categories categories to log, or empty for all
+     * 
+     * @return the compiled formats
+     */
+    @Nonnull @NonnullElements @Unmodifiable private static List<CompiledFormat> compile(
+            @Nonnull @NonnullElements final Map<String,List<String>> map,
+            @Nonnull @NonnullElements final Collection<String> categories) {
+        final List<CompiledFormat> compiled = new ArrayList<>(map.size());
+        for (final Map.Entry<String,List<String>> entry : map.entrySet()) {
+            if (categories.isEmpty() || categories.contains(entry.getKey())) {
+                compiled.add(compile(entry.getKey(), entry.getValue()));
+            }
+        }
+        return List.copyOf(compiled);
+    }
+    
+    /**
+     * Compile a list of formatting tokens into literals and field types.
+     * 
+     * @param category logging category
+     * @param tokens formatting tokens and literals
+     * 
+     * @return the compiled format
+     */
+    @Nonnull private static CompiledFormat compile(@Nonnull @NotEmpty final String category,
+            @Nonnull @NonnullElements final List<String> tokens) {
+        final String[] literals = new String[tokens.size()];
+        final FieldType[] types = new FieldType[tokens.size()];
+        final boolean[] repeated = new boolean[tokens.size()];
+        final Set<String> fields = new HashSet<>();
+        
+        for (int i = 0; i < literals.length; ++i) {
+            final String token = tokens.get(i);
+            if (!token.startsWith("%")) {
+                literals[i] = token;
+            } else if (token.length() == 1 || token.charAt(1) == '%') {
+                literals[i] = "%";
+            } else {
+                literals[i] = token.substring(1);
+                types[i] = FieldType.forField(literals[i]);
+                repeated[i] = !fields.add(literals[i]);
+            }
+        }
+        
+        return new CompiledFormat(category, literals, types, repeated);
+    }
+    
+    /**
+     * Get the values of a field for the current request.
+     * 
+     * @param type field type
+     * @param field field name
+     * @param profileRequestContext current profile request context
+     * 
+     * @return field values
+     */
+    @Nonnull @NonnullElements private Collection<String> extract(@Nonnull final FieldType type,
+            @Nonnull @NotEmpty final String field, @Nonnull final ProfileRequestContext profileRequestContext) {
+        switch (type) {
+            case EVENT_TIME:
+                return Collections.singletonList(dateTimeFormatter.format(Instant.now()));
+                
+            case EVENT_TYPE:
+                return eventTypeValues();
+                
+            case PROFILE:
+                return singletonOrEmpty(profileRequestContext.getProfileId());
+                
+            case REMOTE_ADDR:
+                return requestFieldValues(field, HttpServletSupport::getRemoteAddr);
+
+            case URI:
+                return requestFieldValues(field, HttpServletRequest::getRequestURI);
+
+            case URL:
+                return requestFieldValues(field, request -> request.getRequestURL().toString());
+
+            case USER_AGENT:
+                return requestFieldValues(field, request -> request.getHeader("User-Agent"));
+                
+            default:
+                return auditFieldValues(field);
+        }
+    }
+    
+    /**
+     * Get the event signaled, if other than {@link EventIds#PROCEED_EVENT_ID}.
+     * 
+     * @return field values
+     */
+    @Nonnull @NonnullElements private Collection<String> eventTypeValues() {
+        final Event event = requestContext != null ? requestContext.getCurrentEvent() : null;
+        if (event != null && !event.getId().equals(EventIds.PROCEED_EVENT_ID)) {
+            return Collections.singletonList(event.getId());
+        }
+        return Collections.emptyList();
+    }
+    
+    /**
+     * Get the values of a field taken from the servlet request, falling back to the {@link AuditContext}
+     * if no request is available.
+     * 
+     * @param field field name
+     * @param extractor function to obtain the field from the request
+     * 
+     * @return field values
+     */
+    @Nonnull @NonnullElements private Collection<String> requestFieldValues(@Nonnull @NotEmpty final String field,
+            @Nonnull final Function<HttpServletRequest,String> extractor) {
+        final HttpServletRequest httpRequest = getHttpServletRequest();
+        if (httpRequest != null) {
+            return singletonOrEmpty(extractor.apply(httpRequest));
+        }
+        return auditFieldValues(field);
+    }
+    
+    /**
+     * Get the values of a field from the {@link AuditContext}, if any.
+     * 
+     * @param field field name
+     * 
+     * @return field values
+     */
+    @Nonnull @NonnullElements private Collection<String> auditFieldValues(@Nonnull @NotEmpty final String field) {
+        return auditCtx != null ? auditCtx.getFieldValues(field) : Collections.emptyList();
+    }
+    
+    /**
+     * Wrap a possibly null value as a collection.
+     * 
+     * @param value input value
+     * 
+     * @return a singleton or empty collection
+     */
+    @Nonnull @NonnullElements private static Collection<String> singletonOrEmpty(@Nullable final String value) {
+        return value != null ? Collections.singletonList(value) : Collections.emptyList();
     }
 
     /** {@inheritDoc} */
@@ -257,7 +588,7 @@ public class WriteAuditLog extends AbstractProfileAction {
     protected boolean doPreExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
         if (!super.doPreExecute(profileRequestContext)) {
             return false;
-        } else if (formattingMap.isEmpty()) {
+        } else if (formats.isEmpty()) {
             log.debug("No formatting for audit records supplied, nothing to do");
             return false;
         }
@@ -266,72 +597,33 @@ public class WriteAuditLog extends AbstractProfileAction {
         return true;
     }
     
-// Checkstyle: CyclomaticComplexity OFF
     /** {@inheritDoc} */
     @Override
     protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
 
-        for (final Map.Entry<String,List<String>> entry : formattingMap.entrySet()) {
-            
-            if (!categoriesToLog.isEmpty() && !categoriesToLog.contains(entry.getKey())) {
-                continue;
-            }
+        final String loggingId = includeProfileLoggingId ? profileRequestContext.getLoggingId() : null;
         
-            final StringBuilder record = new StringBuilder();
-    
-            for (final String token : entry.getValue()) {
-                if (token.startsWith("%")) {
-                    if (token.length() == 1 || token.charAt(1) == '%') {
-                        record.append('%');
-                    } else {
-                        final String field = token.substring(1);
-                        final HttpServletRequest httpRequest = getHttpServletRequest();
-                        
-                        if (IdPAuditFields.EVENT_TIME.equals(field)) {
-                            record.append(dateTimeFormatter.format(Instant.now()));
-                        } else if (IdPAuditFields.EVENT_TYPE.equals(field)) {
-                            final Event event = requestContext.getCurrentEvent();
-                            if (event != null && !event.getId().equals(EventIds.PROCEED_EVENT_ID)) {
-                                record.append(event.getId());
-                            }
-                        } else if (IdPAuditFields.PROFILE.equals(field)) {
-                            record.append(profileRequestContext.getProfileId());
-                        } else if (IdPAuditFields.REMOTE_ADDR.equals(field) && httpRequest != null) {
-                            record.append(HttpServletSupport.getRemoteAddr(httpRequest));
-                        } else if (IdPAuditFields.URI.equals(field) && httpRequest != null) {
-                            record.append(httpRequest.getRequestURI());
-                        } else if (IdPAuditFields.URL.equals(field) && httpRequest != null) {
-                            record.append(httpRequest.getRequestURL());
-                        } else if (IdPAuditFields.USER_AGENT.equals(field) && httpRequest != null) {
-                            record.append(httpRequest.getHeader("User-Agent"));
-                        } else if (auditCtx != null) {
-                            final Iterator<String> iter = auditCtx.getFieldValues(field).iterator();
-                            while (iter.hasNext()) {
-                                record.append(iter.next());
-                                if (iter.hasNext()) {
-                                    record.append(',');
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    record.append(token);
-                }
+        final StringBuilder record = new StringBuilder(256);
+        for (final CompiledFormat format : formats) {
+            record.setLength(0);
+            
+            if (outputFormat == OutputFormat.JSON) {
+                appendJSON(format, profileRequestContext, record);
+            } else {
+                appendText(format, profileRequestContext, record);
             }
             
             filter(record);
             
-            final String category;
-            if (includeProfileLoggingId) {
-                category = entry.getKey() + '.' + profileRequestContext.getLoggingId();
+            if (auditLogWriter != null) {
+                auditLogWriter.write(format.category, loggingId, record.toString());
+            } else if (loggingId != null) {
+                LoggerFactory.getLogger(format.category + '.' + loggingId).info(record.toString());
             } else {
-                category = entry.getKey();
+                LoggerFactory.getLogger(format.category).info(record.toString());
             }
-            
-            LoggerFactory.getLogger(category).info(record.toString());
         }
     }
-// Checkstyle: CyclomaticComplexity ON
     
     /**
      * Optional override to filter the outgoing log message, does nothing by default.
@@ -342,4 +634,126 @@ public class WriteAuditLog extends AbstractProfileAction {
         
     }
     
+    /**
+     * A formatting map and optional categories to log, compiled once so that it can be shared
+     * across instances of the action.
+     * 
+     * @since 5.0.0
+     */
+    public static final class CompiledFormats {
+        
+        /** Compiled formats. */
+        @Nonnull @NonnullElements @Unmodifiable private final List<CompiledFormat> formats;
+        
+        /**
+         * Constructor.
+         * 
+         * @param map map of categories to formatting strings
+         */
+        public CompiledFormats(@Nonnull @NonnullElements final Map<String,String> map) {
+            this(map, null);
+        }
+        
+        /**
+         * Constructor.
+         * 
+         * @param map map of categories to formatting strings
+         * @param categories categories to log, or null for all
+         */
+        public CompiledFormats(@Nonnull @NonnullElements final Map<String,String> map,
+                @Nullable @NonnullElements final Collection<String> categories) {
+            Constraint.isNotNull(map, "Formatting map cannot be null");
+            formats = compile(parseFormattingMap(map),
+                    categories != null ? List.copyOf(categories) : Collections.emptyList());
+        }
+    }
+    
+    /** Source of the values of a field. */
+    private enum FieldType {
+        
+        /** Time of the event. */
+        EVENT_TIME,
+        
+        /** Non-proceed event signaled. */
+        EVENT_TYPE,
+        
+        /** Profile identifier. */
+        PROFILE,
+        
+        /** Client address. */
+        REMOTE_ADDR,
+        
+        /** Request URI. */
+        URI,
+        
+        /** Request URL. */
+        URL,
+        
+        /** Client User-Agent. */
+        USER_AGENT,
+        
+        /** Values from the {@link AuditContext}. */
+        AUDIT;
+        
+        /**
+         * Get the type of a field.
+         * 
+         * @param field field name
+         * 
+         * @return the field type
+         */
+        @Nonnull static FieldType forField(@Nonnull @NotEmpty final String field) {
+            switch (field) {
+                case IdPAuditFields.EVENT_TIME:
+                    return EVENT_TIME;
+                case IdPAuditFields.EVENT_TYPE:
+                    return EVENT_TYPE;
+                case IdPAuditFields.PROFILE:
+                    return PROFILE;
+                case IdPAuditFields.REMOTE_ADDR:
+                    return REMOTE_ADDR;
+                case IdPAuditFields.URI:
+                    return URI;
+                case IdPAuditFields.URL:
+                    return URL;
+                case IdPAuditFields.USER_AGENT:
+                    return USER_AGENT;
+                default:
+                    return AUDIT;
+            }
+        }
+    }
+    
+    /** A formatting string for a category, compiled into literals and field types. */
+    private static final class CompiledFormat {
+        
+        /** Logging category. */
+        @Nonnull @NotEmpty private final String category;
+        
+        /** Literal text, or field names in positions with an extractor. */
+        @Nonnull private final String[] literals;
+        
+        /** Field types, or null in literal positions. */
+        @Nonnull private final FieldType[] types;
+        
+        /** Whether each field position repeats a field that appears earlier. */
+        @Nonnull private final boolean[] repeated;
+        
+        /**
+         * Constructor.
+         * 
+         * @param cat logging category
+         * @param lits literals and field names
+         * @param fieldTypes field types
+         * @param reps repeated field flags
+         */
+        CompiledFormat(@Nonnull @NotEmpty final String cat, @Nonnull final String[] lits,
+                @Nonnull final FieldType[] fieldTypes, @Nonnull final boolean[] reps) {
+            category = cat;
+            literals = lits;
+            types = fieldTypes;
+            repeated = reps;
+        }
+    }
+    
 }
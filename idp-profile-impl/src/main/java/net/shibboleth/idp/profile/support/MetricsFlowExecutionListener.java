@@ -0,0 +1,165 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.support;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.springframework.webflow.core.collection.AttributeMap;
+import org.springframework.webflow.execution.FlowExecutionListener;
+import org.springframework.webflow.execution.FlowSession;
+import org.springframework.webflow.execution.RequestContext;
+
+import com.codahale.metrics.MetricRegistry;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+
+/**
+ * Records timers for the processing time of flow executions.
+ * 
+ * <p>Two kinds of timer are maintained, both named after the flow ID:</p>
+ * <ul>
+ * <li>"net.shibboleth.idp.timers.request.&lt;flowId&gt;" measures each request handled by an execution of a
+ * top-level flow, such as a profile flow, from submission until the response is ready or a view is rendered.</li>
+ * <li>"net.shibboleth.idp.timers.subflow.&lt;flowId&gt;" measures each subflow, such as an authentication or
+ * intercept flow, that starts and ends within a single request, which excludes time spent waiting for
+ * the user.</li>
+ * </ul>
+ * 
+ * <p>The cost per request is a few clock reads and timer updates, and timers are subject to the usual
+ * logging-driven filtering of the metric registry.</p>
+ * 
+ * @since 5.0.0
+ */
+public class MetricsFlowExecutionListener implements FlowExecutionListener {
+
+    /** Prefix of request timer names. */
+    @Nonnull @NotEmpty public static final String REQUEST_TIMER_PREFIX = "net.shibboleth.idp.timers.request";
+
+    /** Prefix of subflow timer names. */
+    @Nonnull @NotEmpty public static final String SUBFLOW_TIMER_PREFIX = "net.shibboleth.idp.timers.subflow";
+    
+    /** Request attribute holding the request start time. */
+    @Nonnull @NotEmpty private static final String REQUEST_START_ATTR =
+            MetricsFlowExecutionListener.class.getName() + ".start";
+
+    /** Request attribute holding the start times of subflows started during the request. */
+    @Nonnull @NotEmpty private static final String SUBFLOW_START_ATTR =
+            MetricsFlowExecutionListener.class.getName() + ".subflows";
+    
+    /** Whether the listener is enabled. */
+    private boolean enabled;
+    
+    /**
+     * Set whether the listener is enabled.
+     * 
+     * <p>Defaults to false.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setEnabled(final boolean flag) {
+        enabled = flag;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void requestSubmitted(final RequestContext context) {
+        if (enabled) {
+            context.getAttributes().put(REQUEST_START_ATTR, System.nanoTime());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void requestProcessed(final RequestContext context) {
+        if (!enabled) {
+            return;
+        }
+        
+        final Long start = context.getAttributes().getLong(REQUEST_START_ATTR);
+        if (start != null && context.getFlowExecutionContext().getDefinition() != null) {
+            record(REQUEST_TIMER_PREFIX, context.getFlowExecutionContext().getDefinition().getId(), start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void sessionStarted(final RequestContext context, final FlowSession session) {
+        if (enabled && session.getParent() != null) {
+            getSubflowStarts(context, true).put(session, System.nanoTime());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void sessionEnded(final RequestContext context, final FlowSession session, final String outcome,
+            final AttributeMap<?> output) {
+        if (!enabled || session.getParent() == null) {
+            return;
+        }
+        
+        final Map<FlowSession,Long> starts = getSubflowStarts(context, false);
+        if (starts != null) {
+            final Long start = starts.remove(session);
+            if (start != null) {
+                record(SUBFLOW_TIMER_PREFIX, session.getDefinition().getId(), start);
+            }
+        }
+    }
+    
+    /**
+     * Get the start times of subflows started during the current request.
+     * 
+     * @param context current request context
+     * @param create whether to create the map if absent
+     * 
+     * @return start times by flow session
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable private Map<FlowSession,Long> getSubflowStarts(@Nonnull final RequestContext context,
+            final boolean create) {
+        Map<FlowSession,Long> starts = (Map<FlowSession,Long>) context.getAttributes().get(SUBFLOW_START_ATTR);
+        if (starts == null && create) {
+            starts = new IdentityHashMap<>();
+            context.getAttributes().put(SUBFLOW_START_ATTR, starts);
+        }
+        return starts;
+    }
+    
+    /**
+     * Update a timer.
+     * 
+     * @param prefix timer name prefix
+     * @param flowId flow ID
+     * @param start start time in nanoseconds
+     */
+    private void record(@Nonnull @NotEmpty final String prefix, @Nonnull @NotEmpty final String flowId,
+            final long start) {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry != null) {
+            registry.timer(MetricRegistry.name(prefix, flowId)).update(System.nanoTime() - start,
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.support;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.profile.context.MetricContext;
+import org.opensaml.profile.context.ProfileRequestContext;
+
+import net.shibboleth.shared.annotation.constraint.NonnullElements;
+import net.shibboleth.shared.primitive.StringSupport;
+
+/**
+ * Strategy for use with {@link org.opensaml.profile.action.impl.PopulateMetricContext} that adds a fixed
+ * set of timers, each measuring the execution of a single action or message handler.
+ * 
+ * <p>Actions are identified by the simple name of their class, which is how actions report themselves to
+ * the {@link MetricContext}. An empty map signals failure so that no context is left in place.</p>
+ * 
+ * @since 5.0.0
+ */
+public class TimerMetricStrategy implements Function<ProfileRequestContext,Boolean> {
+
+    /** Map of timer names to the object to time. */
+    @Nonnull @NonnullElements private Map<String,String> timerMap;
+    
+    /** Constructor. */
+    public TimerMetricStrategy() {
+        timerMap = Collections.emptyMap();
+    }
+
+    /**
+     * Set the map of timer names to the object to time.
+     * 
+     * @param map map of timer names to object IDs
+     */
+    public void setTimerMap(@Nullable @NonnullElements final Map<String,String> map) {
+        if (map == null) {
+            timerMap = Collections.emptyMap();
+            return;
+        }
+        
+        timerMap = Map.copyOf(map);
+        for (final Map.Entry<String,String> entry : timerMap.entrySet()) {
+            if (StringSupport.trimOrNull(entry.getKey()) == null
+                    || StringSupport.trimOrNull(entry.getValue()) == null) {
+                throw new IllegalArgumentException("Timer names and object IDs cannot be empty");
+            }
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Nullable public Boolean apply(@Nullable final ProfileRequestContext input) {
+        final MetricContext metricCtx = input != null ? input.getSubcontext(MetricContext.class) : null;
+        if (metricCtx == null || timerMap.isEmpty()) {
+            return false;
+        }
+        
+        for (final Map.Entry<String,String> entry : timerMap.entrySet()) {
+            metricCtx.addTimer(entry.getKey(), entry.getValue(), entry.getValue());
+        }
+        
+        return true;
+    }
+
+}
@@ -19,8 +19,12 @@ package net.shibboleth.idp.relyingparty.impl;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -35,6 +39,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
 import net.shibboleth.idp.profile.config.SecurityConfiguration;
+import net.shibboleth.idp.profile.context.navigate.RelyingPartyIdLookupFunction;
+import net.shibboleth.idp.profile.logic.RelyingPartyIdPredicate;
 import net.shibboleth.idp.profile.logic.VerifiedProfilePredicate;
 import net.shibboleth.idp.relyingparty.RelyingPartyConfiguration;
 import net.shibboleth.idp.relyingparty.RelyingPartyConfigurationResolver;
@@ -55,10 +61,19 @@ import net.shibboleth.shared.resolver.ResolverException;
  * <p>
  * Note that this resolver does not permit more than one {@link RelyingPartyConfiguration} with the same ID.
  * </p>
+ * 
+ * <p>
+ * Configurations activated solely by a fixed set of relying party IDs (i.e., a {@link RelyingPartyIdPredicate}
+ * built from candidate values) are indexed by ID, so only the remaining configurations need their conditions
+ * evaluated for each request. Results are the same as evaluating every configuration in order.
+ * </p>
  */
 public class DefaultRelyingPartyConfigurationResolver extends AbstractIdentifiableInitializableComponent
         implements RelyingPartyConfigurationResolver {
 
+    /** Empty set of positions. */
+    @Nonnull private static final int[] NO_POSITIONS = new int[0];
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(DefaultRelyingPartyConfigurationResolver.class);
 
@@ -82,6 +97,15 @@ public class DefaultRelyingPartyConfigurationResolver extends AbstractIdentifiab
     
     /** The global list of all configured encryption credentials. */
     @Nullable private List<Credential> encryptionCredentials;
+    
+    /** Lookup strategy for relying party ID used with the index. */
+    @Nonnull private final Function<ProfileRequestContext,String> relyingPartyIdLookupStrategy;
+    
+    /** Positions of configurations activated by a fixed relying party ID, in ascending order, by ID. */
+    @NonnullAfterInit private Map<String,int[]> configurationIndex;
+    
+    /** Positions of configurations whose conditions must be evaluated, in ascending order. */
+    @NonnullAfterInit private int[] dynamicConfigurations;
 
     /** Constructor. */
     public DefaultRelyingPartyConfigurationResolver() {
@@ -89,6 +113,7 @@ public class DefaultRelyingPartyConfigurationResolver extends AbstractIdentifiab
         verificationPredicate = new VerifiedProfilePredicate();
         signingCredentials = Collections.emptyList();
         encryptionCredentials = Collections.emptyList();
+        relyingPartyIdLookupStrategy = new RelyingPartyIdLookupFunction();
     }
     
     /**
@@ -192,6 +217,27 @@ public class DefaultRelyingPartyConfigurationResolver extends AbstractIdentifiab
             }
             configIds.add(config.getId());
         }
+        
+        final Map<String,List<Integer>> positionsById = new HashMap<>();
+        final List<Integer> dynamic = new ArrayList<>();
+        for (int i = 0; i < rpConfigurations.size(); ++i) {
+            final Set<String> ids = getIndexableIds(rpConfigurations.get(i));
+            if (ids != null) {
+                for (final String id : ids) {
+                    positionsById.computeIfAbsent(id, k -> new ArrayList<>()).add(i);
+                }
+            } else {
+                dynamic.add(i);
+            }
+        }
+        
+        configurationIndex = new HashMap<>(positionsById.size());
+        positionsById.forEach((id, positions) ->
+            configurationIndex.put(id, positions.stream().mapToInt(Integer::intValue).toArray()));
+        dynamicConfigurations = dynamic.stream().mapToInt(Integer::intValue).toArray();
+        
+        log.debug("Indexed {} relying party configurations by ID, {} require evaluation",
+                rpConfigurations.size() - dynamicConfigurations.length, dynamicConfigurations.length);
     }
 
     /** {@inheritDoc} */
@@ -216,13 +262,22 @@ public class DefaultRelyingPartyConfigurationResolver extends AbstractIdentifiab
 
         final ArrayList<RelyingPartyConfiguration> matches = new ArrayList<>();
 
-        for (final RelyingPartyConfiguration configuration : rpConfigurations) {
-            log.debug("Checking if relying party configuration {} is applicable", configuration.getId());
-            if (configuration.test(context)) {
-                log.debug("Relying party configuration {} is applicable", configuration.getId());
-                matches.add(configuration);
-            } else {
-                log.debug("Relying party configuration {} is not applicable", configuration.getId());
+        final int[] indexed = getIndexedPositions(context);
+        if (indexed != null) {
+            // Merge the indexed matches with the evaluated configurations, preserving the original order.
+            int i = 0;
+            for (final int position : dynamicConfigurations) {
+                while (i < indexed.length && indexed[i] < position) {
+                    matches.add(rpConfigurations.get(indexed[i++]));
+                }
+                checkApplicable(rpConfigurations.get(position), context, matches);
+            }
+            while (i < indexed.length) {
+                matches.add(rpConfigurations.get(indexed[i++]));
+            }
+        } else {
+            for (final RelyingPartyConfiguration configuration : rpConfigurations) {
+                checkApplicable(configuration, context, matches);
             }
         }
 
@@ -254,13 +309,29 @@ public class DefaultRelyingPartyConfigurationResolver extends AbstractIdentifiab
             return getUnverifiedConfiguration();
         }
 
-        for (final RelyingPartyConfiguration configuration : rpConfigurations) {
-            log.debug("Checking if relying party configuration {} is applicable", configuration.getId());
-            if (configuration.test(context)) {
-                log.debug("Relying party configuration {} is applicable", configuration.getId());
-                return configuration;
+        final int[] indexed = getIndexedPositions(context);
+        if (indexed != null) {
+            // Only configurations ahead of the first indexed match need to be evaluated.
+            final int first = indexed.length > 0 ? indexed[0] : rpConfigurations.size();
+            for (final int position : dynamicConfigurations) {
+                if (position > first) {
+                    break;
+                }
+                final RelyingPartyConfiguration configuration = rpConfigurations.get(position);
+                if (checkApplicable(configuration, context, null)) {
+                    return configuration;
+                }
+            }
+            if (first < rpConfigurations.size()) {
+                log.debug("Relying party configuration {} is applicable", rpConfigurations.get(first).getId());
+                return rpConfigurations.get(first);
+            }
+        } else {
+            for (final RelyingPartyConfiguration configuration : rpConfigurations) {
+                if (checkApplicable(configuration, context, null)) {
+                    return configuration;
+                }
             }
-            log.debug("Relying party configuration {} is not applicable", configuration.getId());
         }
 
         log.debug("No relying party configurations are applicable, returning the default configuration {}",
@@ -268,6 +339,67 @@ public class DefaultRelyingPartyConfigurationResolver extends AbstractIdentifiab
         return getDefaultConfiguration();
     }
 
+    /**
+     * Evaluate a configuration's activation condition, optionally collecting it if applicable.
+     * 
+     * @param configuration configuration to evaluate
+     * @param context profile request context
+     * @param matches collection to add the configuration to if applicable
+     * 
+     * @return true iff the configuration is applicable
+     */
+    private boolean checkApplicable(@Nonnull final RelyingPartyConfiguration configuration,
+            @Nonnull final ProfileRequestContext context,
+            @Nullable final List<RelyingPartyConfiguration> matches) {
+        log.debug("Checking if relying party configuration {} is applicable", configuration.getId());
+        if (configuration.test(context)) {
+            log.debug("Relying party configuration {} is applicable", configuration.getId());
+            if (matches != null) {
+                matches.add(configuration);
+            }
+            return true;
+        }
+        log.debug("Relying party configuration {} is not applicable", configuration.getId());
+        return false;
+    }
+    
+    /**
+     * Get the positions of the indexed configurations matching the request's relying party ID.
+     * 
+     * @param context profile request context
+     * 
+     * @return positions in ascending order, or null if the index cannot be used for this request
+     */
+    @Nullable private int[] getIndexedPositions(@Nonnull final ProfileRequestContext context) {
+        if (dynamicConfigurations.length == rpConfigurations.size()) {
+            return null;
+        }
+        
+        // Without an ID, leave it to the conditions themselves to decide.
+        final String relyingPartyId = relyingPartyIdLookupStrategy.apply(context);
+        if (relyingPartyId == null) {
+            return null;
+        }
+        
+        final int[] positions = configurationIndex.get(relyingPartyId);
+        return positions != null ? positions : NO_POSITIONS;
+    }
+    
+    /**
+     * Get the fixed set of relying party IDs that solely determine whether a configuration is active.
+     * 
+     * @param configuration configuration to examine
+     * 
+     * @return the relying party IDs, or null if the configuration's condition must be evaluated
+     */
+    @Nullable private Set<String> getIndexableIds(@Nonnull final RelyingPartyConfiguration configuration) {
+        final Predicate<ProfileRequestContext> condition = configuration.getActivationCondition();
+        if (condition.getClass() == RelyingPartyIdPredicate.class) {
+            return ((RelyingPartyIdPredicate) condition).getCandidates();
+        }
+        return null;
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nullable public SecurityConfiguration getDefaultSecurityConfiguration(@Nonnull @NotEmpty final String profileId) {
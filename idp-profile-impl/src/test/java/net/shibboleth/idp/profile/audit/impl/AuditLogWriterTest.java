@@ -0,0 +1,132 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.audit.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.ConstraintViolationException;
+
+/** {@link AuditLogWriter} unit test. */
+public class AuditLogWriterTest {
+
+    private CapturingWriter writer;
+    
+    @AfterMethod
+    public void tearDown() {
+        if (writer != null) {
+            writer.destroy();
+        }
+    }
+    
+    @Test public void testSynchronous() throws ComponentInitializationException {
+        writer = new CapturingWriter(null);
+        writer.setId("test");
+        writer.initialize();
+        
+        writer.write("category", "id", "foo");
+        writer.write("category", null, "bar");
+        Assert.assertEquals(writer.records, List.of("category.id:foo", "category:bar"));
+    }
+
+    @Test public void testAsynchronous() throws ComponentInitializationException, InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        writer = new CapturingWriter(latch);
+        writer.setId("test");
+        writer.setAsynchronous(true);
+        writer.initialize();
+        
+        writer.write("category", "id", "foo");
+        writer.write("category", "id", "bar");
+        
+        // Records are held until the writer is released.
+        Thread.sleep(50);
+        Assert.assertTrue(writer.records.isEmpty());
+        
+        latch.countDown();
+        writer.destroy();
+        Assert.assertEquals(writer.records, List.of("category.id:foo", "category.id:bar"));
+        Assert.assertEquals(writer.getQueueDepth(), 0);
+    }
+
+    @Test public void testDrop() throws ComponentInitializationException, InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        writer = new CapturingWriter(latch);
+        writer.setId("test");
+        writer.setAsynchronous(true);
+        writer.setQueueCapacity(2);
+        writer.setOverflowPolicy(AuditLogWriter.OverflowPolicy.DROP);
+        writer.initialize();
+        
+        // The first record is taken by the writer thread and blocks it, the next two fill the queue.
+        writer.write("category", null, "1");
+        while (writer.getQueueDepth() > 0) {
+            Thread.sleep(5);
+        }
+        writer.write("category", null, "2");
+        writer.write("category", null, "3");
+        writer.write("category", null, "4");
+        Assert.assertEquals(writer.getQueueDepth(), 2);
+        
+        latch.countDown();
+        writer.destroy();
+        Assert.assertEquals(writer.records, List.of("category:1", "category:2", "category:3"));
+    }
+
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testBadCapacity() {
+        new AuditLogWriter().setQueueCapacity(0);
+    }
+
+    /** Writer that captures records, optionally waiting for a latch before each one. */
+    private static class CapturingWriter extends AuditLogWriter {
+        
+        private final List<String> records = new CopyOnWriteArrayList<>();
+        
+        @Nullable private final CountDownLatch latch;
+        
+        CapturingWriter(@Nullable final CountDownLatch l) {
+            latch = l;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        protected void doWrite(@Nonnull final String category, @Nullable final String loggingId,
+                @Nonnull final String record) {
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            records.add((loggingId != null ? category + '.' + loggingId : category) + ':' + record);
+        }
+    }
+    
+}
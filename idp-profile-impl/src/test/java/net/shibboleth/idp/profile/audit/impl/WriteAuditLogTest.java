@@ -17,10 +17,14 @@
 
 package net.shibboleth.idp.profile.audit.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -141,6 +145,92 @@ public class WriteAuditLogTest {
         Assert.assertEquals(action.getResult(), "192.168.1.1 https://idp.example.org/path/to/foo - Mock");
     }
 
+    
+    @Test public void testCategories() throws ComponentInitializationException {
+        final AuditContext ac = prc.getSubcontext(AuditContext.class, true);
+        ac.getFieldValues("A").add("foo");
+        
+        final Map<String,String> map = new HashMap<>();
+        map.put("category", "%A %%");
+        map.put("other", "%A");
+        action.setFormattingMap(map);
+        action.setCategoriesToLog(List.of("category"));
+        action.initialize();
+        
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(action.getResult(), "foo %");
+    }
+
+    @Test public void testJSON() throws ComponentInitializationException {
+        final AuditContext ac = prc.getSubcontext(AuditContext.class, true);
+        ac.getFieldValues("A").add("foo|\"bar\"");
+        ac.getFieldValues("B").add("bar");
+        ac.getFieldValues("B").add("baz");
+        
+        action.setFormattingMap(Collections.singletonMap("category", "%A|%B|%C|%a|%A"));
+        action.setOutputFormat(WriteAuditLog.OutputFormat.JSON);
+        action.initialize();
+        
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(action.getResult(),
+                "{\"A\":[\"foo|\\\"bar\\\"\"],\"B\":[\"bar\",\"baz\"],\"C\":[],\"a\":[\"192.168.1.1\"]}");
+    }
+
+    @Test public void testWriter() throws ComponentInitializationException {
+        final List<String> records = new ArrayList<>();
+        final AuditLogWriter writer = new AuditLogWriter() {
+            @Override
+            protected void doWrite(@Nonnull final String category, @Nullable final String loggingId,
+                    @Nonnull final String record) {
+                records.add(category + '.' + loggingId + ':' + record);
+            }
+        };
+        writer.setId("test");
+        writer.initialize();
+        
+        final AuditContext ac = prc.getSubcontext(AuditContext.class, true);
+        ac.getFieldValues("A").add("foo");
+        
+        action.setFormattingMap(Collections.singletonMap("category", "%A"));
+        action.setIncludeProfileLoggingId(false);
+        action.setAuditLogWriter(writer);
+        action.initialize();
+        
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(records, List.of("category.null:foo"));
+        
+        writer.destroy();
+    }
+
+    @Test public void testCompiledFormats() throws ComponentInitializationException {
+        final AuditContext ac = prc.getSubcontext(AuditContext.class, true);
+        ac.getFieldValues("A").add("foo");
+
+        final Map<String,String> map = new HashMap<>();
+        map.put("category", "%A %a");
+        map.put("other", "%A");
+        final WriteAuditLog.CompiledFormats formats = new WriteAuditLog.CompiledFormats(map, List.of("category"));
+
+        action.setCompiledFormats(formats);
+        action.initialize();
+
+        Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(action.getResult(), "foo 192.168.1.1");
+
+        final FilteringAction action2 = new FilteringAction();
+        action2.setCompiledFormats(formats);
+        action2.initialize();
+
+        ac.getFieldValues("A").clear();
+        ac.getFieldValues("A").add("bar");
+        event = action2.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(action2.getResult(), "bar 192.168.1.1");
+    }
 
     /**
      * Subclass for testing purposes that grants access to the built log entry.
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.support;
+
+import org.opensaml.core.config.ConfigurationService;
+import org.springframework.webflow.engine.Flow;
+import org.springframework.webflow.test.MockFlowSession;
+import org.springframework.webflow.test.MockRequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/** {@link MetricsFlowExecutionListener} unit test. */
+public class MetricsFlowExecutionListenerTest {
+
+    private static final String FLOW_ID = "SAML2/POST/SSO";
+
+    private static final String SUBFLOW_ID = "authn/Password";
+
+    private MetricRegistry previous;
+
+    private MetricRegistry registry;
+    
+    private MetricsFlowExecutionListener listener;
+
+    @BeforeMethod public void setUp() {
+        previous = ConfigurationService.get(MetricRegistry.class);
+        registry = new MetricRegistry();
+        ConfigurationService.register(MetricRegistry.class, registry);
+        
+        listener = new MetricsFlowExecutionListener();
+        listener.setEnabled(true);
+    }
+
+    @AfterMethod public void tearDown() {
+        if (previous != null) {
+            ConfigurationService.register(MetricRegistry.class, previous);
+        } else {
+            ConfigurationService.deregister(MetricRegistry.class);
+        }
+    }
+
+    @Test public void testDisabled() {
+        listener.setEnabled(false);
+        
+        final MockRequestContext context = new MockRequestContext(new Flow(FLOW_ID));
+        listener.requestSubmitted(context);
+        listener.requestProcessed(context);
+        
+        Assert.assertTrue(registry.getTimers().isEmpty());
+    }
+
+    @Test public void testRequest() {
+        final MockRequestContext context = new MockRequestContext(new Flow(FLOW_ID));
+        listener.requestSubmitted(context);
+        listener.requestProcessed(context);
+        
+        Assert.assertEquals(registry.getTimers().size(), 1);
+        Assert.assertEquals(registry.timer(MetricsFlowExecutionListener.REQUEST_TIMER_PREFIX + '.' + FLOW_ID)
+                .getCount(), 1);
+        
+        // Processing without a recorded submission records nothing.
+        listener.requestProcessed(new MockRequestContext(new Flow(FLOW_ID)));
+        Assert.assertEquals(registry.timer(MetricsFlowExecutionListener.REQUEST_TIMER_PREFIX + '.' + FLOW_ID)
+                .getCount(), 1);
+    }
+
+    @Test public void testSubflow() {
+        final MockFlowSession parent = new MockFlowSession(new Flow(FLOW_ID));
+        final MockFlowSession child = new MockFlowSession(new Flow(SUBFLOW_ID));
+        child.setParent(parent);
+        
+        final MockRequestContext context = new MockRequestContext(new Flow(FLOW_ID));
+        listener.requestSubmitted(context);
+        listener.sessionStarted(context, parent);
+        listener.sessionStarted(context, child);
+        listener.sessionEnded(context, child, "proceed", null);
+        listener.sessionEnded(context, parent, "end", null);
+        listener.requestProcessed(context);
+        
+        Assert.assertEquals(registry.timer(MetricsFlowExecutionListener.SUBFLOW_TIMER_PREFIX + '.' + SUBFLOW_ID)
+                .getCount(), 1);
+        Assert.assertFalse(registry.getTimers().containsKey(
+                MetricsFlowExecutionListener.SUBFLOW_TIMER_PREFIX + '.' + FLOW_ID));
+        Assert.assertEquals(registry.timer(MetricsFlowExecutionListener.REQUEST_TIMER_PREFIX + '.' + FLOW_ID)
+                .getCount(), 1);
+    }
+
+    @Test public void testSubflowAcrossRequests() {
+        final MockFlowSession child = new MockFlowSession(new Flow(SUBFLOW_ID));
+        child.setParent(new MockFlowSession(new Flow(FLOW_ID)));
+        
+        // A subflow that waits for the user ends in a later request, and is not timed.
+        final MockRequestContext first = new MockRequestContext(new Flow(FLOW_ID));
+        listener.requestSubmitted(first);
+        listener.sessionStarted(first, child);
+        listener.requestProcessed(first);
+        
+        final MockRequestContext second = new MockRequestContext(new Flow(FLOW_ID));
+        listener.requestSubmitted(second);
+        listener.sessionEnded(second, child, "proceed", null);
+        listener.requestProcessed(second);
+        
+        Assert.assertFalse(registry.getTimers().containsKey(
+                MetricsFlowExecutionListener.SUBFLOW_TIMER_PREFIX + '.' + SUBFLOW_ID));
+        Assert.assertEquals(registry.timer(MetricsFlowExecutionListener.REQUEST_TIMER_PREFIX + '.' + FLOW_ID)
+                .getCount(), 2);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.profile.support;
+
+import java.util.Map;
+
+import org.opensaml.core.config.ConfigurationService;
+import org.opensaml.profile.context.MetricContext;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/** {@link TimerMetricStrategy} unit test. */
+public class TimerMetricStrategyTest {
+
+    private MetricRegistry previous;
+
+    private MetricRegistry registry;
+
+    @BeforeMethod public void setUp() {
+        previous = ConfigurationService.get(MetricRegistry.class);
+        registry = new MetricRegistry();
+        ConfigurationService.register(MetricRegistry.class, registry);
+    }
+
+    @AfterMethod public void tearDown() {
+        if (previous != null) {
+            ConfigurationService.register(MetricRegistry.class, previous);
+        } else {
+            ConfigurationService.deregister(MetricRegistry.class);
+        }
+    }
+
+    @Test public void testEmpty() {
+        final ProfileRequestContext prc = new ProfileRequestContext();
+        prc.getSubcontext(MetricContext.class, true);
+        
+        final TimerMetricStrategy strategy = new TimerMetricStrategy();
+        Assert.assertFalse(strategy.apply(prc));
+        
+        strategy.setTimerMap(null);
+        Assert.assertFalse(strategy.apply(prc));
+    }
+
+    @Test public void testNoContext() {
+        final TimerMetricStrategy strategy = new TimerMetricStrategy();
+        strategy.setTimerMap(Map.of("timer", "ResolveAttributes"));
+        Assert.assertFalse(strategy.apply(new ProfileRequestContext()));
+        Assert.assertFalse(strategy.apply(null));
+    }
+
+    @Test public void testTimers() {
+        final ProfileRequestContext prc = new ProfileRequestContext();
+        prc.getSubcontext(MetricContext.class, true);
+        
+        final TimerMetricStrategy strategy = new TimerMetricStrategy();
+        strategy.setTimerMap(Map.of("timer", "ResolveAttributes", "timer2", "FilterAttributes"));
+        Assert.assertTrue(strategy.apply(prc));
+        
+        final MetricContext metricCtx = prc.getSubcontext(MetricContext.class);
+        metricCtx.start("ResolveAttributes");
+        metricCtx.stop("ResolveAttributes");
+        metricCtx.start("ResolveAttributes");
+        metricCtx.stop("ResolveAttributes");
+        metricCtx.start("FilterAttributes");
+        metricCtx.stop("FilterAttributes");
+        metricCtx.start("EncodeMessage");
+        metricCtx.stop("EncodeMessage");
+        
+        Assert.assertEquals(registry.timer("timer").getCount(), 2);
+        Assert.assertEquals(registry.timer("timer2").getCount(), 1);
+        Assert.assertEquals(registry.getTimers().size(), 2);
+    }
+
+    @Test public void testDeclinedRecordsNothing() {
+        final ProfileRequestContext prc = new ProfileRequestContext();
+        final MetricContext metricCtx = prc.getSubcontext(MetricContext.class, true);
+        
+        Assert.assertFalse(new TimerMetricStrategy().apply(prc));
+        metricCtx.start("ResolveAttributes");
+        metricCtx.stop("ResolveAttributes");
+        
+        Assert.assertTrue(registry.getTimers().isEmpty());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalid() {
+        new TimerMetricStrategy().setTimerMap(Map.of("timer", " "));
+    }
+
+}
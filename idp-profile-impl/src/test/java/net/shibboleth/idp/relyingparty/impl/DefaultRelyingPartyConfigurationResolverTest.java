@@ -18,10 +18,12 @@
 package net.shibboleth.idp.relyingparty.impl;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.idp.profile.logic.RelyingPartyIdPredicate;
 import net.shibboleth.idp.relyingparty.RelyingPartyConfiguration;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.testing.MockApplicationContext;
@@ -207,4 +209,65 @@ public class DefaultRelyingPartyConfigurationResolverTest {
         result = resolver.resolveSingle(null);
         Assert.assertNull(result);
     }
-}
\ No newline at end of file
+    
+    @Test public void testIndexed() throws Exception {
+        final RelyingPartyConfiguration defaultRP = new RelyingPartyConfiguration();
+        defaultRP.setId("defaultRPId");
+        defaultRP.setResponderId("defaultRPResp");
+        defaultRP.initialize();
+
+        // Dynamic condition ahead of the indexed configurations.
+        final RelyingPartyConfiguration dynamic = new RelyingPartyConfiguration();
+        dynamic.setId("dynamic");
+        dynamic.setResponderId("foo");
+        dynamic.setActivationCondition(new RelyingPartyIdPredicate(id -> "sp2".equals(id)));
+        dynamic.initialize();
+
+        final RelyingPartyConfiguration one = new RelyingPartyConfiguration();
+        one.setId("one");
+        one.setResponderId("foo");
+        one.setActivationCondition(new RelyingPartyIdPredicate(List.of("sp1", "sp2")));
+        one.initialize();
+
+        final RelyingPartyConfiguration two = new RelyingPartyConfiguration();
+        two.setId("two");
+        two.setResponderId("foo");
+        two.setActivationCondition(new RelyingPartyIdPredicate("sp2"));
+        two.initialize();
+
+        final RelyingPartyConfiguration three = new RelyingPartyConfiguration();
+        three.setId("three");
+        three.setResponderId("foo");
+        three.setActivationCondition(new RelyingPartyIdPredicate("sp3"));
+        three.initialize();
+
+        final DefaultRelyingPartyConfigurationResolver resolver = new DefaultRelyingPartyConfigurationResolver();
+        resolver.setId("test");
+        resolver.setRelyingPartyConfigurations(Arrays.asList(dynamic, one, two, three));
+        resolver.setDefaultConfiguration(defaultRP);
+        resolver.initialize();
+
+        final ProfileRequestContext requestContext = new ProfileRequestContext();
+        final RelyingPartyContext rpCtx = requestContext.getSubcontext(RelyingPartyContext.class, true);
+        rpCtx.setVerified(true);
+        
+        rpCtx.setRelyingPartyId("sp1");
+        Assert.assertEquals(resolver.resolve(requestContext), List.of(one));
+        Assert.assertSame(resolver.resolveSingle(requestContext), one);
+
+        rpCtx.setRelyingPartyId("sp2");
+        Assert.assertEquals(resolver.resolve(requestContext), List.of(dynamic, one, two));
+        Assert.assertSame(resolver.resolveSingle(requestContext), dynamic);
+
+        rpCtx.setRelyingPartyId("sp3");
+        Assert.assertEquals(resolver.resolve(requestContext), List.of(three));
+        Assert.assertSame(resolver.resolveSingle(requestContext), three);
+
+        rpCtx.setRelyingPartyId("sp4");
+        Assert.assertEquals(resolver.resolve(requestContext), Collections.singleton(defaultRP));
+        Assert.assertSame(resolver.resolveSingle(requestContext), defaultRP);
+
+        rpCtx.setRelyingPartyId(null);
+        Assert.assertSame(resolver.resolveSingle(requestContext), defaultRP);
+    }
+}
@@ -23,12 +23,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.messaging.context.BaseContext;
 import org.opensaml.messaging.context.MessageContext;
@@ -44,6 +46,10 @@ import org.opensaml.soap.client.security.SOAPClientSecurityProfileIdLookupFuncti
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import net.shibboleth.idp.attribute.AttributesMapContainer;
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
@@ -67,6 +73,10 @@ import net.shibboleth.shared.primitive.StringSupport;
  * 
  * <p>If a specific property is unavailable, then null is returned.</p>
  * 
+ * <p>In addition to caching within a request, results may be cached across requests per metadata object
+ * and profile. The cache holds the metadata weakly, so results disappear along with the metadata
+ * when it is refreshed.</p>
+ * 
  * @param <T> type of property being returned
  * 
  * @since 3.4.0
@@ -74,6 +84,15 @@ import net.shibboleth.shared.primitive.StringSupport;
 public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> extends AbstractInitializableComponent
         implements Function<BaseContext,T> {
 
+    /** Base name of metrics tracking the shared cache. */
+    @Nonnull @NotEmpty public static final String METRIC_BASE = "net.shibboleth.idp.saml.mddriven.cache";
+    
+    /** Marker for a tag found without a usable setting. */
+    @Nonnull private static final Object NULL_VALUE = new Object();
+
+    /** Marker for an absent tag. */
+    @Nonnull private static final Object NOT_FOUND = new Object();
+
     /** Default metadata lookup for PRC-based usage. */
     @Nonnull private static final Function<ProfileRequestContext,EntityDescriptor> DEFAULT_PRC_METADATA_LOOKUP;
 
@@ -96,6 +115,12 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
     /** Cache the lookup in the context tree. */
     private boolean enableCaching;
     
+    /** Maximum number of metadata objects for which to cache results across requests. */
+    private long sharedCacheSize;
+    
+    /** Results cached across requests, by metadata object and profile. */
+    @Nullable private Cache<EntityDescriptor,Map<String,Object>> sharedCache;
+    
     /** Examine only decoded/mapped tags in object metadata. */
     private boolean ignoreUnmappedEntityAttributes;
     
@@ -149,6 +174,22 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
         enableCaching = flag;
     }
 
+    /**
+     * Sets the maximum number of metadata objects for which to cache results across requests.
+     * 
+     * <p>Default is 0, which disables the shared cache. It is also ignored by subclasses whose results
+     * cannot safely be shared, see {@link #isSharedCacheSupported()}.</p>
+     * 
+     * @param size maximum cache size
+     * 
+     * @since 5.0.0
+     */
+    public void setSharedCacheSize(final long size) {
+        checkSetterPreconditions();
+        
+        sharedCacheSize = Constraint.isGreaterThanOrEqual(0, size, "Cache size cannot be negative");
+    }
+
     /**
      * Sets whether property lookup should be based solely on mapped/decoded objects
      * and not on underlying SAML Attributes.
@@ -268,9 +309,29 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
                 .map(s -> s + (s.endsWith("/") ? propertyName : '/' + propertyName))
                 .collect(Collectors.toUnmodifiableList());
         
+        if (sharedCacheSize > 0 && isSharedCacheSupported()) {
+            sharedCache = CacheBuilder.newBuilder()
+                    .weakKeys()
+                    .maximumSize(sharedCacheSize)
+                    .build();
+        }
+    }
+
+    /**
+     * Gets whether translated results may be cached across requests.
+     * 
+     * <p>Results placed in the shared cache are returned to every caller, so subclasses that produce
+     * mutable or per-use objects must either return immutable copies or override this to return false.</p>
+     * 
+     * @return true iff results may be shared
+     * 
+     * @since 5.0.0
+     */
+    protected boolean isSharedCacheSupported() {
+        return true;
     }
 
-    // Checkstyle: CyclomaticComplexity|MethodLength OFF    
+    // Checkstyle: CyclomaticComplexity OFF
     /** {@inheritDoc} */
     @Nullable public T apply(@Nullable final BaseContext input) {
         checkComponentActive();
@@ -317,16 +378,66 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
             profileId = null;
         }
         
+        final Object result;
+        if (sharedCache != null) {
+            final Map<String,Object> entityCache =
+                    sharedCache.asMap().computeIfAbsent(entity, e -> new ConcurrentHashMap<>());
+            final String cacheKey = profileId != null ? profileId : "";
+            final Object cached = entityCache.get(cacheKey);
+            final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+            if (cached != null) {
+                log.debug("Using shared cache result for property '{}'", propertyName);
+                if (registry != null) {
+                    registry.counter(METRIC_BASE + ".hits").inc();
+                }
+                result = cached;
+            } else {
+                if (registry != null) {
+                    registry.counter(METRIC_BASE + ".misses").inc();
+                }
+                result = resolve(entity, profileId);
+                entityCache.put(cacheKey, result);
+            }
+        } else {
+            result = resolve(entity, profileId);
+        }
+        
+        final T ret;
+        if (result == NOT_FOUND) {
+            log.debug("No applicable tag, applying default strategy for '{}'", propertyName);
+            ret = defaultValueStrategy.apply(input);
+        } else {
+            ret = result == NULL_VALUE ? null : (T) result;
+        }
+        
+        if (cacheContext != null) {
+            cacheContext.getPropertyMap().put(propertyName, ret);
+        }
+        return ret;
+    }
+    // Checkstyle: CyclomaticComplexity ON
+    
+    /**
+     * Locate and translate the tag for this property in the metadata.
+     * 
+     * <p>The result is independent of the request beyond the metadata and profile, so it is suitable for
+     * caching across requests.</p>
+     * 
+     * @param entity the metadata to examine
+     * @param profileId profile ID qualifying the property name, or null
+     * 
+     * @return the translated setting, {@link #NULL_VALUE} if a tag was found with no usable setting,
+     *  or {@link #NOT_FOUND} if no tag was found
+     */
+    @Nonnull private Object resolve(@Nonnull final EntityDescriptor entity, @Nullable final String profileId) {
+        
+        final String primaryName = profileId != null ? profileId + '/' + propertyName : propertyName;
+        
         // Look for "primary" tag name based on profile/property using mapped tags.
-        IdPAttribute idpAttribute = findMatchingMappedTag(entity,
-                profileId != null ? profileId + '/' + propertyName : propertyName);
+        IdPAttribute idpAttribute = findMatchingMappedTag(entity, primaryName);
         if (idpAttribute != null) {
             log.debug("Found matching tag '{}' for property '{}'", idpAttribute.getId(), propertyName);
-            final T result = translate(idpAttribute);
-            if (enableCaching) {
-                cacheContext.getPropertyMap().put(propertyName, result);
-            }
-            return result;
+            return wrap(translate(idpAttribute));
         }
         
         // Check aliases.
@@ -334,33 +445,19 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
             idpAttribute = findMatchingMappedTag(entity, alias);
             if (idpAttribute != null) {
                 log.debug("Found matching tag '{}' for property '{}'", idpAttribute.getId(), propertyName);
-                final T result = translate(idpAttribute);
-                if (enableCaching) {
-                    cacheContext.getPropertyMap().put(propertyName, result);
-                }
-                return result;
+                return wrap(translate(idpAttribute));
             }
         }
         
         if (ignoreUnmappedEntityAttributes) {
-            log.debug("No applicable mapped tag, applying default strategy for '{}'", propertyName);
-            final T ret = defaultValueStrategy.apply(input);
-            if (enableCaching) {
-                cacheContext.getPropertyMap().put(propertyName, ret);
-            }
-            return ret;
+            return NOT_FOUND;
         }
         
         // Look for "primary" tag name based on profile/property.
-        Attribute attribute = findMatchingTag(entity,
-                profileId != null ? profileId + '/' + propertyName : propertyName);
+        Attribute attribute = findMatchingTag(entity, primaryName);
         if (attribute != null) {
             log.debug("Found matching tag '{}' for property '{}'", attribute.getName(), propertyName);
-            final T result = translate(attribute);
-            if (enableCaching) {
-                cacheContext.getPropertyMap().put(propertyName, result);
-            }
-            return result;
+            return wrap(translate(attribute));
         }
         
         // Check aliases.
@@ -368,22 +465,23 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
             attribute = findMatchingTag(entity, alias);
             if (attribute != null) {
                 log.debug("Found matching tag '{}' for property '{}'", attribute.getName(), propertyName);
-                final T result = translate(attribute);
-                if (enableCaching) {
-                    cacheContext.getPropertyMap().put(propertyName, result);
-                }
-                return result;
+                return wrap(translate(attribute));
             }
         }
         
-        log.debug("No applicable tag, applying default strategy for '{}'", propertyName);
-        final T ret = defaultValueStrategy.apply(input);
-        if (enableCaching) {
-            cacheContext.getPropertyMap().put(propertyName, ret);
-        }
-        return ret;
+        return NOT_FOUND;
+    }
+    
+    /**
+     * Substitute a marker for a null setting so that it can be cached.
+     * 
+     * @param value setting
+     * 
+     * @return the setting or {@link #NULL_VALUE}
+     */
+    @Nonnull private Object wrap(@Nullable final T value) {
+        return value != null ? value : NULL_VALUE;
     }
-// Checkstyle: CyclomaticComplexity|MethodLength ON
     
     /**
      * Translate the value(s) into a setting of the appropriate type.
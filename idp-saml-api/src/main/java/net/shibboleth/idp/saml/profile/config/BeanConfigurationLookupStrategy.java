@@ -43,7 +43,8 @@ import net.shibboleth.shared.logic.Constraint;
  * A strategy function that examines SAML metadata associated with a relying party and derives bean-based
  * configuration settings based on EntityAttribute extension tags.
  * 
- * <p>Defaults to no caching of the result to avoid bean lifecycle issues if relying party config is reloaded.</p>
+ * <p>Defaults to no caching of the result to avoid bean lifecycle issues if relying party config is reloaded.
+ * Results are never cached across requests, since beans may be non-singletons.</p>
  * 
  * @param <T> type of bean
  * 
@@ -82,6 +83,12 @@ public class BeanConfigurationLookupStrategy<T> extends AbstractMetadataDrivenCo
         applicationContext = context;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected boolean isSharedCacheSupported() {
+        return false;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -62,7 +62,7 @@ public class ListConfigurationLookupStrategy<T> extends AbstractCollectionConfig
                 }
             }
         }
-        return result;
+        return List.copyOf(result);
     }
     
     /** {@inheritDoc} */
@@ -83,7 +83,7 @@ public class ListConfigurationLookupStrategy<T> extends AbstractCollectionConfig
                 }
             }
         }
-        return result;
+        return List.copyOf(result);
     }
     
 }
\ No newline at end of file
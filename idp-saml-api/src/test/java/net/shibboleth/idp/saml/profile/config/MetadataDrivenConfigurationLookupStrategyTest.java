@@ -0,0 +1,205 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.profile.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opensaml.core.config.ConfigurationService;
+import org.opensaml.core.testing.XMLObjectBaseTestCase;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.ext.saml2mdattr.EntityAttributes;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import org.springframework.context.support.StaticApplicationContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/** Unit test for the shared cache in {@link AbstractMetadataDrivenConfigurationLookupStrategy}. */
+public class MetadataDrivenConfigurationLookupStrategyTest extends XMLObjectBaseTestCase {
+
+    private static final String PROPERTY = "https://example.org/property";
+
+    private MetricRegistry previous;
+
+    private MetricRegistry registry;
+
+    private EntityDescriptor entity;
+
+    @BeforeMethod public void setUp() {
+        previous = ConfigurationService.get(MetricRegistry.class);
+        registry = new MetricRegistry();
+        ConfigurationService.register(MetricRegistry.class, registry);
+        entity = null;
+    }
+
+    @AfterMethod public void tearDown() {
+        if (previous != null) {
+            ConfigurationService.register(MetricRegistry.class, previous);
+        } else {
+            ConfigurationService.deregister(MetricRegistry.class);
+        }
+    }
+
+    @Test public void testSharedCache() throws ComponentInitializationException {
+        final StringConfigurationLookupStrategy strategy = new StringConfigurationLookupStrategy();
+        configure(strategy, 10);
+
+        entity = buildEntity(PROPERTY, "a");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "a");
+        assertCounts(0, 1);
+
+        // A change to the same metadata instance is not seen.
+        setValue(entity, "b");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "a");
+        assertCounts(1, 1);
+
+        // A new metadata instance is.
+        entity = buildEntity(PROPERTY, "b");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "b");
+        assertCounts(1, 2);
+    }
+
+    @Test public void testNoSharedCache() throws ComponentInitializationException {
+        final StringConfigurationLookupStrategy strategy = new StringConfigurationLookupStrategy();
+        configure(strategy, 0);
+
+        entity = buildEntity(PROPERTY, "a");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "a");
+        setValue(entity, "b");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "b");
+        assertCounts(0, 0);
+    }
+
+    @Test public void testNullValue() throws ComponentInitializationException {
+        final StringConfigurationLookupStrategy strategy = new StringConfigurationLookupStrategy();
+        strategy.setDefaultValue("default");
+        configure(strategy, 10);
+
+        entity = buildEntity(PROPERTY, null);
+        Assert.assertNull(strategy.apply(new ProfileRequestContext()));
+        Assert.assertNull(strategy.apply(new ProfileRequestContext()));
+        assertCounts(1, 1);
+    }
+
+    @Test public void testNotFound() throws ComponentInitializationException {
+        final AtomicInteger defaults = new AtomicInteger();
+        final StringConfigurationLookupStrategy strategy = new StringConfigurationLookupStrategy();
+        strategy.setDefaultValueStrategy(input -> "default" + defaults.incrementAndGet());
+        configure(strategy, 10);
+
+        entity = buildEntity("https://example.org/other", "a");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "default1");
+        Assert.assertEquals(strategy.apply(new ProfileRequestContext()), "default2");
+        assertCounts(1, 1);
+    }
+
+    @Test public void testImmutableCollections() throws ComponentInitializationException {
+        final ListConfigurationLookupStrategy<String> listStrategy = new ListConfigurationLookupStrategy<>();
+        listStrategy.setPropertyType(String.class);
+        configure(listStrategy, 10);
+        final SetConfigurationLookupStrategy<String> setStrategy = new SetConfigurationLookupStrategy<>();
+        setStrategy.setPropertyType(String.class);
+        configure(setStrategy, 10);
+
+        entity = buildEntity(PROPERTY, "a");
+        final List<String> list = listStrategy.apply(new ProfileRequestContext());
+        Assert.assertEquals(list, List.of("a"));
+        Assert.assertThrows(UnsupportedOperationException.class, () -> list.add("b"));
+        Assert.assertEquals(listStrategy.apply(new ProfileRequestContext()), List.of("a"));
+
+        Assert.assertThrows(UnsupportedOperationException.class,
+                () -> setStrategy.apply(new ProfileRequestContext()).add("b"));
+        Assert.assertEquals(setStrategy.apply(new ProfileRequestContext()).size(), 1);
+    }
+
+    @Test public void testBeansNotShared() throws ComponentInitializationException {
+        final StaticApplicationContext context = new StaticApplicationContext();
+        context.registerPrototype("prototype", ArrayList.class);
+        context.refresh();
+
+        final BeanConfigurationLookupStrategy<ArrayList> strategy = new BeanConfigurationLookupStrategy<>();
+        strategy.setPropertyType(ArrayList.class);
+        strategy.setApplicationContext(context);
+        configure(strategy, 10);
+
+        entity = buildEntity(PROPERTY, "prototype");
+        final ArrayList<?> first = strategy.apply(new ProfileRequestContext());
+        Assert.assertNotNull(first);
+        Assert.assertNotSame(strategy.apply(new ProfileRequestContext()), first);
+        assertCounts(0, 0);
+        context.close();
+    }
+
+    private void configure(final AbstractMetadataDrivenConfigurationLookupStrategy<?> strategy, final long size)
+            throws ComponentInitializationException {
+        strategy.setPropertyName(PROPERTY);
+        strategy.setExplicitPropertyName(true);
+        strategy.setMetadataLookupStrategy(input -> entity);
+        strategy.setSharedCacheSize(size);
+        strategy.initialize();
+    }
+
+    private void assertCounts(final long hits, final long misses) {
+        Assert.assertEquals(registry.counter(AbstractMetadataDrivenConfigurationLookupStrategy.METRIC_BASE + ".hits")
+                .getCount(), hits);
+        Assert.assertEquals(registry.counter(AbstractMetadataDrivenConfigurationLookupStrategy.METRIC_BASE + ".misses")
+                .getCount(), misses);
+    }
+
+    private EntityDescriptor buildEntity(final String name, final String value) {
+        final Attribute tag = buildXMLObject(Attribute.DEFAULT_ELEMENT_NAME);
+        tag.setName(name);
+        tag.setNameFormat(Attribute.URI_REFERENCE);
+        if (value != null) {
+            final XSString xsValue = (XSString) XMLObjectProviderRegistrySupport.getBuilderFactory()
+                    .getBuilder(XSString.TYPE_NAME)
+                    .buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+            xsValue.setValue(value);
+            tag.getAttributeValues().add(xsValue);
+        }
+
+        final EntityAttributes entityAttributes = buildXMLObject(EntityAttributes.DEFAULT_ELEMENT_NAME);
+        entityAttributes.getAttributes().add(tag);
+        final Extensions extensions = buildXMLObject(Extensions.DEFAULT_ELEMENT_NAME);
+        extensions.getUnknownXMLObjects().add(entityAttributes);
+
+        final EntityDescriptor descriptor = buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+        descriptor.setEntityID("https://sp.example.org");
+        descriptor.setExtensions(extensions);
+        return descriptor;
+    }
+
+    private void setValue(final EntityDescriptor descriptor, final String value) {
+        final EntityAttributes entityAttributes = (EntityAttributes) descriptor.getExtensions()
+                .getUnknownXMLObjects(EntityAttributes.DEFAULT_ELEMENT_NAME).get(0);
+        ((XSString) entityAttributes.getAttributes().get(0).getAttributeValues().get(0)).setValue(value);
+    }
+
+}
@@ -47,6 +47,9 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
     /** Object used to protect and encrypt the data. */
     @NonnullAfterInit private DataSealer dataSealer;
 
+    /** Optional compact decoder for identifiers not produced by the sealer. */
+    @Nullable private CompactTransientIdCodec compactCodec;
+
     /** cache for the log prefix - to save multiple recalculations. */
     @Nullable private String logPrefix;
 
@@ -69,6 +72,20 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
         dataSealer = Constraint.isNotNull(sealer, "DataSealer cannot be null");
     }
 
+    /**
+     * Set a {@link CompactTransientIdCodec} to decode identifiers in that format.
+     * 
+     * <p>Sealed identifiers continue to be accepted.</p>
+     * 
+     * @param codec compact codec
+     * 
+     * @since 5.0.0
+     */
+    public void setCompactCodec(@Nullable final CompactTransientIdCodec codec) {
+        checkSetterPreconditions();
+        compactCodec = codec;
+    }
+
     /**
      * Convert the transient Id into the principal.
      * 
@@ -87,6 +104,10 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
             throw new NameDecoderException(getLogPrefix() + " Requester ID was null");
         }
 
+        if (compactCodec != null && compactCodec.isCompact(transientId)) {
+            return decodeCompact(transientId, requesterId);
+        }
+
         final String decodedId;
         try {
             decodedId = dataSealer.unwrap(transientId);
@@ -117,6 +138,35 @@ public abstract class BaseCryptoTransientDecoder extends AbstractIdentifiableIni
         return parts[1];
     }
 
+    /**
+     * Decode a transient Id in the compact format.
+     * 
+     * @param transientId the encoded transientID
+     * @param requesterId the requester ID
+     * 
+     * @return the decoded entity.
+     * @throws NameDecoderException if a decode error occurs.
+     */
+    @Nullable @NotEmpty private String decodeCompact(@Nonnull final String transientId,
+            @Nonnull @NotEmpty final String requesterId) throws NameDecoderException {
+        final String principal;
+        try {
+            principal = compactCodec.decode(transientId, requesterId);
+        } catch (final DataExpiredException e) {
+            throw new NameDecoderException(getLogPrefix() + " Principal identifier has expired");
+        } catch (final DataSealerException e) {
+            throw new NameDecoderException(getLogPrefix() + " Caught exception decoding compact transient identifier",
+                    e);
+        }
+
+        if (Strings.isNullOrEmpty(principal)) {
+            log.warn("{} Transient identifier was not issued to {}", getLogPrefix(), requesterId);
+            return null;
+        }
+
+        return principal;
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
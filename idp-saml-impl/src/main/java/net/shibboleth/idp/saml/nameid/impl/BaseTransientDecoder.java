@@ -47,6 +47,9 @@ public abstract class BaseTransientDecoder extends AbstractIdentifiableInitializ
     /** Store used to map identifiers to principals. */
     @NonnullAfterInit private StorageService idStore;
 
+    /** Optional source of identifiers not yet written to the store. */
+    @Nullable private StoredTransientIdGenerationStrategy pendingIdSource;
+
     /** cache for the log prefix - to save multiple recalculations. */
     @Nullable private String logPrefix;
 
@@ -69,6 +72,19 @@ public abstract class BaseTransientDecoder extends AbstractIdentifiableInitializ
         idStore = Constraint.isNotNull(store, "StorageService cannot be null");
     }
 
+    /**
+     * Sets a generation strategy operating in write-behind mode whose buffered identifiers
+     * should be consulted ahead of the store.
+     * 
+     * @param source generation strategy
+     * 
+     * @since 5.0.0
+     */
+    public void setPendingIdSource(@Nullable final StoredTransientIdGenerationStrategy source) {
+        checkSetterPreconditions();
+        pendingIdSource = source;
+    }
+
     /**
      * Convert the transient Id into the principal.
      * 
@@ -88,13 +104,17 @@ public abstract class BaseTransientDecoder extends AbstractIdentifiableInitializ
         }
 
         try {
-            final StorageRecord<?> record = idStore.read(TransientIdParameters.CONTEXT, transientId);
-            if (null == record) {
-                log.info("{} Could not find transient identifier", getLogPrefix());
-                return null;
+            String value = pendingIdSource != null ? pendingIdSource.readPending(transientId) : null;
+            if (null == value) {
+                final StorageRecord<?> record = idStore.read(TransientIdParameters.CONTEXT, transientId);
+                if (null == record) {
+                    log.info("{} Could not find transient identifier", getLogPrefix());
+                    return null;
+                }
+                value = record.getValue();
             }
 
-            final TransientIdParameters param = new TransientIdParameters(record.getValue());
+            final TransientIdParameters param = new TransientIdParameters(value);
 
             if (!requesterId.equals(param.getAttributeRecipient())) {
                 log.warn("{} Transient identifier issued to {} but requested by {}", getLogPrefix(),
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.nameid.impl;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.core.metrics.MetricsSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.shibboleth.idp.attribute.DurablePairwiseIdStore;
+import net.shibboleth.idp.attribute.PairwiseId;
+import net.shibboleth.idp.attribute.PairwiseIdStore;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.ThreadSafeAfterInit;
+import net.shibboleth.shared.component.AbstractInitializableComponent;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * A {@link DurablePairwiseIdStore} that wraps another store with a bounded, read-through cache
+ * of active identifiers keyed by issuer, recipient, and source value.
+ * 
+ * <p>Only lookups by source value are cached, and only the issued value is retained, so results
+ * served from the cache carry no creation time or peer-provided value. Deactivations and
+ * attachments made through this object evict matching entries; changes made by other nodes
+ * or other objects become visible once entries expire.</p>
+ * 
+ * @since 5.0.0
+ */
+@ThreadSafeAfterInit
+public class CachingPairwiseIdStore extends AbstractInitializableComponent implements DurablePairwiseIdStore {
+
+    /** Base name of metrics reporting cache hits and misses. */
+    @Nonnull @NotEmpty public static final String METRIC_BASE = "net.shibboleth.idp.persistentId.cache";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CachingPairwiseIdStore.class);
+
+    /** Underlying store. */
+    @NonnullAfterInit private PairwiseIdStore pidStore;
+
+    /** Maximum number of cached identifiers. */
+    private long cacheSize;
+
+    /** Time to retain cached identifiers. */
+    @Nonnull private Duration cacheExpiration;
+
+    /** Cache of issued values. */
+    @NonnullAfterInit private Cache<List<String>,String> cache;
+
+    /** Constructor. */
+    public CachingPairwiseIdStore() {
+        cacheSize = 1000;
+        cacheExpiration = Duration.ofMinutes(10);
+    }
+
+    /**
+     * Set the underlying store to wrap.
+     * 
+     * @param store the id store
+     */
+    public void setPairwiseIdStore(@Nonnull final PairwiseIdStore store) {
+        checkSetterPreconditions();
+        pidStore = Constraint.isNotNull(store, "PairwiseIdStore cannot be null");
+    }
+
+    /**
+     * Set the maximum number of identifiers to cache.
+     * 
+     * <p>Defaults to 1000.</p>
+     * 
+     * @param size maximum cache size
+     */
+    public void setCacheSize(final long size) {
+        checkSetterPreconditions();
+        cacheSize = Constraint.isGreaterThan(0, size, "Cache size must be greater than zero");
+    }
+
+    /**
+     * Set the time to retain cached identifiers.
+     * 
+     * <p>Defaults to 10 minutes.</p>
+     * 
+     * @param expiration cache expiration
+     */
+    public void setCacheExpiration(@Nonnull final Duration expiration) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(expiration, "Cache expiration cannot be null");
+        Constraint.isFalse(expiration.isNegative() || expiration.isZero(), "Cache expiration must be positive");
+        cacheExpiration = expiration;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (pidStore == null) {
+            throw new ComponentInitializationException("PairwiseIdStore cannot be null");
+        }
+
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheExpiration)
+                .build();
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public PairwiseId getBySourceValue(@Nonnull final PairwiseId pid, final boolean allowCreate)
+            throws IOException {
+        checkComponentActive();
+
+        final List<String> key = getKey(pid);
+        if (key != null) {
+            final String cached = cache.getIfPresent(key);
+            if (cached != null) {
+                log.trace("Returning cached identifier for source value of {}", pid.getPrincipalName());
+                count("hits");
+                pid.setPairwiseId(cached);
+                return pid;
+            }
+            count("misses");
+        }
+
+        final PairwiseId result = pidStore.getBySourceValue(pid, allowCreate);
+        if (key != null && result != null && result.getPairwiseId() != null) {
+            cache.put(key, result.getPairwiseId());
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Nullable public PairwiseId getByIssuedValue(@Nonnull final PairwiseId pid) throws IOException {
+        checkComponentActive();
+        return getDurableStore().getByIssuedValue(pid);
+    }
+
+    /** {@inheritDoc} */
+    public void deactivate(@Nonnull final PairwiseId pid) throws IOException {
+        checkComponentActive();
+        try {
+            getDurableStore().deactivate(pid);
+        } finally {
+            invalidate(pid);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void attach(@Nonnull final PairwiseId pid) throws IOException {
+        checkComponentActive();
+        try {
+            getDurableStore().attach(pid);
+        } finally {
+            invalidate(pid);
+        }
+    }
+
+    /**
+     * Get the underlying store as a {@link DurablePairwiseIdStore}.
+     * 
+     * @return the underlying store
+     * @throws IOException if the underlying store does not support the operation
+     */
+    @Nonnull private DurablePairwiseIdStore getDurableStore() throws IOException {
+        if (pidStore instanceof DurablePairwiseIdStore) {
+            return (DurablePairwiseIdStore) pidStore;
+        }
+        throw new IOException("Underlying PairwiseIdStore does not support this operation");
+    }
+
+    /**
+     * Evict any cached entries for the issued value in the input.
+     * 
+     * @param pid identifier being modified
+     */
+    private void invalidate(@Nonnull final PairwiseId pid) {
+        final String issuer = pid.getIssuerEntityID();
+        final String recipient = pid.getRecipientEntityID();
+        final String value = pid.getPairwiseId();
+        if (value == null) {
+            cache.invalidateAll();
+            return;
+        }
+        cache.asMap().entrySet().removeIf(e -> value.equals(e.getValue())
+                && (issuer == null || issuer.equals(e.getKey().get(0)))
+                && (recipient == null || recipient.equals(e.getKey().get(1))));
+    }
+
+    /**
+     * Build the cache key for the input, if it is complete.
+     * 
+     * @param pid identifier being looked up
+     * 
+     * @return cache key or null
+     */
+    @Nullable private List<String> getKey(@Nonnull final PairwiseId pid) {
+        final String issuer = pid.getIssuerEntityID();
+        final String recipient = pid.getRecipientEntityID();
+        final String source = pid.getSourceSystemId();
+        if (issuer == null || recipient == null || source == null) {
+            return null;
+        }
+        return List.of(issuer, recipient, source);
+    }
+
+    /**
+     * Increment a cache counter, if metrics are enabled.
+     * 
+     * @param suffix metric name suffix
+     */
+    private void count(@Nonnull @NotEmpty final String suffix) {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry != null) {
+            registry.counter(MetricRegistry.name(METRIC_BASE, suffix)).inc();
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.nameid.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.collection.Pair;
+import net.shibboleth.shared.component.AbstractInitializableComponent;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.security.DataExpiredException;
+import net.shibboleth.shared.security.DataSealerException;
+import net.shibboleth.shared.security.DataSealerKeyStrategy;
+
+/**
+ * Compact encoding of transient identifiers, used in place of a full
+ * {@link net.shibboleth.shared.security.DataSealer} envelope.
+ * 
+ * <p>The identifier is the alias of the key used, a period, and the URL-safe Base64 encoding
+ * (without padding) of a random nonce followed by the AES-GCM encryption of a fixed-layout record:
+ * the expiration in epoch seconds, a truncated SHA-256 hash of the relying party, and the principal
+ * name in UTF-8. A fixed format label and the key alias are authenticated as additional data. The alias
+ * cannot contain a period or a colon, the latter so that compact identifiers can be told apart from
+ * sealed ones.</p>
+ * 
+ * <p>Keys are obtained from the same {@link DataSealerKeyStrategy} used by the sealer, but are never used
+ * directly: each is replaced by a subkey derived as the HMAC-SHA256 of the format label under that key,
+ * truncated to the original key length, so this format shares no key with the sealer. Subkeys are
+ * retained briefly by alias, and cipher instances are reused per thread.</p>
+ * 
+ * @since 5.0.0
+ */
+@ThreadSafe
+public class CompactTransientIdCodec extends AbstractInitializableComponent {
+
+    /** Separator between key alias and encoded data. */
+    private static final char SEPARATOR = '.';
+
+    /** Separator between key alias and data in sealed identifiers. */
+    private static final char SEALED_SEPARATOR = ':';
+
+    /** Label identifying this format and version, used to derive subkeys and as additional data. */
+    @Nonnull @NotEmpty private static final String LABEL = "shibboleth.CompactTransientId.v1";
+
+    /** Cipher transformation. */
+    @Nonnull @NotEmpty private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    /** Length of nonce in bytes. */
+    private static final int NONCE_LENGTH = 12;
+
+    /** Length of authentication tag in bits. */
+    private static final int TAG_LENGTH = 128;
+
+    /** Length of relying party hash in bytes. */
+    private static final int HASH_LENGTH = 8;
+
+    /** Length of fixed portion of record in bytes. */
+    private static final int HEADER_LENGTH = Long.BYTES + HASH_LENGTH;
+
+    /** Length of time to retain keys obtained by alias. */
+    @Nonnull private static final Duration KEY_CACHE_LIFETIME = Duration.ofMinutes(15);
+
+    /** Per-thread cipher instances. */
+    @Nonnull private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to obtain " + TRANSFORMATION + " cipher", e);
+        }
+    });
+
+    /** Source of keys. */
+    @NonnullAfterInit private DataSealerKeyStrategy keyStrategy;
+
+    /** Source of nonces. */
+    @Nonnull private final SecureRandom random;
+
+    /** Derived subkeys by alias. */
+    @Nonnull private final Cache<String,SecretKey> keyCache;
+
+    /** URL-safe encoder. */
+    @Nonnull private final Base64.Encoder encoder;
+
+    /** URL-safe decoder. */
+    @Nonnull private final Base64.Decoder decoder;
+
+    /** Constructor. */
+    public CompactTransientIdCodec() {
+        random = new SecureRandom();
+        keyCache = CacheBuilder.newBuilder()
+                .maximumSize(32)
+                .expireAfterWrite(KEY_CACHE_LIFETIME)
+                .build();
+        encoder = Base64.getUrlEncoder().withoutPadding();
+        decoder = Base64.getUrlDecoder();
+    }
+
+    /**
+     * Set the key strategy to use, normally the one used by the sealer.
+     * 
+     * @param strategy key strategy
+     */
+    public void setKeyStrategy(@Nonnull final DataSealerKeyStrategy strategy) {
+        checkSetterPreconditions();
+        keyStrategy = Constraint.isNotNull(strategy, "DataSealerKeyStrategy cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (keyStrategy == null) {
+            throw new ComponentInitializationException("DataSealerKeyStrategy cannot be null");
+        }
+    }
+
+    /**
+     * Get whether an identifier appears to be in the compact format.
+     * 
+     * <p>Sealed identifiers always contain a colon and compact ones never do, so anything containing
+     * one is left to the sealer.</p>
+     * 
+     * @param transientId identifier to check
+     * 
+     * @return true iff the identifier should be decoded by this object
+     */
+    public boolean isCompact(@Nonnull final String transientId) {
+        final int sep = transientId.lastIndexOf(SEPARATOR);
+        return sep > 0 && sep < transientId.length() - 1 && transientId.indexOf(SEALED_SEPARATOR) < 0;
+    }
+
+    /**
+     * Encode a transient identifier.
+     * 
+     * @param relyingPartyId relying party the identifier is issued to
+     * @param principalName principal name
+     * @param expiration expiration of identifier
+     * 
+     * @return the encoded identifier
+     * @throws DataSealerException if the identifier cannot be encoded
+     */
+    @Nonnull @NotEmpty public String encode(@Nonnull @NotEmpty final String relyingPartyId,
+            @Nonnull @NotEmpty final String principalName, @Nonnull final Instant expiration)
+                    throws DataSealerException {
+        checkComponentActive();
+
+        final Pair<String,SecretKey> defaultKey;
+        try {
+            defaultKey = keyStrategy.getDefaultKey();
+        } catch (final KeyException e) {
+            throw new DataSealerException("Unable to obtain default key", e);
+        }
+        final String alias = defaultKey.getFirst();
+        final SecretKey defaultSecret = defaultKey.getSecond();
+        if (alias == null || defaultSecret == null || alias.indexOf(SEPARATOR) >= 0
+                || alias.indexOf(SEALED_SEPARATOR) >= 0) {
+            throw new DataSealerException("Default key alias is missing or unusable");
+        }
+        final SecretKey key = getKey(alias, defaultSecret);
+
+        final byte[] principal = principalName.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + principal.length);
+        record.putLong(expiration.getEpochSecond()).put(hash(relyingPartyId)).put(principal);
+
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+
+        try {
+            final Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, nonce));
+            cipher.updateAAD(additionalData(alias));
+            final byte[] sealed = cipher.doFinal(record.array());
+            final byte[] out = Arrays.copyOf(nonce, NONCE_LENGTH + sealed.length);
+            System.arraycopy(sealed, 0, out, NONCE_LENGTH, sealed.length);
+            return alias + SEPARATOR + encoder.encodeToString(out);
+        } catch (final GeneralSecurityException e) {
+            throw new DataSealerException("Exception encrypting transient identifier", e);
+        }
+    }
+
+    /**
+     * Decode a transient identifier.
+     * 
+     * @param transientId identifier to decode
+     * @param relyingPartyId relying party presenting the identifier
+     * 
+     * @return the principal name, or null if the identifier was issued to a different relying party
+     * @throws DataExpiredException if the identifier has expired
+     * @throws DataSealerException if the identifier cannot be decoded
+     */
+    @Nullable @NotEmpty public String decode(@Nonnull @NotEmpty final String transientId,
+            @Nonnull @NotEmpty final String relyingPartyId) throws DataSealerException {
+        checkComponentActive();
+
+        final int sep = transientId.lastIndexOf(SEPARATOR);
+        if (sep <= 0) {
+            throw new DataSealerException("Transient identifier is not in compact format");
+        }
+        final String alias = transientId.substring(0, sep);
+
+        final byte[] in;
+        try {
+            in = decoder.decode(transientId.substring(sep + 1));
+        } catch (final IllegalArgumentException e) {
+            throw new DataSealerException("Transient identifier was not properly encoded", e);
+        }
+        if (in.length < NONCE_LENGTH + TAG_LENGTH / Byte.SIZE + HEADER_LENGTH) {
+            throw new DataSealerException("Transient identifier was truncated");
+        }
+
+        final byte[] record;
+        try {
+            final Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, getKey(alias, null),
+                    new GCMParameterSpec(TAG_LENGTH, in, 0, NONCE_LENGTH));
+            cipher.updateAAD(additionalData(alias));
+            record = cipher.doFinal(in, NONCE_LENGTH, in.length - NONCE_LENGTH);
+        } catch (final GeneralSecurityException e) {
+            throw new DataSealerException("Exception decrypting transient identifier", e);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        if (Instant.ofEpochSecond(buffer.getLong()).isBefore(Instant.now())) {
+            throw new DataExpiredException("Transient identifier has expired");
+        }
+
+        final byte[] rpHash = new byte[HASH_LENGTH];
+        buffer.get(rpHash);
+        if (!MessageDigest.isEqual(rpHash, hash(relyingPartyId))) {
+            return null;
+        }
+
+        return new String(record, HEADER_LENGTH, record.length - HEADER_LENGTH, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the subkey for an alias, from the cache or by derivation from the sealer key.
+     * 
+     * @param alias key alias
+     * @param sealerKey sealer key for the alias if already known, or null to obtain it from the key strategy
+     * 
+     * @return the subkey
+     * @throws DataSealerException if the key cannot be obtained
+     */
+    @Nonnull private SecretKey getKey(@Nonnull @NotEmpty final String alias, @Nullable final SecretKey sealerKey)
+            throws DataSealerException {
+        try {
+            return keyCache.get(alias, () -> {
+                final SecretKey key = sealerKey != null ? sealerKey : keyStrategy.getKey(alias);
+                if (key == null) {
+                    throw new KeyException("No key found for alias " + alias);
+                }
+                return deriveKey(key);
+            });
+        } catch (final ExecutionException e) {
+            throw new DataSealerException("Unable to obtain key " + alias, e);
+        }
+    }
+
+    /**
+     * Derive the subkey used by this format from a sealer key.
+     * 
+     * @param sealerKey sealer key
+     * 
+     * @return the subkey
+     * @throws GeneralSecurityException if the key cannot be derived
+     */
+    @Nonnull private static SecretKey deriveKey(@Nonnull final SecretKey sealerKey) throws GeneralSecurityException {
+        final byte[] raw = sealerKey.getEncoded();
+        if (raw == null) {
+            throw new KeyException("Key material is not available for derivation");
+        }
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(raw, "HmacSHA256"));
+        final byte[] derived = mac.doFinal(LABEL.getBytes(StandardCharsets.UTF_8));
+        if (raw.length > derived.length) {
+            throw new KeyException("Key length is not supported");
+        }
+        return new SecretKeySpec(derived, 0, raw.length, "AES");
+    }
+
+    /**
+     * Build the additional data authenticated with a record.
+     * 
+     * @param alias key alias
+     * 
+     * @return the format label and key alias
+     */
+    @Nonnull private static byte[] additionalData(@Nonnull @NotEmpty final String alias) {
+        return (LABEL + SEPARATOR + alias).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compute the truncated hash of a relying party name.
+     * 
+     * @param relyingPartyId relying party name
+     * 
+     * @return truncated hash
+     */
+    @Nonnull private byte[] hash(@Nonnull @NotEmpty final String relyingPartyId) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    relyingPartyId.getBytes(StandardCharsets.UTF_8));
+            return Arrays.copyOf(digest, HASH_LENGTH);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is unavailable", e);
+        }
+    }
+
+}
@@ -21,6 +21,7 @@ import java.time.Duration;
 import java.time.Instant;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.opensaml.saml.common.SAMLException;
 import org.slf4j.Logger;
@@ -47,6 +48,9 @@ public class CryptoTransientIdGenerationStrategy extends AbstractIdentifiableIni
     /** Object used to protect and encrypt the data. */
     @NonnullAfterInit private DataSealer dataSealer;
 
+    /** Optional compact encoder used in place of the sealer. */
+    @Nullable private CompactTransientIdCodec compactCodec;
+
     /** Length tokens are valid. */
     @Nonnull private Duration idLifetime;
 
@@ -65,6 +69,20 @@ public class CryptoTransientIdGenerationStrategy extends AbstractIdentifiableIni
         dataSealer = Constraint.isNotNull(sealer, "DataSealer cannot be null");
     }
     
+    /**
+     * Set a {@link CompactTransientIdCodec} to generate shorter identifiers in place of the sealer.
+     * 
+     * <p>Decoders must be configured with the same codec to accept the result.</p>
+     * 
+     * @param codec compact codec
+     * 
+     * @since 5.0.0
+     */
+    public void setCompactCodec(@Nullable final CompactTransientIdCodec codec) {
+        checkSetterPreconditions();
+        compactCodec = codec;
+    }
+    
     /**
      * Get the time ids are valid.
      * 
@@ -101,6 +119,15 @@ public class CryptoTransientIdGenerationStrategy extends AbstractIdentifiableIni
     @Nonnull @NotEmpty public String generate(@Nonnull @NotEmpty final String relyingPartyId,
             @Nonnull @NotEmpty final String principalName) throws SAMLException {
         checkComponentActive();
+        
+        if (compactCodec != null) {
+            try {
+                return compactCodec.encode(relyingPartyId, principalName, Instant.now().plus(idLifetime));
+            } catch (final DataSealerException e) {
+                throw new SAMLException("Exception encoding principal identifier", e);
+            }
+        }
+        
         final StringBuilder principalTokenIdBuilder = new StringBuilder();
         principalTokenIdBuilder.append(relyingPartyId).append("!").append(principalName);
 
@@ -22,14 +22,23 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.opensaml.saml.common.SAMLException;
 import org.opensaml.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.shibboleth.shared.annotation.constraint.NonNegative;
 import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
 import net.shibboleth.shared.annotation.constraint.Positive;
@@ -45,10 +54,24 @@ import net.shibboleth.shared.security.RandomIdentifierParameterSpec;
  * 
  * <p>The identifier itself is the record key, and the value combines the principal name with the
  * identifier of the recipient.</p>
+ * 
+ * <p>In write-behind mode, new identifiers are held in a bounded in-memory buffer and written to the
+ * store in batches by a background task, removing the write from the response path. Buffered identifiers
+ * can be resolved via {@link #readPending(String)} until they are written. When the buffer is full,
+ * identifiers are written synchronously as usual.</p>
+ * 
+ * <p>The buffer is local to this node, so until an identifier is written, other nodes sharing the store
+ * cannot resolve it. Collisions also cannot be detected until an identifier is written, after it has
+ * been issued. A buffered identifier that collides with an existing record is discarded and the existing
+ * record deleted, so that neither resolves, and one that repeatedly fails to be written is eventually
+ * discarded, so it cannot be resolved either.</p>
  */
 public class StoredTransientIdGenerationStrategy extends AbstractIdentifiableInitializableComponent
         implements TransientIdGenerationStrategy {
 
+    /** Number of failed attempts to write a buffered identifier before it is discarded. */
+    private static final int MAX_FLUSH_ATTEMPTS = 5;
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(StoredTransientIdGenerationStrategy.class);
 
@@ -64,10 +87,35 @@ public class StoredTransientIdGenerationStrategy extends AbstractIdentifiableIni
     /** Length identifiers are valid. */
     @Nonnull private Duration idLifetime;
 
+    /** Maximum number of identifiers buffered for writing, or 0 to write synchronously. */
+    @NonNegative private int writeBehindBufferSize;
+
+    /** Number of buffered identifiers that triggers an early flush. */
+    @Positive private int writeBehindBatchSize;
+
+    /** Interval between flushes of buffered identifiers. */
+    @Nonnull private Duration writeBehindInterval;
+
+    /** Identifiers waiting to be written. */
+    @Nullable private Map<String,PendingId> pendingIds;
+
+    /** Number of buffer slots in use, which bounds the size of the buffer. */
+    @Nonnull private final AtomicInteger pendingCount;
+
+    /** Guards against queueing redundant flushes. */
+    @Nonnull private final AtomicBoolean flushQueued;
+
+    /** Background flush task. */
+    @Nullable private ScheduledExecutorService flushExecutor;
+
     /** Constructor. */
     public StoredTransientIdGenerationStrategy() {
         idSize = 16;
         idLifetime = Duration.ofHours(4);
+        writeBehindBatchSize = 100;
+        writeBehindInterval = Duration.ofSeconds(1);
+        flushQueued = new AtomicBoolean();
+        pendingCount = new AtomicInteger();
     }
 
     /**
@@ -131,6 +179,71 @@ public class StoredTransientIdGenerationStrategy extends AbstractIdentifiableIni
         idLifetime = lifetime;
     }
 
+    /**
+     * Set the maximum number of identifiers to buffer for writing to the store in the background.
+     * 
+     * <p>Defaults to 0, which writes each identifier synchronously.</p>
+     * 
+     * @param size buffer size
+     * 
+     * @since 5.0.0
+     */
+    public void setWriteBehindBufferSize(@NonNegative final int size) {
+        checkSetterPreconditions();
+        writeBehindBufferSize = (int) Constraint.isGreaterThanOrEqual(0, size, "Buffer size cannot be negative");
+    }
+
+    /**
+     * Set the number of buffered identifiers that triggers a flush ahead of the interval.
+     * 
+     * <p>Defaults to 100.</p>
+     * 
+     * @param size batch size
+     * 
+     * @since 5.0.0
+     */
+    public void setWriteBehindBatchSize(@Positive final int size) {
+        checkSetterPreconditions();
+        writeBehindBatchSize = (int) Constraint.isGreaterThan(0, size, "Batch size must be positive");
+    }
+
+    /**
+     * Set the interval between flushes of buffered identifiers.
+     * 
+     * <p>Defaults to 1 second.</p>
+     * 
+     * @param interval flush interval
+     * 
+     * @since 5.0.0
+     */
+    public void setWriteBehindInterval(@Nonnull final Duration interval) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(interval, "Flush interval cannot be null");
+        Constraint.isFalse(interval.isNegative() || interval.isZero(), "Flush interval must be greater than 0");
+        
+        writeBehindInterval = interval;
+    }
+
+    /**
+     * Get the encoded value of an identifier that has been issued but not yet written to the store.
+     * 
+     * @param id the identifier
+     * 
+     * @return the encoded {@link TransientIdParameters}, or null
+     * 
+     * @since 5.0.0
+     */
+    @Nullable public String readPending(@Nonnull @NotEmpty final String id) {
+        final Map<String,PendingId> pending = pendingIds;
+        if (pending != null) {
+            final PendingId entry = pending.get(id);
+            if (entry != null && entry.expiration > System.currentTimeMillis()) {
+                return entry.value;
+            }
+        }
+        return null;
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -147,6 +260,36 @@ public class StoredTransientIdGenerationStrategy extends AbstractIdentifiableIni
                 throw new ComponentInitializationException(e);
             }
         }
+        
+        if (writeBehindBufferSize > 0) {
+            pendingIds = new ConcurrentHashMap<>();
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "StoredTransientIdGenerationStrategy-" + getId());
+                thread.setDaemon(true);
+                return thread;
+            });
+            final long interval = writeBehindInterval.toMillis();
+            flushExecutor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                if (!flushExecutor.awaitTermination(writeBehindInterval.toMillis(), TimeUnit.MILLISECONDS)) {
+                    flushExecutor.shutdownNow();
+                }
+            } catch (final InterruptedException e) {
+                flushExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            flushExecutor = null;
+            flush();
+        }
+        
+        super.doDestroy();
     }
     
     /** {@inheritDoc} */
@@ -164,17 +307,21 @@ public class StoredTransientIdGenerationStrategy extends AbstractIdentifiableIni
             // tree. But in practice, I'm not sure it matters much how many times this runs, that's
             // the point of a transient. So this version never reads the store, it just writes to it.
     
-            final String id = idGenerator.generateIdentifier();
-    
-            log.debug("Creating new transient ID '{}'", id);
-    
             final Instant expiration = Instant.now().plus(idLifetime);
     
+            // A colliding identifier may already have been issued, so each attempt uses a fresh one.
             int collisions = 0;
             while (collisions < 5) {
-                if (idStore.create(TransientIdParameters.CONTEXT, id, principalTokenId, expiration.toEpochMilli())) {
+                final String id = idGenerator.generateIdentifier();
+                log.debug("Creating new transient ID '{}'", id);
+    
+                if (defer(id, principalTokenId, expiration)) {
+                    return id;
+                } else if (!isPending(id) && idStore.create(TransientIdParameters.CONTEXT, id, principalTokenId,
+                        expiration.toEpochMilli())) {
                     return id;
                 }
+                log.debug("Transient ID '{}' collided with an existing one", id);
                 ++collisions;
             }
         
@@ -184,4 +331,129 @@ public class StoredTransientIdGenerationStrategy extends AbstractIdentifiableIni
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Get whether an identifier is buffered for writing.
+     * 
+     * @param id the identifier
+     * 
+     * @return true iff the identifier is in the buffer
+     */
+    private boolean isPending(@Nonnull @NotEmpty final String id) {
+        final Map<String,PendingId> pending = pendingIds;
+        return pending != null && pending.containsKey(id);
+    }
+
+    /**
+     * Buffer an identifier for writing in the background, if write-behind is enabled and there is room.
+     * 
+     * @param id the identifier
+     * @param value encoded {@link TransientIdParameters}
+     * @param expiration expiration of the identifier
+     * 
+     * @return true iff the identifier was buffered
+     */
+    private boolean defer(@Nonnull @NotEmpty final String id, @Nonnull @NotEmpty final String value,
+            @Nonnull final Instant expiration) {
+        final Map<String,PendingId> pending = pendingIds;
+        final ScheduledExecutorService executor = flushExecutor;
+        if (pending == null || executor == null) {
+            return false;
+        }
+        
+        // Reserve a slot first, so concurrent callers can't overfill the buffer.
+        final int count = pendingCount.incrementAndGet();
+        if (count > writeBehindBufferSize) {
+            pendingCount.decrementAndGet();
+            log.debug("Write-behind buffer is full, storing transient ID '{}' directly", id);
+            return false;
+        } else if (pending.putIfAbsent(id, new PendingId(value, expiration.toEpochMilli())) != null) {
+            pendingCount.decrementAndGet();
+            return false;
+        }
+        
+        if (count >= writeBehindBatchSize && flushQueued.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::flush);
+            } catch (final RuntimeException e) {
+                flushQueued.set(false);
+                log.debug("Unable to queue flush of transient IDs", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write buffered identifiers to the store.
+     * 
+     * <p>Identifiers are removed from the buffer only after being written, so they remain resolvable
+     * throughout. An identifier that fails to be written is retried on the next flush, up to a limit,
+     * without holding up the others. An identifier that collides with an existing record has already
+     * been issued, so the existing record is deleted to ensure that neither is resolved.</p>
+     */
+    private synchronized void flush() {
+        flushQueued.set(false);
+        final Map<String,PendingId> pending = pendingIds;
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        int count = 0;
+        int failures = 0;
+        Exception failure = null;
+        for (final Map.Entry<String,PendingId> entry : pending.entrySet()) {
+            final String id = entry.getKey();
+            final PendingId pendingId = entry.getValue();
+            if (pendingId.expiration > now) {
+                try {
+                    if (idStore.create(TransientIdParameters.CONTEXT, id, pendingId.value, pendingId.expiration)) {
+                        ++count;
+                    } else {
+                        log.error("Transient ID '{}' collided with an existing record, removing both", id);
+                        idStore.delete(TransientIdParameters.CONTEXT, id);
+                    }
+                } catch (final IOException | RuntimeException e) {
+                    if (++pendingId.attempts < MAX_FLUSH_ATTEMPTS) {
+                        ++failures;
+                        failure = e;
+                        continue;
+                    }
+                    log.error("Unable to store transient ID '{}' after {} attempts, discarding it", id,
+                            pendingId.attempts, e);
+                }
+            }
+            if (pending.remove(id, pendingId)) {
+                pendingCount.decrementAndGet();
+            }
+        }
+        if (failures > 0) {
+            log.error("Error storing {} buffered transient IDs, will retry", failures, failure);
+        }
+        log.trace("Flushed {} buffered transient IDs", count);
+    }
+
+    /** An identifier waiting to be written. */
+    private static final class PendingId {
+
+        /** Encoded {@link TransientIdParameters}. */
+        @Nonnull @NotEmpty private final String value;
+
+        /** Expiration in milliseconds since the epoch. */
+        private final long expiration;
+
+        /** Number of failed attempts to write the identifier, only accessed while flushing. */
+        private int attempts;
+
+        /**
+         * Constructor.
+         * 
+         * @param val encoded value
+         * @param exp expiration
+         */
+        PendingId(@Nonnull @NotEmpty final String val, final long exp) {
+            value = val;
+            expiration = exp;
+        }
+    }
+
+}
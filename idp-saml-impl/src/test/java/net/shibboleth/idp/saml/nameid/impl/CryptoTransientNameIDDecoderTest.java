@@ -18,10 +18,19 @@
 package net.shibboleth.idp.saml.nameid.impl;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyException;
+import java.security.SecureRandom;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.Collections;
 
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.Subject;
 
 import net.shibboleth.idp.authn.SubjectCanonicalizationException;
@@ -32,9 +41,11 @@ import net.shibboleth.idp.saml.authn.principal.NameIDPrincipal;
 import net.shibboleth.idp.saml.impl.testing.TestSources;
 import net.shibboleth.idp.saml.nameid.NameDecoderException;
 import net.shibboleth.idp.saml.nameid.NameIDCanonicalizationFlowDescriptor;
+import net.shibboleth.shared.collection.Pair;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.security.DataSealer;
 import net.shibboleth.shared.security.DataSealerException;
+import net.shibboleth.shared.security.DataSealerKeyStrategy;
 import net.shibboleth.shared.security.impl.BasicKeystoreKeyStrategy;
 import net.shibboleth.shared.spring.resource.ResourceHelper;
 
@@ -63,6 +74,8 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
 
     private DataSealer dataSealer;
 
+    private CompactTransientIdCodec codec;
+
     private CryptoTransientNameIDDecoder decoder;
     
     /**
@@ -94,8 +107,13 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
         dataSealer.setKeyStrategy(kstrategy);
         dataSealer.initialize();
 
+        codec = new CompactTransientIdCodec();
+        codec.setKeyStrategy(kstrategy);
+        codec.initialize();
+
         decoder = new CryptoTransientNameIDDecoder();
         decoder.setDataSealer(dataSealer);
+        decoder.setCompactCodec(codec);
         decoder.setId("Decoder");
         decoder.initialize();
     }
@@ -149,10 +167,102 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
         Assert.assertNull(decoder.decode(ct, "my" + RECIPIENT));
     }
 
+    @Test public void compact() throws Exception {
+        final String ct = codec.encode(RECIPIENT, PRINCIPAL, Instant.now().plus(TIMEOUT));
+        Assert.assertTrue(codec.isCompact(ct));
+        Assert.assertFalse(codec.isCompact(code(PRINCIPAL, ISSUER, RECIPIENT)));
+        Assert.assertTrue(ct.length() < code(PRINCIPAL, ISSUER, RECIPIENT).length());
+
+        Assert.assertEquals(decoder.decode(ct, RECIPIENT), PRINCIPAL);
+        Assert.assertNull(decoder.decode(ct, "my" + RECIPIENT));
+    }
+
+    @Test(expectedExceptions = NameDecoderException.class)
+    public void compactTimeout() throws DataSealerException, NameDecoderException {
+        final String ct = codec.encode(RECIPIENT, PRINCIPAL, Instant.now().minusSeconds(5));
+
+        decoder.decode(ct, RECIPIENT);
+    }
+
+    @Test(expectedExceptions = NameDecoderException.class)
+    public void compactBadData() throws DataSealerException, NameDecoderException {
+        final String ct = codec.encode(RECIPIENT, PRINCIPAL, Instant.now().plus(TIMEOUT));
+
+        decoder.decode(ct.substring(0, ct.length() - 2) + (ct.endsWith("AA") ? "BB" : "AA"), RECIPIENT);
+    }
+
+    @Test(expectedExceptions = DataSealerException.class)
+    public void compactSealedAlias() throws Exception {
+        final byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        final SecretKey key = new SecretKeySpec(bytes, "AES");
+        final CompactTransientIdCodec badCodec = new CompactTransientIdCodec();
+        badCodec.setKeyStrategy(new DataSealerKeyStrategy() {
+            public Pair<String,SecretKey> getDefaultKey() throws KeyException {
+                return new Pair<>("secret:1", key);
+            }
+
+            public SecretKey getKey(final String alias) throws KeyException {
+                return key;
+            }
+        });
+        badCodec.initialize();
+
+        badCodec.encode(RECIPIENT, PRINCIPAL, Instant.now().plus(TIMEOUT));
+    }
+
+    @Test(expectedExceptions = AEADBadTagException.class)
+    public void compactSealerKeyNotUsed() throws Exception {
+        final byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        final SecretKey key = new SecretKeySpec(bytes, "AES");
+        final CompactTransientIdCodec keyCodec = new CompactTransientIdCodec();
+        keyCodec.setKeyStrategy(new DataSealerKeyStrategy() {
+            public Pair<String,SecretKey> getDefaultKey() throws KeyException {
+                return new Pair<>("secret1", key);
+            }
+
+            public SecretKey getKey(final String alias) throws KeyException {
+                return key;
+            }
+        });
+        keyCodec.initialize();
+
+        final String ct = keyCodec.encode(RECIPIENT, PRINCIPAL, Instant.now().plus(TIMEOUT));
+        Assert.assertEquals(keyCodec.decode(ct, RECIPIENT), PRINCIPAL);
+
+        // The sealer key itself must not decrypt the record.
+        final byte[] in = Base64.getUrlDecoder().decode(ct.substring(ct.indexOf('.') + 1));
+        final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, in, 0, 12));
+        cipher.updateAAD("secret1".getBytes(StandardCharsets.UTF_8));
+        cipher.doFinal(in, 12, in.length - 12);
+    }
+
     @Test public void decode() throws Exception {
+        final NameID nameID = roundTrip(null);
+        Assert.assertFalse(codec.isCompact(nameID.getValue()));
+    }
+
+    @Test public void decodeCompact() throws Exception {
+        final NameID nameID = roundTrip(codec);
+        Assert.assertTrue(codec.isCompact(nameID.getValue()));
+    }
+
+    /**
+     * Generate a transient ID and canonicalize it back to the principal.
+     * 
+     * @param compactCodec compact codec for the generator, or null
+     * 
+     * @return the generated {@link NameID}
+     * 
+     * @throws Exception if an error occurs
+     */
+    private NameID roundTrip(final CompactTransientIdCodec compactCodec) throws Exception {
         
         final CryptoTransientIdGenerationStrategy strategy = new CryptoTransientIdGenerationStrategy();
         strategy.setDataSealer(dataSealer);
+        strategy.setCompactCodec(compactCodec);
         strategy.setId("strategy");
         strategy.setIdLifetime(TIMEOUT);
         strategy.initialize();
@@ -193,7 +303,7 @@ public class CryptoTransientNameIDDecoderTest extends OpenSAMLInitBaseTestCase {
         ActionTestingSupport.assertProceedEvent(prc);
 
         Assert.assertEquals(scc.getPrincipalName(), TestSources.PRINCIPAL_ID);
-
+        return nameID;
     }
 
 }
\ No newline at end of file
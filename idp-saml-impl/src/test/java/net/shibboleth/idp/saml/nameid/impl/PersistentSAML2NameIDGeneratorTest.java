@@ -195,6 +195,40 @@ public class PersistentSAML2NameIDGeneratorTest extends OpenSAMLInitBaseTestCase
         Assert.assertEquals(id.getSPNameQualifier(), TestSources.SP_ENTITY_ID);
     }
 
+    @Test
+    public void testCachedComputedAndStoredId() throws Exception {
+        final ComputedPairwiseIdStore strategy = new ComputedPairwiseIdStore();
+        strategy.setSalt(salt);
+        strategy.initialize();
+
+        final JDBCPairwiseIdStore store = new JDBCPairwiseIdStore();
+        store.setDataSource(testSource);
+        store.setInitialValueStore(strategy);
+        store.initialize();
+        
+        final CachingPairwiseIdStore cachingStore = new CachingPairwiseIdStore();
+        cachingStore.setPairwiseIdStore(store);
+        cachingStore.initialize();
+        
+        generator.setPersistentIdStore(cachingStore);
+        
+        testComputedAndStoredIdLogic();
+
+        final PairwiseId pid = new PairwiseId();
+        pid.setIssuerEntityID(TestSources.IDP_ENTITY_ID);
+        pid.setRecipientEntityID(TestSources.SP_ENTITY_ID);
+        pid.setPairwiseId(RESULT);
+        Assert.assertNotNull(cachingStore.getByIssuedValue(pid));
+        cachingStore.deactivate(pid);
+        
+        final NameID id = generator.generate(prc, NameID.PERSISTENT);
+        Assert.assertNotEquals(id.getValue(), RESULT);
+        Assert.assertEquals(id.getNameQualifier(), TestSources.IDP_ENTITY_ID);
+        Assert.assertEquals(id.getSPNameQualifier(), TestSources.SP_ENTITY_ID);
+        
+        Assert.assertEquals(generator.generate(prc, NameID.PERSISTENT).getValue(), id.getValue());
+    }
+
     private void testStoredIdLogic() throws Exception {
         generator.setAttributeSourceIds(Collections.singletonList("SOURCE"));
         generator.initialize();
@@ -17,10 +17,17 @@
 
 package net.shibboleth.idp.saml.nameid.impl;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
 import net.shibboleth.idp.authn.context.SubjectContext;
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
 import net.shibboleth.idp.profile.testing.RequestContextBuilder;
 import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.security.IdentifierGenerationStrategy;
 
 import org.opensaml.core.testing.OpenSAMLInitBaseTestCase;
 import org.opensaml.profile.context.ProfileRequestContext;
@@ -112,4 +119,130 @@ public class StoredTransientSAML2NameIDGeneratorTest extends OpenSAMLInitBaseTes
         Assert.assertEquals(parms.getPrincipal(), "jdoe");
     }
     
-}
\ No newline at end of file
+    @Test public void testWriteBehind() throws Exception {
+        final StoredTransientIdGenerationStrategy writeBehind = new StoredTransientIdGenerationStrategy();
+        writeBehind.setId("writeBehind");
+        writeBehind.setIdStore(store);
+        writeBehind.setWriteBehindBufferSize(1);
+        writeBehind.setWriteBehindInterval(Duration.ofHours(1));
+        writeBehind.initialize();
+        
+        final TransientNameIDDecoder decoder = new TransientNameIDDecoder();
+        decoder.setId("decoder");
+        decoder.setIdStore(store);
+        decoder.setPendingIdSource(writeBehind);
+        decoder.initialize();
+        
+        final String buffered = writeBehind.generate("https://sp.example.org", "jdoe");
+        Assert.assertNull(store.read(TransientIdParameters.CONTEXT, buffered));
+        Assert.assertNotNull(writeBehind.readPending(buffered));
+        Assert.assertEquals(decoder.decode(buffered, "https://sp.example.org"), "jdoe");
+
+        // Buffer is full, so this one is written directly.
+        final String direct = writeBehind.generate("https://sp.example.org", "jsmith");
+        Assert.assertNotNull(store.read(TransientIdParameters.CONTEXT, direct));
+        Assert.assertNull(writeBehind.readPending(direct));
+        
+        writeBehind.destroy();
+        decoder.destroy();
+        
+        final StorageRecord<?> record = store.read(TransientIdParameters.CONTEXT, buffered);
+        Assert.assertNotNull(record);
+        Assert.assertEquals(new TransientIdParameters(record.getValue()).getPrincipal(), "jdoe");
+    }
+
+    @Test public void testCollision() throws Exception {
+        final String existing = new TransientIdParameters("https://sp.example.org", "jsmith").encode();
+        store.create(TransientIdParameters.CONTEXT, "collide", existing, System.currentTimeMillis() + 60000);
+
+        final StoredTransientIdGenerationStrategy strategy = new StoredTransientIdGenerationStrategy();
+        strategy.setId("collision");
+        strategy.setIdStore(store);
+        strategy.setIdGenerator(new FixedIdGenerator("collide", "fresh"));
+        strategy.initialize();
+
+        Assert.assertEquals(strategy.generate("https://sp.example.org", "jdoe"), "fresh");
+        final StorageRecord<?> record = store.read(TransientIdParameters.CONTEXT, "collide");
+        Assert.assertEquals(new TransientIdParameters(record.getValue()).getPrincipal(), "jsmith");
+        strategy.destroy();
+    }
+
+    @Test public void testWriteBehindCollision() throws Exception {
+        final String existing = new TransientIdParameters("https://sp.example.org", "jsmith").encode();
+        store.create(TransientIdParameters.CONTEXT, "collide", existing, System.currentTimeMillis() + 60000);
+
+        final StoredTransientIdGenerationStrategy writeBehind = new StoredTransientIdGenerationStrategy();
+        writeBehind.setId("writeBehind");
+        writeBehind.setIdStore(store);
+        writeBehind.setIdGenerator(new FixedIdGenerator("collide"));
+        writeBehind.setWriteBehindBufferSize(10);
+        writeBehind.setWriteBehindInterval(Duration.ofHours(1));
+        writeBehind.initialize();
+
+        // The collision is only found when the buffer is written, so neither mapping survives.
+        Assert.assertEquals(writeBehind.generate("https://sp.example.org", "jdoe"), "collide");
+        writeBehind.destroy();
+        Assert.assertNull(writeBehind.readPending("collide"));
+        Assert.assertNull(store.read(TransientIdParameters.CONTEXT, "collide"));
+    }
+
+    @Test public void testWriteBehindFailure() throws Exception {
+        final MemoryStorageService failingStore = new MemoryStorageService() {
+            @Override
+            public boolean create(final String context, final String key, final String value,
+                    final Long expiration) throws IOException {
+                if ("bad".equals(key)) {
+                    throw new IOException("Simulated failure");
+                }
+                return super.create(context, key, value, expiration);
+            }
+        };
+        failingStore.setId("failing");
+        failingStore.initialize();
+
+        final StoredTransientIdGenerationStrategy writeBehind = new StoredTransientIdGenerationStrategy();
+        writeBehind.setId("writeBehind");
+        writeBehind.setIdStore(failingStore);
+        writeBehind.setIdGenerator(new FixedIdGenerator("bad", "good"));
+        writeBehind.setWriteBehindBufferSize(10);
+        writeBehind.setWriteBehindInterval(Duration.ofMillis(10));
+        writeBehind.initialize();
+
+        writeBehind.generate("https://sp.example.org", "jdoe");
+        writeBehind.generate("https://sp.example.org", "jsmith");
+
+        // The failing ID must not hold up the other, and is eventually discarded.
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (writeBehind.readPending("bad") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertNull(writeBehind.readPending("bad"));
+        Assert.assertNull(failingStore.read(TransientIdParameters.CONTEXT, "bad"));
+        Assert.assertNull(writeBehind.readPending("good"));
+        Assert.assertNotNull(failingStore.read(TransientIdParameters.CONTEXT, "good"));
+
+        writeBehind.destroy();
+        failingStore.destroy();
+    }
+
+    /** Generator that returns a fixed sequence of identifiers. */
+    private static class FixedIdGenerator implements IdentifierGenerationStrategy {
+
+        private final Queue<String> ids;
+
+        FixedIdGenerator(final String... values) {
+            ids = new ArrayDeque<>(List.of(values));
+        }
+
+        @Override
+        public String generateIdentifier() {
+            return ids.remove();
+        }
+
+        @Override
+        public String generateIdentifier(final boolean xmlSafe) {
+            return ids.remove();
+        }
+    }
+
+}
@@ -30,8 +30,10 @@ import javax.json.Json;
 import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
 import javax.json.JsonStructure;
 import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
 
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
 import net.shibboleth.shared.component.AbstractInitializableComponent;
@@ -59,6 +61,12 @@ public abstract class AbstractSPSessionSerializer extends AbstractInitializableC
 
     /** Milliseconds to subtract from record expiration to establish session expiration value. */
     @Nonnull private final Duration expirationOffset;
+
+    /** JSON generator factory, created once to avoid a provider lookup per operation. */
+    @Nonnull private final JsonGeneratorFactory generatorFactory;
+
+    /** JSON reader factory, created once to avoid a provider lookup per operation. */
+    @Nonnull private final JsonReaderFactory readerFactory;
     
     /**
      * Constructor.
@@ -67,13 +75,15 @@ public abstract class AbstractSPSessionSerializer extends AbstractInitializableC
      */
     protected AbstractSPSessionSerializer(@Nonnull final Duration offset) {
         expirationOffset = Constraint.isNotNull(offset, "Offset cannot be null");
+        generatorFactory = Json.createGeneratorFactory(null);
+        readerFactory = Json.createReaderFactory(null);
     }
 
     /** {@inheritDoc} */
     @Nonnull @NotEmpty public String serialize(@Nonnull final SPSession instance) throws IOException {
         try {
             final StringWriter sink = new StringWriter(128);
-            final JsonGenerator gen = Json.createGenerator(sink);
+            final JsonGenerator gen = generatorFactory.createGenerator(sink);
             gen.writeStartObject()
                 .write(SERVICE_ID_FIELD, instance.getId())
                 .write(CREATION_INSTANT_FIELD, instance.getCreationInstant().toEpochMilli());
@@ -99,7 +109,7 @@ public abstract class AbstractSPSessionSerializer extends AbstractInitializableC
         }
 
         try {
-            final JsonReader reader = Json.createReader(new StringReader(value));
+            final JsonReader reader = readerFactory.createReader(new StringReader(value));
             final JsonStructure st = reader.read();
             if (!(st instanceof JsonObject)) {
                 throw new IOException("Found invalid data structure while parsing SPSession");
@@ -0,0 +1,310 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.base.Strings;
+
+import net.shibboleth.shared.annotation.constraint.NonnullElements;
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.annotation.constraint.Unmodifiable;
+
+/**
+ * Working copy of a secondary index record mapping a service ID and key to the IDs of the
+ * {@link net.shibboleth.idp.session.IdPSession} objects that contain a matching
+ * {@link net.shibboleth.idp.session.SPSession}.
+ * 
+ * <p>The record format is a comma-delimited list of entries in the order added, each of which consists of the
+ * session ID, a colon, and the expiration of the entry in seconds since the epoch encoded in base 36. Tracking the
+ * expiration of each entry allows stale entries to be pruned without reading the sessions themselves, and allows
+ * the record to be capped in size by discarding the entries closest to expiring.</p>
+ * 
+ * <p>Records in this format are stored under a context derived from the service ID with a fixed prefix, so that
+ * they are never seen by older versions sharing the same storage. Those continue to maintain records in the
+ * legacy format, a comma-terminated list of session IDs keyed by the unprefixed service ID, which can be parsed
+ * and written back in that format. Entries read from a legacy record inherit the expiration of the record.</p>
+ * 
+ * <p>The order of entries is preserved in both formats, so session IDs are returned oldest first.</p>
+ */
+@NotThreadSafe
+final class SecondaryServiceIndex {
+
+    /** Prefix applied to the service ID to form the storage context of records in the current format. */
+    @Nonnull @NotEmpty static final String CONTEXT_PREFIX = "v2|";
+    
+    /** Radix used to encode expirations. */
+    private static final int RADIX = 36;
+    
+    /** Map of session ID to entry expiration in milliseconds since the epoch. */
+    @Nonnull @NonnullElements private final Map<String,Long> entries;
+    
+    /** Whether the record was parsed from the legacy format. */
+    private final boolean legacy;
+
+    /**
+     * Constructor.
+     * 
+     * @param isLegacy whether the record was parsed from the legacy format
+     */
+    private SecondaryServiceIndex(final boolean isLegacy) {
+        entries = new LinkedHashMap<>();
+        legacy = isLegacy;
+    }
+    
+    /**
+     * Create an empty index.
+     * 
+     * @return an empty index
+     */
+    @Nonnull static SecondaryServiceIndex create() {
+        return new SecondaryServiceIndex(false);
+    }
+    
+    /**
+     * Get the storage context for records in the current format.
+     * 
+     * @param serviceId the service ID
+     * @param contextSize maximum context size supported by the storage service
+     * 
+     * @return the storage context, truncated if necessary
+     */
+    @Nonnull @NotEmpty static String getContext(@Nonnull @NotEmpty final String serviceId, final int contextSize) {
+        final String context = CONTEXT_PREFIX + serviceId;
+        return context.length() > contextSize ? context.substring(0, contextSize) : context;
+    }
+    
+    /**
+     * Parse a record value in the current format.
+     * 
+     * @param value the record value
+     * 
+     * @return the parsed index
+     */
+    @Nonnull static SecondaryServiceIndex parse(@Nullable final String value) {
+        final SecondaryServiceIndex index = create();
+        if (value == null) {
+            return index;
+        }
+        
+        for (final String entry : value.split(",")) {
+            final int delim = entry.lastIndexOf(':');
+            if (delim > 0) {
+                try {
+                    index.entries.put(entry.substring(0, delim),
+                            Long.parseLong(entry.substring(delim + 1), RADIX) * 1000);
+                } catch (final NumberFormatException e) {
+                    // Skip malformed entry, it will be dropped on the next update.
+                }
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * Parse a record value in the legacy format.
+     * 
+     * @param value the record value
+     * @param recordExpiration expiration of the record, applied to each entry
+     * @param defaultExpiration expiration to apply if the record has none
+     * 
+     * @return the parsed index
+     */
+    @Nonnull static SecondaryServiceIndex parseLegacy(@Nullable final String value,
+            @Nullable final Long recordExpiration, final long defaultExpiration) {
+        final SecondaryServiceIndex index = new SecondaryServiceIndex(true);
+        if (value == null) {
+            return index;
+        }
+        
+        final long expiration = recordExpiration != null ? recordExpiration : defaultExpiration;
+        for (final String sessionId : value.split(",")) {
+            if (!Strings.isNullOrEmpty(sessionId)) {
+                index.entries.put(sessionId, expiration);
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * Get whether the index was parsed from the legacy format.
+     * 
+     * @return true iff the source record was in the legacy format
+     */
+    boolean isLegacy() {
+        return legacy;
+    }
+    
+    /**
+     * Get whether the index is empty.
+     * 
+     * @return true iff there are no entries
+     */
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+    
+    /**
+     * Get whether a session ID is present.
+     * 
+     * @param sessionId session ID to check
+     * 
+     * @return true iff the session ID is present
+     */
+    boolean contains(@Nonnull @NotEmpty final String sessionId) {
+        return entries.containsKey(sessionId);
+    }
+    
+    /**
+     * Get the session IDs in the index.
+     * 
+     * @return session IDs
+     */
+    @Nonnull @NonnullElements @Unmodifiable Set<String> getSessionIds() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+    
+    /**
+     * Get the expiration to apply to the record, the latest of the entry expirations.
+     * 
+     * @return record expiration in milliseconds since the epoch, or null if the index is empty
+     */
+    @Nullable Long getExpiration() {
+        return entries.values().stream().max(Comparator.naturalOrder()).orElse(null);
+    }
+
+    /**
+     * Add a session ID, or extend the expiration of an existing entry.
+     * 
+     * @param sessionId session ID to add
+     * @param expiration expiration of the entry in milliseconds since the epoch
+     * 
+     * @return true iff the index was modified
+     */
+    boolean add(@Nonnull @NotEmpty final String sessionId, final long expiration) {
+        final Long existing = entries.get(sessionId);
+        if (existing != null && existing >= expiration) {
+            return false;
+        }
+        entries.put(sessionId, expiration);
+        return true;
+    }
+    
+    /**
+     * Remove a session ID.
+     * 
+     * @param sessionId session ID to remove
+     * 
+     * @return true iff the index was modified
+     */
+    boolean remove(@Nonnull @NotEmpty final String sessionId) {
+        return entries.remove(sessionId) != null;
+    }
+    
+    /**
+     * Remove any session IDs not in the supplied collection.
+     * 
+     * @param sessionIds session IDs to retain
+     * 
+     * @return true iff the index was modified
+     */
+    boolean retainAll(@Nonnull @NonnullElements final Collection<String> sessionIds) {
+        return entries.keySet().retainAll(sessionIds);
+    }
+    
+    /**
+     * Remove any entries that have expired.
+     * 
+     * @param now current time in milliseconds since the epoch
+     * 
+     * @return true iff the index was modified
+     */
+    boolean prune(final long now) {
+        return entries.values().removeIf(exp -> exp <= now);
+    }
+    
+    /**
+     * Remove the entries closest to expiring until the index is no larger than the supplied limit.
+     * 
+     * @param limit maximum number of entries
+     * 
+     * @return true iff the index was modified
+     */
+    boolean truncate(@Positive final int limit) {
+        if (entries.size() <= limit) {
+            return false;
+        }
+        
+        final List<Map.Entry<String,Long>> sorted = new ArrayList<>(entries.entrySet());
+        sorted.sort(Map.Entry.comparingByValue());
+        final Iterator<Map.Entry<String,Long>> i = sorted.iterator();
+        int excess = entries.size() - limit;
+        while (excess-- > 0 && i.hasNext()) {
+            entries.remove(i.next().getKey());
+        }
+        return true;
+    }
+    
+    /**
+     * Encode the index in the current record format.
+     * 
+     * @return the encoded record value
+     */
+    @Nonnull String encode() {
+        final StringBuilder builder = new StringBuilder(entries.size() * 48);
+        boolean first = true;
+        for (final Map.Entry<String,Long> entry : entries.entrySet()) {
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            // Round up to the next second to avoid premature expiration.
+            final long exp = entry.getValue();
+            builder.append(entry.getKey()).append(':').append(
+                    Long.toString(exp / 1000 + (exp % 1000 > 0 ? 1 : 0), RADIX));
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * Encode the index in the legacy record format.
+     * 
+     * @return the encoded record value
+     */
+    @Nonnull String encodeLegacy() {
+        final StringBuilder builder = new StringBuilder(entries.size() * 40);
+        for (final String sessionId : entries.keySet()) {
+            builder.append(sessionId).append(',');
+        }
+        return builder.toString();
+    }
+    
+}
@@ -19,10 +19,13 @@ package net.shibboleth.idp.session.impl;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -32,6 +35,7 @@ import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.session.AbstractIdPSession;
 import net.shibboleth.idp.session.SPSession;
 import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.storage.BatchReadStorageService;
 import net.shibboleth.shared.annotation.constraint.Live;
 import net.shibboleth.shared.annotation.constraint.NonnullElements;
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
@@ -41,14 +45,22 @@ import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.primitive.StringSupport;
 
 import org.apache.commons.codec.digest.DigestUtils;
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageSerializer;
+import org.opensaml.storage.StorageService;
 import org.opensaml.storage.VersionMismatchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+
 /**
  * Implementation of {@link net.shibboleth.idp.session.IdPSession} for use with {@link StorageBackedSessionManager}.
+ * 
+ * <p>{@link AuthenticationResult} and {@link SPSession} records are loaded on demand. When the complete set of
+ * either is requested and the {@link StorageService} implements {@link BatchReadStorageService}, the outstanding
+ * records are retrieved in a single operation and deserialized as they are accessed.</p>
  */
 public class StorageBackedIdPSession extends AbstractIdPSession {
     
@@ -58,9 +70,15 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     /** Back-reference to parent instance. */
     @Nonnull private final StorageBackedSessionManager sessionManager;
     
+    /** Prefix of metric names. */
+    @Nonnull @NotEmpty private static final String METRIC_NAME = "net.shibboleth.idp.session.children";
+
     /** Storage version used to synchronize changes. */
     private long version;
     
+    /** Child records retrieved in bulk but not yet deserialized, keyed by storage key. */
+    @Nonnull @NonnullElements private final Map<String,Optional<StorageRecord<?>>> prefetchedRecords;
+    
     /**
      * Constructor.
      *
@@ -77,6 +95,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         sessionManager = Constraint.isNotNull(manager, "SessionManager cannot be null");
         
         version = 1;
+        prefetchedRecords = new ConcurrentHashMap<>();
     }
     
     /** {@inheritDoc} */
@@ -91,6 +110,8 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
             sessionManager.getStorageService().updateExpiration(
                     getId(), StorageBackedSessionManager.SESSION_PRIMARY_KEY, exp.toEpochMilli());
             super.setLastActivityInstant(instant);
+            // The record version doesn't change, so refresh any cached copy directly.
+            sessionManager.cacheSession(this);
         } catch (final IOException e) {
             if (!sessionManager.isMaskStorageFailure()) {
                 throw new SessionException("Exception updating expiration of session record", e);
@@ -163,6 +184,12 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     @Nonnull @NonnullElements @NotLive @Unmodifiable public Set<AuthenticationResult> getAuthenticationResults() {
         
         // Check for any sparse/null values in the map, which need to be loaded before returning a complete set.
+        prefetchChildRecords(getAuthenticationResultMap().entrySet()
+                .stream()
+                .filter(e -> e.getValue().isEmpty()
+                        && sessionManager.getAuthenticationFlowDescriptor(e.getKey()) != null)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList()));
         final Iterator<Map.Entry<String,Optional<AuthenticationResult>>> entries =
                 getAuthenticationResultMap().entrySet().iterator();
         while (entries.hasNext()) {
@@ -331,6 +358,11 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         
         if (sessionManager.isTrackSPSessions() && sessionManager.storageServiceMeetsThreshold()) {
             // Check for any sparse/null values in the map, which need to be loaded before returning a complete set.
+            prefetchChildRecords(getSPSessionMap().entrySet()
+                    .stream()
+                    .filter(e -> e.getValue().isEmpty())
+                    .map(e -> getSPSessionStorageKey(e.getKey()))
+                    .collect(Collectors.toList()));
             final Iterator<Map.Entry<String, Optional<SPSession>>> entries =
                     getSPSessionMap().entrySet().iterator();
             while (entries.hasNext()) {
@@ -496,6 +528,37 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         return false;
     }
 
+    /**
+     * Create a copy of this object reflecting only the state of the primary record.
+     * 
+     * <p>{@link AuthenticationResult} and {@link SPSession} objects are not carried over, since their
+     * records can change without affecting the primary record's version and the objects are mutable.
+     * The copy references them by ID only, and loads them from storage when needed.</p>
+     * 
+     * @return a copy of this object
+     * 
+     * @since 5.0.0
+     */
+    @Nonnull protected StorageBackedIdPSession copy() {
+        final StorageBackedIdPSession copy =
+                new StorageBackedIdPSession(sessionManager, getId(), getPrincipalName(), getCreationInstant());
+        copy.version = version;
+        copy.doSetLastActivityInstant(getLastActivityInstant());
+        for (final AddressFamily family : AddressFamily.values()) {
+            final String address = getAddress(family);
+            if (address != null) {
+                copy.doBindToAddress(address);
+            }
+        }
+        for (final String flowId : getAuthenticationResultMap().keySet()) {
+            copy.getAuthenticationResultMap().put(flowId, Optional.empty());
+        }
+        for (final String serviceId : getSPSessionMap().keySet()) {
+            copy.getSPSessionMap().put(serviceId, Optional.empty());
+        }
+        return copy;
+    }
+
     /**
      * Get the record version.
      * 
@@ -546,7 +609,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         }
         
         try {
-            final StorageRecord<AuthenticationResult> record = sessionManager.getStorageService().read(getId(), flowId);
+            final StorageRecord<AuthenticationResult> record = readChildRecord(flowId);
             if (record != null) {
                 return record.getValue(flow, getId(), flowId);
             }
@@ -558,6 +621,67 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         }
     }
 
+    /**
+     * Retrieves a set of child records in a single operation if the {@link StorageService} supports it,
+     * holding them for later deserialization on demand.
+     * 
+     * <p>Nothing is done if there are fewer than two records to retrieve, as there is no benefit.</p>
+     * 
+     * @param keys storage keys of the records to retrieve
+     */
+    private void prefetchChildRecords(@Nonnull @NonnullElements final Collection<String> keys) {
+        final StorageService storageService = sessionManager.getStorageService();
+        if (keys.size() < 2 || !(storageService instanceof BatchReadStorageService)) {
+            return;
+        }
+        
+        log.debug("Retrieving {} child record(s) for session {}", keys.size(), getId());
+        
+        try {
+            final Map<String,StorageRecord<Object>> records =
+                    ((BatchReadStorageService) storageService).readKeys(getId(), keys);
+            for (final String key : keys) {
+                // An empty value records that the record is known not to exist.
+                prefetchedRecords.put(key, Optional.ofNullable(records.get(key)));
+            }
+            final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+            if (registry != null) {
+                registry.counter(METRIC_NAME + ".reads").inc();
+                registry.histogram(METRIC_NAME + ".batchSize").update(keys.size());
+            }
+        } catch (final IOException e) {
+            // Records will be read individually.
+            log.warn("Exception retrieving child records for session {}: {}", getId(), e.getMessage());
+        }
+    }
+    
+    /**
+     * Obtains a child record, either from those previously retrieved in bulk, or from storage.
+     * 
+     * @param <T> type of record
+     * @param key storage key of record
+     * 
+     * @return the record, or null if it doesn't exist
+     * @throws IOException if a possibly transitory storage-related error occurs
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable private <T> StorageRecord<T> readChildRecord(@Nonnull @NotEmpty final String key) throws IOException {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry != null) {
+            registry.counter(METRIC_NAME + ".records").inc();
+        }
+        
+        final Optional<StorageRecord<?>> prefetched = prefetchedRecords.remove(key);
+        if (prefetched != null) {
+            return (StorageRecord<T>) prefetched.orElse(null);
+        }
+        
+        if (registry != null) {
+            registry.counter(METRIC_NAME + ".reads").inc();
+        }
+        return sessionManager.getStorageService().read(getId(), key);
+    }
+
     /**
      * Saves an {@link AuthenticationResult} record to storage, serializing it using the object
      * attached to the corresponding {@link AuthenticationFlowDescriptor}.
@@ -620,7 +744,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         final String key = getSPSessionStorageKey(serviceId);
         
         try {
-            final StorageRecord<SPSession> record = sessionManager.getStorageService().read(getId(), key);
+            final StorageRecord<SPSession> record = readChildRecord(key);
             if (record == null) {
                 log.debug("No SPSession found for service {} in session {}", serviceId, getId());
                 return null;
@@ -740,6 +864,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                 throw new IOException("Unable to update session, record disappeared");
             }
             version = ver;
+            sessionManager.cacheSession(this);
             return true;
         } catch (final VersionMismatchException e) {
             // The record has changed underneath. We need to deserialize the session back into the
@@ -752,6 +877,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
             }
             record.getValue(new StorageBackedIdPSessionSerializer(sessionManager, this),
                     getId(), StorageBackedSessionManager.SESSION_PRIMARY_KEY);
+            sessionManager.cacheSession(this);
             return false;
         }
     }
@@ -17,10 +17,19 @@
 
 package net.shibboleth.idp.session.impl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -50,11 +59,35 @@ import org.slf4j.LoggerFactory;
 /**
  * A serializer for instances of {@link StorageBackedIdPSession} designed in conjunction with the
  * {@link org.opensaml.storage.StorageService}-backed {@link net.shibboleth.idp.session.SessionManager} implementation.
+ * 
+ * <p>Records are written as JSON unless {@link StorageBackedSessionManager#isCompactSerialization()} is set,
+ * in which case a versioned binary encoding is written instead, Base64-encoded and prefixed with
+ * {@link #COMPACT_FORMAT_MARKER}. Either format is accepted when reading, so the setting can be changed
+ * without invalidating existing sessions.</p>
  */
 @ThreadSafe
 public class StorageBackedIdPSessionSerializer extends AbstractInitializableComponent implements
         StorageSerializer<StorageBackedIdPSession> {
 
+    /**
+     * Leading character of a record in the compact format.
+     * 
+     * @since 5.0.0
+     */
+    @Nonnull @NotEmpty public static final String COMPACT_FORMAT_MARKER = "~";
+
+    /** Version of the compact format written by this class. */
+    private static final byte COMPACT_FORMAT_VERSION = 1;
+
+    /** Compact format flag for the presence of an IPv4 address. */
+    private static final int IPV4_ADDRESS_FLAG = 0x01;
+
+    /** Compact format flag for the presence of an IPv6 address. */
+    private static final int IPV6_ADDRESS_FLAG = 0x02;
+
+    /** Compact format flag for the presence of an unknown address. */
+    private static final int UNK_ADDRESS_FLAG = 0x04;
+
     /** Field name of creation instant. */
     @Nonnull @NotEmpty private static final String CREATION_INSTANT_FIELD = "ts";
 
@@ -76,6 +109,9 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     /** Field name of service ID array. */
     @Nonnull @NotEmpty private static final String SERVICE_ID_ARRAY_FIELD = "svcs";
 
+    /** JsonProvider to be used for session serialization, located once since the lookup is expensive. */
+    @Nonnull private static final JsonProvider JSON_PROVIDER = JsonProvider.provider();
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(StorageBackedIdPSessionSerializer.class);
 
@@ -85,8 +121,6 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     /** Object instance to overwrite with deserialization method. */
     @Nullable private final StorageBackedIdPSession targetObject;
 
-    /** JsonProvider to be used for session serialization. */
-    @Nonnull private final JsonProvider jsonProvider;
     /**
      * Constructor.
      * 
@@ -97,17 +131,48 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
             @Nullable final StorageBackedIdPSession target) {
         sessionManager = Constraint.isNotNull(manager, "SessionManager cannot be null");
         targetObject = target;
-        jsonProvider = JsonProvider.provider();
     }
 
-// Checkstyle: CyclomaticComplexity OFF
     /** {@inheritDoc} */
     @Override @Nonnull @NotEmpty public String serialize(@Nonnull final StorageBackedIdPSession instance)
             throws IOException {
+        
+        final Collection<String> serviceIds;
+        if (sessionManager.isTrackSPSessions()) {
+            if (sessionManager.storageServiceMeetsThreshold()) {
+                serviceIds = new ArrayList<>();
+                for (final SPSession service : instance.getSPSessions()) {
+                    serviceIds.add(service.getId());
+                }
+            } else {
+                log.debug("Unable to serialize SP session due to to storage service limitations");
+                serviceIds = Collections.emptyList();
+            }
+        } else {
+            serviceIds = Collections.emptyList();
+        }
+        
+        if (sessionManager.isCompactSerialization()) {
+            return serializeCompact(instance, serviceIds);
+        }
+        return serializeJSON(instance, serviceIds);
+    }
+
+    /**
+     * Serialize a session as a JSON object.
+     * 
+     * @param instance session to serialize
+     * @param serviceIds service IDs to include
+     * 
+     * @return the serialized form
+     * @throws IOException if an error occurs
+     */
+    @Nonnull @NotEmpty private String serializeJSON(@Nonnull final StorageBackedIdPSession instance,
+            @Nonnull final Collection<String> serviceIds) throws IOException {
 
         try {
             final StringWriter sink = new StringWriter(128);
-            final JsonGenerator gen = jsonProvider.createGenerator(sink);
+            final JsonGenerator gen = JSON_PROVIDER.createGenerator(sink);
             gen.writeStartObject().write(CREATION_INSTANT_FIELD, instance.getCreationInstant().toEpochMilli())
                     .write(PRINCIPAL_NAME_FIELD, instance.getPrincipalName());
 
@@ -132,19 +197,12 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
                 gen.writeEnd();
             }
 
-            if (sessionManager.isTrackSPSessions()) {
-                if (sessionManager.storageServiceMeetsThreshold()) {
-                    final Set<SPSession> services = instance.getSPSessions();
-                    if (!services.isEmpty()) {
-                        gen.writeStartArray(SERVICE_ID_ARRAY_FIELD);
-                        for (final SPSession service : services) {
-                            gen.write(service.getId());
-                        }
-                        gen.writeEnd();
-                    }
-                } else {
-                    log.debug("Unable to serialize SP session due to to storage service limitations");
+            if (!serviceIds.isEmpty()) {
+                gen.writeStartArray(SERVICE_ID_ARRAY_FIELD);
+                for (final String serviceId : serviceIds) {
+                    gen.write(serviceId);
                 }
+                gen.writeEnd();
             }
 
             gen.writeEnd().close();
@@ -155,10 +213,57 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
             throw new IOException("Exception while serializing IdPSession", e);
         }
     }
-// Checkstyle: CyclomaticComplexity ON
+
+    /**
+     * Serialize a session in the compact format.
+     * 
+     * <p>The layout is a version byte, a byte of address flags, the creation instant, the principal name,
+     * any addresses in flag order, and the flow and service ID lists, each preceded by its length. Integers
+     * are written as unsigned variable-length quantities and strings as length-prefixed UTF-8.</p>
+     * 
+     * @param instance session to serialize
+     * @param serviceIds service IDs to include
+     * 
+     * @return the serialized form
+     */
+    @Nonnull @NotEmpty private String serializeCompact(@Nonnull final StorageBackedIdPSession instance,
+            @Nonnull final Collection<String> serviceIds) {
+        
+        final String v4 = instance.getAddress(AbstractIdPSession.AddressFamily.IPV4);
+        final String v6 = instance.getAddress(AbstractIdPSession.AddressFamily.IPV6);
+        final String unk = instance.getAddress(AbstractIdPSession.AddressFamily.UNKNOWN);
+        
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream(96);
+        sink.write(COMPACT_FORMAT_VERSION);
+        sink.write((v4 != null ? IPV4_ADDRESS_FLAG : 0) | (v6 != null ? IPV6_ADDRESS_FLAG : 0)
+                | (unk != null ? UNK_ADDRESS_FLAG : 0));
+        writeVarLong(sink, instance.getCreationInstant().toEpochMilli());
+        writeString(sink, instance.getPrincipalName());
+        if (v4 != null) {
+            writeString(sink, v4);
+        }
+        if (v6 != null) {
+            writeString(sink, v6);
+        }
+        if (unk != null) {
+            writeString(sink, unk);
+        }
+        
+        final Set<AuthenticationResult> results = instance.getAuthenticationResults();
+        writeVarLong(sink, results.size());
+        for (final AuthenticationResult result : results) {
+            writeString(sink, result.getAuthenticationFlowId());
+        }
+        
+        writeVarLong(sink, serviceIds.size());
+        for (final String serviceId : serviceIds) {
+            writeString(sink, serviceId);
+        }
+        
+        return COMPACT_FORMAT_MARKER + Base64.getEncoder().withoutPadding().encodeToString(sink.toByteArray());
+    }
 
     /** {@inheritDoc} */
-    // Checkstyle: CyclomaticComplexity OFF
     @Override @Nonnull public StorageBackedIdPSession deserialize(final long version,
             @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
             @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
@@ -167,67 +272,258 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
             throw new IOException("IdPSession objects must have an expiration");
         }
 
+        if (value.startsWith(COMPACT_FORMAT_MARKER)) {
+            return deserializeCompact(version, context, value, expiration);
+        }
+        return deserializeJSON(version, context, value, expiration);
+    }
+
+    /**
+     * Deserialize a session from a JSON object.
+     * 
+     * @param version record version
+     * @param context record context
+     * @param value record value
+     * @param expiration record expiration
+     * 
+     * @return the populated session
+     * @throws IOException if an error occurs
+     */
+    @Nonnull private StorageBackedIdPSession deserializeJSON(final long version,
+            @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String value,
+            @Nonnull final Long expiration) throws IOException {
+
         try {
-            final JsonReader reader = jsonProvider.createReader(new StringReader(value));
+            final JsonReader reader = JSON_PROVIDER.createReader(new StringReader(value));
             final JsonStructure st = reader.read();
             if (!(st instanceof JsonObject)) {
                 throw new IOException("Found invalid data structure while parsing IdPSession");
             }
             final JsonObject obj = (JsonObject) st;
 
-            // Create new object if necessary.
-            StorageBackedIdPSession objectToPopulate = targetObject;
-            if (objectToPopulate == null) {
-                final Instant creation =
-                        Instant.ofEpochMilli(obj.getJsonNumber(CREATION_INSTANT_FIELD).longValueExact());
-                final String principalName = obj.getString(PRINCIPAL_NAME_FIELD);
-                objectToPopulate = new StorageBackedIdPSession(sessionManager, context, principalName, creation);
-            }
-
-            // Populate fields in-place, bypassing any storage interactions.
-            objectToPopulate.setVersion(version);
-            objectToPopulate.doSetLastActivityInstant(
-                    Instant.ofEpochMilli(expiration).minus(sessionManager.getSessionTimeout()).minus(
-                            sessionManager.getSessionSlop()));
+            final Instant creation = Instant.ofEpochMilli(obj.getJsonNumber(CREATION_INSTANT_FIELD).longValueExact());
+            final String principalName = obj.getString(PRINCIPAL_NAME_FIELD);
+            
+            final List<String> addresses = new ArrayList<>(3);
             if (obj.containsKey(IPV4_ADDRESS_FIELD)) {
-                objectToPopulate.doBindToAddress(obj.getString(IPV4_ADDRESS_FIELD));
+                addresses.add(obj.getString(IPV4_ADDRESS_FIELD));
             }
             if (obj.containsKey(IPV6_ADDRESS_FIELD)) {
-                objectToPopulate.doBindToAddress(obj.getString(IPV6_ADDRESS_FIELD));
+                addresses.add(obj.getString(IPV6_ADDRESS_FIELD));
             }
             if (obj.containsKey(UNK_ADDRESS_FIELD)) {
-                objectToPopulate.doBindToAddress(obj.getString(UNK_ADDRESS_FIELD));
+                addresses.add(obj.getString(UNK_ADDRESS_FIELD));
             }
 
-            objectToPopulate.getAuthenticationResultMap().clear();
+            final List<String> flowIds = new ArrayList<>();
             if (obj.containsKey(FLOW_ID_ARRAY_FIELD)) {
-                final JsonArray flowIds = obj.getJsonArray(FLOW_ID_ARRAY_FIELD);
-                if (flowIds != null) {
-                    for (final JsonString flowId : flowIds.getValuesAs(JsonString.class)) {
-                        // An absent mapping is used to signify the existence of a result not yet loaded.
-                        objectToPopulate.getAuthenticationResultMap().put(flowId.getString(), Optional.empty());
+                final JsonArray flowIdArray = obj.getJsonArray(FLOW_ID_ARRAY_FIELD);
+                if (flowIdArray != null) {
+                    for (final JsonString flowId : flowIdArray.getValuesAs(JsonString.class)) {
+                        flowIds.add(flowId.getString());
                     }
                 }
             }
 
-            objectToPopulate.getSPSessionMap().clear();
+            final List<String> serviceIds = new ArrayList<>();
             if (obj.containsKey(SERVICE_ID_ARRAY_FIELD)) {
-                final JsonArray svcIds = obj.getJsonArray(SERVICE_ID_ARRAY_FIELD);
-                if (svcIds != null) {
-                    for (final JsonString svcId : svcIds.getValuesAs(JsonString.class)) {
-                        // An absent mapping is used to signify the existence of a session not yet loaded.
-                        objectToPopulate.getSPSessionMap().put(svcId.getString(), Optional.empty());
+                final JsonArray svcIdArray = obj.getJsonArray(SERVICE_ID_ARRAY_FIELD);
+                if (svcIdArray != null) {
+                    for (final JsonString svcId : svcIdArray.getValuesAs(JsonString.class)) {
+                        serviceIds.add(svcId.getString());
                     }
                 }
             }
 
-            return objectToPopulate;
+            return populate(version, context, expiration, creation, principalName, addresses, flowIds, serviceIds);
 
         } catch (final NullPointerException | ClassCastException | ArithmeticException | JsonException e) {
             log.error("Exception while parsing IdPSession: {}", e.getMessage());
             throw new IOException("Found invalid data structure while parsing IdPSession", e);
         }
     }
-    // Checkstyle: CyclomaticComplexity ON
 
-}
\ No newline at end of file
+    /**
+     * Deserialize a session from the compact format.
+     * 
+     * @param version record version
+     * @param context record context
+     * @param value record value
+     * @param expiration record expiration
+     * 
+     * @return the populated session
+     * @throws IOException if an error occurs
+     */
+    @Nonnull private StorageBackedIdPSession deserializeCompact(final long version,
+            @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String value,
+            @Nonnull final Long expiration) throws IOException {
+        
+        try {
+            final ByteBuffer buffer =
+                    ByteBuffer.wrap(Base64.getDecoder().decode(value.substring(COMPACT_FORMAT_MARKER.length())));
+            final byte formatVersion = buffer.get();
+            if (formatVersion != COMPACT_FORMAT_VERSION) {
+                throw new IOException("Unsupported IdPSession format version " + formatVersion);
+            }
+            
+            final int flags = buffer.get();
+            final Instant creation = Instant.ofEpochMilli(readVarLong(buffer));
+            final String principalName = readString(buffer);
+            
+            final List<String> addresses = new ArrayList<>(3);
+            if ((flags & IPV4_ADDRESS_FLAG) != 0) {
+                addresses.add(readString(buffer));
+            }
+            if ((flags & IPV6_ADDRESS_FLAG) != 0) {
+                addresses.add(readString(buffer));
+            }
+            if ((flags & UNK_ADDRESS_FLAG) != 0) {
+                addresses.add(readString(buffer));
+            }
+            
+            final List<String> flowIds = readStrings(buffer);
+            final List<String> serviceIds = readStrings(buffer);
+            
+            return populate(version, context, expiration, creation, principalName, addresses, flowIds, serviceIds);
+
+        } catch (final IllegalArgumentException | BufferUnderflowException e) {
+            log.error("Exception while parsing IdPSession: {}", e.getMessage());
+            throw new IOException("Found invalid data structure while parsing IdPSession", e);
+        }
+    }
+
+    /**
+     * Populate the target object, or a new object, with deserialized data.
+     * 
+     * @param version record version
+     * @param context record context
+     * @param expiration record expiration
+     * @param creation session creation instant
+     * @param principalName principal name
+     * @param addresses bound addresses
+     * @param flowIds IDs of flows with results in the session
+     * @param serviceIds IDs of services with sessions in the session
+     * 
+     * @return the populated session
+     */
+    @Nonnull private StorageBackedIdPSession populate(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull final Long expiration, @Nonnull final Instant creation, @Nonnull final String principalName,
+            @Nonnull final Collection<String> addresses, @Nonnull final Collection<String> flowIds,
+            @Nonnull final Collection<String> serviceIds) {
+        
+        // Create new object if necessary.
+        StorageBackedIdPSession objectToPopulate = targetObject;
+        if (objectToPopulate == null) {
+            objectToPopulate = new StorageBackedIdPSession(sessionManager, context, principalName, creation);
+        }
+
+        // Populate fields in-place, bypassing any storage interactions.
+        objectToPopulate.setVersion(version);
+        objectToPopulate.doSetLastActivityInstant(
+                Instant.ofEpochMilli(expiration).minus(sessionManager.getSessionTimeout()).minus(
+                        sessionManager.getSessionSlop()));
+        for (final String address : addresses) {
+            objectToPopulate.doBindToAddress(address);
+        }
+
+        objectToPopulate.getAuthenticationResultMap().clear();
+        for (final String flowId : flowIds) {
+            // An absent mapping is used to signify the existence of a result not yet loaded.
+            objectToPopulate.getAuthenticationResultMap().put(flowId, Optional.empty());
+        }
+
+        objectToPopulate.getSPSessionMap().clear();
+        for (final String serviceId : serviceIds) {
+            // An absent mapping is used to signify the existence of a session not yet loaded.
+            objectToPopulate.getSPSessionMap().put(serviceId, Optional.empty());
+        }
+
+        return objectToPopulate;
+    }
+
+    /**
+     * Write a non-negative integer as an unsigned variable-length quantity.
+     * 
+     * @param sink output stream
+     * @param value value to write
+     */
+    private static void writeVarLong(@Nonnull final ByteArrayOutputStream sink, final long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            sink.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        sink.write((int) v);
+    }
+
+    /**
+     * Write a string as a length-prefixed UTF-8 sequence.
+     * 
+     * @param sink output stream
+     * @param value value to write
+     */
+    private static void writeString(@Nonnull final ByteArrayOutputStream sink, @Nonnull final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(sink, bytes.length);
+        sink.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Read an unsigned variable-length quantity.
+     * 
+     * @param buffer input buffer
+     * 
+     * @return the value read
+     * @throws IOException if the encoding is malformed
+     */
+    private static long readVarLong(@Nonnull final ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed integer in IdPSession record");
+    }
+
+    /**
+     * Read a length-prefixed UTF-8 string.
+     * 
+     * @param buffer input buffer
+     * 
+     * @return the value read
+     * @throws IOException if the encoding is malformed
+     */
+    @Nonnull private static String readString(@Nonnull final ByteBuffer buffer) throws IOException {
+        final long length = readVarLong(buffer);
+        if (length > buffer.remaining()) {
+            throw new IOException("Malformed string in IdPSession record");
+        }
+        final String value = new String(buffer.array(), buffer.position(), (int) length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + (int) length);
+        return value;
+    }
+
+    /**
+     * Read a length-prefixed list of strings.
+     * 
+     * @param buffer input buffer
+     * 
+     * @return the values read
+     * @throws IOException if the encoding is malformed
+     */
+    @Nonnull private static List<String> readStrings(@Nonnull final ByteBuffer buffer) throws IOException {
+        final long count = readVarLong(buffer);
+        if (count > buffer.remaining()) {
+            throw new IOException("Malformed list in IdPSession record");
+        }
+        final List<String> values = new ArrayList<>((int) count);
+        for (long i = 0; i < count; ++i) {
+            values.add(readString(buffer));
+        }
+        return values;
+    }
+
+}
@@ -20,11 +20,15 @@ package net.shibboleth.idp.session.impl;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.BiPredicate;
 
 import javax.annotation.Nonnull;
@@ -38,6 +42,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 
 import jakarta.servlet.http.Cookie;
@@ -52,9 +58,13 @@ import net.shibboleth.idp.session.SessionResolver;
 import net.shibboleth.idp.session.criterion.HttpServletRequestCriterion;
 import net.shibboleth.idp.session.criterion.SPSessionCriterion;
 import net.shibboleth.idp.session.criterion.SessionIdCriterion;
+import net.shibboleth.idp.storage.BatchReadStorageService;
+import net.shibboleth.shared.annotation.constraint.NonNegative;
 import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.shared.annotation.constraint.NonnullElements;
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.annotation.constraint.Positive;
+import net.shibboleth.shared.collection.Pair;
 import net.shibboleth.shared.component.AbstractIdentifiableInitializableComponent;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.logic.Constraint;
@@ -96,16 +106,33 @@ import net.shibboleth.shared.servlet.HttpServletSupport;
  * <p>
  * When a SPSession is added, it may expose an optional secondary "key". If set, this is a signal to add a secondary
  * lookup of the SPSession. This is a record containing a list of relevant IdPSession IDs stored under a context/key
- * pair consisting of the Service ID and the exposed secondary key from the object. The expiration of this record is set
- * based on the larger of the current list expiration, if any, and the expiration of the SPSession plus the configured
- * slop value. In other words, the lifetime of the index record is pushed out as far as needed to avoid premature
- * expiration while any of the SPSessions producing it remain around.
+ * pair consisting of the Service ID (with a fixed prefix) and the exposed secondary key from the object. Each
+ * IdPSession ID in the list
+ * carries its own expiration, based on the expiration of the SPSession plus the configured slop value, and the record
+ * expires along with the latest of these. Expired entries are pruned whenever the record is updated, and the number
+ * of entries is capped, discarding those closest to expiring first. Older versions instead maintain a simple list of
+ * IdPSession IDs keyed by the unprefixed Service ID. Unless legacy index support is disabled, that record is also
+ * written, consulted on lookup, and maintained in its own format, so both versions can run side by side. Once all
+ * nodes sharing the storage service have been upgraded, and the older records have expired, legacy support can be
+ * disabled to save the additional storage operations.
  * </p>
  * 
  * <p>
  * The primary purpose of the secondary list is SAML logout, and is an optional feature that can be disabled. In the
  * case of a SAML 2 session, the secondary key is some form of the NameID issued to the service.
  * </p>
+ * 
+ * <p>
+ * An optional node-local cache of {@link IdPSession} objects can be enabled. Cached sessions are revalidated
+ * against the storage record's version on each use, so the record need only be deserialized again if it has
+ * changed. Changes to a session's expiration made by other nodes do not alter the version, so this is best
+ * suited to deployments in which a client's requests are routed to the same node.
+ * </p>
+ * 
+ * <p>
+ * If the {@link StorageService} implements {@link BatchReadStorageService}, the sessions referenced by a secondary
+ * index record are retrieved in a single batched read rather than one at a time.
+ * </p>
  */
 public class StorageBackedSessionManager extends AbstractIdentifiableInitializableComponent implements SessionManager,
         SessionResolver {
@@ -137,6 +164,12 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /** Indicates whether to secondary-index SPSessions. */
     private boolean secondaryServiceIndex;
 
+    /** Maximum number of IdP sessions to track in a secondary index record. */
+    @Positive private int secondaryServiceIndexLimit;
+
+    /** Whether to also maintain and consult secondary index records in the format used by older versions. */
+    private boolean legacySecondaryServiceIndex;
+
     /** Indicates how bound session addresses and client addresses are compared. */
     @Nonnull private BiPredicate<String,String> consistentAddressCondition;
 
@@ -151,10 +184,22 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
 
     /** Size boundary below which "large" data can't be stored. */
     private long storageServiceThreshold;
+
+    /** Whether to write session records in the compact format. */
+    private boolean compactSerialization;
     
     /** Generator for XML ID attribute values. */
     @NonnullAfterInit private IdentifierGenerationStrategy idGenerator;
 
+    /** Maximum number of sessions to cache locally, or zero for none. */
+    @NonNegative private long sessionCacheSize;
+    
+    /** Maximum time to cache a session locally. */
+    @Nonnull private Duration sessionCacheLifetime;
+    
+    /** Local cache of sessions. */
+    @Nullable private Cache<String,StorageBackedIdPSession> sessionCache;
+
     /** Serializer for sessions. */
     @Nonnull private final StorageBackedIdPSessionSerializer serializer;
 
@@ -177,6 +222,9 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                 DefaultConsistentAddressConditionFactory.getDefaultConsistentAddressCondition(true);
         cookieName = DEFAULT_COOKIE_NAME;
         storageServiceThreshold = 1024 * 1024;
+        secondaryServiceIndexLimit = 100;
+        legacySecondaryServiceIndex = true;
+        sessionCacheLifetime = Duration.ofMinutes(5);
     }
 
     /**
@@ -293,6 +341,63 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         secondaryServiceIndex = flag;
     }
 
+    /**
+     * Get the maximum number of IdP sessions to track in a secondary index record.
+     * 
+     * @return maximum number of entries in a secondary index record
+     * 
+     * @since 5.0.0
+     */
+    @Positive public int getSecondaryServiceIndexLimit() {
+        return secondaryServiceIndexLimit;
+    }
+
+    /**
+     * Set the maximum number of IdP sessions to track in a secondary index record.
+     * 
+     * <p>When the limit is exceeded, the entries closest to expiring are discarded, which will prevent
+     * the corresponding sessions from being found during logout.</p>
+     * 
+     * <p>Defaults to 100.</p>
+     * 
+     * @param limit maximum number of entries in a secondary index record
+     * 
+     * @since 5.0.0
+     */
+    public void setSecondaryServiceIndexLimit(@Positive final int limit) {
+        checkSetterPreconditions();
+        secondaryServiceIndexLimit = Constraint.isGreaterThan(0, limit, "Limit must be greater than 0");
+    }
+
+    /**
+     * Get whether to also maintain and consult secondary index records in the format used by older versions.
+     * 
+     * @return true iff legacy secondary index records are supported
+     * 
+     * @since 5.0.0
+     */
+    public boolean isLegacySecondaryServiceIndex() {
+        return legacySecondaryServiceIndex;
+    }
+
+    /**
+     * Set whether to also maintain and consult secondary index records in the format used by older versions.
+     * 
+     * <p>This allows older versions sharing the storage service to find sessions indexed by this one, and
+     * vice versa, at the cost of additional storage operations. It should be disabled once all nodes have been
+     * upgraded and any older records have expired.</p>
+     * 
+     * <p>Defaults to true.</p>
+     * 
+     * @param flag flag to set
+     * 
+     * @since 5.0.0
+     */
+    public void setLegacySecondaryServiceIndex(final boolean flag) {
+        checkSetterPreconditions();
+        legacySecondaryServiceIndex = flag;
+    }
+
     /**
      * Get condition to evaluate bound session and client addresses for consistency.
      * 
@@ -396,6 +501,66 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         storageServiceThreshold = size;
     }
     
+    /**
+     * Get whether session records are written in a compact format rather than JSON.
+     * 
+     * @return whether to write session records in the compact format
+     * 
+     * @since 5.0.0
+     */
+    public boolean isCompactSerialization() {
+        return compactSerialization;
+    }
+
+    /**
+     * Set whether session records are written in a compact format rather than JSON.
+     * 
+     * <p>Records in either format are always readable, so this may be changed without invalidating
+     * existing sessions, but older software will be unable to read records written in the compact
+     * format. This is most useful with storage services that are sensitive to record size or that
+     * are accessed on every request.</p>
+     * 
+     * <p>Defaults to false.</p>
+     * 
+     * @param flag flag to set
+     * 
+     * @since 5.0.0
+     */
+    public void setCompactSerialization(final boolean flag) {
+        checkSetterPreconditions();
+        compactSerialization = flag;
+    }
+
+    /**
+     * Set the maximum number of sessions to cache locally.
+     * 
+     * <p>Defaults to 0, which disables the cache.</p>
+     * 
+     * @param size maximum number of sessions to cache
+     * 
+     * @since 5.0.0
+     */
+    public void setSessionCacheSize(@NonNegative final long size) {
+        checkSetterPreconditions();
+        sessionCacheSize = Constraint.isGreaterThanOrEqual(0, size, "Cache size cannot be negative");
+    }
+
+    /**
+     * Set the maximum time to cache a session locally.
+     * 
+     * <p>Defaults to 5 minutes.</p>
+     * 
+     * @param lifetime maximum time to cache a session
+     * 
+     * @since 5.0.0
+     */
+    public void setSessionCacheLifetime(@Nonnull final Duration lifetime) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(lifetime, "Lifetime cannot be null");
+        Constraint.isFalse(lifetime.isNegative() || lifetime.isZero(), "Lifetime must be positive");
+        sessionCacheLifetime = lifetime;
+    }
+
     /**
      * Set the generator to use when creating XML ID attribute values.
      * 
@@ -479,10 +644,28 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             throw new ComponentInitializationException("Tracking SPSessions requires a spSessionSerializerRegistry");
         }
 
+        if (sessionCacheSize > 0) {
+            sessionCache = CacheBuilder.newBuilder()
+                    .maximumSize(sessionCacheSize)
+                    .expireAfterWrite(sessionCacheLifetime)
+                    .build();
+        }
+
         // This is our private instance, so we initialize it.
         serializer.initialize();
     }
 
+    /**
+     * Store a copy of a session in the local cache, if enabled.
+     * 
+     * @param session the session to cache
+     */
+    void cacheSession(@Nonnull final StorageBackedIdPSession session) {
+        if (sessionCache != null) {
+            sessionCache.put(session.getId(), session.copy());
+        }
+    }
+
     /** {@inheritDoc} */
     @Override @Nonnull public IdPSession createSession(@Nonnull @NotEmpty final String principalName)
             throws SessionException {
@@ -519,6 +702,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             }
         }
 
+        cacheSession(newSession);
         log.debug("Created new session {} for principal {}", sessionId, principalName);
         cookieManager.addCookie(cookieName, sessionId);
         return newSession;
@@ -536,6 +720,10 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             cookieManager.unsetCookie(cookieName);
         }
 
+        if (sessionCache != null) {
+            sessionCache.invalidate(sessionId);
+        }
+
         try {
             storageService.deleteContext(sessionId);
             log.debug("Destroyed session {}", sessionId);
@@ -626,7 +814,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                 throw new SessionException("Exceeded retry attempts while adding to secondary index");
             }
         } else if (secondaryServiceIndex && storageServiceMeetsThreshold()) {
-            String serviceId = spSession.getId();
+            final String serviceId = spSession.getId();
             String serviceKey = spSession.getSPSessionKey();
             if (serviceKey == null) {
                 return;
@@ -637,9 +825,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             final int keySize = storageService.getCapabilities().getKeySize();
 
             // Truncate context and key if needed.
-            if (serviceId.length() > contextSize) {
-                serviceId = serviceId.substring(0, contextSize);
-            }
+            final String indexContext = SecondaryServiceIndex.getContext(serviceId, contextSize);
             if (serviceKey.length() > keySize) {
                 serviceKey = serviceKey.substring(0, keySize);
             }
@@ -647,7 +833,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             StorageRecord<?> sessionList = null;
 
             try {
-                sessionList = storageService.read(serviceId, serviceKey);
+                sessionList = storageService.read(indexContext, serviceKey);
             } catch (final IOException e) {
                 log.error("Exception while querying based service ID {} and key {}", serviceId, serviceKey, e);
                 if (!maskStorageFailure) {
@@ -655,14 +841,20 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                 }
             }
 
+            final long expiration = spSession.getExpirationInstant().plus(sessionSlop).toEpochMilli();
+            
             try {
                 if (sessionList != null) {
-                    if (!sessionList.getValue().contains(idpSession.getId() + ',')) {
+                    final SecondaryServiceIndex index =
+                            SecondaryServiceIndex.parse(sessionList.getValue());
+                    // Non-short-circuiting to ensure each step is applied.
+                    final boolean modified = index.prune(System.currentTimeMillis())
+                            | index.add(idpSession.getId(), expiration)
+                            | index.truncate(secondaryServiceIndexLimit);
+                    if (modified) {
                         // Need to update record.
-                        final String updated = sessionList.getValue() + idpSession.getId() + ',';
-                        if (storageService.updateWithVersion(sessionList.getVersion(), serviceId, serviceKey, updated,
-                                Math.max(sessionList.getExpiration(), 
-                                         spSession.getExpirationInstant().plus(sessionSlop).toEpochMilli())) == null) {
+                        if (storageService.updateWithVersion(sessionList.getVersion(), indexContext, serviceKey,
+                                index.encode(), index.getExpiration()) == null) {
                             log.debug("Secondary index record disappeared, retrying as insert");
                             indexBySPSession(idpSession, spSession, attempts - 1);
                         }
@@ -670,10 +862,13 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                         log.debug("IdP session {} already indexed against service ID {} and key {}", idpSession.getId(),
                                 serviceId, serviceKey);
                     }
-                } else if (!storageService.create(serviceId, serviceKey, idpSession.getId() + ',',
-                        spSession.getExpirationInstant().plus(sessionSlop).toEpochMilli())) {
-                    log.debug("Secondary index record appeared, retrying as update");
-                    indexBySPSession(idpSession, spSession, attempts - 1);
+                } else {
+                    final SecondaryServiceIndex index = SecondaryServiceIndex.create();
+                    index.add(idpSession.getId(), expiration);
+                    if (!storageService.create(indexContext, serviceKey, index.encode(), expiration)) {
+                        log.debug("Secondary index record appeared, retrying as update");
+                        indexBySPSession(idpSession, spSession, attempts - 1);
+                    }
                 }
             } catch (final IOException e) {
                 log.error("Exception maintaining secondary index for service ID {} and key {}",
@@ -684,6 +879,54 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             } catch (final VersionMismatchException e) {
                 log.debug("Secondary index record was updated between read/update, retrying");
                 indexBySPSession(idpSession, spSession, attempts - 1);
+                return;
+            }
+            
+            if (legacySecondaryServiceIndex) {
+                indexLegacySPSession(idpSession.getId(),
+                        serviceId.length() > contextSize ? serviceId.substring(0, contextSize) : serviceId,
+                        serviceKey, expiration, attempts);
+            }
+        }
+    }
+    
+    /**
+     * Add a session to a secondary index record in the legacy format, so that it can be found by older versions
+     * sharing the storage service.
+     * 
+     * @param sessionId ID of the parent session
+     * @param serviceId service ID, truncated if needed
+     * @param serviceKey service key, truncated if needed
+     * @param expiration expiration of the entry
+     * @param attempts number of times to retry operation in the event of a synchronization issue
+     */
+    private void indexLegacySPSession(@Nonnull @NotEmpty final String sessionId,
+            @Nonnull @NotEmpty final String serviceId, @Nonnull @NotEmpty final String serviceKey,
+            final long expiration, final int attempts) {
+        for (int i = 0; i < attempts; ++i) {
+            try {
+                final StorageRecord<?> sessionList = storageService.read(serviceId, serviceKey);
+                if (sessionList == null) {
+                    if (storageService.create(serviceId, serviceKey, sessionId + ',', expiration)) {
+                        return;
+                    }
+                    log.debug("Legacy secondary index record appeared, retrying as update");
+                } else if (sessionList.getValue().contains(sessionId + ',')) {
+                    return;
+                } else {
+                    final Long recordExpiration = sessionList.getExpiration();
+                    if (storageService.updateWithVersion(sessionList.getVersion(), serviceId, serviceKey,
+                            sessionList.getValue() + sessionId + ',',
+                            recordExpiration != null ? Math.max(recordExpiration, expiration) : null) != null) {
+                        return;
+                    }
+                    log.debug("Legacy secondary index record disappeared, retrying as insert");
+                }
+            } catch (final IOException e) {
+                log.warn("Ignoring exception while adding to legacy secondary index", e);
+                return;
+            } catch (final VersionMismatchException e) {
+                log.debug("Legacy secondary index record was updated between read/update, retrying");
             }
         }
     }
@@ -705,7 +948,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                 throw new SessionException("Exceeded retry attempts while removing from secondary index");
             }
         } else if (secondaryServiceIndex && storageServiceMeetsThreshold()) {
-            String serviceId = spSession.getId();
+            final String serviceId = spSession.getId();
             String serviceKey = spSession.getSPSessionKey();
             if (serviceKey == null) {
                 return;
@@ -716,9 +959,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             final int keySize = storageService.getCapabilities().getKeySize();
 
             // Truncate context and key if needed.
-            if (serviceId.length() > contextSize) {
-                serviceId = serviceId.substring(0, contextSize);
-            }
+            final String indexContext = SecondaryServiceIndex.getContext(serviceId, contextSize);
             if (serviceKey.length() > keySize) {
                 serviceKey = serviceKey.substring(0, keySize);
             }
@@ -726,7 +967,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             StorageRecord<?> sessionList = null;
 
             try {
-                sessionList = storageService.read(serviceId, serviceKey);
+                sessionList = storageService.read(indexContext, serviceKey);
             } catch (final IOException e) {
                 log.error("Exception while querying based service ID {} and key {}", serviceId, serviceKey, e);
                 if (!maskStorageFailure) {
@@ -736,17 +977,19 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
 
             try {
                 if (sessionList != null) {
-                    final String recordValue = sessionList.getValue();
-                    if (recordValue.contains(idpSession.getId() + ',')) {
+                    final SecondaryServiceIndex index =
+                            SecondaryServiceIndex.parse(sessionList.getValue());
+                    if (index.contains(idpSession.getId())) {
                         // Need to update or delete record.
-                        final String updated = recordValue.replace(idpSession.getId() + ',', "");
-                        if (updated.length() > 0) {
-                            if (storageService.updateWithVersion(sessionList.getVersion(), serviceId, serviceKey,
-                                    updated, sessionList.getExpiration()) == null) {
+                        index.remove(idpSession.getId());
+                        index.prune(System.currentTimeMillis());
+                        if (!index.isEmpty()) {
+                            if (storageService.updateWithVersion(sessionList.getVersion(), indexContext, serviceKey,
+                                    index.encode(), index.getExpiration()) == null) {
                                 log.debug("Secondary index record disappeared, nothing to do");
                             }
                         } else {
-                            storageService.deleteWithVersion(sessionList.getVersion(), serviceId, serviceKey);
+                            storageService.deleteWithVersion(sessionList.getVersion(), indexContext, serviceKey);
                         }
                     } else {
                         log.debug("IdP session {} not indexed against service ID {} and key {}", idpSession.getId(),
@@ -764,6 +1007,48 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             } catch (final VersionMismatchException e) {
                 log.debug("Secondary index record was updated between read/update/delete, retrying");
                 unindexSPSession(idpSession, spSession, attempts - 1);
+                return;
+            }
+            
+            if (legacySecondaryServiceIndex) {
+                unindexLegacySPSession(idpSession.getId(),
+                        serviceId.length() > contextSize ? serviceId.substring(0, contextSize) : serviceId,
+                        serviceKey, attempts);
+            }
+        }
+    }
+    
+    /**
+     * Remove a session from a secondary index record in the legacy format, which may still be maintained
+     * by older versions sharing the storage service.
+     * 
+     * @param sessionId ID of the parent session
+     * @param serviceId service ID, truncated if needed
+     * @param serviceKey service key, truncated if needed
+     * @param attempts number of times to retry operation in the event of a synchronization issue
+     */
+    private void unindexLegacySPSession(@Nonnull @NotEmpty final String sessionId,
+            @Nonnull @NotEmpty final String serviceId, @Nonnull @NotEmpty final String serviceKey,
+            final int attempts) {
+        for (int i = 0; i < attempts; ++i) {
+            try {
+                final StorageRecord<?> sessionList = storageService.read(serviceId, serviceKey);
+                if (sessionList == null || !sessionList.getValue().contains(sessionId + ',')) {
+                    return;
+                }
+                final String updated = sessionList.getValue().replace(sessionId + ',', "");
+                if (updated.length() > 0) {
+                    storageService.updateWithVersion(sessionList.getVersion(), serviceId, serviceKey, updated,
+                            sessionList.getExpiration());
+                } else {
+                    storageService.deleteWithVersion(sessionList.getVersion(), serviceId, serviceKey);
+                }
+                return;
+            } catch (final IOException e) {
+                log.warn("Ignoring exception while removing from legacy secondary index", e);
+                return;
+            } catch (final VersionMismatchException e) {
+                log.debug("Legacy secondary index record was updated between read/update/delete, retrying");
             }
         }
     }
@@ -785,12 +1070,31 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         log.debug("Performing primary lookup on session ID {}", sessionId);
 
         try {
-            final StorageRecord<StorageBackedIdPSession> sessionRecord =
-                    storageService.read(sessionId, SESSION_PRIMARY_KEY);
+            final StorageBackedIdPSession cached = sessionCache != null ? sessionCache.getIfPresent(sessionId) : null;
+            final StorageRecord<StorageBackedIdPSession> sessionRecord;
+            if (cached != null) {
+                // Only pull back the record if it has changed.
+                final Pair<Long,StorageRecord<StorageBackedIdPSession>> result =
+                        storageService.read(sessionId, SESSION_PRIMARY_KEY, cached.getVersion());
+                if (result.getFirst() != null && result.getSecond() == null) {
+                    log.debug("Cached copy of session ID {} is current", sessionId);
+                    return cached.copy();
+                }
+                sessionRecord = result.getSecond();
+            } else {
+                sessionRecord = storageService.read(sessionId, SESSION_PRIMARY_KEY);
+            }
+            
             if (sessionRecord != null) {
-                return sessionRecord.getValue(serializer, sessionId, SESSION_PRIMARY_KEY);
+                final StorageBackedIdPSession session =
+                        sessionRecord.getValue(serializer, sessionId, SESSION_PRIMARY_KEY);
+                cacheSession(session);
+                return session;
             }
             log.debug("Primary lookup failed for session ID {}", sessionId);
+            if (cached != null) {
+                sessionCache.invalidate(sessionId);
+            }
         } catch (final IOException e) {
             log.error("Exception while querying for session ID {}", sessionId, e);
             if (!maskStorageFailure) {
@@ -801,6 +1105,77 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         return null;
     }
 
+    /**
+     * Performs a lookup and deserializes records based on a collection of session IDs.
+     * 
+     * <p>If the {@link StorageService} supports {@link BatchReadStorageService}, the records are
+     * read in a single operation, otherwise each one is read in turn.</p>
+     * 
+     * @param sessionIds the sessions to lookup
+     * 
+     * @return map of session ID to IdPSession object, in the order supplied, omitting any not found
+     * @throws ResolverException if an error occurs during lookup
+     */
+    @Nonnull @NonnullElements private Map<String,IdPSession> lookupBySessionIds(
+            @Nonnull @NonnullElements final Collection<String> sessionIds) throws ResolverException {
+        
+        final Map<String,IdPSession> sessions = new LinkedHashMap<>(sessionIds.size());
+        
+        if (!(storageService instanceof BatchReadStorageService)) {
+            for (final String sessionId : sessionIds) {
+                final IdPSession session = lookupBySessionId(sessionId);
+                if (session != null) {
+                    sessions.put(sessionId, session);
+                }
+            }
+            return sessions;
+        }
+
+        log.debug("Performing batched primary lookup on {} session ID(s)", sessionIds.size());
+
+        final Map<String,StorageRecord<StorageBackedIdPSession>> sessionRecords;
+        try {
+            sessionRecords = ((BatchReadStorageService) storageService).readAll(sessionIds, SESSION_PRIMARY_KEY);
+        } catch (final IOException e) {
+            log.error("Exception while querying for {} session ID(s)", sessionIds.size(), e);
+            if (!maskStorageFailure) {
+                throw new ResolverException("Exception while querying for sessions", e);
+            }
+            return sessions;
+        }
+        
+        for (final String sessionId : sessionIds) {
+            final StorageRecord<StorageBackedIdPSession> sessionRecord = sessionRecords.get(sessionId);
+            if (sessionRecord == null) {
+                log.debug("Primary lookup failed for session ID {}", sessionId);
+                if (sessionCache != null) {
+                    sessionCache.invalidate(sessionId);
+                }
+                continue;
+            }
+            
+            final StorageBackedIdPSession cached = sessionCache != null ? sessionCache.getIfPresent(sessionId) : null;
+            if (cached != null && cached.getVersion() == sessionRecord.getVersion()) {
+                sessions.put(sessionId, cached.copy());
+                continue;
+            }
+            
+            try {
+                final StorageBackedIdPSession session =
+                        sessionRecord.getValue(serializer, sessionId, SESSION_PRIMARY_KEY);
+                cacheSession(session);
+                sessions.put(sessionId, session);
+            } catch (final IOException e) {
+                log.error("Exception while deserializing session ID {}", sessionId, e);
+                if (!maskStorageFailure) {
+                    throw new ResolverException("Exception while deserializing session", e);
+                }
+            }
+        }
+        
+        return sessions;
+    }
+
     /**
      * Performs a lookup and deserializes records potentially matching a SPSession.
      * 
@@ -820,6 +1195,7 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         log.debug("Performing secondary lookup on service ID {} and key {}", serviceId, serviceKey);
 
         // Truncate context and key if needed.
+        final String indexContext = SecondaryServiceIndex.getContext(serviceId, contextSize);
         if (serviceId.length() > contextSize) {
             serviceId = serviceId.substring(0, contextSize);
         }
@@ -828,9 +1204,13 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         }
 
         StorageRecord<?> sessionList = null;
+        StorageRecord<?> legacySessionList = null;
 
         try {
-            sessionList = storageService.read(serviceId, serviceKey);
+            sessionList = storageService.read(indexContext, serviceKey);
+            if (legacySecondaryServiceIndex) {
+                legacySessionList = storageService.read(serviceId, serviceKey);
+            }
         } catch (final IOException e) {
             log.error("Exception while querying based service ID {} and key {}", serviceId, serviceKey, e);
             if (!maskStorageFailure) {
@@ -838,40 +1218,68 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             }
         }
 
-        if (sessionList == null) {
+        if (sessionList == null && legacySessionList == null) {
             log.debug("Secondary lookup failed on service ID {} and key {}", serviceId, serviceKey);
             return Collections.emptyList();
         }
 
-        final ImmutableList.Builder<IdPSession> builder = ImmutableList.builder();
-
-        final StringBuilder writeBackSessionList = new StringBuilder(sessionList.getValue().length());
+        final long now = System.currentTimeMillis();
+        final SecondaryServiceIndex index =
+                SecondaryServiceIndex.parse(sessionList != null ? sessionList.getValue() : null);
+        final SecondaryServiceIndex legacyIndex = SecondaryServiceIndex.parseLegacy(
+                legacySessionList != null ? legacySessionList.getValue() : null,
+                legacySessionList != null ? legacySessionList.getExpiration() : null,
+                now + sessionTimeout.plus(sessionSlop).toMillis());
+        // Non-short-circuiting to ensure each step is applied.
+        boolean modified = index.prune(now);
+        boolean legacyModified = legacyIndex.prune(now);
+
+        // Preserve the order of the records, oldest first, starting with any written by older versions.
+        final Set<String> sessionIds = new LinkedHashSet<>(legacyIndex.getSessionIds());
+        sessionIds.addAll(index.getSessionIds());
+        final Map<String,IdPSession> sessions = lookupBySessionIds(sessionIds);
+        
+        // Sessions that weren't found are removed from the updated index records.
+        modified |= index.retainAll(sessions.keySet());
+        legacyModified |= legacyIndex.retainAll(sessions.keySet());
 
-        for (final String sessionId : sessionList.getValue().split(",")) {
-            final IdPSession session = lookupBySessionId(sessionId);
-            if (session != null) {
-                // Session was found, so add it to the return set and to the updated index record.
-                builder.add(session);
-                writeBackSessionList.append(sessionId);
-                writeBackSessionList.append(',');
-            }
+        if (sessionList != null) {
+            writeBackSecondaryIndex(sessionList, indexContext, serviceKey, index.isEmpty() ? null : index.encode(),
+                    modified, index.getExpiration());
+        }
+        if (legacySessionList != null) {
+            writeBackSecondaryIndex(legacySessionList, serviceId, serviceKey,
+                    legacyIndex.isEmpty() ? null : legacyIndex.encodeLegacy(), legacyModified,
+                    legacySessionList.getExpiration());
         }
 
+        return ImmutableList.copyOf(sessions.values());
+    }
+    
+    /**
+     * Update or delete a secondary index record after a lookup, ignoring any errors.
+     * 
+     * @param record the record as read
+     * @param context storage context of the record
+     * @param key storage key of the record
+     * @param value updated value, or null to delete the record
+     * @param modified whether the record requires updating
+     * @param expiration updated record expiration
+     */
+    private void writeBackSecondaryIndex(@Nonnull final StorageRecord<?> record,
+            @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nullable final String value, final boolean modified, @Nullable final Long expiration) {
         try {
-            final String writeBackValue = writeBackSessionList.toString();
-            if (writeBackValue.length() == 0) {
-                storageService.deleteWithVersion(sessionList.getVersion(), serviceId, serviceKey);
-            } else if (!writeBackValue.equals(sessionList.getValue())) {
-                storageService.updateWithVersion(sessionList.getVersion(), serviceId, serviceKey, writeBackValue,
-                        sessionList.getExpiration());
+            if (value == null) {
+                storageService.deleteWithVersion(record.getVersion(), context, key);
+            } else if (modified) {
+                storageService.updateWithVersion(record.getVersion(), context, key, value, expiration);
             }
         } catch (final IOException e) {
             log.warn("Ignoring exception while updating secondary index", e);
         } catch (final VersionMismatchException e) {
             log.debug("Ignoring version mismatch while updating secondary index");
         }
-
-        return builder.build();
     }
     
     /**
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.storage.impl.MemoryStorageService;
+
+/**
+ * {@link StorageBackedSessionManager} unit test using a storage service supporting batched reads.
+ */
+public class BatchedStorageBackedSessionManagerTest extends StorageBackedSessionManagerTest {
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected MemoryStorageService createStorageService() {
+        return new CountingMemoryStorageService.Batching();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected int getExpectedSecondaryLookupReads(final int sessionCount) {
+        // One read of each index record (current and legacy format) and one batched read of the sessions.
+        return 3;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected int getExpectedChildRecordReads(final int recordCount) {
+        // Multiple records are read in one batch.
+        return Math.min(recordCount, 1);
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.io.IOException;
+import java.time.Instant;
+
+import org.opensaml.storage.StorageRecord;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.session.AbstractIdPSession;
+import net.shibboleth.idp.session.AbstractIdPSession.AddressFamily;
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.session.criterion.SessionIdCriterion;
+import net.shibboleth.shared.resolver.CriteriaSet;
+import net.shibboleth.shared.resolver.ResolverException;
+import net.shibboleth.shared.servlet.impl.HttpServletRequestResponseContext;
+
+/**
+ * {@link StorageBackedSessionManager} unit test with the local session cache enabled.
+ */
+public class CachingStorageBackedSessionManagerTest extends StorageBackedSessionManagerTest {
+
+    /** {@inheritDoc} */
+    @Override
+    protected void adjustProperties() {
+        super.adjustProperties();
+        sessionManager.setSessionCacheSize(100);
+    }
+
+    @Test
+    public void testCacheRevalidation() throws ResolverException, SessionException, IOException {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        final CriteriaSet criteria = new CriteriaSet(new SessionIdCriterion(session.getId()));
+        
+        final IdPSession one = sessionManager.resolveSingle(criteria);
+        final IdPSession two = sessionManager.resolveSingle(criteria);
+        Assert.assertNotNull(one);
+        Assert.assertNotNull(two);
+        Assert.assertNotSame(one, two);
+        Assert.assertEquals(one.getPrincipalName(), "joe");
+        Assert.assertEquals(((AbstractIdPSession) two).getAddress(AddressFamily.IPV4), "127.0.0.1");
+        
+        // Replace the record behind the cache.
+        final StorageRecord<?> record =
+                storageService.read(session.getId(), StorageBackedSessionManager.SESSION_PRIMARY_KEY);
+        final StorageBackedIdPSession replacement =
+                new StorageBackedIdPSession(sessionManager, session.getId(), "joe", session.getCreationInstant());
+        replacement.doBindToAddress("10.0.0.1");
+        storageService.update(session.getId(), StorageBackedSessionManager.SESSION_PRIMARY_KEY,
+                sessionManager.getStorageSerializer().serialize(replacement), record.getExpiration());
+        
+        final IdPSession three = sessionManager.resolveSingle(criteria);
+        Assert.assertNotNull(three);
+        Assert.assertEquals(((AbstractIdPSession) three).getAddress(AddressFamily.IPV4), "10.0.0.1");
+        
+        // Remove the record behind the cache.
+        storageService.deleteContext(session.getId());
+        Assert.assertNull(sessionManager.resolveSingle(criteria));
+    }
+
+    @Test
+    public void testChildRecordUpdates() throws ResolverException, SessionException {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        final CriteriaSet criteria = new CriteriaSet(new SessionIdCriterion(session.getId()));
+        
+        final Instant now = Instant.now();
+        session.addAuthenticationResult(
+                new AuthenticationResult("AuthenticationFlow/Foo", new UsernamePrincipal("joe")));
+        session.addSPSession(new BasicSPSession("https://sp.example.org", now, now.plusSeconds(1800)));
+        
+        // Load everything into a copy from the cache.
+        final IdPSession one = sessionManager.resolveSingle(criteria);
+        Assert.assertEquals(one.getAuthenticationResult("AuthenticationFlow/Foo").getSubject().getPrincipals(
+                UsernamePrincipal.class).iterator().next().getName(), "joe");
+        Assert.assertEquals(one.getSPSession("https://sp.example.org").getExpirationInstant(),
+                now.plusSeconds(1800));
+        
+        // Re-authenticate with the same flow and replace the SP session, which need not
+        // change the primary record.
+        final IdPSession two = sessionManager.resolveSingle(criteria);
+        Assert.assertNotNull(two.getAuthenticationResult("AuthenticationFlow/Foo"));
+        Assert.assertNotNull(two.addAuthenticationResult(
+                new AuthenticationResult("AuthenticationFlow/Foo", new UsernamePrincipal("joe2"))));
+        Assert.assertNotNull(
+                two.addSPSession(new BasicSPSession("https://sp.example.org", now, now.plusSeconds(3600))));
+        
+        final IdPSession three = sessionManager.resolveSingle(criteria);
+        Assert.assertNotSame(three, one);
+        Assert.assertEquals(three.getAuthenticationResult("AuthenticationFlow/Foo").getSubject().getPrincipals(
+                UsernamePrincipal.class).iterator().next().getName(), "joe2");
+        Assert.assertEquals(three.getSPSession("https://sp.example.org").getExpirationInstant(),
+                now.plusSeconds(3600));
+        
+        // Loaded objects are not shared between copies.
+        Assert.assertNotSame(three.getAuthenticationResult("AuthenticationFlow/Foo"),
+                one.getAuthenticationResult("AuthenticationFlow/Foo"));
+        
+        sessionManager.destroySession(session.getId(), true);
+    }
+
+}
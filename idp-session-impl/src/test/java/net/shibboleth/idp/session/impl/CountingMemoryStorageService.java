@@ -0,0 +1,134 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.impl.MemoryStorageService;
+
+import net.shibboleth.idp.storage.BatchReadStorageService;
+import net.shibboleth.shared.collection.Pair;
+
+/**
+ * In-memory {@link org.opensaml.storage.StorageService} that counts the number of read
+ * operations made against it, to allow tests to check for round trips.
+ */
+public class CountingMemoryStorageService extends MemoryStorageService {
+
+    /** Number of read operations. */
+    @Nonnull private final AtomicInteger reads = new AtomicInteger();
+
+    /**
+     * Get the number of read operations since the last reset.
+     * 
+     * @return read count
+     */
+    public int getReadCount() {
+        return reads.get();
+    }
+
+    /** Reset the counters. */
+    public void resetCounts() {
+        reads.set(0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable public <T> StorageRecord<T> read(@Nonnull final String context, @Nonnull final String key)
+            throws IOException {
+        reads.incrementAndGet();
+        return super.read(context, key);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public <T> Pair<Long,StorageRecord<T>> read(@Nonnull final String context, @Nonnull final String key,
+            final long version) throws IOException {
+        reads.incrementAndGet();
+        return super.read(context, key, version);
+    }
+
+    /**
+     * Increment the read count.
+     */
+    protected void countRead() {
+        reads.incrementAndGet();
+    }
+
+    /**
+     * Read a record without counting it.
+     * 
+     * @param <T> type of object
+     * @param context context
+     * @param key key
+     * 
+     * @return the record, or null
+     * 
+     * @throws IOException if an error occurs
+     */
+    @Nullable protected <T> StorageRecord<T> readUncounted(@Nonnull final String context,
+            @Nonnull final String key) throws IOException {
+        return super.read(context, key);
+    }
+
+    /**
+     * Variant that supports batched reads, counting each batch as a single operation.
+     */
+    public static class Batching extends CountingMemoryStorageService implements BatchReadStorageService {
+
+        /** {@inheritDoc} */
+        @Override
+        @Nonnull public <T> Map<String,StorageRecord<T>> readAll(@Nonnull final Collection<String> contexts,
+                @Nonnull final String key) throws IOException {
+            countRead();
+            final Map<String,StorageRecord<T>> records = new HashMap<>(contexts.size());
+            for (final String context : contexts) {
+                final StorageRecord<T> record = readUncounted(context, key);
+                if (record != null) {
+                    records.put(context, record);
+                }
+            }
+            return Collections.unmodifiableMap(records);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        @Nonnull public <T> Map<String,StorageRecord<T>> readKeys(@Nonnull final String context,
+                @Nonnull final Collection<String> keys) throws IOException {
+            countRead();
+            final Map<String,StorageRecord<T>> records = new HashMap<>(keys.size());
+            for (final String key : keys) {
+                final StorageRecord<T> record = readUncounted(context, key);
+                if (record != null) {
+                    records.put(key, record);
+                }
+            }
+            return Collections.unmodifiableMap(records);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.session.criterion.SPSessionCriterion;
+import net.shibboleth.shared.resolver.CriteriaSet;
+import net.shibboleth.shared.resolver.ResolverException;
+import net.shibboleth.shared.servlet.impl.HttpServletRequestResponseContext;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * {@link StorageBackedSessionManager} unit test with support for legacy secondary index records disabled.
+ */
+public class NoLegacyIndexStorageBackedSessionManagerTest extends StorageBackedSessionManagerTest {
+
+    /** {@inheritDoc} */
+    @Override
+    protected void adjustProperties() {
+        super.adjustProperties();
+        sessionManager.setLegacySecondaryServiceIndex(false);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected int getExpectedSecondaryLookupReads(final int sessionCount) {
+        // One read of the index record and one per session.
+        return 1 + sessionCount;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Test
+    public void testLegacySecondaryIndex() throws ResolverException, SessionException, IOException {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        
+        // An index record in the original format is ignored.
+        final String value = session.getId() + ',';
+        storageService.create("https://sp4.example.org/shibboleth", ExtendedSPSession.SESSION_KEY, value,
+                Instant.now().plusSeconds(3600).toEpochMilli());
+        
+        final CriteriaSet criteria =
+                new CriteriaSet(new SPSessionCriterion("https://sp4.example.org/shibboleth",
+                        ExtendedSPSession.SESSION_KEY));
+        
+        List<IdPSession> sessions = new ArrayList<>();
+        sessionManager.resolve(criteria).forEach(sessions::add);
+        Assert.assertTrue(sessions.isEmpty());
+        
+        // A session indexed by this version is only written in the current format.
+        final IdPSession session2 = sessionManager.createSession("joe2");
+        session2.addSPSession(new ExtendedSPSession("https://sp4.example.org/shibboleth", Instant.now(),
+                Instant.now().plusSeconds(3600)));
+        Assert.assertEquals(storageService.read("https://sp4.example.org/shibboleth",
+                ExtendedSPSession.SESSION_KEY).getValue(), value);
+        
+        sessions = new ArrayList<>();
+        sessionManager.resolve(criteria).forEach(sessions::add);
+        Assert.assertEquals(sessions.size(), 1);
+        Assert.assertEquals(sessions.get(0).getId(), session2.getId());
+
+        sessionManager.destroySession(session2.getId(), true);
+        sessionManager.destroySession(session.getId(), true);
+    }
+
+}
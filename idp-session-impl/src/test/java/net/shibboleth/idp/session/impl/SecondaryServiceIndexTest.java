@@ -0,0 +1,102 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** {@link SecondaryServiceIndex} unit test. */
+public class SecondaryServiceIndexTest {
+
+    @Test public void testLegacy() {
+        final SecondaryServiceIndex index = SecondaryServiceIndex.parseLegacy("foo,bar,,baz,", 60000L, 90000L);
+        Assert.assertTrue(index.isLegacy());
+        Assert.assertEquals(index.getSessionIds(), Set.of("foo", "bar", "baz"));
+        Assert.assertEquals(index.getExpiration(), Long.valueOf(60000L));
+        
+        index.remove("bar");
+        Assert.assertEquals(index.encodeLegacy(), "foo,baz,");
+        
+        // Entries are never left without an expiration.
+        final SecondaryServiceIndex index2 = SecondaryServiceIndex.parseLegacy("foo,", null, 90000L);
+        Assert.assertEquals(index2.getExpiration(), Long.valueOf(90000L));
+        Assert.assertTrue(index2.prune(90000L));
+    }
+
+    @Test public void testContext() {
+        Assert.assertEquals(SecondaryServiceIndex.getContext("https://sp.example.org", 255),
+                SecondaryServiceIndex.CONTEXT_PREFIX + "https://sp.example.org");
+        Assert.assertEquals(SecondaryServiceIndex.getContext("https://sp.example.org", 10), "v2|https:/");
+    }
+
+    @Test public void testRoundTrip() {
+        final SecondaryServiceIndex index = SecondaryServiceIndex.create();
+        Assert.assertTrue(index.isEmpty());
+        Assert.assertNull(index.getExpiration());
+        
+        Assert.assertTrue(index.add("zorkmid", 10000L));
+        Assert.assertTrue(index.add("bugbear", 20500L));
+        Assert.assertFalse(index.add("zorkmid", 5000L));
+        Assert.assertTrue(index.contains("zorkmid"));
+        
+        final String encoded = index.encode();
+        Assert.assertEquals(encoded, "zorkmid:a,bugbear:l");
+        
+        final SecondaryServiceIndex index2 = SecondaryServiceIndex.parse(encoded);
+        Assert.assertEquals(List.copyOf(index2.getSessionIds()), List.of("zorkmid", "bugbear"));
+        // Expirations are rounded up to the second.
+        Assert.assertEquals(index2.getExpiration(), Long.valueOf(21000L));
+        
+        Assert.assertTrue(index2.remove("zorkmid"));
+        Assert.assertFalse(index2.remove("zorkmid"));
+        Assert.assertEquals(index2.getSessionIds(), Set.of("bugbear"));
+    }
+
+    @Test public void testPrune() {
+        final SecondaryServiceIndex index = SecondaryServiceIndex.create();
+        index.add("foo", 1000L);
+        index.add("bar", 2000L);
+        index.add("baz", 3000L);
+        
+        Assert.assertFalse(index.prune(500L));
+        Assert.assertTrue(index.prune(2000L));
+        Assert.assertEquals(index.getSessionIds(), Set.of("baz"));
+        Assert.assertTrue(index.prune(5000L));
+        Assert.assertTrue(index.isEmpty());
+    }
+
+    @Test public void testTruncate() {
+        final SecondaryServiceIndex index = SecondaryServiceIndex.create();
+        index.add("foo", 3000L);
+        index.add("bar", 1000L);
+        index.add("baz", 2000L);
+        index.add("qux", 4000L);
+        
+        Assert.assertFalse(index.truncate(4));
+        Assert.assertTrue(index.truncate(2));
+        Assert.assertEquals(index.getSessionIds(), Set.of("foo", "qux"));
+    }
+
+    @Test public void testMalformed() {
+        final SecondaryServiceIndex index = SecondaryServiceIndex.parse("foo:a,bar,:b,baz:!");
+        Assert.assertEquals(index.getSessionIds(), Set.of("foo"));
+    }
+}
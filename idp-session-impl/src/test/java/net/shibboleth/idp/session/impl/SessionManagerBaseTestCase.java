@@ -47,7 +47,7 @@ public class SessionManagerBaseTestCase extends OpenSAMLInitBaseTestCase {
     
     @BeforeClass public void setUp() throws ComponentInitializationException {
         
-        storageService = new MemoryStorageService();
+        storageService = createStorageService();
         storageService.setId("TestStorageService");
 
         CookieManager cookieManager = new CookieManager();
@@ -70,6 +70,15 @@ public class SessionManagerBaseTestCase extends OpenSAMLInitBaseTestCase {
         sessionManager.initialize();
     }
     
+    /**
+     * Allows override of the storage service implementation.
+     * 
+     * @return the storage service to use
+     */
+    @Nonnull protected MemoryStorageService createStorageService() {
+        return new MemoryStorageService();
+    }
+    
     /**
      * Allows override of component properties before initializing them.
      * 
@@ -22,6 +22,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.time.Instant;
+import java.util.Base64;
+import java.util.Set;
 
 import org.opensaml.storage.impl.MemoryStorageService;
 import org.testng.Assert;
@@ -31,6 +33,7 @@ import org.testng.reporters.Files;
 
 import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.session.AbstractIdPSession;
 import net.shibboleth.idp.session.BasicSPSession;
 import net.shibboleth.idp.session.SPSessionSerializerRegistry;
 import net.shibboleth.shared.component.ComponentInitializationException;
@@ -57,6 +60,12 @@ public class StorageBackedIdPSessionSerializerTest {
     private StorageBackedIdPSessionSerializer serializer;
     
     @BeforeMethod public void setUp() throws ComponentInitializationException {
+        manager = createManager(false);
+        serializer = new StorageBackedIdPSessionSerializer(manager, null);
+        serializer.initialize();
+    }
+
+    private StorageBackedSessionManager createManager(final boolean compact) throws ComponentInitializationException {
         final MemoryStorageService storageService = new MemoryStorageService();
         storageService.setId("TestStorageService");
         storageService.initialize();
@@ -67,17 +76,16 @@ public class StorageBackedIdPSessionSerializerTest {
         cookieManager.setHttpServletResponseSupplier(new ThreadLocalHttpServletResponseSupplier());
         cookieManager.initialize();
         
-        manager = new StorageBackedSessionManager();
-        manager.setStorageService(storageService);
-        manager.setIDGenerator(IdentifierGenerationStrategy.getInstance(ProviderType.SECURE));
-        manager.setCookieManager(cookieManager);
-        manager.setId("Test Session Manager");
-        manager.setTrackSPSessions(true);
-        manager.setSPSessionSerializerRegistry(new SPSessionSerializerRegistry());
-        manager.initialize();
-
-        serializer = new StorageBackedIdPSessionSerializer(manager, null);
-        serializer.initialize();
+        final StorageBackedSessionManager sessionManager = new StorageBackedSessionManager();
+        sessionManager.setStorageService(storageService);
+        sessionManager.setIDGenerator(IdentifierGenerationStrategy.getInstance(ProviderType.SECURE));
+        sessionManager.setCookieManager(cookieManager);
+        sessionManager.setId("Test Session Manager");
+        sessionManager.setTrackSPSessions(true);
+        sessionManager.setCompactSerialization(compact);
+        sessionManager.setSPSessionSerializerRegistry(new SPSessionSerializerRegistry());
+        sessionManager.initialize();
+        return sessionManager;
     }
 
     @Test public void testInvalid() throws Exception {
@@ -161,6 +169,66 @@ public class StorageBackedIdPSessionSerializerTest {
         Assert.assertFalse(session.checkAddress("bugbear"));
     }
     
+    @Test public void testCompact() throws Exception {
+        final Instant exp = Instant.ofEpochMilli(INSTANT).plusSeconds(3600);
+        final StorageBackedSessionManager compactManager = createManager(true);
+        final StorageBackedIdPSessionSerializer compactSerializer =
+                new StorageBackedIdPSessionSerializer(compactManager, null);
+        compactSerializer.initialize();
+
+        final StorageBackedIdPSession session =
+                new StorageBackedIdPSession(compactManager, "test", "foo", Instant.ofEpochMilli(INSTANT));
+        session.doBindToAddress("127.0.0.1");
+        session.doBindToAddress("::1");
+        session.doBindToAddress("zorkmid");
+        session.doAddAuthenticationResult(new AuthenticationResult("a", new UsernamePrincipal("jdoe")));
+        session.doAddAuthenticationResult(new AuthenticationResult("b", new UsernamePrincipal("jdoe")));
+        session.doAddSPSession(new BasicSPSession("bar", Instant.ofEpochMilli(INSTANT), exp));
+        session.doAddSPSession(new BasicSPSession("b\u00e4z", Instant.ofEpochMilli(INSTANT), exp));
+
+        final String s = compactSerializer.serialize(session);
+        Assert.assertTrue(s.startsWith(StorageBackedIdPSessionSerializer.COMPACT_FORMAT_MARKER));
+        Assert.assertTrue(s.length() < serializer.serialize(session).length());
+
+        // Both serializers read either format.
+        for (final StorageBackedIdPSessionSerializer reader : new StorageBackedIdPSessionSerializer[] {
+                serializer, compactSerializer}) {
+            final StorageBackedIdPSession session2 = reader.deserialize(1, "test", KEY, s, exp.toEpochMilli());
+            Assert.assertEquals(session2.getId(), "test");
+            Assert.assertEquals(session2.getPrincipalName(), "foo");
+            Assert.assertEquals(session2.getCreationInstant(), session.getCreationInstant());
+            Assert.assertEquals(session2.getVersion(), 1);
+            Assert.assertEquals(session2.getAddress(AbstractIdPSession.AddressFamily.IPV4), "127.0.0.1");
+            Assert.assertEquals(session2.getAddress(AbstractIdPSession.AddressFamily.IPV6), "::1");
+            Assert.assertEquals(session2.getAddress(AbstractIdPSession.AddressFamily.UNKNOWN), "zorkmid");
+            Assert.assertEquals(session2.getAuthenticationResultMap().keySet(), Set.of("a", "b"));
+            Assert.assertEquals(session2.getSPSessionMap().keySet(), Set.of("bar", "b\u00e4z"));
+        }
+        
+        final StorageBackedIdPSession legacy = compactSerializer.deserialize(1, "test", KEY,
+                fileToString(DATAPATH + "complexIdPSession.jdk8"), exp.toEpochMilli());
+        Assert.assertEquals(legacy.getPrincipalName(), "foo");
+        Assert.assertEquals(legacy.getAuthenticationResultMap().size(), 3);
+    }
+
+    @Test public void testCompactInvalid() throws Exception {
+        for (final String value : new String[] {
+                StorageBackedIdPSessionSerializer.COMPACT_FORMAT_MARKER,
+                StorageBackedIdPSessionSerializer.COMPACT_FORMAT_MARKER + "!!!",
+                StorageBackedIdPSessionSerializer.COMPACT_FORMAT_MARKER
+                    + Base64.getEncoder().encodeToString(new byte[] {2, 0, 1, 1, 'a', 0, 0}),
+                StorageBackedIdPSessionSerializer.COMPACT_FORMAT_MARKER
+                    + Base64.getEncoder().encodeToString(new byte[] {1, 0, 1, 5, 'a'}),
+                }) {
+            try {
+                serializer.deserialize(1, CONTEXT, KEY, value, INSTANT);
+                Assert.fail();
+            } catch (final IOException e) {
+                
+            }
+        }
+    }
+    
     private String fileToString(String pathname) throws URISyntaxException, IOException {
         try (FileInputStream stream = new FileInputStream(
                 new File(StorageBackedIdPSessionSerializerTest.class.getResource(pathname).toURI()))) {
@@ -27,7 +27,9 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
+import javax.annotation.Nonnull;
 import javax.json.JsonObject;
 import javax.json.stream.JsonGenerator;
 import jakarta.servlet.http.Cookie;
@@ -52,6 +54,7 @@ import net.shibboleth.shared.resolver.ResolverException;
 import net.shibboleth.shared.servlet.impl.HttpServletRequestResponseContext;
 
 import org.opensaml.storage.StorageSerializer;
+import org.opensaml.storage.impl.MemoryStorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -101,6 +104,35 @@ public class StorageBackedSessionManagerTest extends SessionManagerBaseTestCase
         super.setUp();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected MemoryStorageService createStorageService() {
+        return new CountingMemoryStorageService();
+    }
+
+    /**
+     * Get the number of storage reads expected to resolve sessions via the secondary index.
+     * 
+     * @param sessionCount number of sessions in the index
+     * 
+     * @return expected number of reads
+     */
+    protected int getExpectedSecondaryLookupReads(final int sessionCount) {
+        // One read of each index record (current and legacy format) and one per session.
+        return 2 + sessionCount;
+    }
+
+    /**
+     * Get the number of storage reads expected to load a number of child records of a session.
+     * 
+     * @param recordCount number of records to load
+     * 
+     * @return expected number of reads
+     */
+    protected int getExpectedChildRecordReads(final int recordCount) {
+        return recordCount;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void adjustProperties() {
@@ -377,7 +409,147 @@ public class StorageBackedSessionManagerTest extends SessionManagerBaseTestCase
         Assert.assertEquals(sessions.size(), 0);
     }
 
-    private static class ExtendedSPSession extends BasicSPSession {
+    @Test
+    public void testSecondaryLookupRoundTrips() throws ResolverException, SessionException {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final Instant now = Instant.now();
+        final SPSession foo = new ExtendedSPSession("https://sp3.example.org/shibboleth", now, now.plusSeconds(3600));
+
+        final List<IdPSession> created = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            final IdPSession session = sessionManager.createSession("joe" + i);
+            Assert.assertNull(session.addSPSession(foo));
+            created.add(session);
+        }
+        
+        final CountingMemoryStorageService counter = (CountingMemoryStorageService) storageService;
+        final CriteriaSet criteria =
+                new CriteriaSet(new SPSessionCriterion("https://sp3.example.org/shibboleth",
+                        ExtendedSPSession.SESSION_KEY));
+        
+        counter.resetCounts();
+        List<IdPSession> sessions = new ArrayList<>();
+        sessionManager.resolve(criteria).forEach(sessions::add);
+        Assert.assertEquals(sessions.size(), 5);
+        Assert.assertEquals(counter.getReadCount(), getExpectedSecondaryLookupReads(5));
+        Assert.assertEquals(sessions.stream().map(IdPSession::getId).collect(Collectors.toSet()),
+                created.stream().map(IdPSession::getId).collect(Collectors.toSet()));
+        
+        // Destroyed sessions should be dropped from the results and the index.
+        sessionManager.destroySession(created.get(1).getId(), true);
+        sessionManager.destroySession(created.get(3).getId(), true);
+        
+        counter.resetCounts();
+        sessions.clear();
+        sessionManager.resolve(criteria).forEach(sessions::add);
+        Assert.assertEquals(sessions.size(), 3);
+        Assert.assertEquals(counter.getReadCount(), getExpectedSecondaryLookupReads(5));
+        
+        counter.resetCounts();
+        sessions.clear();
+        sessionManager.resolve(criteria).forEach(sessions::add);
+        Assert.assertEquals(sessions.size(), 3);
+        Assert.assertEquals(counter.getReadCount(), getExpectedSecondaryLookupReads(3));
+        
+        for (final IdPSession session : sessions) {
+            sessionManager.destroySession(session.getId(), true);
+        }
+    }
+
+    @Test
+    public void testChildRecordRoundTrips() throws ResolverException, SessionException {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        
+        Assert.assertNull(session.addAuthenticationResult(
+                new AuthenticationResult("AuthenticationFlow/Foo", new UsernamePrincipal("joe"))));
+        Assert.assertNull(session.addAuthenticationResult(
+                new AuthenticationResult("AuthenticationFlow/Bar", new UsernamePrincipal("joe"))));
+
+        final Instant now = Instant.now();
+        for (int i = 1; i <= 3; ++i) {
+            Assert.assertNull(session.addSPSession(
+                    new BasicSPSession("https://sp" + i + ".example.org/children", now, now.plusSeconds(3600))));
+        }
+        
+        final CountingMemoryStorageService counter = (CountingMemoryStorageService) storageService;
+        final IdPSession session2 =
+                sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId())));
+        Assert.assertNotNull(session2);
+        
+        counter.resetCounts();
+        Assert.assertEquals(session2.getAuthenticationResults().size(), 2);
+        Assert.assertEquals(counter.getReadCount(), getExpectedChildRecordReads(2));
+        
+        counter.resetCounts();
+        Assert.assertEquals(session2.getSPSessions().size(), 3);
+        Assert.assertEquals(counter.getReadCount(), getExpectedChildRecordReads(3));
+        
+        // Everything should now be loaded.
+        counter.resetCounts();
+        Assert.assertNotNull(session2.getSPSession("https://sp2.example.org/children"));
+        Assert.assertNotNull(session2.getAuthenticationResult("AuthenticationFlow/Foo"));
+        Assert.assertEquals(counter.getReadCount(), 0);
+        
+        sessionManager.destroySession(session.getId(), true);
+    }
+
+    @Test
+    public void testLegacySecondaryIndex() throws ResolverException, SessionException, IOException {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        final IdPSession session2 = sessionManager.createSession("joe2");
+        
+        // Write an index record in the original format, including an obsolete session.
+        storageService.create("https://sp4.example.org/shibboleth", ExtendedSPSession.SESSION_KEY,
+                session.getId() + ",_obsolete," + session2.getId() + ',',
+                Instant.now().plusSeconds(3600).toEpochMilli());
+        
+        final CriteriaSet criteria =
+                new CriteriaSet(new SPSessionCriterion("https://sp4.example.org/shibboleth",
+                        ExtendedSPSession.SESSION_KEY));
+        
+        List<IdPSession> sessions = new ArrayList<>();
+        sessionManager.resolve(criteria).forEach(sessions::add);
+        Assert.assertEquals(sessions.size(), 2);
+        
+        // Record should have been left in the original format without the obsolete session.
+        final String value = storageService.read("https://sp4.example.org/shibboleth",
+                ExtendedSPSession.SESSION_KEY).getValue();
+        Assert.assertEquals(value.split(",").length, 2);
+        Assert.assertTrue(value.endsWith(","));
+        Assert.assertFalse(value.contains("_obsolete"));
+        
+        // A session indexed by this version goes into a separate record, and into the original one for
+        // older versions, and lookup merges both in order.
+        final IdPSession session3 = sessionManager.createSession("joe3");
+        session3.addSPSession(new ExtendedSPSession("https://sp4.example.org/shibboleth", Instant.now(),
+                Instant.now().plusSeconds(3600)));
+        Assert.assertEquals(storageService.read("https://sp4.example.org/shibboleth",
+                ExtendedSPSession.SESSION_KEY).getValue(), value + session3.getId() + ',');
+        final String value2 = storageService.read(SecondaryServiceIndex.CONTEXT_PREFIX
+                + "https://sp4.example.org/shibboleth", ExtendedSPSession.SESSION_KEY).getValue();
+        Assert.assertTrue(value2.startsWith(session3.getId() + ':'));
+        
+        sessions = new ArrayList<>();
+        sessionManager.resolve(criteria).forEach(sessions::add);
+        Assert.assertEquals(sessions.size(), 3);
+        Assert.assertEquals(sessions.get(0).getId(), session.getId());
+        Assert.assertEquals(sessions.get(1).getId(), session2.getId());
+        Assert.assertEquals(sessions.get(2).getId(), session3.getId());
+
+        sessionManager.destroySession(session3.getId(), true);
+        sessionManager.destroySession(session.getId(), true);
+        sessionManager.destroySession(session2.getId(), true);
+    }
+
+    static class ExtendedSPSession extends BasicSPSession {
 
         public static final String SESSION_KEY = "PerSessionNameWouldGoHere";
         
@@ -391,7 +563,7 @@ public class StorageBackedSessionManagerTest extends SessionManagerBaseTestCase
         }
     }
 
-    private static class ExtendedSPSessionSerializer extends BasicSPSessionSerializer {
+    static class ExtendedSPSessionSerializer extends BasicSPSessionSerializer {
 
         public ExtendedSPSessionSerializer(Duration offset) {
             super(offset);